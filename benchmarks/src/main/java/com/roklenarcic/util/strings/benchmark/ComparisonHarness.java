@@ -0,0 +1,175 @@
+package com.roklenarcic.util.strings.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.roklenarcic.util.strings.StringMap;
+import com.roklenarcic.util.strings.StringSet;
+import com.roklenarcic.util.strings.benchmark.ReferenceMatchers.CountingMatcher;
+
+// Compares the ten sets and maps with the reference matchers on deterministic datasets and prints a
+// table of throughput, latency and memory for each dictionary size. Run with
+//
+// java -cp target/benchmarks.jar com.roklenarcic.util.strings.benchmark.ComparisonHarness [name=value ...]
+//
+// Options (defaults in brackets): shape [WORDS], density [SPARSE], sizes [1000,10000,100000],
+// caseSensitive [true], haystackLength [65536], calls [200], seed [42] and referenceLimit [10000], which
+// is the largest dictionary the indexOf and regex matchers are run with, as they get very slow.
+//
+// Memory is the growth of the used heap after building the matcher, measured after forced garbage
+// collections, so it is approximate. Use the same JVM options when comparing runs.
+public final class ComparisonHarness {
+
+    private ComparisonHarness() {
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("shape", "WORDS");
+        options.put("density", "SPARSE");
+        options.put("sizes", "1000,10000,100000");
+        options.put("caseSensitive", "true");
+        options.put("haystackLength", "65536");
+        options.put("calls", "200");
+        options.put("seed", "42");
+        options.put("referenceLimit", "10000");
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0 || !options.containsKey(arg.substring(0, eq))) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", options are " + options.keySet());
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        Dataset.Shape shape = Dataset.Shape.valueOf(options.get("shape"));
+        Dataset.Density density = Dataset.Density.valueOf(options.get("density"));
+        boolean caseSensitive = Boolean.parseBoolean(options.get("caseSensitive"));
+        int haystackLength = Integer.parseInt(options.get("haystackLength"));
+        int calls = Integer.parseInt(options.get("calls"));
+        long seed = Long.parseLong(options.get("seed"));
+        int referenceLimit = Integer.parseInt(options.get("referenceLimit"));
+        System.out.println("JVM: " + System.getProperty("java.vm.name") + " " + System.getProperty("java.version") + ", options: " + options);
+        for (String size : options.get("sizes").split(",")) {
+            int dictionarySize = Integer.parseInt(size.trim());
+            Dataset dataset = Dataset.create(shape, dictionarySize, density, haystackLength, seed);
+            System.out.println();
+            System.out.println("Dictionary of " + dictionarySize + " " + shape + ", " + density + " haystack of " + dataset.getHaystack().length() + " chars");
+            System.out.println(String.format("%-30s %10s %12s %10s %10s %10s", "matcher", "matches", "Mchars/s", "p50 us", "p99 us", "heap MB"));
+            for (Contender contender : contenders(dictionarySize <= referenceLimit)) {
+                System.out.println(run(contender, dataset, caseSensitive, calls));
+            }
+        }
+    }
+
+    private static List<Contender> contenders(boolean withSlowReferences) {
+        List<Contender> contenders = new ArrayList<Contender>();
+        for (final Engine engine : Engine.values()) {
+            contenders.add(new Contender(engine.name()) {
+
+                @Override
+                CountingMatcher build(List<String> keywords, boolean caseSensitive) {
+                    return matcher(engine, keywords, caseSensitive);
+                }
+            });
+        }
+        contenders.add(new Contender("HashMap trie") {
+
+            @Override
+            CountingMatcher build(List<String> keywords, boolean caseSensitive) {
+                return new ReferenceMatchers.HashMapTrie(keywords, caseSensitive);
+            }
+        });
+        if (withSlowReferences) {
+            contenders.add(new Contender("indexOf loop") {
+
+                @Override
+                CountingMatcher build(List<String> keywords, boolean caseSensitive) {
+                    return new ReferenceMatchers.Naive(keywords, caseSensitive);
+                }
+            });
+            contenders.add(new Contender("regex alternation") {
+
+                @Override
+                CountingMatcher build(List<String> keywords, boolean caseSensitive) {
+                    return new ReferenceMatchers.RegexAlternation(keywords, caseSensitive);
+                }
+            });
+        }
+        return contenders;
+    }
+
+    private static CountingMatcher matcher(Engine engine, List<String> keywords, boolean caseSensitive) {
+        final MatchCounter counter = new MatchCounter();
+        if (engine.isMap()) {
+            final StringMap<String> map = engine.buildMap(keywords, caseSensitive);
+            return new CountingMatcher() {
+
+                public int match(String haystack) {
+                    counter.count = 0;
+                    map.match(haystack, counter);
+                    return counter.count;
+                }
+            };
+        } else {
+            final StringSet set = engine.buildSet(keywords, caseSensitive);
+            return new CountingMatcher() {
+
+                public int match(String haystack) {
+                    counter.count = 0;
+                    set.match(haystack, counter);
+                    return counter.count;
+                }
+            };
+        }
+    }
+
+    private static String run(Contender contender, Dataset dataset, boolean caseSensitive, int calls) {
+        long heapBefore = usedHeap();
+        CountingMatcher matcher = contender.build(dataset.getKeywords(), caseSensitive);
+        long heap = usedHeap() - heapBefore;
+        String haystack = dataset.getHaystack();
+        // Warm up for a second, slow matchers get at least 5 calls.
+        long warmupEnd = System.nanoTime() + 1000000000L;
+        int matches = 0;
+        for (int i = 0; i < 5 || (i < calls && System.nanoTime() < warmupEnd); i++) {
+            matches = matcher.match(haystack);
+        }
+        // Measure the given number of calls, but stop slow matchers after 10 seconds.
+        long[] nanos = new long[calls];
+        long total = 0;
+        int measured = 0;
+        while (measured < calls && (measured < 5 || total < 10000000000L)) {
+            long start = System.nanoTime();
+            matches = matcher.match(haystack);
+            nanos[measured] = System.nanoTime() - start;
+            total += nanos[measured++];
+        }
+        nanos = Arrays.copyOf(nanos, measured);
+        Arrays.sort(nanos);
+        double charsPerMicro = (double) haystack.length() * measured / (total / 1000.0);
+        return String.format("%-30s %10d %12.1f %10.1f %10.1f %10.1f", contender.name, matches, charsPerMicro, nanos[measured / 2] / 1000.0,
+                nanos[Math.min(measured - 1, (int) (measured * 0.99))] / 1000.0, Math.max(0, heap) / 1048576.0);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private abstract static class Contender {
+
+        final String name;
+
+        Contender(String name) {
+            this.name = name;
+        }
+
+        abstract CountingMatcher build(List<String> keywords, boolean caseSensitive);
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.roklenarcic.util.strings.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.roklenarcic.util.strings.WorkloadGenerator;
+
+// Deterministic dictionary and haystack for benchmarks. The haystack is a sequence of words separated by
+// spaces, so whole word matchers match it too, and a share of the words are keywords, depending on density.
+public final class Dataset {
+
+    // Share of haystack words that are keywords.
+    public enum Density {
+        SPARSE(0.01), DENSE(0.5);
+
+        private final double keywordRatio;
+
+        private Density(double keywordRatio) {
+            this.keywordRatio = keywordRatio;
+        }
+    }
+
+    // Shape of the dictionary.
+    public enum Shape {
+        // Lower case words of 3 to 10 letters, sparse nodes except near the root.
+        WORDS,
+        // Numbers of 4 to 10 digits, dense nodes with 10 children.
+        NUMBERS,
+        // Words made of a few hundred shared stems and short suffixes, long shared prefixes.
+        PREFIXES,
+        // The WorkloadGenerator presets of the library tests: English letter and word length frequencies with
+        // Zipfian haystack words, CJK names without spaces, hostnames, URLs with long shared prefixes and
+        // log lines with request IDs. Density is their match density.
+        ENGLISH, CJK_NAMES, HOSTNAMES, URLS, LOG_LINES
+    }
+
+    private final String haystack;
+    private final List<String> keywords;
+
+    private Dataset(List<String> keywords, String haystack) {
+        this.keywords = keywords;
+        this.haystack = haystack;
+    }
+
+    // Same arguments give the same dataset. Every fifth haystack word is capitalized, so case insensitive
+    // matchers do some case folding.
+    public static Dataset create(Shape shape, int dictionarySize, Density density, int haystackLength, long seed) {
+        WorkloadGenerator generator = workload(shape, seed);
+        if (generator != null) {
+            String[] keywords = generator.setMatchDensity(density.keywordRatio).dictionary(dictionarySize);
+            return new Dataset(Arrays.asList(keywords), generator.haystack(keywords, haystackLength));
+        }
+        Random r = new Random(seed);
+        String[] stems = new String[Math.max(1, dictionarySize / 50)];
+        for (int i = 0; i < stems.length; i++) {
+            stems[i] = letters(r, 4, 8);
+        }
+        Set<String> keywords = new LinkedHashSet<String>();
+        while (keywords.size() < dictionarySize) {
+            keywords.add(word(shape, r, stems));
+        }
+        List<String> keywordList = new ArrayList<String>(keywords);
+        StringBuilder haystack = new StringBuilder(haystackLength + 16);
+        int words = 0;
+        while (haystack.length() < haystackLength) {
+            String word = r.nextDouble() < density.keywordRatio ? keywordList.get(r.nextInt(keywordList.size())) : word(shape, r, stems);
+            if (words++ % 5 == 0) {
+                word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+            }
+            haystack.append(word).append(' ');
+        }
+        return new Dataset(keywordList, haystack.toString());
+    }
+
+    private static String letters(Random r, int minLength, int maxLength) {
+        char[] word = new char[minLength + r.nextInt(maxLength - minLength + 1)];
+        for (int i = 0; i < word.length; i++) {
+            word[i] = (char) ('a' + r.nextInt(26));
+        }
+        return new String(word);
+    }
+
+    private static WorkloadGenerator workload(Shape shape, long seed) {
+        switch (shape) {
+        case ENGLISH:
+            return WorkloadGenerator.english(seed);
+        case CJK_NAMES:
+            return WorkloadGenerator.cjkNames(seed);
+        case HOSTNAMES:
+            return WorkloadGenerator.hostnames(seed);
+        case URLS:
+            return WorkloadGenerator.urls(seed);
+        case LOG_LINES:
+            return WorkloadGenerator.logLines(seed);
+        default:
+            return null;
+        }
+    }
+
+    private static String word(Shape shape, Random r, String[] stems) {
+        switch (shape) {
+        case NUMBERS:
+            char[] number = new char[4 + r.nextInt(7)];
+            for (int i = 0; i < number.length; i++) {
+                number[i] = (char) ('0' + r.nextInt(10));
+            }
+            return new String(number);
+        case PREFIXES:
+            return stems[r.nextInt(stems.length)] + letters(r, 1, 4);
+        default:
+            return letters(r, 3, 10);
+        }
+    }
+
+    public String getHaystack() {
+        return haystack;
+    }
+
+    public List<String> getKeywords() {
+        return keywords;
+    }
+
+}
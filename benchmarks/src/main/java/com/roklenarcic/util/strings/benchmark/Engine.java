@@ -0,0 +1,138 @@
+package com.roklenarcic.util.strings.benchmark;
+
+import java.util.List;
+
+import com.roklenarcic.util.strings.AhoCorasickMap;
+import com.roklenarcic.util.strings.AhoCorasickSet;
+import com.roklenarcic.util.strings.LongestMatchMap;
+import com.roklenarcic.util.strings.LongestMatchSet;
+import com.roklenarcic.util.strings.NoPrefilter;
+import com.roklenarcic.util.strings.ShortestMatchMap;
+import com.roklenarcic.util.strings.ShortestMatchSet;
+import com.roklenarcic.util.strings.StringMap;
+import com.roklenarcic.util.strings.StringSet;
+import com.roklenarcic.util.strings.WholeWordLongestMatchMap;
+import com.roklenarcic.util.strings.WholeWordLongestMatchSet;
+import com.roklenarcic.util.strings.WholeWordMatchMap;
+import com.roklenarcic.util.strings.WholeWordMatchSet;
+
+// The ten sets and maps of the library. Maps use the keywords as values.
+public enum Engine {
+
+    AHO_CORASICK_SET {
+
+        @Override
+        public Object build(List<String> keywords, boolean caseSensitive) {
+            return new AhoCorasickSet(keywords, caseSensitive);
+        }
+
+        @Override
+        public Object build(List<String> keywords, boolean caseSensitive, boolean prefilter) {
+            return prefilter ? build(keywords, caseSensitive) : NoPrefilter.set(keywords, caseSensitive);
+        }
+    },
+    AHO_CORASICK_MAP {
+
+        @Override
+        public Object build(List<String> keywords, boolean caseSensitive) {
+            return new AhoCorasickMap<String>(keywords, keywords, caseSensitive);
+        }
+
+        @Override
+        public Object build(List<String> keywords, boolean caseSensitive, boolean prefilter) {
+            return prefilter ? build(keywords, caseSensitive) : NoPrefilter.map(keywords, keywords, caseSensitive);
+        }
+    },
+    LONGEST_MATCH_SET {
+
+        @Override
+        public Object build(List<String> keywords, boolean caseSensitive) {
+            return new LongestMatchSet(keywords, caseSensitive);
+        }
+    },
+    LONGEST_MATCH_MAP {
+
+        @Override
+        public Object build(List<String> keywords, boolean caseSensitive) {
+            return new LongestMatchMap<String>(keywords, keywords, caseSensitive);
+        }
+    },
+    SHORTEST_MATCH_SET {
+
+        @Override
+        public Object build(List<String> keywords, boolean caseSensitive) {
+            return new ShortestMatchSet(keywords, caseSensitive);
+        }
+    },
+    SHORTEST_MATCH_MAP {
+
+        @Override
+        public Object build(List<String> keywords, boolean caseSensitive) {
+            return new ShortestMatchMap<String>(keywords, keywords, caseSensitive);
+        }
+    },
+    WHOLE_WORD_MATCH_SET {
+
+        @Override
+        public Object build(List<String> keywords, boolean caseSensitive) {
+            return new WholeWordMatchSet(keywords, caseSensitive, SEPARATORS, WORD_CHARACTER);
+        }
+    },
+    WHOLE_WORD_MATCH_MAP {
+
+        @Override
+        public Object build(List<String> keywords, boolean caseSensitive) {
+            return new WholeWordMatchMap<String>(keywords, keywords, caseSensitive, SEPARATORS, WORD_CHARACTER);
+        }
+    },
+    WHOLE_WORD_LONGEST_MATCH_SET {
+
+        @Override
+        public Object build(List<String> keywords, boolean caseSensitive) {
+            return new WholeWordLongestMatchSet(keywords, caseSensitive, SEPARATORS, WORD_CHARACTER);
+        }
+    },
+    WHOLE_WORD_LONGEST_MATCH_MAP {
+
+        @Override
+        public Object build(List<String> keywords, boolean caseSensitive) {
+            return new WholeWordLongestMatchMap<String>(keywords, keywords, caseSensitive, SEPARATORS, WORD_CHARACTER);
+        }
+    };
+
+    // Whole word matchers also count the separators of hostnames and URLs as word characters, so they accept
+    // those keywords. Other datasets don't use these characters.
+    private static final char[] SEPARATORS = new char[] { '.', '/', ':' };
+    private static final boolean[] WORD_CHARACTER = new boolean[] { true, true, true };
+
+    // Returns a StringSet or a StringMap<String>.
+    public abstract Object build(List<String> keywords, boolean caseSensitive);
+
+    // Without prefilter the automaton skips ahead with the bitmap of the start chars even where the vector
+    // prefilter is available. Only AhoCorasickSet and AhoCorasickMap have it, the others ignore the flag.
+    public Object build(List<String> keywords, boolean caseSensitive, boolean prefilter) {
+        return build(keywords, caseSensitive);
+    }
+
+    public boolean isMap() {
+        return name().endsWith("_MAP");
+    }
+
+    public StringMap<String> buildMap(List<String> keywords, boolean caseSensitive) {
+        return buildMap(keywords, caseSensitive, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    public StringMap<String> buildMap(List<String> keywords, boolean caseSensitive, boolean prefilter) {
+        return (StringMap<String>) build(keywords, caseSensitive, prefilter);
+    }
+
+    public StringSet buildSet(List<String> keywords, boolean caseSensitive) {
+        return buildSet(keywords, caseSensitive, true);
+    }
+
+    public StringSet buildSet(List<String> keywords, boolean caseSensitive, boolean prefilter) {
+        return (StringSet) build(keywords, caseSensitive, prefilter);
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.roklenarcic.util.strings.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Common parameters of the matching benchmarks. Scores are per match call on a haystack of
+// haystackLength chars, so throughput in chars per second is score * haystackLength. Forks add the
+// incubator module of the vector prefilter, so they need JDK 17 or later.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+public abstract class MatchBenchmark {
+
+    @Param({ "true", "false" })
+    public boolean caseSensitive;
+
+    @Param({ "SPARSE", "DENSE" })
+    public Dataset.Density density;
+
+    @Param({ "1000", "10000", "100000" })
+    public int dictionarySize;
+
+    @Param({ "65536" })
+    public int haystackLength;
+
+    // False skips ahead with the bitmap of the start chars instead of the vector prefilter, only
+    // AhoCorasickSet and AhoCorasickMap have the prefilter.
+    @Param({ "true", "false" })
+    public boolean prefilter;
+
+    // The other shapes are run with -p shape=URLS and so on.
+    @Param({ "WORDS", "NUMBERS", "PREFIXES" })
+    public Dataset.Shape shape;
+
+    protected Dataset dataset;
+
+    @Setup
+    public void createDataset() {
+        dataset = Dataset.create(shape, dictionarySize, density, haystackLength, 42);
+        build();
+    }
+
+    // Builds the automaton from the dataset.
+    protected abstract void build();
+
+}
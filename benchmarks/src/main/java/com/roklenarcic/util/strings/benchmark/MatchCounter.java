@@ -0,0 +1,28 @@
+package com.roklenarcic.util.strings.benchmark;
+
+import com.roklenarcic.util.strings.MapMatchListener;
+import com.roklenarcic.util.strings.ReadableMatchListener;
+import com.roklenarcic.util.strings.SetMatchListener;
+
+// Listener for all match paths that counts the matches, so the benchmarks can return the count
+// and the matching can't be optimized away.
+final class MatchCounter implements SetMatchListener, MapMatchListener<String>, ReadableMatchListener<String> {
+
+    int count;
+
+    public boolean match(String value) {
+        count++;
+        return true;
+    }
+
+    public boolean match(String haystack, int startPosition, int endPosition) {
+        count++;
+        return true;
+    }
+
+    public boolean match(String haystack, int startPosition, int endPosition, String value) {
+        count++;
+        return true;
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.roklenarcic.util.strings.benchmark;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+import com.roklenarcic.util.strings.StringMap;
+
+// Matching a Readable haystack with each of the five maps. Creating the reader is part of the
+// measured time, the same as in an application that matches streams.
+public class ReadableMatchBenchmark extends MatchBenchmark {
+
+    @Param({ "AHO_CORASICK_MAP", "LONGEST_MATCH_MAP", "SHORTEST_MATCH_MAP", "WHOLE_WORD_MATCH_MAP", "WHOLE_WORD_LONGEST_MATCH_MAP" })
+    public Engine engine;
+
+    private final MatchCounter counter = new MatchCounter();
+    private StringMap<String> map;
+
+    @Benchmark
+    public int match() throws IOException {
+        counter.count = 0;
+        map.match(new StringReader(dataset.getHaystack()), counter);
+        return counter.count;
+    }
+
+    @Override
+    protected void build() {
+        map = engine.buildMap(dataset.getKeywords(), caseSensitive, prefilter);
+    }
+
+}
@@ -0,0 +1,159 @@
+package com.roklenarcic.util.strings.benchmark;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Straightforward matchers to compare the library against. Each counts the matches in a haystack.
+// Match counts are comparable to AhoCorasickSet (all overlapping matches) except for the regex matcher,
+// which finds leftmost non-overlapping matches.
+public final class ReferenceMatchers {
+
+    private ReferenceMatchers() {
+    }
+
+    public interface CountingMatcher {
+        // Returns the number of matches in the haystack.
+        int match(String haystack);
+    }
+
+    // Aho-Corasick automaton with a java.util.HashMap of children in every node, which is how the
+    // algorithm is usually implemented.
+    public static final class HashMapTrie implements CountingMatcher {
+
+        private final boolean caseSensitive;
+        private final Node root = new Node();
+
+        public HashMapTrie(List<String> keywords, boolean caseSensitive) {
+            this.caseSensitive = caseSensitive;
+            for (String keyword : keywords) {
+                Node node = root;
+                for (int i = 0; i < keyword.length(); i++) {
+                    Character c = fold(keyword.charAt(i));
+                    Node child = node.children.get(c);
+                    if (child == null) {
+                        child = new Node();
+                        node.children.put(c, child);
+                    }
+                    node = child;
+                }
+                node.matches = 1;
+            }
+            // Fail transitions breadth first, outputs include the outputs of the fail transition.
+            Queue<Node> queue = new ArrayDeque<Node>();
+            for (Node child : root.children.values()) {
+                child.fail = root;
+                queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                Node node = queue.remove();
+                for (Map.Entry<Character, Node> e : node.children.entrySet()) {
+                    Node child = e.getValue();
+                    Node fail = node.fail;
+                    while (fail != root && !fail.children.containsKey(e.getKey())) {
+                        fail = fail.fail;
+                    }
+                    Node failChild = fail.children.get(e.getKey());
+                    child.fail = failChild == null || failChild == child ? root : failChild;
+                    child.matches += child.fail.matches;
+                    queue.add(child);
+                }
+            }
+        }
+
+        public int match(String haystack) {
+            int count = 0;
+            Node node = root;
+            for (int i = 0; i < haystack.length(); i++) {
+                Character c = fold(haystack.charAt(i));
+                Node next = node.children.get(c);
+                while (next == null && node != root) {
+                    node = node.fail;
+                    next = node.children.get(c);
+                }
+                node = next == null ? root : next;
+                count += node.matches;
+            }
+            return count;
+        }
+
+        private char fold(char c) {
+            return caseSensitive ? c : Character.toLowerCase(c);
+        }
+
+        private static final class Node {
+            final Map<Character, Node> children = new HashMap<Character, Node>();
+            Node fail;
+            int matches;
+        }
+    }
+
+    // Loop over the keywords with String.indexOf.
+    public static final class Naive implements CountingMatcher {
+
+        private final boolean caseSensitive;
+        private final String[] keywords;
+
+        public Naive(List<String> keywords, boolean caseSensitive) {
+            this.caseSensitive = caseSensitive;
+            this.keywords = new String[keywords.size()];
+            for (int i = 0; i < this.keywords.length; i++) {
+                this.keywords[i] = caseSensitive ? keywords.get(i) : keywords.get(i).toLowerCase();
+            }
+        }
+
+        public int match(String haystack) {
+            String folded = caseSensitive ? haystack : haystack.toLowerCase();
+            int count = 0;
+            for (String keyword : keywords) {
+                int idx = folded.indexOf(keyword);
+                while (idx != -1) {
+                    count++;
+                    idx = folded.indexOf(keyword, idx + 1);
+                }
+            }
+            return count;
+        }
+    }
+
+    // java.util.regex alternation of the quoted keywords, longest keywords first.
+    public static final class RegexAlternation implements CountingMatcher {
+
+        private final Pattern pattern;
+
+        public RegexAlternation(List<String> keywords, boolean caseSensitive) {
+            List<String> sorted = new ArrayList<String>(keywords);
+            Collections.sort(sorted, new Comparator<String>() {
+
+                public int compare(String o1, String o2) {
+                    return o2.length() - o1.length();
+                }
+            });
+            StringBuilder regex = new StringBuilder();
+            for (String keyword : sorted) {
+                if (regex.length() > 0) {
+                    regex.append('|');
+                }
+                regex.append(Pattern.quote(keyword));
+            }
+            pattern = Pattern.compile(regex.toString(), caseSensitive ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        }
+
+        public int match(String haystack) {
+            int count = 0;
+            Matcher matcher = pattern.matcher(haystack);
+            while (matcher.find()) {
+                count++;
+            }
+            return count;
+        }
+    }
+
+}
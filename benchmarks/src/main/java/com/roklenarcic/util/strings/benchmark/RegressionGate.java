@@ -0,0 +1,192 @@
+package com.roklenarcic.util.strings.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+// Runs the benchmarks in a short configuration and compares throughput and allocation per call with a
+// baseline file. Exits with status 1 when a benchmark is slower or allocates more than the tolerance allows,
+// so the perf-gate Maven profile fails the build. Run with
+//
+// java -cp target/benchmarks.jar com.roklenarcic.util.strings.benchmark.RegressionGate [name=value ...]
+//
+// Options (defaults in brackets): baseline [perf-baseline.properties], results [perf-gate.json], which is
+// the JMH JSON result file, throughputTolerance [0.1], which is the allowed relative drop of throughput,
+// allocationTolerance [0.1] and allocationSlack [16], which are the allowed relative and absolute growth
+// of bytes allocated per call, failOnMissing [true], which fails the gate for benchmarks without a baseline
+// entry, and update [false], which writes the results as the new baseline instead of comparing.
+//
+// Without failOnMissing, benchmarks without a baseline entry are reported as NEW, but don't fail the gate.
+// Baselines only make sense on the machine and JVM they were recorded on, so record them on the release machine.
+public final class RegressionGate {
+
+    private static final String ALLOCATION = "allocation";
+    private static final String THROUGHPUT = "throughput";
+
+    private RegressionGate() {
+    }
+
+    public static void main(String[] args) throws IOException, RunnerException {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("baseline", "perf-baseline.properties");
+        options.put("results", "perf-gate.json");
+        options.put("throughputTolerance", "0.1");
+        options.put("allocationTolerance", "0.1");
+        options.put("allocationSlack", "16");
+        options.put("failOnMissing", "true");
+        options.put("update", "false");
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0 || !options.containsKey(arg.substring(0, eq))) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", options are " + options.keySet());
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        File baselineFile = new File(options.get("baseline"));
+        Map<String, Double> results = run(options.get("results"));
+        if (Boolean.parseBoolean(options.get("update"))) {
+            writeBaseline(baselineFile, results);
+            System.out.println("Wrote " + results.size() + " baseline entries to " + baselineFile);
+            return;
+        }
+        Map<String, Double> baseline = readBaseline(baselineFile);
+        int regressions = compare(baseline, results, Double.parseDouble(options.get("throughputTolerance")),
+                Double.parseDouble(options.get("allocationTolerance")), Double.parseDouble(options.get("allocationSlack")),
+                Boolean.parseBoolean(options.get("failOnMissing")));
+        if (regressions > 0) {
+            System.out.println(regressions + " regressions or missing baselines against " + baselineFile);
+            System.exit(1);
+        }
+        System.out.println("No regressions against " + baselineFile);
+    }
+
+    // Returns the number of regressions, which include the benchmarks without a baseline if failOnMissing is set.
+    private static int compare(Map<String, Double> baseline, Map<String, Double> results, double throughputTolerance, double allocationTolerance,
+            double allocationSlack, boolean failOnMissing) {
+        int regressions = 0;
+        System.out.println(String.format("%-100s %14s %14s %8s", "benchmark", "baseline", "current", "change"));
+        for (Map.Entry<String, Double> result : results.entrySet()) {
+            String key = result.getKey();
+            double current = result.getValue();
+            Double expected = baseline.get(key);
+            String status;
+            if (expected == null && failOnMissing) {
+                status = "MISSING";
+                regressions++;
+            } else if (expected == null) {
+                status = "NEW";
+            } else if (key.endsWith(THROUGHPUT) ? current < expected * (1 - throughputTolerance) : current > expected * (1 + allocationTolerance)
+                    + allocationSlack) {
+                status = "REGRESSION";
+                regressions++;
+            } else {
+                status = "OK";
+            }
+            String change = expected == null || expected == 0 ? "" : String.format("%+.1f%%", (current / expected - 1) * 100);
+            System.out.println(String.format("%-100s %14.2f %14.2f %8s %s", key, expected == null ? Double.NaN : expected, current, change, status));
+        }
+        return regressions;
+    }
+
+    // Key of a result: benchmark class and method followed by the parameters, for example
+    // StringMatchBenchmark.match.caseSensitive-true.density-SPARSE. ... .engine-AHO_CORASICK_SET.throughput
+    private static String key(RunResult result, String metric) {
+        String benchmark = result.getParams().getBenchmark();
+        StringBuilder key = new StringBuilder(benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1));
+        for (String param : new TreeSet<String>(result.getParams().getParamsKeys())) {
+            key.append('.').append(param).append('-').append(result.getParams().getParam(param));
+        }
+        return key.append('.').append(metric).toString();
+    }
+
+    private static Map<String, Double> readBaseline(File file) throws IOException {
+        Map<String, Double> baseline = new HashMap<String, Double>();
+        if (!file.exists()) {
+            System.out.println("No baseline at " + file + ", run with update=true to record one.");
+            return baseline;
+        }
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        for (String key : properties.stringPropertyNames()) {
+            baseline.put(key, Double.valueOf(properties.getProperty(key)));
+        }
+        return baseline;
+    }
+
+    // Fork arguments that replace the ones of MatchBenchmark, the gate also runs on JDKs without the module
+    // of the vector prefilter, where both prefilter settings skip ahead with the bitmap.
+    private static String[] forkArgs() {
+        String version = System.getProperty("java.specification.version");
+        if (version.startsWith("1.") || Integer.parseInt(version) < 17) {
+            return new String[0];
+        }
+        return new String[] { "--add-modules", "jdk.incubator.vector" };
+    }
+
+    // Runs the gate configuration: one mid-sized dictionary of words, sparse matches, both case modes, with
+    // and without the prefilter, all engines on Strings and the maps on Readables. Returns throughput and
+    // bytes allocated per call by key.
+    private static Map<String, Double> run(String resultFile) throws RunnerException {
+        Collection<RunResult> runResults = new Runner(new OptionsBuilder().include(StringMatchBenchmark.class.getName() + ".match")
+                .include(ReadableMatchBenchmark.class.getName() + ".match").param("dictionarySize", "10000").param("density", "SPARSE")
+                .param("shape", "WORDS").param("haystackLength", "65536").warmupIterations(3).warmupTime(TimeValue.seconds(1))
+                .measurementIterations(5).measurementTime(TimeValue.seconds(1)).forks(1).jvmArgsAppend(forkArgs()).addProfiler(GCProfiler.class)
+                .result(resultFile).resultFormat(ResultFormatType.JSON).shouldFailOnError(true).build()).run();
+        Map<String, Double> results = new TreeMap<String, Double>();
+        for (RunResult runResult : runResults) {
+            results.put(key(runResult, THROUGHPUT), runResult.getPrimaryResult().getScore());
+            for (Map.Entry<String, Result> secondary : runResult.getSecondaryResults().entrySet()) {
+                // Older JMH versions prefix the label with a middle dot.
+                if (secondary.getKey().endsWith("gc.alloc.rate.norm")) {
+                    results.put(key(runResult, ALLOCATION), secondary.getValue().getScore());
+                }
+            }
+            if (!results.containsKey(key(runResult, ALLOCATION))) {
+                throw new IllegalStateException("No allocation result for " + key(runResult, ALLOCATION) + ", is the GC profiler supported?");
+            }
+        }
+        return results;
+    }
+
+    // Writes the baseline sorted by key, so changes are easy to review.
+    private static void writeBaseline(File file, Map<String, Double> results) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "ISO-8859-1");
+        try {
+            out.write("# Baseline of the perf-gate profile: calls per second (throughput) and bytes allocated per call\n");
+            out.write("# (allocation). Recorded with " + System.getProperty("java.vm.name") + " " + System.getProperty("java.version") + " on "
+                    + System.getProperty("os.name") + " " + System.getProperty("os.arch") + ".\n");
+            out.write("# Record again with mvn verify -Pperf-gate -Dperf.update=true\n");
+            for (Map.Entry<String, Double> result : results.entrySet()) {
+                out.write(result.getKey() + "=" + String.format(Locale.ROOT, "%.2f", result.getValue()) + "\n");
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+}
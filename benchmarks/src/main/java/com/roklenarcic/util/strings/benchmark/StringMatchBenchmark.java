@@ -0,0 +1,40 @@
+package com.roklenarcic.util.strings.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+import com.roklenarcic.util.strings.StringMap;
+import com.roklenarcic.util.strings.StringSet;
+
+// Matching a String haystack with each of the ten sets and maps.
+public class StringMatchBenchmark extends MatchBenchmark {
+
+    // All engines
+    @Param
+    public Engine engine;
+
+    private final MatchCounter counter = new MatchCounter();
+    private StringMap<String> map;
+    private StringSet set;
+
+    @Benchmark
+    public int match() {
+        counter.count = 0;
+        if (set != null) {
+            set.match(dataset.getHaystack(), counter);
+        } else {
+            map.match(dataset.getHaystack(), counter);
+        }
+        return counter.count;
+    }
+
+    @Override
+    protected void build() {
+        if (engine.isMap()) {
+            map = engine.buildMap(dataset.getKeywords(), caseSensitive, prefilter);
+        } else {
+            set = engine.buildSet(dataset.getKeywords(), caseSensitive, prefilter);
+        }
+    }
+
+}
@@ -2,9 +2,21 @@ package com.roklenarcic.util.strings;
 
 import java.io.IOException;
 import java.nio.CharBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+import com.roklenarcic.util.strings.threshold.BudgetThresholder;
+import com.roklenarcic.util.strings.threshold.NodeProfile;
+import com.roklenarcic.util.strings.threshold.ProfileGuidedThresholder;
 import com.roklenarcic.util.strings.threshold.RangeNodeThreshold;
 import com.roklenarcic.util.strings.threshold.Thresholder;
 
@@ -13,20 +25,95 @@ import com.roklenarcic.util.strings.threshold.Thresholder;
 // It is highly optimized for this particular use.
 public class AhoCorasickMap<T> implements StringMap<T> {
 
+    // Placeholder for the transitions of case variants while the automaton is built.
+    @SuppressWarnings("rawtypes")
+    private static final TrieNode CASE_VARIANT = new HashmapNode(false);
+    // Most chars that may start a keyword for the match loops to skip ahead on the root, a quarter of
+    // printable ASCII. With more start chars most text leaves the root anyway.
+    private static final int SKIP_AHEAD_START_CHARS = 24;
+
+    // Options of the package private constructor to match with the trie even if the dictionary is small,
+    // and to skip ahead on the root without the vector prefilter.
+    static final int NO_BIT_PARALLEL = 1;
+    static final int NO_PREFILTER = 2;
+
+    private CaseFolding caseFolding = CaseFolding.NONE;
     private boolean caseSensitive = true;
     private int charBufferSize = 0;
     private TrieNode<T> root;
+    // Bit-parallel matcher used instead of the trie for small dictionaries, null for the others.
+    private ShiftOrMatcher shiftOr;
+    private int options;
+    // Bitmap of the chars with a transition from the root, or null if too many chars start a keyword.
+    private long[] startChars;
+    // Vector prefilter for skipping ahead, null if it isn't available.
+    private Prefilter prefilter;
 
     public AhoCorasickMap(final Iterable<String> keywords, final Iterable<? extends T> values, boolean caseSensitive) {
         this(keywords, values, caseSensitive, new RangeNodeThreshold());
     }
 
     public AhoCorasickMap(final Iterable<String> keywords, final Iterable<? extends T> values, boolean caseSensitive, final Thresholder thresholdStrategy) {
+        this(keywords, values, caseSensitive, thresholdStrategy, null);
+    }
+
+    // Builds the automaton in parallel on the given pool or in the calling thread if pool is null.
+    // Keywords are read from the iterables in the calling thread. The thresholder is called from
+    // multiple threads so it must be thread-safe.
+    public AhoCorasickMap(final Iterable<String> keywords, final Iterable<? extends T> values, boolean caseSensitive, final Thresholder thresholdStrategy,
+            final ForkJoinPool pool) {
+        this(keywords, values, caseSensitive, thresholdStrategy, pool, null);
+    }
+
+    // Reports construction progress to the listener, which may also cancel the construction.
+    // Pool may be null for construction in the calling thread.
+    public AhoCorasickMap(final Iterable<String> keywords, final Iterable<? extends T> values, boolean caseSensitive, final Thresholder thresholdStrategy,
+            final ForkJoinPool pool, final BuildListener listener) {
+        this(keywords, values, CaseFolding.of(caseSensitive), thresholdStrategy, pool, listener);
+    }
+
+    // Folds the chars of keywords and haystacks with the given case folding, CaseFolding.NONE is case sensitive.
+    public AhoCorasickMap(final Iterable<String> keywords, final Iterable<? extends T> values, CaseFolding caseFolding) {
+        this(keywords, values, caseFolding, new RangeNodeThreshold(), null, null);
+    }
+
+    // Case folding with all the other options, pool and listener may be null.
+    public AhoCorasickMap(final Iterable<String> keywords, final Iterable<? extends T> values, CaseFolding caseFolding, final Thresholder thresholdStrategy,
+            final ForkJoinPool pool, final BuildListener listener) {
+        this(keywords, values, caseFolding, thresholdStrategy, pool, listener, 0);
+    }
+
+    // Package private for tests, which turn off the matchers the options name.
+    AhoCorasickMap(final Iterable<String> keywords, final Iterable<? extends T> values, CaseFolding caseFolding, final Thresholder thresholdStrategy,
+            final ForkJoinPool pool, final BuildListener listener, int options) {
+        this.options = options;
+        this.caseFolding = caseFolding;
+        this.caseSensitive = caseFolding.isCaseSensitive();
+        if (pool != null) {
+            initParallel(keywords, values, thresholdStrategy, pool, new BuildMonitor(getClass(), listener));
+            initStartChars();
+            return;
+        }
         Iterator<String> keywordsIter = keywords.iterator();
         Iterator<? extends T> valuesIter = values.iterator();
-        this.caseSensitive = caseSensitive;
         // Create the root node
         root = new HashmapNode<T>(true);
+        final BuildMonitor monitor = new BuildMonitor(getClass(), listener);
+        monitor.startPhase(BuildListener.Phase.INSERTION);
+        // Build the trie bottom up while the keywords come in sorted order.
+        SortedTrieBuilder<HashmapNode<T>> sortedBuilder = new SortedTrieBuilder<HashmapNode<T>>(caseFolding, false) {
+
+            @SuppressWarnings("unchecked")
+            @Override
+            protected HashmapNode<T> createNode(int level, char[] keys, Object[] children, int size, int matchLength, Object value) {
+                HashmapNode<T> node = new HashmapNode<T>(level == 0);
+                node.setChildren(keys, children, size);
+                node.matchLength = matchLength;
+                node.value = (T) value;
+                return node;
+            }
+        };
+        final ShiftOrMatcher.Builder shiftOrBuilder = new ShiftOrMatcher.Builder(caseFolding);
         // Add all keywords
         int longestKeyword = 0;
         while (keywordsIter.hasNext() && valuesIter.hasNext()) {
@@ -37,12 +124,23 @@ public class AhoCorasickMap<T> implements StringMap<T> {
                 if (keyword.length() > longestKeyword) {
                     longestKeyword = keyword.length();
                 }
+                monitor.step();
+                shiftOrBuilder.add(keyword, value);
+                // Once a keyword comes out of order, finish the nodes built so far
+                // and add the rest of the keywords one by one.
+                if (sortedBuilder != null) {
+                    if (sortedBuilder.add(keyword, value)) {
+                        continue;
+                    }
+                    root = sortedBuilder.finish();
+                    sortedBuilder = null;
+                }
                 // Start with the current node and traverse the tree
                 // character by character. Add nodes as needed to
                 // fill out the tree.
                 HashmapNode<T> currentNode = (HashmapNode<T>) root;
                 for (int idx = 0; idx < keyword.length(); idx++) {
-                    currentNode = currentNode.getOrAddChild(caseSensitive ? keyword.charAt(idx) : Character.toLowerCase(keyword.charAt(idx)));
+                    currentNode = currentNode.getOrAddChild(caseFolding.fold(keyword.charAt(idx)));
                 }
                 // Last node will contains the keyword as a match.
                 // Suffix matches will be added later.
@@ -50,6 +148,10 @@ public class AhoCorasickMap<T> implements StringMap<T> {
                 currentNode.value = value;
             }
         }
+        if (sortedBuilder != null) {
+            root = sortedBuilder.finish();
+        }
+        monitor.endPhase();
         charBufferSize = longestKeyword > 2048 ? longestKeyword * 2 : 4096;
         // Go through nodes breadth first, swap any hashmap nodes,
         // whose size is close to the size of range of keys with
@@ -61,7 +163,19 @@ public class AhoCorasickMap<T> implements StringMap<T> {
         // for all 2 letter words.
         //
         final Queue<TrieNode<T>> queue = new Queue<TrieNode<T>>();
+        if (caseFolding.hasCaseTransitions()) {
+            addCaseVariants();
+        }
+        monitor.startPhase(BuildListener.Phase.FAIL_TRANSITIONS);
+        if (thresholdStrategy instanceof BudgetThresholder) {
+            planBudget((BudgetThresholder) thresholdStrategy);
+        }
+        // Visits of the nodes if the thresholder has a profile.
+        final Map<TrieNode<T>, Long> nodeVisits = thresholdStrategy instanceof ProfileGuidedThresholder ? resolveProfile(((ProfileGuidedThresholder) thresholdStrategy)
+                .getProfile()) : null;
+        monitor.startOptimization();
         root = root.optimizeNode(0, thresholdStrategy);
+        monitor.endOptimization();
         queue.push(root);
         queue.push(null);
         // Need to use array to get mutateable state for anonymous class
@@ -70,71 +184,8 @@ public class AhoCorasickMap<T> implements StringMap<T> {
         EntryVisitor<T> failTransAndOutputsVisitor = new EntryVisitor<T>() {
 
             public void visit(TrieNode<T> parent, char key, TrieNode<T> value) {
-                // First optimize node
-                value = value.optimizeNode(level[0], thresholdStrategy);
-                parent.updateTransition(key, value);
-
-                // Get fail transiton of the parent.
-                TrieNode<T> parentFail = parent.getFailTransition();
-                // Since root node has null fail transition, first level nodes have null parentFail.
-                if (parentFail == null) {
-                    // First level nodes have one possible fail transition, which is
-                    // root because the only possible suffix to a one character
-                    // string is an empty string
-                    value.failTransition = parent;
-                } else {
-                    // Dig up the tree until you find a fail transition.
-                    do {
-                        // Suffix of a parent + transition character from parent to this
-                        // node is the suffix of this node.
-
-                        // parent ---char---> value
-                        // parentFail ----char----> valueFail
-                        // e.g. "ab" -> c -> "abc"
-                        // "b" -> c -> "bc"
-                        final TrieNode<T> matchContinuation = parentFail.getTransition(key);
-                        if (matchContinuation != null) {
-                            value.failTransition = matchContinuation;
-                        } else {
-                            // If parentFail didn't have key mapping
-                            // take parentFail's failTransition and try again
-                            // The last fail transition is the root node, which
-                            // always has a key mapping.
-                            parentFail = parentFail.getFailTransition();
-                        }
-                    } while (value.failTransition == null);
-                    // Now that we have a fail transition, this node matches all
-                    // the matches of it's failTransition node in addition to any
-                    // match it already has.
-                    // e.g for keywords "abc", "bc", "c", "b", the "abc" node matches
-                    // "abc" and also its failure transtion's matches ("bc", "c")
-                    // "ab" has no match of its own, but it matches failure transition's
-                    // match "b".
-
-                    // Fail transitions are basically a linked list, because of the recursive fashion in which
-                    // they are defined. But only some of them have matches on them. We want to skip those
-                    // that don't, that is why we have suffix match references, which form a similar linked
-                    // list like fail transitions but they skip over those without matches. Since the suffix
-                    // matches for shorter suffixes have been sorted out, it's only a matter of linking to the
-                    // first fail transition with a match. But there is another thing we want. We want to
-                    // avoid the case where a node is without a match but it has suffix matches, as that would
-                    // introduce another if. That is why in case of nodes without matches we store the suffix
-                    // match directly on the node and instead link the next suffix match as this node's suffix
-                    // match.
-                    TrieNode<T> fail = value.failTransition;
-                    while (fail != root && fail.matchLength == 0) {
-                        fail = fail.failTransition;
-                    }
-                    if (fail.matchLength > 0) {
-                        if (value.matchLength == 0) {
-                            value.matchLength = fail.matchLength;
-                            value.suffixMatch = fail.suffixMatch;
-                            value.value = fail.value;
-                        } else {
-                            value.suffixMatch = fail;
-                        }
-                    }
-                }
+                monitor.step();
+                value = addFailTransitionAndOutputs(root, parent, key, value, level[0], thresholderFor(value, thresholdStrategy, nodeVisits), monitor);
                 // Queue the non-leaf node.
                 if (!value.isEmpty()) {
                     queue.push(value);
@@ -154,6 +205,8 @@ public class AhoCorasickMap<T> implements StringMap<T> {
             }
         }
 
+        monitor.endPhase();
+
         // Range nodes represent a range of transitions without all the transitions in the range being
         // there. In case of hitting on an empty slot the logic in match loop runs down the fail transition
         // chain to find a node with a transition for that char. Instead of wasting space on empty slots
@@ -169,45 +222,38 @@ public class AhoCorasickMap<T> implements StringMap<T> {
             }
 
         };
+        monitor.startPhase(BuildListener.Phase.RANGE_NODE_GAPS);
         root.mapEntries(enqueueNodesVisitor);
         while (!queue.isEmpty()) {
             TrieNode<T> node = queue.pop();
             if (node == null) {
                 node = queue.pop();
+                monitor.step();
                 if (node instanceof RangeNode) {
-                    // Range nodes have gaps (null values) in their array. We can put this wasted
-                    // memory to work by filling these gaps with the correct next node for that character
-                    // which we can figure out by following failure transitions.
-                    RangeNode<T> rangeNode = (RangeNode<T>) node;
-                    for (int i = 0; i < rangeNode.size; i++) {
-                        if (rangeNode.children[i] == null) {
-                            char charOfMissingTransition = (char) (rangeNode.baseChar + i);
-                            // Walk up fail transition until you run out of them (and do nothing)
-                            // or one of them has a transition for this char. Put that node
-                            // into the empty slot on the range node.
-                            TrieNode<T> n = rangeNode.failTransition;
-                            while (n != null) {
-                                TrieNode<T> nextNode = n.getTransition(charOfMissingTransition);
-                                if (nextNode == null) {
-                                    n = n.failTransition;
-                                } else {
-                                    rangeNode.children[i] = nextNode;
-                                    break;
-                                }
-                            }
-                        }
-                    }
+                    fillGaps((RangeNode<T>) node);
                 }
             } else {
                 queue.push(null);
                 node.mapEntries(enqueueNodesVisitor);
             }
         }
+        monitor.endPhase();
+        if (caseFolding.hasCaseTransitions()) {
+            resolveCaseVariants();
+        }
+        shiftOr = (options & NO_BIT_PARALLEL) == 0 ? shiftOrBuilder.build() : null;
+        initStartChars();
     }
 
     public void match(final Readable haystack, final ReadableMatchListener<T> listener) throws IOException {
+        if (shiftOr != null) {
+            shiftOr.match(haystack, listener, charBufferSize);
+            return;
+        }
 
         // Start with the root node.
+        final TrieNode<T> root = this.root;
+        final long[] startChars = this.startChars;
         TrieNode<T> currentNode = root;
 
         CharBuffer buf = CharBuffer.allocate(charBufferSize);
@@ -219,6 +265,10 @@ public class AhoCorasickMap<T> implements StringMap<T> {
             while (haystack.read(buf) != -1) {
                 buf.flip();
                 while (buf.hasRemaining()) {
+                    // Chars that can't start a keyword keep the automaton on the root.
+                    if (currentNode == root && startChars != null && !skipAhead(buf)) {
+                        break;
+                    }
                     final char c = buf.get();
                     // Try to transition from the current node using the character
                     TrieNode<T> nextNode = currentNode.getTransition(c);
@@ -247,7 +297,11 @@ public class AhoCorasickMap<T> implements StringMap<T> {
             while (haystack.read(buf) != -1) {
                 buf.flip();
                 while (buf.hasRemaining()) {
-                    final char c = Character.toLowerCase(buf.get());
+                    // Chars that can't start a keyword keep the automaton on the root.
+                    if (currentNode == root && startChars != null && !skipAhead(buf)) {
+                        break;
+                    }
+                    final char c = caseFolding.fold(buf.get());
                     // Try to transition from the current node using the character
                     TrieNode<T> nextNode = currentNode.getTransition(c);
 
@@ -275,8 +329,27 @@ public class AhoCorasickMap<T> implements StringMap<T> {
     }
 
     public void match(final String haystack, final MapMatchListener<T> listener) {
+        final Object event = Events.beginMatch();
+        if (event == null) {
+            matchHaystack(haystack, listener);
+        } else {
+            // Match calls are recorded by Flight Recorder.
+            final CountingMatchListener<T> counter = new CountingMatchListener<T>(listener);
+            matchHaystack(haystack, counter);
+            Events.endMatch(event, this, haystack.length(), counter.getCount());
+        }
+    }
+
+    private void matchHaystack(final String haystack, final MapMatchListener<T> listener) {
+        if (shiftOr != null) {
+            shiftOr.match(haystack, listener);
+            return;
+        }
 
         // Start with the root node.
+        final TrieNode<T> root = this.root;
+        final long[] startChars = this.startChars;
+        final char[] prefilterBuffer = prefilter == null ? null : prefilter.buffer();
         TrieNode<T> currentNode = root;
 
         int idx = 0;
@@ -286,6 +359,10 @@ public class AhoCorasickMap<T> implements StringMap<T> {
         // have to deal with duplicated code.
         if (caseSensitive) {
             while (idx < len) {
+                // Chars that can't start a keyword keep the automaton on the root.
+                if (currentNode == root && startChars != null && (idx = skipAhead(haystack, idx, len, prefilterBuffer)) == len) {
+                    break;
+                }
                 final char c = haystack.charAt(idx);
                 // Try to transition from the current node using the character
                 TrieNode<T> nextNode = currentNode.getTransition(c);
@@ -310,7 +387,11 @@ public class AhoCorasickMap<T> implements StringMap<T> {
             }
         } else {
             while (idx < len) {
-                final char c = Character.toLowerCase(haystack.charAt(idx));
+                // Chars that can't start a keyword keep the automaton on the root.
+                if (currentNode == root && startChars != null && (idx = skipAhead(haystack, idx, len, prefilterBuffer)) == len) {
+                    break;
+                }
+                final char c = caseFolding.fold(haystack.charAt(idx));
                 // Try to transition from the current node using the character
                 TrieNode<T> nextNode = currentNode.getTransition(c);
 
@@ -335,10 +416,647 @@ public class AhoCorasickMap<T> implements StringMap<T> {
         }
     }
 
+    // Moves the buffer to the next char that can start a keyword. Returns false if there isn't one.
+    private boolean skipAhead(final CharBuffer buf) {
+        final char[] chars = buf.array();
+        final int limit = buf.limit();
+        final int idx = skipAhead(chars, buf.position(), limit);
+        buf.position(idx);
+        return idx < limit;
+    }
+
+    // Index of the next char that can start a keyword, or len if there isn't one.
+    private int skipAhead(final String haystack, int idx, final int len, final char[] prefilterBuffer) {
+        if (prefilter != null) {
+            return prefilter.next(haystack, idx, len, prefilterBuffer);
+        }
+        final long[] startChars = this.startChars;
+        final int range = startChars.length << 6;
+        if (caseSensitive) {
+            for (; idx < len; idx++) {
+                final char c = haystack.charAt(idx);
+                if (c < range && (startChars[c >>> 6] & 1L << c) != 0) {
+                    return idx;
+                }
+            }
+        } else {
+            for (; idx < len; idx++) {
+                final char c = caseFolding.fold(haystack.charAt(idx));
+                if (c < range && (startChars[c >>> 6] & 1L << c) != 0) {
+                    return idx;
+                }
+            }
+        }
+        return len;
+    }
+
+    // Same as above for the chars of a buffer.
+    private int skipAhead(final char[] chars, int idx, final int len) {
+        if (prefilter != null) {
+            return prefilter.next(chars, idx, len);
+        }
+        final long[] startChars = this.startChars;
+        final int range = startChars.length << 6;
+        if (caseSensitive) {
+            for (; idx < len; idx++) {
+                final char c = chars[idx];
+                if (c < range && (startChars[c >>> 6] & 1L << c) != 0) {
+                    return idx;
+                }
+            }
+        } else {
+            for (; idx < len; idx++) {
+                final char c = caseFolding.fold(chars[idx]);
+                if (c < range && (startChars[c >>> 6] & 1L << c) != 0) {
+                    return idx;
+                }
+            }
+        }
+        return len;
+    }
+
+    // Package private for tests, true if the match loops skip ahead over the chars that stay on the root.
+    boolean isSkippingAhead() {
+        return startChars != null;
+    }
+
+    // Package private for tests, true if the match loops skip ahead with the vector prefilter.
+    boolean isPrefiltering() {
+        return prefilter != null;
+    }
+
+    // Package private for tests, true if the bit-parallel matcher is used instead of the trie.
+    boolean isBitParallel() {
+        return shiftOr != null;
+    }
+
+    // Collects statistics of the automaton by walking the trie breadth first.
+    // Walking the trie uses a set of visited nodes, which needs memory proportional to the number of nodes.
+    public AutomatonStats stats() {
+        final AutomatonStats stats = new AutomatonStats();
+        final Queue<TrieNode<T>> queue = new Queue<TrieNode<T>>();
+        final Set<TrieNode<T>> visited = Collections.newSetFromMap(new IdentityHashMap<TrieNode<T>, Boolean>());
+        visited.add(root);
+        queue.push(root);
+        queue.push(null);
+        int depth = 0;
+        EntryVisitor<T> childrenVisitor = new EntryVisitor<T>() {
+
+            public void visit(TrieNode<T> parent, char key, TrieNode<T> value) {
+                // Gaps in range nodes are filled with transitions to nodes on the levels above,
+                // which have already been visited.
+                if (!visited.add(value)) {
+                    return;
+                }
+                if (parent instanceof RangeNode) {
+                    stats.addRangeNodeChild();
+                }
+                queue.push(value);
+            }
+        };
+        while (!queue.isEmpty()) {
+            TrieNode<T> n = queue.take();
+            if (n == null) {
+                if (!queue.isEmpty()) {
+                    queue.push(null);
+                    depth++;
+                }
+            } else {
+                n.addStats(stats, depth);
+                n.mapEntries(childrenVisitor);
+            }
+        }
+        return stats;
+    }
+
+    // Instrumented variant of matching, which doesn't output matches, but counts the work done while matching
+    // the haystacks: transitions, fail transitions, output chain steps, hashmap probes and visits of each node.
+    // It is much slower than matching and meant for finding out why matching is slow on some haystacks.
+    public MatchDiagnostics diagnose(final Iterable<String> haystacks) {
+        final MatchDiagnostics diagnostics = new MatchDiagnostics();
+        for (String haystack : haystacks) {
+            diagnostics.addHaystack(haystack.length());
+            TrieNode<T> currentNode = root;
+            for (int idx = 0; idx < haystack.length(); idx++) {
+                final char c = caseFolding.fold(haystack.charAt(idx));
+                diagnostics.addLookup(currentNode.probeLength(c));
+                TrieNode<T> nextNode = currentNode.getTransition(c);
+                int failHops = 0;
+                while (nextNode == null) {
+                    currentNode = currentNode.getFailTransition();
+                    failHops++;
+                    diagnostics.addLookup(currentNode.probeLength(c));
+                    nextNode = currentNode.getTransition(c);
+                }
+                diagnostics.addTransition(failHops);
+                currentNode = nextNode;
+                diagnostics.hit(currentNode);
+                diagnostics.addOutput(currentNode.outputChainLength());
+            }
+        }
+        diagnostics.finish(nodeHits(diagnostics));
+        return diagnostics;
+    }
+
+    // Matches the sample haystacks and counts the visits of each node. The profile can be used with
+    // ProfileGuidedThresholder to build an automaton from the same keywords, which is optimized for
+    // haystacks similar to the sample. Needs memory proportional to the number of nodes.
+    public NodeProfile profile(final Iterable<String> haystacks) {
+        return diagnose(haystacks).getNodeHits();
+    }
+
+    // Walks the trie breadth first to find the prefixes of the visited nodes.
+    private NodeProfile nodeHits(final MatchDiagnostics diagnostics) {
+        final NodeProfile profile = new NodeProfile();
+        final Queue<TrieNode<T>> queue = new Queue<TrieNode<T>>();
+        final Queue<String> prefixes = new Queue<String>();
+        final Set<TrieNode<T>> visited = Collections.newSetFromMap(new IdentityHashMap<TrieNode<T>, Boolean>());
+        // Need to use array to get mutateable state for anonymous class
+        final String[] prefix = new String[1];
+        visited.add(root);
+        queue.push(root);
+        prefixes.push("");
+        EntryVisitor<T> childrenVisitor = new EntryVisitor<T>() {
+
+            public void visit(TrieNode<T> parent, char key, TrieNode<T> value) {
+                // Skip the filled gaps in range nodes.
+                if (visited.add(value)) {
+                    queue.push(value);
+                    prefixes.push(prefix[0] + key);
+                }
+            }
+        };
+        while (!queue.isEmpty()) {
+            TrieNode<T> n = queue.take();
+            prefix[0] = prefixes.take();
+            long hits = diagnostics.hits(n);
+            if (hits != 0) {
+                profile.add(prefix[0], hits);
+            }
+            n.mapEntries(childrenVisitor);
+        }
+        return profile;
+    }
+
+    // Keywords are partitioned by their first character and each partition is inserted into its own
+    // subtree in parallel. Fail transitions, suffix matches and node optimization of a node depend
+    // only on the nodes on the levels above it, so every level is processed in parallel. Gaps in range
+    // nodes are filled level by level in the same way.
+    private void initParallel(final Iterable<String> keywords, final Iterable<? extends T> values, final Thresholder thresholdStrategy, final ForkJoinPool pool,
+            final BuildMonitor monitor) {
+        // Create the root node
+        root = new HashmapNode<T>(true);
+        monitor.startPhase(BuildListener.Phase.INSERTION);
+        // Partition the keywords. Keywords keep their relative order within a partition, so duplicate
+        // keywords end up the same as in the sequential build.
+        final Map<Character, InsertTask<T>> partitions = new HashMap<Character, InsertTask<T>>();
+        final ShiftOrMatcher.Builder shiftOrBuilder = new ShiftOrMatcher.Builder(caseFolding);
+        Iterator<String> keywordsIter = keywords.iterator();
+        Iterator<? extends T> valuesIter = values.iterator();
+        int longestKeyword = 0;
+        while (keywordsIter.hasNext() && valuesIter.hasNext()) {
+            final String keyword = keywordsIter.next();
+            T value = valuesIter.next();
+            // Skip any empty keywords
+            if (keyword != null && keyword.length() > 0) {
+                monitor.step();
+                shiftOrBuilder.add(keyword, value);
+                if (keyword.length() > longestKeyword) {
+                    longestKeyword = keyword.length();
+                }
+                char firstChar = caseFolding.fold(keyword.charAt(0));
+                InsertTask<T> partition = partitions.get(firstChar);
+                if (partition == null) {
+                    partition = new InsertTask<T>(((HashmapNode<T>) root).getOrAddChild(firstChar), caseFolding);
+                    partitions.put(firstChar, partition);
+                }
+                partition.keywords.add(keyword);
+                partition.values.add(value);
+            }
+        }
+        charBufferSize = longestKeyword > 2048 ? longestKeyword * 2 : 4096;
+        pool.invoke(new RecursiveAction() {
+
+            @Override
+            protected void compute() {
+                invokeAll(partitions.values());
+            }
+        });
+        monitor.endPhase();
+        // Process the trie level by level. Each level list contains non-leaf nodes of that level.
+        if (caseFolding.hasCaseTransitions()) {
+            addCaseVariants();
+        }
+        monitor.startPhase(BuildListener.Phase.FAIL_TRANSITIONS);
+        if (thresholdStrategy instanceof BudgetThresholder) {
+            planBudget((BudgetThresholder) thresholdStrategy);
+        }
+        root = root.optimizeNode(0, thresholdStrategy);
+        final List<List<TrieNode<T>>> levels = new ArrayList<List<TrieNode<T>>>();
+        List<TrieNode<T>> currentLevel = new ArrayList<TrieNode<T>>();
+        currentLevel.add(root);
+        while (!currentLevel.isEmpty()) {
+            levels.add(currentLevel);
+            final List<LevelTask<T>> tasks = LevelTask.split(root, currentLevel, levels.size(), thresholdStrategy);
+            pool.invoke(new RecursiveAction() {
+
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+            currentLevel = new ArrayList<TrieNode<T>>();
+            for (LevelTask<T> task : tasks) {
+                currentLevel.addAll(task.nextLevel);
+                monitor.step(task.visited);
+            }
+        }
+        monitor.endPhase();
+        // Fill the gaps in range nodes. Filling the gaps of a node only reads nodes on the levels above,
+        // so if we go from the top down the result is the same as in the sequential build.
+        monitor.startPhase(BuildListener.Phase.RANGE_NODE_GAPS);
+        for (List<TrieNode<T>> level : levels) {
+            final List<LevelTask<T>> tasks = LevelTask.split(null, level, 0, null);
+            pool.invoke(new RecursiveAction() {
+
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+            monitor.step(level.size());
+        }
+        monitor.endPhase();
+        if (caseFolding.hasCaseTransitions()) {
+            resolveCaseVariants();
+        }
+        shiftOr = (options & NO_BIT_PARALLEL) == 0 ? shiftOrBuilder.build() : null;
+    }
+
+    // Finds the nodes of the profiled prefixes in the trie. Prefixes that aren't in the trie are ignored,
+    // so a profile of a different dictionary can be used.
+    private Map<TrieNode<T>, Long> resolveProfile(NodeProfile profile) {
+        final Map<TrieNode<T>, Long> nodeVisits = new IdentityHashMap<TrieNode<T>, Long>();
+        for (Map.Entry<String, Long> e : profile.getVisits().entrySet()) {
+            final String prefix = e.getKey();
+            TrieNode<T> node = root;
+            for (int idx = 0; idx < prefix.length() && node != null; idx++) {
+                node = node.getTransition(caseFolding.fold(prefix.charAt(idx)));
+                // Root returns itself for missing transitions.
+                if (node == root) {
+                    node = null;
+                }
+            }
+            if (node != null) {
+                nodeVisits.put(node, e.getValue());
+            }
+        }
+        return nodeVisits;
+    }
+
+    // Range nodes have gaps (null values) in their array. We can put this wasted
+    // memory to work by filling these gaps with the correct next node for that character
+    // which we can figure out by following failure transitions.
+    private static <T> void fillGaps(RangeNode<T> rangeNode) {
+        for (int i = 0; i < rangeNode.size; i++) {
+            if (rangeNode.children[i] == null) {
+                char charOfMissingTransition = (char) (rangeNode.baseChar + i);
+                // Walk up fail transition until you run out of them (and do nothing)
+                // or one of them has a transition for this char. Put that node
+                // into the empty slot on the range node.
+                TrieNode<T> n = rangeNode.failTransition;
+                while (n != null) {
+                    TrieNode<T> nextNode = n.getTransition(charOfMissingTransition);
+                    if (nextNode == null) {
+                        n = n.failTransition;
+                    } else {
+                        rangeNode.children[i] = nextNode;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    // Optimizes the node and calculates its fail transition and suffix matches. The parent and all
+    // nodes on the levels above the parent must already be processed. Returns the optimized node.
+    private static <T> TrieNode<T> addFailTransitionAndOutputs(TrieNode<T> root, TrieNode<T> parent, char key, TrieNode<T> value, int level, Thresholder thresholdStrategy,
+            BuildMonitor monitor) {
+        // First optimize node
+        monitor.startOptimization();
+        value = value.optimizeNode(level, thresholdStrategy);
+        monitor.endOptimization();
+        parent.updateTransition(key, value);
+
+        // Get fail transiton of the parent.
+        TrieNode<T> parentFail = parent.getFailTransition();
+        // Since root node has null fail transition, first level nodes have null parentFail.
+        if (parentFail == null) {
+            // First level nodes have one possible fail transition, which is
+            // root because the only possible suffix to a one character
+            // string is an empty string
+            value.failTransition = parent;
+        } else {
+            // Dig up the tree until you find a fail transition.
+            do {
+                // Suffix of a parent + transition character from parent to this
+                // node is the suffix of this node.
+
+                // parent ---char---> value
+                // parentFail ----char----> valueFail
+                // e.g. "ab" -> c -> "abc"
+                // "b" -> c -> "bc"
+                final TrieNode<T> matchContinuation = parentFail.getTransition(key);
+                if (matchContinuation != null) {
+                    value.failTransition = matchContinuation;
+                } else {
+                    // If parentFail didn't have key mapping
+                    // take parentFail's failTransition and try again
+                    // The last fail transition is the root node, which
+                    // always has a key mapping.
+                    parentFail = parentFail.getFailTransition();
+                }
+            } while (value.failTransition == null);
+            // Now that we have a fail transition, this node matches all
+            // the matches of it's failTransition node in addition to any
+            // match it already has.
+            // e.g for keywords "abc", "bc", "c", "b", the "abc" node matches
+            // "abc" and also its failure transtion's matches ("bc", "c")
+            // "ab" has no match of its own, but it matches failure transition's
+            // match "b".
+
+            // Fail transitions are basically a linked list, because of the recursive fashion in which
+            // they are defined. But only some of them have matches on them. We want to skip those
+            // that don't, that is why we have suffix match references, which form a similar linked
+            // list like fail transitions but they skip over those without matches. Since the suffix
+            // matches for shorter suffixes have been sorted out, it's only a matter of linking to the
+            // first fail transition with a match. But there is another thing we want. We want to
+            // avoid the case where a node is without a match but it has suffix matches, as that would
+            // introduce another if. That is why in case of nodes without matches we store the suffix
+            // match directly on the node and instead link the next suffix match as this node's suffix
+            // match.
+            TrieNode<T> fail = value.failTransition;
+            while (fail != root && fail.matchLength == 0) {
+                fail = fail.failTransition;
+            }
+            if (fail.matchLength > 0) {
+                if (value.matchLength == 0) {
+                    value.matchLength = fail.matchLength;
+                    value.suffixMatch = fail.suffixMatch;
+                    value.value = fail.value;
+                } else {
+                    value.suffixMatch = fail;
+                }
+            }
+        }
+        return value;
+    }
+
+    // Thresholder for the node, which takes the visits of the node into account if there is a profile.
+    private static <T> Thresholder thresholderFor(TrieNode<T> node, Thresholder thresholdStrategy, Map<TrieNode<T>, Long> nodeVisits) {
+        if (nodeVisits == null) {
+            return thresholdStrategy;
+        }
+        Long visits = nodeVisits.get(node);
+        return ((ProfileGuidedThresholder) thresholdStrategy).forVisits(visits == null ? 0 : visits);
+    }
+
+    // Adds transitions for the case variants of keyword chars, so matching doesn't need to fold the haystack.
+    // The transitions lead to a placeholder, which the build skips, until they are resolved to the
+    // transitions of the folded chars once the automaton is built.
+    private void addCaseVariants() {
+        final Queue<TrieNode<T>> queue = new Queue<TrieNode<T>>();
+        EntryVisitor<T> childrenVisitor = new EntryVisitor<T>() {
+
+            public void visit(TrieNode<T> parent, char key, TrieNode<T> value) {
+                queue.push(value);
+            }
+        };
+        queue.push(root);
+        while (!queue.isEmpty()) {
+            HashmapNode<T> n = (HashmapNode<T>) queue.take();
+            n.mapEntries(childrenVisitor);
+            n.addCaseVariants(caseFolding);
+        }
+    }
+
+    // Replaces the placeholders with the transitions of the folded chars. From then on the haystack is
+    // matched as it is, with the case sensitive loop.
+    private void resolveCaseVariants() {
+        final Queue<TrieNode<T>> queue = new Queue<TrieNode<T>>();
+        final Set<TrieNode<T>> visited = Collections.newSetFromMap(new IdentityHashMap<TrieNode<T>, Boolean>());
+        EntryVisitor<T> childrenVisitor = new EntryVisitor<T>() {
+
+            public void visit(TrieNode<T> parent, char key, TrieNode<T> value) {
+                // Skip the filled gaps in range nodes.
+                if (visited.add(value)) {
+                    queue.push(value);
+                }
+            }
+        };
+        visited.add(root);
+        queue.push(root);
+        while (!queue.isEmpty()) {
+            TrieNode<T> n = queue.take();
+            n.mapEntries(childrenVisitor);
+            n.resolveCaseVariants(caseFolding);
+        }
+        caseFolding = CaseFolding.NONE;
+        caseSensitive = true;
+    }
+
+    // Sets up skipping ahead on the root if few chars start a keyword. Most text never leaves the root
+    // then, and checking a bitmap is cheaper than a transition. Probes the root with every char, since
+    // range nodes don't list all their case variants.
+    private void initStartChars() {
+        long[] bitmap = new long[1024];
+        int count = 0;
+        int highest = 0;
+        for (int i = 0; i <= Character.MAX_VALUE; i++) {
+            final TrieNode<T> next = root.getTransition((char) i);
+            if (next != null && next != root) {
+                if (++count > SKIP_AHEAD_START_CHARS) {
+                    startChars = null;
+                    return;
+                }
+                bitmap[i >>> 6] |= 1L << i;
+                highest = i;
+            }
+        }
+        startChars = Arrays.copyOf(bitmap, (highest >>> 6) + 1);
+        initPrefilter();
+    }
+
+    // Fingerprints of the keywords for the prefilter: the haystack chars that fold to the first char of a
+    // keyword, and the pairs of the first two chars, unless there are too many of them, then only the first
+    // chars. Case variants are compared as they are, since the prefilter doesn't fold.
+    private void initPrefilter() {
+        if (!Prefilter.isAvailable() || (options & NO_PREFILTER) != 0) {
+            return;
+        }
+        final char[] firsts = new char[Prefilter.MAX_FINGERPRINTS];
+        int firstCount = 0;
+        for (int i = 0; i <= Character.MAX_VALUE; i++) {
+            final char c = caseSensitive ? (char) i : caseFolding.fold((char) i);
+            if (c < startChars.length << 6 && (startChars[c >>> 6] & 1L << c) != 0) {
+                if (firstCount == firsts.length) {
+                    return;
+                }
+                firsts[firstCount++] = (char) i;
+            }
+        }
+        final StringBuilder singles = new StringBuilder();
+        final StringBuilder pairFirsts = new StringBuilder();
+        final StringBuilder pairSeconds = new StringBuilder();
+        for (int i = 0; i < firstCount && pairFirsts.length() + singles.length() <= Prefilter.MAX_FINGERPRINTS; i++) {
+            final TrieNode<T> node = root.getTransition(caseSensitive ? firsts[i] : caseFolding.fold(firsts[i]));
+            if (node.matchLength > 0) {
+                singles.append(firsts[i]);
+                continue;
+            }
+            for (int j = 0; j <= Character.MAX_VALUE; j++) {
+                final char c = caseSensitive ? (char) j : caseFolding.fold((char) j);
+                final TrieNode<T> next = node.getTransition(c);
+                // Gaps of range nodes lead where the root does, those are other first chars.
+                if (next != null && next != root && next != root.getTransition(c)) {
+                    pairFirsts.append(firsts[i]);
+                    pairSeconds.append((char) j);
+                }
+            }
+        }
+        if (pairFirsts.length() + singles.length() > Prefilter.MAX_FINGERPRINTS) {
+            prefilter = Prefilter.of(Arrays.copyOf(firsts, firstCount), new char[0], new char[0]);
+        } else {
+            prefilter = Prefilter.of(singles.toString().toCharArray(), pairFirsts.toString().toCharArray(), pairSeconds.toString().toCharArray());
+        }
+    }
+
+    // Offers the nodes to the budget thresholder as candidates, so it can choose which nodes
+    // become range nodes before the optimization. Levels are the same as in the optimization.
+    private void planBudget(BudgetThresholder budget) {
+        final Thresholder candidates = budget.startPlanning();
+        final Queue<TrieNode<T>> queue = new Queue<TrieNode<T>>();
+        // Need to use array to get mutateable state for anonymous class
+        final int[] level = new int[] { 1 };
+        EntryVisitor<T> offerVisitor = new EntryVisitor<T>() {
+
+            public void visit(TrieNode<T> parent, char key, TrieNode<T> value) {
+                value.optimizeNode(level[0], candidates);
+                if (!value.isEmpty()) {
+                    queue.push(value);
+                }
+            }
+        };
+        // Root is always a range node.
+        queue.push(root);
+        queue.push(null);
+        while (!queue.isEmpty()) {
+            TrieNode<T> n = queue.take();
+            if (n == null) {
+                if (!queue.isEmpty()) {
+                    queue.push(null);
+                    level[0]++;
+                }
+            } else {
+                n.mapEntries(offerVisitor);
+            }
+        }
+        budget.plan();
+    }
+
     private interface EntryVisitor<T> {
         void visit(TrieNode<T> parent, char key, TrieNode<T> value);
     }
 
+    // Inserts a partition of keywords into the subtree of a first level node.
+    private static final class InsertTask<T> extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final CaseFolding caseFolding;
+        private final ArrayList<String> keywords = new ArrayList<String>();
+        private final HashmapNode<T> node;
+        private final ArrayList<T> values = new ArrayList<T>();
+
+        private InsertTask(HashmapNode<T> node, CaseFolding caseFolding) {
+            this.node = node;
+            this.caseFolding = caseFolding;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = 0; i < keywords.size(); i++) {
+                final String keyword = keywords.get(i);
+                // First character is the transition to the partition node.
+                HashmapNode<T> currentNode = node;
+                for (int idx = 1; idx < keyword.length(); idx++) {
+                    currentNode = currentNode.getOrAddChild(caseFolding.fold(keyword.charAt(idx)));
+                }
+                currentNode.matchLength = keyword.length();
+                currentNode.value = values.get(i);
+            }
+        }
+
+    }
+
+    // Processes a chunk of nodes on a level. If root is given it processes children of the nodes (optimization,
+    // fail transitions and suffix matches) and collects the non-leaf ones into the next level, otherwise it fills
+    // the gaps of the range nodes in the chunk.
+    private static final class LevelTask<T> extends RecursiveAction {
+
+        private static final int CHUNK_SIZE = 256;
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to, level;
+        private int visited = 0;
+        private final List<TrieNode<T>> nextLevel = new ArrayList<TrieNode<T>>();
+        private final List<TrieNode<T>> nodes;
+        private final TrieNode<T> root;
+        private final Thresholder thresholdStrategy;
+
+        private LevelTask(TrieNode<T> root, List<TrieNode<T>> nodes, int from, int to, int level, Thresholder thresholdStrategy) {
+            this.root = root;
+            this.nodes = nodes;
+            this.from = from;
+            this.to = to;
+            this.level = level;
+            this.thresholdStrategy = thresholdStrategy;
+        }
+
+        private static <T> List<LevelTask<T>> split(TrieNode<T> root, List<TrieNode<T>> nodes, int level, Thresholder thresholdStrategy) {
+            List<LevelTask<T>> tasks = new ArrayList<LevelTask<T>>((nodes.size() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            for (int from = 0; from < nodes.size(); from += CHUNK_SIZE) {
+                tasks.add(new LevelTask<T>(root, nodes, from, Math.min(nodes.size(), from + CHUNK_SIZE), level, thresholdStrategy));
+            }
+            return tasks;
+        }
+
+        @Override
+        protected void compute() {
+            if (root != null) {
+                EntryVisitor<T> failTransAndOutputsVisitor = new EntryVisitor<T>() {
+
+                    public void visit(TrieNode<T> parent, char key, TrieNode<T> value) {
+                        visited++;
+                        value = addFailTransitionAndOutputs(root, parent, key, value, level, thresholdStrategy, BuildMonitor.NONE);
+                        if (!value.isEmpty()) {
+                            nextLevel.add(value);
+                        }
+                    }
+                };
+                for (int i = from; i < to; i++) {
+                    nodes.get(i).mapEntries(failTransAndOutputsVisitor);
+                }
+            } else {
+                for (int i = from; i < to; i++) {
+                    if (nodes.get(i) instanceof RangeNode) {
+                        fillGaps((RangeNode<T>) nodes.get(i));
+                    }
+                }
+            }
+        }
+
+    }
+
     // An open addressing hashmap implementation with linear probing
     // and capacity of 2^n
     private final static class HashmapNode<T> extends TrieNode<T> {
@@ -356,6 +1074,19 @@ public class AhoCorasickMap<T> implements StringMap<T> {
             super(root);
         }
 
+        @Override
+        public void addStats(AutomatonStats stats, int depth) {
+            long probeLengths = 0;
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] != null) {
+                    probeLengths += ((i - hash(keys[i])) & modulusMask) + 1;
+                }
+            }
+            stats.addHashmapNode(depth, keys.length, numEntries, probeLengths, AutomatonStats.objectSize(6, 12)
+                    + AutomatonStats.arraySize(keys.length, 2) + AutomatonStats.arraySize(children.length, 4));
+            stats.addOutputChain(outputChainLength());
+        }
+
         @Override
         public TrieNode<T> getTransition(final char key) {
             int defaultSlot = hash(key) & modulusMask;
@@ -373,6 +1104,22 @@ public class AhoCorasickMap<T> implements StringMap<T> {
             return defaultTransition;
         }
 
+        @Override
+        protected int probeLength(final char key) {
+            int defaultSlot = hash(key) & modulusMask;
+            int currentSlot = defaultSlot;
+            int probes = 1;
+            // Same probing as in getTransition.
+            while (keys[currentSlot] != key && children[currentSlot] != null) {
+                currentSlot = ++currentSlot & modulusMask;
+                if (currentSlot == defaultSlot) {
+                    break;
+                }
+                probes++;
+            }
+            return probes;
+        }
+
         @Override
         public boolean isEmpty() {
             return numEntries == 0;
@@ -381,7 +1128,7 @@ public class AhoCorasickMap<T> implements StringMap<T> {
         @Override
         public void mapEntries(EntryVisitor<T> visitor) {
             for (int i = 0; i < keys.length; i++) {
-                if (children[i] != null) {
+                if (children[i] != null && children[i] != CASE_VARIANT) {
                     visitor.visit(this, keys[i], children[i]);
                 }
             }
@@ -408,10 +1155,12 @@ public class AhoCorasickMap<T> implements StringMap<T> {
         protected TrieNode<T> optimizeNode(int level, Thresholder thresholdStrategy) {
             char minKey = '\uffff';
             char maxKey = 0;
-            // Find you the min and max key on the node.
-            int size = numEntries;
+            // Find you the min and max key on the node. Case variants are left out, so the thresholder
+            // sees the same node as without them.
+            int size = 0;
             for (int i = 0; i < children.length; i++) {
-                if (children[i] != null) {
+                if (children[i] != null && children[i] != CASE_VARIANT) {
+                    size++;
                     if (keys[i] > maxKey) {
                         maxKey = keys[i];
                     }
@@ -424,7 +1173,16 @@ public class AhoCorasickMap<T> implements StringMap<T> {
             // or only slightly larger than number of entries, use a range node
             int keyIntervalSize = maxKey - minKey + 1;
             if (defaultTransition != null || thresholdStrategy.isOverThreshold(size, level, keyIntervalSize)) {
-                return new RangeNode<T>(this, minKey, maxKey);
+                // Case variants close to the keys widen the range, the others are kept on the side.
+                char from = minKey;
+                char to = maxKey;
+                for (int i = 0; i < children.length; i++) {
+                    if (children[i] == CASE_VARIANT && keys[i] + CaseFolding.RANGE_REACH > minKey && keys[i] < maxKey + CaseFolding.RANGE_REACH) {
+                        from = keys[i] < from ? keys[i] : from;
+                        to = keys[i] > to ? keys[i] : to;
+                    }
+                }
+                return new RangeNode<T>(this, from, to);
             } else {
                 return this;
             }
@@ -488,6 +1246,80 @@ public class AhoCorasickMap<T> implements StringMap<T> {
             throw new IllegalStateException();
         }
 
+        // Adds transitions to the placeholder for the case variants of the keys, unless the variants
+        // have transitions of their own.
+        private void addCaseVariants(CaseFolding caseFolding) {
+            // Adding may enlarge the node, so iterate over the current tables.
+            char[] currentKeys = keys;
+            TrieNode<T>[] currentChildren = children;
+            for (int i = 0; i < currentKeys.length; i++) {
+                if (currentChildren[i] != null && currentChildren[i] != CASE_VARIANT) {
+                    for (char variant : caseFolding.variants(currentKeys[i])) {
+                        addCaseVariant(variant);
+                    }
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void addCaseVariant(char key) {
+            // Same resizing and probing as in getOrAddChild.
+            if (keys.length < 0x10000 && ((numEntries >= keys.length) || (numEntries > 16 && (numEntries >= keys.length * 0.90f)))) {
+                enlarge();
+            }
+            int defaultSlot = hash(key) & modulusMask;
+            int currentSlot = defaultSlot;
+            do {
+                if (children[currentSlot] == null) {
+                    keys[currentSlot] = key;
+                    children[currentSlot] = CASE_VARIANT;
+                    ++numEntries;
+                    return;
+                } else if (keys[currentSlot] == key) {
+                    return;
+                } else {
+                    currentSlot = ++currentSlot & modulusMask;
+                }
+            } while (currentSlot != defaultSlot);
+            throw new IllegalStateException();
+        }
+
+        // Sets the children of an empty node. The capacity is the same as if the children were added
+        // one by one, but the tables are allocated once and never rehashed.
+        @SuppressWarnings("unchecked")
+        private void setChildren(char[] childKeys, Object[] childNodes, int size) {
+            if (size == 0) {
+                return;
+            }
+            int capacity = 1;
+            for (int n = 0; n < size; n++) {
+                if (capacity < 0x10000 && ((n >= capacity) || (n > 16 && (n >= capacity * 0.90f)))) {
+                    capacity *= 2;
+                }
+            }
+            keys = new char[capacity];
+            children = new TrieNode[capacity];
+            modulusMask = capacity - 1;
+            for (int i = 0; i < size; i++) {
+                int currentSlot = hash(childKeys[i]) & modulusMask;
+                while (children[currentSlot] != null) {
+                    currentSlot = ++currentSlot & modulusMask;
+                }
+                keys[currentSlot] = childKeys[i];
+                children[currentSlot] = (TrieNode<T>) childNodes[i];
+            }
+            numEntries = size;
+        }
+
+        @Override
+        protected void resolveCaseVariants(CaseFolding caseFolding) {
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] == CASE_VARIANT) {
+                    children[i] = getTransition(caseFolding.fold(keys[i]));
+                }
+            }
+        }
+
         // FNV-1a hash
         private int hash(char c) {
             // HASH_BASIS = 0x811c9dc5;
@@ -504,6 +1336,8 @@ public class AhoCorasickMap<T> implements StringMap<T> {
 
         private char baseChar = 0;
         private TrieNode<T>[] children;
+        // Case variants out of the range.
+        private HashmapNode<T> farVariants;
         private int size = 0;
 
         @SuppressWarnings("unchecked")
@@ -529,12 +1363,28 @@ public class AhoCorasickMap<T> implements StringMap<T> {
                 // Grab the children of the old node.
                 for (int i = 0; i < oldNode.children.length; i++) {
                     if (oldNode.children[i] != null) {
-                        children[oldNode.keys[i] - from] = oldNode.children[i];
+                        if (oldNode.keys[i] < from || oldNode.keys[i] > to) {
+                            if (farVariants == null) {
+                                farVariants = new HashmapNode<T>(false);
+                                farVariants.defaultTransition = defaultTransition;
+                            }
+                            farVariants.addCaseVariant(oldNode.keys[i]);
+                        } else {
+                            children[oldNode.keys[i] - from] = oldNode.children[i];
+                        }
                     }
                 }
             }
         }
 
+        @Override
+        public void addStats(AutomatonStats stats, int depth) {
+            stats.addRangeNode(depth, size, AutomatonStats.objectSize(6, 10) + (children == null ? 0 : AutomatonStats.arraySize(size, 4))
+                    + (farVariants == null ? 0 : AutomatonStats.arraySize(farVariants.keys.length, 2)
+                            + AutomatonStats.arraySize(farVariants.children.length, 4)));
+            stats.addOutputChain(outputChainLength());
+        }
+
         @Override
         public TrieNode<T> getTransition(char c) {
             // First check if the key is between max and min value.
@@ -544,7 +1394,7 @@ public class AhoCorasickMap<T> implements StringMap<T> {
             if (idx < size) {
                 return children[idx];
             }
-            return defaultTransition;
+            return farVariants == null ? defaultTransition : farVariants.getTransition(c);
         }
 
         @Override
@@ -556,13 +1406,31 @@ public class AhoCorasickMap<T> implements StringMap<T> {
         public void mapEntries(EntryVisitor<T> visitor) {
             if (children != null) {
                 for (int i = 0; i < children.length; i++) {
-                    if (children[i] != null && children[i] != this) {
+                    if (children[i] != null && children[i] != this && children[i] != CASE_VARIANT) {
                         visitor.visit(this, (char) (baseChar + i), children[i]);
                     }
                 }
             }
         }
 
+        @Override
+        protected void resolveCaseVariants(CaseFolding caseFolding) {
+            for (int i = 0; i < size; i++) {
+                if (children[i] == CASE_VARIANT) {
+                    // Gaps filled from fail transitions can hold case variants of chars without a
+                    // transition on this node, those become gaps again.
+                    children[i] = getTransition(caseFolding.fold((char) (baseChar + i)));
+                }
+            }
+            if (farVariants != null) {
+                for (int i = 0; i < farVariants.children.length; i++) {
+                    if (farVariants.children[i] == CASE_VARIANT) {
+                        farVariants.children[i] = getTransition(caseFolding.fold(farVariants.keys[i]));
+                    }
+                }
+            }
+        }
+
         @Override
         public void updateTransition(char c, TrieNode<T> node) {
             // First check if the key is between max and min value.
@@ -601,8 +1469,15 @@ public class AhoCorasickMap<T> implements StringMap<T> {
         }
 
         // Get transition (root node returns something non-null for all characters - itself)
+        public abstract void addStats(AutomatonStats stats, int depth);
+
         public abstract TrieNode<T> getTransition(char c);
 
+        // Number of slots checked to find the transition for the character.
+        protected int probeLength(char c) {
+            return 1;
+        }
+
         public abstract boolean isEmpty();
 
         public abstract void mapEntries(final EntryVisitor<T> visitor);
@@ -639,8 +1514,23 @@ public class AhoCorasickMap<T> implements StringMap<T> {
             return ret;
         }
 
+        // Replaces the placeholders of case variants with the transitions of their folded chars.
+        protected abstract void resolveCaseVariants(CaseFolding caseFolding);
+
         public abstract void updateTransition(char c, TrieNode<T> node);
 
+        // Number of matches output when matching reaches this node.
+        protected final int outputChainLength() {
+            if (matchLength == 0) {
+                return 0;
+            }
+            int length = 1;
+            for (TrieNode<T> n = suffixMatch; n != null; n = n.suffixMatch) {
+                length++;
+            }
+            return length;
+        }
+
         protected TrieNode<T> optimizeNode(int level, Thresholder thresholdStrategy) {
             return this;
         }
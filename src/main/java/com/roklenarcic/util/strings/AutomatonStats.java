@@ -0,0 +1,130 @@
+package com.roklenarcic.util.strings;
+
+import java.util.Arrays;
+
+// Statistics of the automaton of a set or a map: node counts by type and by depth, load of the hashmap
+// nodes, fill of the range nodes, lengths of output chains and an estimate of the heap retained by the
+// automaton. Useful for comparing thresholders and for capacity planning.
+//
+// Byte sizes are estimated for a 64-bit JVM with compressed references and they don't include the
+// values of maps, which are shared with the caller.
+public class AutomatonStats {
+
+    private long estimatedBytes = 0;
+    private long hashmapEntries = 0;
+    private long hashmapNodeCount = 0;
+    private long hashmapSlots = 0;
+    private int maxDepth = -1;
+    private int maxOutputChainLength = -1;
+    private long[] nodesPerDepth = new long[16];
+    private long[] outputChainLengths = new long[4];
+    private long probeLengths = 0;
+    private long rangeNodeChildren = 0;
+    private long rangeNodeCount = 0;
+    private long rangeNodeSlots = 0;
+
+    AutomatonStats() {
+    }
+
+    // Size of an array in bytes.
+    static long arraySize(int length, int elementBytes) {
+        return align(16 + (long) length * elementBytes);
+    }
+
+    // Size of an object in bytes, given number of references and bytes of primitive fields.
+    static long objectSize(int references, int primitiveBytes) {
+        return align(12 + references * 4 + primitiveBytes);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    // Average number of slots checked to find an existing key in hashmap nodes.
+    public double getAverageProbeLength() {
+        return hashmapEntries == 0 ? 0 : (double) probeLengths / hashmapEntries;
+    }
+
+    // Estimated bytes retained by the automaton nodes.
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    // Ratio of used slots to all slots in hashmap nodes.
+    public double getHashLoadFactor() {
+        return hashmapSlots == 0 ? 0 : (double) hashmapEntries / hashmapSlots;
+    }
+
+    public long getHashmapNodeCount() {
+        return hashmapNodeCount;
+    }
+
+    public long getNodeCount() {
+        return hashmapNodeCount + rangeNodeCount;
+    }
+
+    // Number of nodes at each depth, root is at depth 0.
+    public long[] getNodesPerDepth() {
+        return Arrays.copyOf(nodesPerDepth, maxDepth + 1);
+    }
+
+    // Histogram of output chain lengths. Element i is the number of nodes that output i matches
+    // when the matching reaches them.
+    public long[] getOutputChainLengths() {
+        return Arrays.copyOf(outputChainLengths, maxOutputChainLength + 1);
+    }
+
+    public long getRangeNodeCount() {
+        return rangeNodeCount;
+    }
+
+    // Ratio of slots with a child to all slots in range nodes. Slots filled with transitions that
+    // were calculated from fail transitions are counted as empty.
+    public double getRangeNodeFillRatio() {
+        return rangeNodeSlots == 0 ? 0 : (double) rangeNodeChildren / rangeNodeSlots;
+    }
+
+    @Override
+    public String toString() {
+        return "AutomatonStats [nodes=" + getNodeCount() + ", hashmapNodes=" + hashmapNodeCount + ", rangeNodes=" + rangeNodeCount + ", hashLoadFactor="
+                + getHashLoadFactor() + ", averageProbeLength=" + getAverageProbeLength() + ", rangeNodeFillRatio=" + getRangeNodeFillRatio()
+                + ", estimatedBytes=" + estimatedBytes + ", nodesPerDepth=" + Arrays.toString(getNodesPerDepth()) + ", outputChainLengths="
+                + Arrays.toString(getOutputChainLengths()) + "]";
+    }
+
+    void addHashmapNode(int depth, int slots, int entries, long probeLengths, long bytes) {
+        hashmapNodeCount++;
+        hashmapSlots += slots;
+        hashmapEntries += entries;
+        this.probeLengths += probeLengths;
+        addNode(depth, bytes);
+    }
+
+    void addOutputChain(int length) {
+        if (length >= outputChainLengths.length) {
+            outputChainLengths = Arrays.copyOf(outputChainLengths, Math.max(length + 1, outputChainLengths.length * 2));
+        }
+        outputChainLengths[length]++;
+        maxOutputChainLength = Math.max(maxOutputChainLength, length);
+    }
+
+    void addRangeNode(int depth, int slots, long bytes) {
+        rangeNodeCount++;
+        rangeNodeSlots += slots;
+        addNode(depth, bytes);
+    }
+
+    void addRangeNodeChild() {
+        rangeNodeChildren++;
+    }
+
+    private void addNode(int depth, long bytes) {
+        if (depth >= nodesPerDepth.length) {
+            nodesPerDepth = Arrays.copyOf(nodesPerDepth, Math.max(depth + 1, nodesPerDepth.length * 2));
+        }
+        nodesPerDepth[depth]++;
+        maxDepth = Math.max(maxDepth, depth);
+        estimatedBytes += bytes;
+    }
+
+}
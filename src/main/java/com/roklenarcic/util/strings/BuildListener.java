@@ -0,0 +1,33 @@
+package com.roklenarcic.util.strings;
+
+// Listener for the construction of sets and maps. It's called from the constructing thread with the
+// progress of each phase of the construction and the phase durations. Returning false from
+// progress cancels the construction, in which case the constructor throws a CancellationException.
+public interface BuildListener {
+
+    // Construction phases in the order they run. Whole word sets and maps have no range node gaps and
+    // whole word match sets and maps have no fail transitions.
+    //
+    // Nodes are optimized (i.e. converted to range nodes according to thresholder) node by node
+    // during calculation of fail transitions, so the time spent in optimization is measured separately
+    // and reported as its own phase right before fail transitions phase. Parallel construction doesn't
+    // separate the two and reports all of it as fail transitions.
+    enum Phase {
+        // Count is the number of keywords inserted.
+        INSERTION,
+        // Count is the number of nodes optimized.
+        OPTIMIZATION,
+        // Count is the number of nodes with fail transitions calculated.
+        FAIL_TRANSITIONS,
+        // Count is the number of non-leaf nodes whose gaps were checked.
+        RANGE_NODE_GAPS
+    }
+
+    // Called when a phase is done with its duration and the final count.
+    void phaseFinished(Phase phase, long nanos, long count);
+
+    // Called every 4096 keywords or nodes processed in a phase. Return false to
+    // cancel the construction.
+    boolean progress(Phase phase, long count);
+
+}
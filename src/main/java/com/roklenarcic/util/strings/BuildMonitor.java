@@ -0,0 +1,91 @@
+package com.roklenarcic.util.strings;
+
+import java.util.concurrent.CancellationException;
+
+// Reports construction progress to a BuildListener and cancels the construction when the listener
+// asks for it. Phases are also reported as Flight Recorder events when they are recorded. Without a
+// listener or a recording it does nothing, so the constructors can call it unconditionally.
+final class BuildMonitor {
+
+    // Monitor without a listener, for code that can't report progress, e.g. parallel tasks.
+    static final BuildMonitor NONE = new BuildMonitor(null, null);
+    // Progress is reported every this many steps.
+    static final int PROGRESS_INTERVAL = 4096;
+
+    private final Class<?> automaton;
+    private long count;
+    private final boolean enabled;
+    private final BuildListener listener;
+    private long optimizationCount;
+    private long optimizationNanos;
+    private long optimizationStart;
+    private BuildListener.Phase phase;
+    private long phaseStart;
+
+    BuildMonitor(Class<?> automaton, BuildListener listener) {
+        this.automaton = automaton;
+        this.listener = listener;
+        this.enabled = listener != null || (automaton != null && Events.isBuildEnabled());
+    }
+
+    void endOptimization() {
+        if (enabled) {
+            optimizationNanos += System.nanoTime() - optimizationStart;
+            optimizationCount++;
+        }
+    }
+
+    // Reports the phase duration. Optimization done within the phase is reported first, as its own phase.
+    void endPhase() {
+        if (enabled) {
+            long nanos = System.nanoTime() - phaseStart;
+            if (optimizationCount > 0) {
+                phaseFinished(BuildListener.Phase.OPTIMIZATION, optimizationNanos, optimizationCount);
+                nanos -= optimizationNanos;
+            }
+            phaseFinished(phase, nanos, count);
+        }
+    }
+
+    void startOptimization() {
+        if (enabled) {
+            optimizationStart = System.nanoTime();
+        }
+    }
+
+    void startPhase(BuildListener.Phase phase) {
+        if (enabled) {
+            this.phase = phase;
+            count = 0;
+            optimizationCount = 0;
+            optimizationNanos = 0;
+            phaseStart = System.nanoTime();
+        }
+    }
+
+    void step() {
+        step(1);
+    }
+
+    // Adds the number of keywords or nodes processed. Throws CancellationException if the listener
+    // cancels the construction.
+    void step(int steps) {
+        if (enabled) {
+            long previous = count;
+            count += steps;
+            if (listener != null && previous / PROGRESS_INTERVAL != count / PROGRESS_INTERVAL && !listener.progress(phase, count)) {
+                throw new CancellationException("Construction cancelled during " + phase + " phase.");
+            }
+        }
+    }
+
+    private void phaseFinished(BuildListener.Phase phase, long nanos, long count) {
+        if (listener != null) {
+            listener.phaseFinished(phase, nanos, count);
+        }
+        if (automaton != null) {
+            Events.buildPhase(automaton, phase, nanos, count);
+        }
+    }
+
+}
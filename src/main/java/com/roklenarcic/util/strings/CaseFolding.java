@@ -0,0 +1,122 @@
+package com.roklenarcic.util.strings;
+
+import java.util.Arrays;
+
+// Case folding of chars for case insensitive matching. Keywords and haystacks are folded the same way, so
+// chars with the same folding match each other.
+//
+// Folding is a lookup in precomputed tables: a table for ASCII and a two level table for the rest of
+// the BMP, which holds the difference between the folded and the original char. Blocks of 256 chars
+// without case mappings share a single block of zeros, so the tables take a few kilobytes. Outside Latin-1
+// this is cheaper than Character.toLowerCase, which has several branches for each char of the haystack.
+public final class CaseFolding {
+
+    // No folding, for case sensitive matching.
+    public static final CaseFolding NONE = new CaseFolding("NONE", false, false);
+    // Character.toLowerCase, used by case insensitive sets and maps unless a different folding is given.
+    public static final CaseFolding LOWER_CASE = new CaseFolding("LOWER_CASE", true, false);
+    // Lower case of the upper case of the char, which is the simple case folding of Unicode for the BMP,
+    // apart from the direction of folding of a few scripts. Unlike LOWER_CASE it folds chars that are
+    // already lower case, but have a different upper case, such as the long s (U+017F), which matches
+    // 's' and 'S', the micro sign (U+00B5), which matches Greek mu, and the final sigma (U+03C2).
+    public static final CaseFolding SIMPLE = new CaseFolding("SIMPLE", true, true);
+    // The same foldings as LOWER_CASE and SIMPLE, but the automata fold the keywords only. Transitions are
+    // added for all case variants of the keyword chars, so matching doesn't fold the haystack and runs the
+    // same loop as case sensitive matching. The automata take more memory, because range nodes span both
+    // cases, and the extra cache misses can cost more than folding. Word characters of whole word matching
+    // are checked on the haystack chars as they are.
+    public static final CaseFolding LOWER_CASE_TRANSITIONS = new CaseFolding(LOWER_CASE, "LOWER_CASE_TRANSITIONS");
+    public static final CaseFolding SIMPLE_TRANSITIONS = new CaseFolding(SIMPLE, "SIMPLE_TRANSITIONS");
+
+    // Case variants at most this far from the keys of a range node are put into its range, the others
+    // are kept next to it, so far variants like the Kelvin sign (U+212A) don't make huge ranges.
+    static final int RANGE_REACH = 128;
+
+    private static final char[] NO_VARIANTS = new char[0];
+
+    private final char[] ascii;
+    private final char[][] blocks;
+    private final String name;
+    // Inverse of the folding, which holds the chars that fold into a char, other than the char itself.
+    // It uses the same two level layout as the folding tables. Null if the folding has no case transitions.
+    private final char[][][] variants;
+
+    private CaseFolding(String name, boolean lowerCase, boolean upperCaseFirst) {
+        this.name = name;
+        this.ascii = new char[128];
+        this.blocks = new char[256][];
+        this.variants = null;
+        char[] zeros = new char[256];
+        for (int high = 0; high < blocks.length; high++) {
+            char[] block = null;
+            for (int low = 0; low < 256; low++) {
+                char c = (char) (high << 8 | low);
+                char folded = upperCaseFirst ? Character.toUpperCase(c) : c;
+                folded = lowerCase ? Character.toLowerCase(folded) : folded;
+                if (c < ascii.length) {
+                    ascii[c] = folded;
+                }
+                if (folded != c) {
+                    if (block == null) {
+                        block = new char[256];
+                    }
+                    block[low] = (char) (folded - c);
+                }
+            }
+            blocks[high] = block == null ? zeros : block;
+        }
+    }
+
+    private CaseFolding(CaseFolding folding, String name) {
+        this.name = name;
+        this.ascii = folding.ascii;
+        this.blocks = folding.blocks;
+        this.variants = new char[256][][];
+        for (int i = 0; i <= Character.MAX_VALUE; i++) {
+            char c = (char) i;
+            char folded = fold(c);
+            if (folded != c) {
+                char[][] block = variants[folded >>> 8];
+                if (block == null) {
+                    block = variants[folded >>> 8] = new char[256][];
+                }
+                char[] chars = block[folded & 0xFF];
+                chars = chars == null ? new char[1] : Arrays.copyOf(chars, chars.length + 1);
+                chars[chars.length - 1] = c;
+                block[folded & 0xFF] = chars;
+            }
+        }
+    }
+
+    static CaseFolding of(boolean caseSensitive) {
+        return caseSensitive ? NONE : LOWER_CASE;
+    }
+
+    public char fold(char c) {
+        return c < 128 ? ascii[c] : (char) (c + blocks[c >>> 8][c & 0xFF]);
+    }
+
+    // True if automata add transitions for the case variants instead of folding the haystack.
+    public boolean hasCaseTransitions() {
+        return variants != null;
+    }
+
+    // Chars other than the folded char that fold into it.
+    char[] variants(char folded) {
+        char[][] block = variants[folded >>> 8];
+        if (block == null || block[folded & 0xFF] == null) {
+            return NO_VARIANTS;
+        }
+        return block[folded & 0xFF];
+    }
+
+    public boolean isCaseSensitive() {
+        return this == NONE;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.roklenarcic.util.strings;
+
+// Passes matches on to a set or a map listener and counts them.
+final class CountingMatchListener<T> implements SetMatchListener, MapMatchListener<T> {
+
+    private long count = 0;
+    private final MapMatchListener<T> mapListener;
+    private final SetMatchListener setListener;
+
+    CountingMatchListener(MapMatchListener<T> mapListener) {
+        this.mapListener = mapListener;
+        this.setListener = null;
+    }
+
+    CountingMatchListener(SetMatchListener setListener) {
+        this.mapListener = null;
+        this.setListener = setListener;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public boolean match(String haystack, int startPosition, int endPosition) {
+        count++;
+        return setListener.match(haystack, startPosition, endPosition);
+    }
+
+    public boolean match(String haystack, int startPosition, int endPosition, T value) {
+        count++;
+        return mapListener.match(haystack, startPosition, endPosition, value);
+    }
+
+}
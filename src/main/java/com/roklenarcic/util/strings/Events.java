@@ -0,0 +1,27 @@
+package com.roklenarcic.util.strings;
+
+// Hooks for Flight Recorder events. This is the Java 7 version, which does nothing, so the calls are
+// removed by the JIT. The multi-release JAR contains a version for Java 11 and later (src/main/java11),
+// which emits JFR events while they are being recorded.
+final class Events {
+
+    private Events() {
+    }
+
+    // Returns an event for the match call if match events are recorded, null otherwise.
+    static Object beginMatch() {
+        return null;
+    }
+
+    static void buildPhase(Class<?> automaton, BuildListener.Phase phase, long nanos, long count) {
+    }
+
+    // Ends the event returned by beginMatch.
+    static void endMatch(Object event, Object automaton, int chars, long matches) {
+    }
+
+    static boolean isBuildEnabled() {
+        return false;
+    }
+
+}
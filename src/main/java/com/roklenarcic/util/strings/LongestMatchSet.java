@@ -1,7 +1,12 @@
 package com.roklenarcic.util.strings;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
+import com.roklenarcic.util.strings.threshold.BudgetThresholder;
+import com.roklenarcic.util.strings.threshold.NodeProfile;
 import com.roklenarcic.util.strings.threshold.RangeNodeThreshold;
 import com.roklenarcic.util.strings.threshold.Thresholder;
 
@@ -9,6 +14,10 @@ import com.roklenarcic.util.strings.threshold.Thresholder;
 // matches with a string set that doesn't have strings that are prefix to other strings in the set.
 public class LongestMatchSet implements StringSet {
 
+    // Placeholder for the transitions of case variants while the automaton is built.
+    private static final TrieNode CASE_VARIANT = new HashmapNode(false, 0);
+
+    private CaseFolding caseFolding = CaseFolding.NONE;
     private boolean caseSensitive = true;
     private TrieNode root;
 
@@ -17,25 +26,70 @@ public class LongestMatchSet implements StringSet {
     }
 
     public LongestMatchSet(final Iterable<String> keywords, boolean caseSensitive, final Thresholder thresholdStrategy) {
-        this.caseSensitive = caseSensitive;
+        this(keywords, caseSensitive, thresholdStrategy, null);
+    }
+
+    // Reports construction progress to the listener, which may also cancel the construction.
+    public LongestMatchSet(final Iterable<String> keywords, boolean caseSensitive, final Thresholder thresholdStrategy,
+            final BuildListener listener) {
+        this(keywords, CaseFolding.of(caseSensitive), thresholdStrategy, listener);
+    }
+
+    // Folds the chars of keywords and haystacks with the given case folding, CaseFolding.NONE is case sensitive.
+    public LongestMatchSet(final Iterable<String> keywords, CaseFolding caseFolding) {
+        this(keywords, caseFolding, new RangeNodeThreshold(), null);
+    }
+
+    // Case folding with all the other options, listener may be null.
+    public LongestMatchSet(final Iterable<String> keywords, CaseFolding caseFolding, final Thresholder thresholdStrategy,
+            final BuildListener listener) {
+        this.caseFolding = caseFolding;
+        this.caseSensitive = caseFolding.isCaseSensitive();
         // Create the root node
         root = new HashmapNode(true, 0);
+        final BuildMonitor monitor = new BuildMonitor(getClass(), listener);
+        monitor.startPhase(BuildListener.Phase.INSERTION);
+        // Build the trie bottom up while the keywords come in sorted order.
+        SortedTrieBuilder<HashmapNode> sortedBuilder = new SortedTrieBuilder<HashmapNode>(caseFolding, false) {
+
+            @Override
+            protected HashmapNode createNode(int level, char[] keys, Object[] children, int size, int matchLength, Object value) {
+                HashmapNode node = new HashmapNode(level == 0, level);
+                node.setChildren(keys, children, size);
+                node.matchLength = matchLength;
+                return node;
+            }
+        };
         // Add all keywords
         for (String keyword : keywords) {
             // Skip any empty keywords
             if (keyword != null && keyword.length() > 0) {
+                monitor.step();
+                // Once a keyword comes out of order, finish the nodes built so far
+                // and add the rest of the keywords one by one.
+                if (sortedBuilder != null) {
+                    if (sortedBuilder.add(keyword, null)) {
+                        continue;
+                    }
+                    root = sortedBuilder.finish();
+                    sortedBuilder = null;
+                }
                 // Start with the current node and traverse the tree
                 // character by character. Add nodes as needed to
                 // fill out the tree.
                 HashmapNode currentNode = (HashmapNode) root;
                 for (int idx = 0; idx < keyword.length(); idx++) {
-                    currentNode = currentNode.getOrAddChild(caseSensitive ? keyword.charAt(idx) : Character.toLowerCase(keyword.charAt(idx)));
+                    currentNode = currentNode.getOrAddChild(caseFolding.fold(keyword.charAt(idx)));
                 }
                 // Last node will contains the keyword as a match.
                 // Suffix matches will be added later.
                 currentNode.matchLength = keyword.length();
             }
         }
+        if (sortedBuilder != null) {
+            root = sortedBuilder.finish();
+        }
+        monitor.endPhase();
         // Go through nodes breadth first, swap any hashmap nodes,
         // whose size is close to the size of range of keys with
         // flat array based nodes.
@@ -46,7 +100,16 @@ public class LongestMatchSet implements StringSet {
         // for all 2 letter words.
         //
         final Queue<TrieNode> queue = new Queue<TrieNode>();
+        if (caseFolding.hasCaseTransitions()) {
+            addCaseVariants();
+        }
+        monitor.startPhase(BuildListener.Phase.FAIL_TRANSITIONS);
+        if (thresholdStrategy instanceof BudgetThresholder) {
+            planBudget((BudgetThresholder) thresholdStrategy);
+        }
+        monitor.startOptimization();
         root = root.optimizeNode(0, thresholdStrategy);
+        monitor.endOptimization();
         queue.push(root);
         queue.push(null);
         // Need to use array to get mutateable state for anonymous class
@@ -55,8 +118,11 @@ public class LongestMatchSet implements StringSet {
         EntryVisitor failTransAndOutputsVisitor = new EntryVisitor() {
 
             public void visit(TrieNode parent, char key, TrieNode value) {
+                monitor.step();
                 // First optimize node
+                monitor.startOptimization();
                 value = value.optimizeNode(level[0], thresholdStrategy);
+                monitor.endOptimization();
                 parent.updateTransition(key, value);
 
                 // Get fail transiton of the parent.
@@ -138,6 +204,8 @@ public class LongestMatchSet implements StringSet {
             }
         }
 
+        monitor.endPhase();
+
         // Range nodes represent a range of transitions without all the transitions in the range being
         // there. In case of hitting on an empty slot the logic in match loop runs down the fail transition
         // chain to find a node with a transition for that char. Instead of wasting space on empty slots
@@ -153,11 +221,13 @@ public class LongestMatchSet implements StringSet {
             }
 
         };
+        monitor.startPhase(BuildListener.Phase.RANGE_NODE_GAPS);
         root.mapEntries(enqueueNodesVisitor);
         while (!queue.isEmpty()) {
             TrieNode node = queue.pop();
             if (node == null) {
                 node = queue.pop();
+                monitor.step();
                 if (node instanceof RangeNode) {
                     // Range nodes have gaps (null values) in their array. We can put this wasted
                     // memory to work by filling these gaps with the correct next node for that character
@@ -187,9 +257,25 @@ public class LongestMatchSet implements StringSet {
                 node.mapEntries(enqueueNodesVisitor);
             }
         }
+        monitor.endPhase();
+        if (caseFolding.hasCaseTransitions()) {
+            resolveCaseVariants();
+        }
     }
 
     public void match(final String haystack, final SetMatchListener listener) {
+        final Object event = Events.beginMatch();
+        if (event == null) {
+            matchHaystack(haystack, listener);
+        } else {
+            // Match calls are recorded by Flight Recorder.
+            final CountingMatchListener<Object> counter = new CountingMatchListener<Object>(listener);
+            matchHaystack(haystack, counter);
+            Events.endMatch(event, this, haystack.length(), counter.getCount());
+        }
+    }
+
+    private void matchHaystack(final String haystack, final SetMatchListener listener) {
 
         // Start with the root node.
         TrieNode currentNode = root;
@@ -232,7 +318,7 @@ public class LongestMatchSet implements StringSet {
             queue.matchAndClear(haystack, listener, Integer.MAX_VALUE);
         } else {
             while (idx < len) {
-                final char c = Character.toLowerCase(haystack.charAt(idx));
+                final char c = caseFolding.fold(haystack.charAt(idx));
                 // Try to transition from the current node using the character
                 TrieNode nextNode = currentNode.getTransition(c);
 
@@ -264,6 +350,184 @@ public class LongestMatchSet implements StringSet {
         }
     }
 
+    // Collects statistics of the automaton by walking the trie breadth first.
+    // Walking the trie uses a set of visited nodes, which needs memory proportional to the number of nodes.
+    public AutomatonStats stats() {
+        final AutomatonStats stats = new AutomatonStats();
+        final Queue<TrieNode> queue = new Queue<TrieNode>();
+        final Set<TrieNode> visited = Collections.newSetFromMap(new IdentityHashMap<TrieNode, Boolean>());
+        visited.add(root);
+        queue.push(root);
+        queue.push(null);
+        int depth = 0;
+        EntryVisitor childrenVisitor = new EntryVisitor() {
+
+            public void visit(TrieNode parent, char key, TrieNode value) {
+                // Gaps in range nodes are filled with transitions to nodes on the levels above,
+                // which have already been visited.
+                if (!visited.add(value)) {
+                    return;
+                }
+                if (parent instanceof RangeNode) {
+                    stats.addRangeNodeChild();
+                }
+                queue.push(value);
+            }
+        };
+        while (!queue.isEmpty()) {
+            TrieNode n = queue.take();
+            if (n == null) {
+                if (!queue.isEmpty()) {
+                    queue.push(null);
+                    depth++;
+                }
+            } else {
+                n.addStats(stats, depth);
+                n.mapEntries(childrenVisitor);
+            }
+        }
+        return stats;
+    }
+
+    // Instrumented variant of matching, which doesn't output matches, but counts the work done while matching
+    // the haystacks: transitions, fail transitions, output chain steps, hashmap probes and visits of each node.
+    // It is much slower than matching and meant for finding out why matching is slow on some haystacks.
+    public MatchDiagnostics diagnose(final Iterable<String> haystacks) {
+        final MatchDiagnostics diagnostics = new MatchDiagnostics();
+        for (String haystack : haystacks) {
+            diagnostics.addHaystack(haystack.length());
+            TrieNode currentNode = root;
+            for (int idx = 0; idx < haystack.length(); idx++) {
+                final char c = caseFolding.fold(haystack.charAt(idx));
+                diagnostics.addLookup(currentNode.probeLength(c));
+                TrieNode nextNode = currentNode.getTransition(c);
+                int failHops = 0;
+                while (nextNode == null) {
+                    currentNode = currentNode.getFailTransition();
+                    failHops++;
+                    diagnostics.addLookup(currentNode.probeLength(c));
+                    nextNode = currentNode.getTransition(c);
+                }
+                diagnostics.addTransition(failHops);
+                currentNode = nextNode;
+                diagnostics.hit(currentNode);
+                diagnostics.addOutput(currentNode.outputChainLength());
+            }
+        }
+        diagnostics.finish(nodeHits(diagnostics));
+        return diagnostics;
+    }
+
+    // Walks the trie breadth first to find the prefixes of the visited nodes.
+    private NodeProfile nodeHits(final MatchDiagnostics diagnostics) {
+        final NodeProfile profile = new NodeProfile();
+        final Queue<TrieNode> queue = new Queue<TrieNode>();
+        final Queue<String> prefixes = new Queue<String>();
+        final Set<TrieNode> visited = Collections.newSetFromMap(new IdentityHashMap<TrieNode, Boolean>());
+        // Need to use array to get mutateable state for anonymous class
+        final String[] prefix = new String[1];
+        visited.add(root);
+        queue.push(root);
+        prefixes.push("");
+        EntryVisitor childrenVisitor = new EntryVisitor() {
+
+            public void visit(TrieNode parent, char key, TrieNode value) {
+                // Skip the filled gaps in range nodes.
+                if (visited.add(value)) {
+                    queue.push(value);
+                    prefixes.push(prefix[0] + key);
+                }
+            }
+        };
+        while (!queue.isEmpty()) {
+            TrieNode n = queue.take();
+            prefix[0] = prefixes.take();
+            long hits = diagnostics.hits(n);
+            if (hits != 0) {
+                profile.add(prefix[0], hits);
+            }
+            n.mapEntries(childrenVisitor);
+        }
+        return profile;
+    }
+
+    // Adds transitions for the case variants of keyword chars, so matching doesn't need to fold the haystack.
+    // The transitions lead to a placeholder, which the build skips, until they are resolved to the
+    // transitions of the folded chars once the automaton is built.
+    private void addCaseVariants() {
+        final Queue<TrieNode> queue = new Queue<TrieNode>();
+        EntryVisitor childrenVisitor = new EntryVisitor() {
+
+            public void visit(TrieNode parent, char key, TrieNode value) {
+                queue.push(value);
+            }
+        };
+        queue.push(root);
+        while (!queue.isEmpty()) {
+            HashmapNode n = (HashmapNode) queue.take();
+            n.mapEntries(childrenVisitor);
+            n.addCaseVariants(caseFolding);
+        }
+    }
+
+    // Replaces the placeholders with the transitions of the folded chars. From then on the haystack is
+    // matched as it is, with the case sensitive loop.
+    private void resolveCaseVariants() {
+        final Queue<TrieNode> queue = new Queue<TrieNode>();
+        final Set<TrieNode> visited = Collections.newSetFromMap(new IdentityHashMap<TrieNode, Boolean>());
+        EntryVisitor childrenVisitor = new EntryVisitor() {
+
+            public void visit(TrieNode parent, char key, TrieNode value) {
+                // Skip the filled gaps in range nodes.
+                if (visited.add(value)) {
+                    queue.push(value);
+                }
+            }
+        };
+        visited.add(root);
+        queue.push(root);
+        while (!queue.isEmpty()) {
+            TrieNode n = queue.take();
+            n.mapEntries(childrenVisitor);
+            n.resolveCaseVariants(caseFolding);
+        }
+        caseFolding = CaseFolding.NONE;
+        caseSensitive = true;
+    }
+
+    // Offers the nodes to the budget thresholder as candidates, so it can choose which nodes
+    // become range nodes before the optimization. Levels are the same as in the optimization.
+    private void planBudget(BudgetThresholder budget) {
+        final Thresholder candidates = budget.startPlanning();
+        final Queue<TrieNode> queue = new Queue<TrieNode>();
+        // Need to use array to get mutateable state for anonymous class
+        final int[] level = new int[] { 1 };
+        EntryVisitor offerVisitor = new EntryVisitor() {
+
+            public void visit(TrieNode parent, char key, TrieNode value) {
+                value.optimizeNode(level[0], candidates);
+                if (!value.isEmpty()) {
+                    queue.push(value);
+                }
+            }
+        };
+        // Root is always a range node.
+        queue.push(root);
+        queue.push(null);
+        while (!queue.isEmpty()) {
+            TrieNode n = queue.take();
+            if (n == null) {
+                if (!queue.isEmpty()) {
+                    queue.push(null);
+                    level[0]++;
+                }
+            } else {
+                n.mapEntries(offerVisitor);
+            }
+        }
+        budget.plan();
+    }
+
     private interface EntryVisitor {
         void visit(TrieNode parent, char key, TrieNode value);
     }
@@ -284,6 +548,19 @@ public class LongestMatchSet implements StringSet {
             super(root, level);
         }
 
+        @Override
+        public void addStats(AutomatonStats stats, int depth) {
+            long probeLengths = 0;
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] != null) {
+                    probeLengths += ((i - hash(keys[i])) & modulusMask) + 1;
+                }
+            }
+            stats.addHashmapNode(depth, keys.length, numEntries, probeLengths, AutomatonStats.objectSize(5, 16)
+                    + AutomatonStats.arraySize(keys.length, 2) + AutomatonStats.arraySize(children.length, 4));
+            stats.addOutputChain(outputChainLength());
+        }
+
         @Override
         public TrieNode getTransition(final char key) {
             int defaultSlot = hash(key) & modulusMask;
@@ -301,6 +578,22 @@ public class LongestMatchSet implements StringSet {
             return defaultTransition;
         }
 
+        @Override
+        protected int probeLength(final char key) {
+            int defaultSlot = hash(key) & modulusMask;
+            int currentSlot = defaultSlot;
+            int probes = 1;
+            // Same probing as in getTransition.
+            while (keys[currentSlot] != key && children[currentSlot] != null) {
+                currentSlot = ++currentSlot & modulusMask;
+                if (currentSlot == defaultSlot) {
+                    break;
+                }
+                probes++;
+            }
+            return probes;
+        }
+
         @Override
         public boolean isEmpty() {
             return numEntries == 0;
@@ -309,7 +602,7 @@ public class LongestMatchSet implements StringSet {
         @Override
         public void mapEntries(EntryVisitor visitor) {
             for (int i = 0; i < keys.length; i++) {
-                if (children[i] != null) {
+                if (children[i] != null && children[i] != CASE_VARIANT) {
                     visitor.visit(this, keys[i], children[i]);
                 }
             }
@@ -336,10 +629,12 @@ public class LongestMatchSet implements StringSet {
         protected TrieNode optimizeNode(int level, Thresholder thresholdStrategy) {
             char minKey = '\uffff';
             char maxKey = 0;
-            // Find you the min and max key on the node.
-            int size = numEntries;
+            // Find you the min and max key on the node. Case variants are left out, so the thresholder
+            // sees the same node as without them.
+            int size = 0;
             for (int i = 0; i < children.length; i++) {
-                if (children[i] != null) {
+                if (children[i] != null && children[i] != CASE_VARIANT) {
+                    size++;
                     if (keys[i] > maxKey) {
                         maxKey = keys[i];
                     }
@@ -352,7 +647,16 @@ public class LongestMatchSet implements StringSet {
             // or only slightly larger than number of entries, use a range node
             int keyIntervalSize = maxKey - minKey + 1;
             if (defaultTransition != null || thresholdStrategy.isOverThreshold(size, level, keyIntervalSize)) {
-                return new RangeNode(this, minKey, maxKey);
+                // Case variants close to the keys widen the range, the others are kept on the side.
+                char from = minKey;
+                char to = maxKey;
+                for (int i = 0; i < children.length; i++) {
+                    if (children[i] == CASE_VARIANT && keys[i] + CaseFolding.RANGE_REACH > minKey && keys[i] < maxKey + CaseFolding.RANGE_REACH) {
+                        from = keys[i] < from ? keys[i] : from;
+                        to = keys[i] > to ? keys[i] : to;
+                    }
+                }
+                return new RangeNode(this, from, to);
             } else {
                 return this;
             }
@@ -415,6 +719,78 @@ public class LongestMatchSet implements StringSet {
             throw new IllegalStateException();
         }
 
+        // Adds transitions to the placeholder for the case variants of the keys, unless the variants
+        // have transitions of their own.
+        private void addCaseVariants(CaseFolding caseFolding) {
+            // Adding may enlarge the node, so iterate over the current tables.
+            char[] currentKeys = keys;
+            TrieNode[] currentChildren = children;
+            for (int i = 0; i < currentKeys.length; i++) {
+                if (currentChildren[i] != null && currentChildren[i] != CASE_VARIANT) {
+                    for (char variant : caseFolding.variants(currentKeys[i])) {
+                        addCaseVariant(variant);
+                    }
+                }
+            }
+        }
+
+        private void addCaseVariant(char key) {
+            // Same resizing and probing as in getOrAddChild.
+            if (keys.length < 0x10000 && ((numEntries >= keys.length) || (numEntries > 16 && (numEntries >= keys.length * 0.90f)))) {
+                enlarge();
+            }
+            int defaultSlot = hash(key) & modulusMask;
+            int currentSlot = defaultSlot;
+            do {
+                if (children[currentSlot] == null) {
+                    keys[currentSlot] = key;
+                    children[currentSlot] = CASE_VARIANT;
+                    ++numEntries;
+                    return;
+                } else if (keys[currentSlot] == key) {
+                    return;
+                } else {
+                    currentSlot = ++currentSlot & modulusMask;
+                }
+            } while (currentSlot != defaultSlot);
+            throw new IllegalStateException();
+        }
+
+        // Sets the children of an empty node. The capacity is the same as if the children were added
+        // one by one, but the tables are allocated once and never rehashed.
+        private void setChildren(char[] childKeys, Object[] childNodes, int size) {
+            if (size == 0) {
+                return;
+            }
+            int capacity = 1;
+            for (int n = 0; n < size; n++) {
+                if (capacity < 0x10000 && ((n >= capacity) || (n > 16 && (n >= capacity * 0.90f)))) {
+                    capacity *= 2;
+                }
+            }
+            keys = new char[capacity];
+            children = new TrieNode[capacity];
+            modulusMask = capacity - 1;
+            for (int i = 0; i < size; i++) {
+                int currentSlot = hash(childKeys[i]) & modulusMask;
+                while (children[currentSlot] != null) {
+                    currentSlot = ++currentSlot & modulusMask;
+                }
+                keys[currentSlot] = childKeys[i];
+                children[currentSlot] = (TrieNode) childNodes[i];
+            }
+            numEntries = size;
+        }
+
+        @Override
+        protected void resolveCaseVariants(CaseFolding caseFolding) {
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] == CASE_VARIANT) {
+                    children[i] = getTransition(caseFolding.fold(keys[i]));
+                }
+            }
+        }
+
         // FNV-1a hash
         private int hash(char c) {
             // HASH_BASIS = 0x811c9dc5;
@@ -431,6 +807,8 @@ public class LongestMatchSet implements StringSet {
 
         private char baseChar = 0;
         private TrieNode[] children;
+        // Case variants out of the range.
+        private HashmapNode farVariants;
         private int size = 0;
 
         private RangeNode(HashmapNode oldNode, char from, char to) {
@@ -451,12 +829,28 @@ public class LongestMatchSet implements StringSet {
                 // Grab the children of the old node.
                 for (int i = 0; i < oldNode.children.length; i++) {
                     if (oldNode.children[i] != null) {
-                        children[oldNode.keys[i] - from] = oldNode.children[i];
+                        if (oldNode.keys[i] < from || oldNode.keys[i] > to) {
+                            if (farVariants == null) {
+                                farVariants = new HashmapNode(false, 0);
+                                farVariants.defaultTransition = defaultTransition;
+                            }
+                            farVariants.addCaseVariant(oldNode.keys[i]);
+                        } else {
+                            children[oldNode.keys[i] - from] = oldNode.children[i];
+                        }
                     }
                 }
             }
         }
 
+        @Override
+        public void addStats(AutomatonStats stats, int depth) {
+            stats.addRangeNode(depth, size, AutomatonStats.objectSize(5, 14) + (children == null ? 0 : AutomatonStats.arraySize(size, 4))
+                    + (farVariants == null ? 0 : AutomatonStats.arraySize(farVariants.keys.length, 2)
+                            + AutomatonStats.arraySize(farVariants.children.length, 4)));
+            stats.addOutputChain(outputChainLength());
+        }
+
         @Override
         public TrieNode getTransition(char c) {
             // First check if the key is between max and min value.
@@ -466,7 +860,7 @@ public class LongestMatchSet implements StringSet {
             if (idx < size) {
                 return children[idx];
             }
-            return defaultTransition;
+            return farVariants == null ? defaultTransition : farVariants.getTransition(c);
         }
 
         @Override
@@ -478,13 +872,31 @@ public class LongestMatchSet implements StringSet {
         public void mapEntries(EntryVisitor visitor) {
             if (children != null) {
                 for (int i = 0; i < children.length; i++) {
-                    if (children[i] != null && children[i] != this) {
+                    if (children[i] != null && children[i] != this && children[i] != CASE_VARIANT) {
                         visitor.visit(this, (char) (baseChar + i), children[i]);
                     }
                 }
             }
         }
 
+        @Override
+        protected void resolveCaseVariants(CaseFolding caseFolding) {
+            for (int i = 0; i < size; i++) {
+                if (children[i] == CASE_VARIANT) {
+                    // Gaps filled from fail transitions can hold case variants of chars without a
+                    // transition on this node, those become gaps again.
+                    children[i] = getTransition(caseFolding.fold((char) (baseChar + i)));
+                }
+            }
+            if (farVariants != null) {
+                for (int i = 0; i < farVariants.children.length; i++) {
+                    if (farVariants.children[i] == CASE_VARIANT) {
+                        farVariants.children[i] = getTransition(caseFolding.fold(farVariants.keys[i]));
+                    }
+                }
+            }
+        }
+
         @Override
         public void updateTransition(char c, TrieNode node) {
             // First check if the key is between max and min value.
@@ -525,8 +937,15 @@ public class LongestMatchSet implements StringSet {
         }
 
         // Get transition (root node returns something non-null for all characters - itself)
+        public abstract void addStats(AutomatonStats stats, int depth);
+
         public abstract TrieNode getTransition(char c);
 
+        // Number of slots checked to find the transition for the character.
+        protected int probeLength(char c) {
+            return 1;
+        }
+
         public abstract boolean isEmpty();
 
         public abstract void mapEntries(final EntryVisitor visitor);
@@ -550,8 +969,23 @@ public class LongestMatchSet implements StringSet {
             }
         }
 
+        // Replaces the placeholders of case variants with the transitions of their folded chars.
+        protected abstract void resolveCaseVariants(CaseFolding caseFolding);
+
         public abstract void updateTransition(char c, TrieNode node);
 
+        // Number of matches output when matching reaches this node.
+        protected final int outputChainLength() {
+            if (matchLength == 0) {
+                return 0;
+            }
+            int length = 1;
+            for (TrieNode n = suffixMatch; n != null; n = n.suffixMatch) {
+                length++;
+            }
+            return length;
+        }
+
         protected TrieNode optimizeNode(int level, Thresholder thresholdStrategy) {
             return this;
         }
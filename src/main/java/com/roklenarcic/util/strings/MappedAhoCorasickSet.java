@@ -0,0 +1,641 @@
+package com.roklenarcic.util.strings;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// Aho-Corasick set for dictionaries that don't fit on the heap.
+//
+// The automaton is built in external memory: keywords are sorted in runs that fit into the
+// heap budget and spilled to temporary files, the runs are merged and the trie is written
+// bottom up into the automaton file as the merged keywords stream by. Fail transitions and
+// suffix matches are then computed level by level with the levels kept in temporary files,
+// so the heap use of the whole build is bounded by the budget regardless of the dictionary size.
+//
+// The automaton file is memory mapped for matching and can be opened again later without
+// rebuilding. Matching has the same semantics as AhoCorasickSet.
+public class MappedAhoCorasickSet implements StringSet, Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long DEFAULT_HEAP_BUDGET = 64L << 20;
+    private static final int FLAG_CASE_SENSITIVE = 1;
+    // Case insensitive automata keep the index of their folding in FOLDINGS in the flags after this bit.
+    private static final int FLAG_FOLDING_SHIFT = 1;
+    // Foldings of case insensitive automata. Files written before the folding was stored have zero there.
+    private static final CaseFolding[] FOLDINGS = new CaseFolding[] { CaseFolding.LOWER_CASE, CaseFolding.SIMPLE };
+    private static final int HEADER_SIZE = 32;
+    private static final int MAGIC = 0x41434d31;
+    private static final long MIN_HEAP_BUDGET = 1L << 20;
+    private static final long NONE = -1;
+    // Node record is: int size, int matchLength, long failTransition, long suffixMatch,
+    // char[size] keys in ascending order, long[size] children.
+    private static final int NODE_FAIL = 8;
+    private static final int NODE_KEYS = 24;
+    private static final int NODE_MATCH_LENGTH = 4;
+    private static final int NODE_SUFFIX_MATCH = 16;
+    // Records never cross the boundary of a mapped segment.
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+
+    private final CaseFolding caseFolding;
+    private final boolean caseSensitive;
+    private FileChannel channel;
+    private final long nodeCount;
+    private final long root;
+    // Transitions from the root are looked up in this table, missing transitions lead to root.
+    private final long[] rootTransitions = new long[65536];
+    private MappedByteBuffer[] segments;
+
+    // Opens an automaton file that was built before.
+    public MappedAhoCorasickSet(final File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            channel = raf.getChannel();
+            segments = map(channel, FileChannel.MapMode.READ_ONLY);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        if (channel.size() < HEADER_SIZE || getInt(0) != MAGIC) {
+            close();
+            throw new IOException(file + " is not an automaton file.");
+        }
+        final int flags = getInt(4);
+        final int folding = flags >>> FLAG_FOLDING_SHIFT;
+        if (folding >= FOLDINGS.length) {
+            close();
+            throw new IOException(file + " has an unknown case folding.");
+        }
+        caseSensitive = (flags & FLAG_CASE_SENSITIVE) != 0;
+        caseFolding = caseSensitive ? CaseFolding.NONE : FOLDINGS[folding];
+        root = getLong(8);
+        nodeCount = getLong(16);
+        initRootTransitions();
+    }
+
+    public MappedAhoCorasickSet(final Iterable<String> keywords, boolean caseSensitive, final File file) throws IOException {
+        this(keywords, caseSensitive, file, DEFAULT_HEAP_BUDGET);
+    }
+
+    public MappedAhoCorasickSet(final Iterable<String> keywords, boolean caseSensitive, final File file, final long heapBudget) throws IOException {
+        this(keywords, CaseFolding.of(caseSensitive), file, heapBudget);
+    }
+
+    // Folds the chars of keywords and haystacks with the given case folding, CaseFolding.NONE is case sensitive.
+    public MappedAhoCorasickSet(final Iterable<String> keywords, CaseFolding caseFolding, final File file) throws IOException {
+        this(keywords, caseFolding, file, DEFAULT_HEAP_BUDGET);
+    }
+
+    // Builds the automaton into the given file. Temporary files are created next to it and deleted
+    // when the build is done, the automaton file is deleted if the build fails. Heap budget is the
+    // approximate number of bytes of heap used for sorting and merging keywords, it must be at least 1MB.
+    // The automaton file has no transitions for case variants, so foldings with case transitions fold
+    // the haystack like the same folding without them.
+    public MappedAhoCorasickSet(final Iterable<String> keywords, CaseFolding caseFolding, final File file, final long heapBudget) throws IOException {
+        if (heapBudget < MIN_HEAP_BUDGET) {
+            throw new IllegalArgumentException("Heap budget must be at least " + MIN_HEAP_BUDGET + " bytes.");
+        }
+        this.caseFolding = caseFolding == CaseFolding.LOWER_CASE_TRANSITIONS ? CaseFolding.LOWER_CASE
+                : caseFolding == CaseFolding.SIMPLE_TRANSITIONS ? CaseFolding.SIMPLE : caseFolding;
+        this.caseSensitive = caseFolding.isCaseSensitive();
+        final int flags = caseSensitive ? FLAG_CASE_SENSITIVE : Arrays.asList(FOLDINGS).indexOf(this.caseFolding) << FLAG_FOLDING_SHIFT;
+        final File tempDir = file.getAbsoluteFile().getParentFile();
+        final List<File> runs = new ArrayList<File>();
+        try {
+            sortRuns(keywords, this.caseFolding, tempDir, heapBudget, runs);
+            // Merge runs until they can be merged in one pass with a buffer for each run.
+            final int fanIn = (int) Math.max(2, heapBudget / 2 / BUFFER_SIZE);
+            while (runs.size() > fanIn) {
+                List<File> merged = new ArrayList<File>(runs.subList(0, fanIn));
+                // The merged runs are deleted by the merge, or below if it fails.
+                File run = mergeRuns(merged, tempDir);
+                runs.removeAll(merged);
+                runs.add(run);
+            }
+            long[] rootAndCount = writeTrie(runs, flags, file);
+            root = rootAndCount[0];
+            nodeCount = rootAndCount[1];
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        } catch (RuntimeException e) {
+            file.delete();
+            throw e;
+        } finally {
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+            segments = map(channel, FileChannel.MapMode.READ_WRITE);
+            initRootTransitions();
+            addFailTransitions(tempDir);
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+        } catch (IOException e) {
+            close();
+            file.delete();
+            throw e;
+        } catch (RuntimeException e) {
+            close();
+            file.delete();
+            throw e;
+        }
+    }
+
+    private static char[] fold(String keyword, CaseFolding caseFolding) {
+        char[] chars = keyword.toCharArray();
+        if (!caseFolding.isCaseSensitive()) {
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = caseFolding.fold(chars[i]);
+            }
+        }
+        return chars;
+    }
+
+    private static MappedByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode) throws IOException {
+        final long size = channel.size();
+        MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+        for (int i = 0; i < segments.length; i++) {
+            long start = i * SEGMENT_SIZE;
+            segments[i] = channel.map(mode, start, Math.min(SEGMENT_SIZE, size - start));
+        }
+        return segments;
+    }
+
+    // Merges the runs into a new run and deletes them. The new run is deleted if the merge fails.
+    private static File mergeRuns(List<File> runs, File tempDir) throws IOException {
+        File merged = File.createTempFile("keywords", ".run", tempDir);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(merged), BUFFER_SIZE));
+            try {
+                RunMerger merger = new RunMerger(runs);
+                try {
+                    String keyword;
+                    while ((keyword = merger.next()) != null) {
+                        writeKeyword(out, keyword);
+                    }
+                } finally {
+                    merger.close();
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            merged.delete();
+            throw e;
+        } catch (RuntimeException e) {
+            merged.delete();
+            throw e;
+        }
+        for (File run : runs) {
+            run.delete();
+        }
+        return merged;
+    }
+
+    // Splits keywords into sorted runs that fit into half of the heap budget.
+    private static void sortRuns(Iterable<String> keywords, CaseFolding caseFolding, File tempDir, long heapBudget, List<File> runs) throws IOException {
+        final long runBudget = heapBudget / 2;
+        List<String> run = new ArrayList<String>();
+        long runSize = 0;
+        for (String keyword : keywords) {
+            // Skip any empty keywords
+            if (keyword != null && keyword.length() > 0) {
+                run.add(new String(fold(keyword, caseFolding)));
+                // Approximate size of a string with its reference in the list.
+                runSize += 48 + 2 * keyword.length();
+                if (runSize >= runBudget) {
+                    runs.add(writeRun(run, tempDir));
+                    run.clear();
+                    runSize = 0;
+                }
+            }
+        }
+        if (!run.isEmpty()) {
+            runs.add(writeRun(run, tempDir));
+        }
+    }
+
+    private static void writeKeyword(DataOutputStream out, String keyword) throws IOException {
+        out.writeInt(keyword.length());
+        out.writeChars(keyword);
+    }
+
+    // Writes the sorted keywords into a new run, which is deleted if writing fails.
+    private static File writeRun(List<String> run, File tempDir) throws IOException {
+        Collections.sort(run);
+        File file = File.createTempFile("keywords", ".run", tempDir);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+            try {
+                for (String keyword : run) {
+                    writeKeyword(out, keyword);
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+        return file;
+    }
+
+    // Writes the trie nodes of the merged runs in post order and the header. Returns root offset and node count.
+    private static long[] writeTrie(List<File> runs, int flags, final File file) throws IOException {
+        final NodeWriter writer = new NodeWriter(file);
+        RunMerger merger = new RunMerger(runs);
+        long rootOffset;
+        try {
+            // Keywords are already folded, so the builder is case sensitive.
+            SortedTrieBuilder<Long> builder = new SortedTrieBuilder<Long>(CaseFolding.NONE, false) {
+
+                @Override
+                protected Long createNode(int level, char[] keys, Object[] children, int size, int matchLength, Object value) {
+                    return writer.write(keys, children, size, matchLength);
+                }
+            };
+            String keyword;
+            while ((keyword = merger.next()) != null) {
+                if (!builder.add(keyword, null)) {
+                    throw new IllegalStateException("Merged keywords are out of order.");
+                }
+            }
+            rootOffset = builder.finish();
+        } catch (NodeWriter.WriteException e) {
+            throw (IOException) e.getCause();
+        } finally {
+            merger.close();
+            writer.close();
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.writeInt(MAGIC);
+            raf.writeInt(flags);
+            raf.writeLong(rootOffset);
+            raf.writeLong(writer.nodeCount);
+        } finally {
+            raf.close();
+        }
+        return new long[] { rootOffset, writer.nodeCount };
+    }
+
+    // Unmaps the automaton, matching afterwards throws IllegalStateException.
+    public void close() throws IOException {
+        segments = null;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    // Number of nodes in the automaton.
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    public CaseFolding getCaseFolding() {
+        return caseFolding;
+    }
+
+    public boolean isCaseSensitive() {
+        return caseSensitive;
+    }
+
+    public void match(final String haystack, final SetMatchListener listener) {
+        if (segments == null) {
+            throw new IllegalStateException("closed");
+        }
+        final Object event = Events.beginMatch();
+        if (event == null) {
+            matchHaystack(haystack, listener);
+        } else {
+            // Match calls are recorded by Flight Recorder.
+            final CountingMatchListener<Object> counter = new CountingMatchListener<Object>(listener);
+            matchHaystack(haystack, counter);
+            Events.endMatch(event, this, haystack.length(), counter.getCount());
+        }
+    }
+
+    private void matchHaystack(final String haystack, final SetMatchListener listener) {
+        // Start with the root node.
+        long currentNode = root;
+
+        int idx = 0;
+        // For each character.
+        final int len = haystack.length();
+        while (idx < len) {
+            final char c = caseSensitive ? haystack.charAt(idx) : caseFolding.fold(haystack.charAt(idx));
+            // If cannot transition, follow the fail transition until finding
+            // node X where you can transition to another node Y using this
+            // character. Root node transitions to itself for any missing transition.
+            long nextNode;
+            while ((nextNode = currentNode == root ? rootTransitions[c] : getTransition(currentNode, c)) == NONE) {
+                currentNode = getLong(currentNode + NODE_FAIL);
+            }
+            // Take the transition.
+            currentNode = nextNode;
+            ++idx;
+            // Output any matches on the current node. Nodes without a match of their own
+            // carry the first suffix match, same as in AhoCorasickSet.
+            int matchLength = getInt(currentNode + NODE_MATCH_LENGTH);
+            if (matchLength > 0) {
+                if (!listener.match(haystack, idx - matchLength, idx)) {
+                    return;
+                }
+                long suffixMatch = getLong(currentNode + NODE_SUFFIX_MATCH);
+                while (suffixMatch != NONE) {
+                    if (!listener.match(haystack, idx - getInt(suffixMatch + NODE_MATCH_LENGTH), idx)) {
+                        return;
+                    }
+                    suffixMatch = getLong(suffixMatch + NODE_SUFFIX_MATCH);
+                }
+            }
+        }
+    }
+
+    // Calculate fail transitions and suffix matches breadth first. Offsets of the nodes
+    // of each level are kept in a temporary file, so only the mapped file is randomly accessed.
+    private void addFailTransitions(File tempDir) throws IOException {
+        putLong(root + NODE_FAIL, root);
+        File level = File.createTempFile("level", ".bin", tempDir);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(level), BUFFER_SIZE));
+            try {
+                out.writeLong(root);
+            } finally {
+                out.close();
+            }
+            boolean hasNodes = true;
+            while (hasNodes) {
+                hasNodes = false;
+                File nextLevel = File.createTempFile("level", ".bin", tempDir);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(level), BUFFER_SIZE));
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(nextLevel), BUFFER_SIZE));
+                try {
+                    long parent;
+                    while ((parent = readOffset(in)) != NONE) {
+                        final int size = getInt(parent);
+                        for (int i = 0; i < size; i++) {
+                            final char key = getChar(parent + NODE_KEYS + 2 * i);
+                            final long child = getLong(parent + NODE_KEYS + 2 * size + 8 * i);
+                            addFailTransition(parent, key, child);
+                            if (getInt(child) > 0) {
+                                out.writeLong(child);
+                                hasNodes = true;
+                            }
+                        }
+                    }
+                } finally {
+                    in.close();
+                    out.close();
+                }
+                level.delete();
+                level = nextLevel;
+            }
+        } finally {
+            level.delete();
+        }
+    }
+
+    private void addFailTransition(long parent, char key, long child) {
+        long failTransition = root;
+        if (parent != root) {
+            // Dig up the tree until you find a fail transition. The last fail
+            // transition is the root node, which always has a key mapping.
+            long parentFail = getLong(parent + NODE_FAIL);
+            while ((failTransition = parentFail == root ? rootTransitions[key] : getTransition(parentFail, key)) == NONE) {
+                parentFail = getLong(parentFail + NODE_FAIL);
+            }
+        }
+        putLong(child + NODE_FAIL, failTransition);
+        // Link the first fail transition with a match as suffix match. Nodes without a match
+        // of their own take over the suffix match instead.
+        long fail = failTransition;
+        while (fail != root && getInt(fail + NODE_MATCH_LENGTH) == 0) {
+            fail = getLong(fail + NODE_FAIL);
+        }
+        final int failMatchLength = getInt(fail + NODE_MATCH_LENGTH);
+        if (failMatchLength > 0) {
+            if (getInt(child + NODE_MATCH_LENGTH) == 0) {
+                putInt(child + NODE_MATCH_LENGTH, failMatchLength);
+                putLong(child + NODE_SUFFIX_MATCH, getLong(fail + NODE_SUFFIX_MATCH));
+            } else {
+                putLong(child + NODE_SUFFIX_MATCH, fail);
+            }
+        }
+    }
+
+    private char getChar(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].getChar((int) (position & SEGMENT_MASK));
+    }
+
+    private int getInt(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].getInt((int) (position & SEGMENT_MASK));
+    }
+
+    private long getLong(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].getLong((int) (position & SEGMENT_MASK));
+    }
+
+    // Binary search over the keys of the node.
+    private long getTransition(long node, char c) {
+        final MappedByteBuffer segment = segments[(int) (node >>> SEGMENT_BITS)];
+        final int base = (int) (node & SEGMENT_MASK);
+        final int size = segment.getInt(base);
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char key = segment.getChar(base + NODE_KEYS + 2 * mid);
+            if (key < c) {
+                low = mid + 1;
+            } else if (key > c) {
+                high = mid - 1;
+            } else {
+                return segment.getLong(base + NODE_KEYS + 2 * size + 8 * mid);
+            }
+        }
+        return NONE;
+    }
+
+    private void initRootTransitions() {
+        Arrays.fill(rootTransitions, root);
+        final int size = getInt(root);
+        for (int i = 0; i < size; i++) {
+            rootTransitions[getChar(root + NODE_KEYS + 2 * i)] = getLong(root + NODE_KEYS + 2 * size + 8 * i);
+        }
+    }
+
+    private void putInt(long position, int value) {
+        segments[(int) (position >>> SEGMENT_BITS)].putInt((int) (position & SEGMENT_MASK), value);
+    }
+
+    private void putLong(long position, long value) {
+        segments[(int) (position >>> SEGMENT_BITS)].putLong((int) (position & SEGMENT_MASK), value);
+    }
+
+    private static long readOffset(DataInputStream in) throws IOException {
+        try {
+            return in.readLong();
+        } catch (EOFException e) {
+            return NONE;
+        }
+    }
+
+    // Writes node records to the automaton file, starting after the header.
+    private static class NodeWriter {
+
+        // Thrown from the trie builder callback, which cannot throw IOException.
+        private static class WriteException extends RuntimeException {
+
+            private static final long serialVersionUID = 1L;
+
+            WriteException(IOException cause) {
+                super(cause);
+            }
+        }
+
+        long nodeCount = 0;
+        private final DataOutputStream out;
+        private long position = 0;
+
+        NodeWriter(File file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+            pad(HEADER_SIZE);
+        }
+
+        void close() throws IOException {
+            out.close();
+        }
+
+        long write(char[] keys, Object[] children, int size, int matchLength) {
+            try {
+                final int recordSize = NODE_KEYS + 10 * size;
+                final long segmentRemaining = SEGMENT_SIZE - (position & SEGMENT_MASK);
+                if (recordSize > segmentRemaining) {
+                    pad(segmentRemaining);
+                }
+                final long offset = position;
+                out.writeInt(size);
+                out.writeInt(matchLength);
+                out.writeLong(NONE);
+                out.writeLong(NONE);
+                for (int i = 0; i < size; i++) {
+                    out.writeChar(keys[i]);
+                }
+                for (int i = 0; i < size; i++) {
+                    out.writeLong((Long) children[i]);
+                }
+                position += recordSize;
+                nodeCount++;
+                return offset;
+            } catch (IOException e) {
+                throw new WriteException(e);
+            }
+        }
+
+        private void pad(long count) throws IOException {
+            for (long i = 0; i < count; i++) {
+                out.write(0);
+            }
+            position += count;
+        }
+    }
+
+    // Merges sorted runs, skipping duplicate keywords.
+    private static class RunMerger {
+
+        private String last;
+        private final PriorityQueue<RunReader> readers = new PriorityQueue<RunReader>();
+        private final List<RunReader> opened = new ArrayList<RunReader>();
+
+        RunMerger(List<File> runs) throws IOException {
+            try {
+                for (File run : runs) {
+                    RunReader reader = new RunReader(run);
+                    opened.add(reader);
+                    if (reader.advance()) {
+                        readers.add(reader);
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        void close() throws IOException {
+            for (RunReader reader : opened) {
+                reader.in.close();
+            }
+        }
+
+        // Returns the next distinct keyword or null when all runs are exhausted.
+        String next() throws IOException {
+            while (!readers.isEmpty()) {
+                RunReader reader = readers.poll();
+                String keyword = reader.current;
+                if (reader.advance()) {
+                    readers.add(reader);
+                }
+                if (!keyword.equals(last)) {
+                    last = keyword;
+                    return keyword;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static class RunReader implements Comparable<RunReader> {
+
+        String current;
+        final DataInputStream in;
+
+        RunReader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        }
+
+        public int compareTo(RunReader o) {
+            return current.compareTo(o.current);
+        }
+
+        boolean advance() throws IOException {
+            final int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                current = null;
+                return false;
+            }
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = in.readChar();
+            }
+            current = new String(chars);
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+package com.roklenarcic.util.strings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.roklenarcic.util.strings.threshold.NodeProfile;
+
+// Counts of the work done by the automaton while matching sample haystacks: transitions taken, fail
+// transition hops, restarts from the root at word boundaries, output chain steps, hashmap probes and
+// visits of each node. Produced by the diagnose method of sets and maps, which is an instrumented copy of
+// the matching loop, so the normal matching is not slowed down.
+//
+// Output chain steps count the matches on the suffix match chain of each node the matching reaches. Longest
+// match automatons can stop walking the chain early, so for them it's an upper bound.
+public class MatchDiagnostics {
+
+    private long charCount = 0;
+    private long failTransitionCount = 0;
+    private long haystackCount = 0;
+    private Map<Object, long[]> hits = new IdentityHashMap<Object, long[]>();
+    private long lookupCount = 0;
+    private int maxFailChainLength = 0;
+    private int maxOutputChainLength = 0;
+    private int maxProbeLength = 0;
+    private NodeProfile nodeHits;
+    private long outputSteps = 0;
+    private long probes = 0;
+    private long restartCount = 0;
+    private long transitionCount = 0;
+
+    MatchDiagnostics() {
+    }
+
+    // Average number of slots checked per transition lookup. Range node lookups check one slot.
+    public double getAverageProbeLength() {
+        return lookupCount == 0 ? 0 : (double) probes / lookupCount;
+    }
+
+    public long getCharCount() {
+        return charCount;
+    }
+
+    // Number of fail transitions followed.
+    public long getFailTransitionCount() {
+        return failTransitionCount;
+    }
+
+    public long getHaystackCount() {
+        return haystackCount;
+    }
+
+    // Number of transition lookups on nodes, including the failed ones.
+    public long getLookupCount() {
+        return lookupCount;
+    }
+
+    // Most fail transitions followed for a single character.
+    public int getMaxFailChainLength() {
+        return maxFailChainLength;
+    }
+
+    public int getMaxOutputChainLength() {
+        return maxOutputChainLength;
+    }
+
+    public int getMaxProbeLength() {
+        return maxProbeLength;
+    }
+
+    // Visits of the nodes by their prefix.
+    public NodeProfile getNodeHits() {
+        return nodeHits;
+    }
+
+    public long getOutputSteps() {
+        return outputSteps;
+    }
+
+    // Number of times whole word automatons went back to the root and skipped to the next word.
+    public long getRestartCount() {
+        return restartCount;
+    }
+
+    // Number of transitions taken to a child node.
+    public long getTransitionCount() {
+        return transitionCount;
+    }
+
+    @Override
+    public String toString() {
+        return "MatchDiagnostics [haystacks=" + haystackCount + ", chars=" + charCount + ", transitions=" + transitionCount + ", failTransitions="
+                + failTransitionCount + ", maxFailChainLength=" + maxFailChainLength + ", restarts=" + restartCount + ", outputSteps=" + outputSteps
+                + ", maxOutputChainLength=" + maxOutputChainLength + ", lookups=" + lookupCount + ", averageProbeLength=" + getAverageProbeLength()
+                + ", maxProbeLength=" + maxProbeLength + ", hottestNodes=" + hottestNodes(10) + "]";
+    }
+
+    void addHaystack(int length) {
+        haystackCount++;
+        charCount += length;
+    }
+
+    void addLookup(int probeLength) {
+        lookupCount++;
+        probes += probeLength;
+        maxProbeLength = Math.max(maxProbeLength, probeLength);
+    }
+
+    void addOutput(int chainLength) {
+        outputSteps += chainLength;
+        maxOutputChainLength = Math.max(maxOutputChainLength, chainLength);
+    }
+
+    void addRestart() {
+        restartCount++;
+    }
+
+    void addTransition(int failHops) {
+        transitionCount++;
+        failTransitionCount += failHops;
+        maxFailChainLength = Math.max(maxFailChainLength, failHops);
+    }
+
+    // Sets the node hits by prefix and releases the counts by node.
+    void finish(NodeProfile nodeHits) {
+        this.nodeHits = nodeHits;
+        hits = null;
+    }
+
+    void hit(Object node) {
+        long[] count = hits.get(node);
+        if (count == null) {
+            count = new long[1];
+            hits.put(node, count);
+        }
+        count[0]++;
+    }
+
+    long hits(Object node) {
+        long[] count = hits.get(node);
+        return count == null ? 0 : count[0];
+    }
+
+    private List<Map.Entry<String, Long>> hottestNodes(int n) {
+        if (nodeHits == null) {
+            return Collections.emptyList();
+        }
+        List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(nodeHits.getVisits().entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+
+            public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2) {
+                return o2.getValue().compareTo(o1.getValue());
+            }
+        });
+        return entries.subList(0, Math.min(n, entries.size()));
+    }
+
+}
@@ -0,0 +1,221 @@
+package com.roklenarcic.util.strings;
+
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Unicode normalization in front of an automaton, so composed and decomposed accents or fullwidth and
+// halfwidth forms match each other. Build the automaton from normalized keywords and wrap it:
+//
+// StringSet set = Normalization.NFKC.wrap(new AhoCorasickSet(Normalization.NFKC.normalize(keywords), true));
+//
+// The wrapper normalizes the haystack and reports matches in offsets of the original haystack. Text is
+// split into segments that normalize independently, which start at chars that don't combine with the
+// chars before them. Haystacks where every char is its own segment and doesn't change, such as ASCII for
+// both forms or Latin-1 for NFC, are passed to the automaton as they are, without allocation. Otherwise
+// the segments that change are normalized one by one into a copy of the haystack, along with the offsets
+// of the segments in the original. A match that starts or ends inside a segment that changed covers
+// the whole segment. Readables are normalized on the fly in a buffer of bounded size.
+//
+// Segments are cut after MAX_SEGMENT chars, which normal text never reaches, but runs of hundreds of
+// combining marks can normalize differently than the whole haystack would.
+public final class Normalization {
+
+    // Bit set of chars that start a segment, the same for both forms.
+    private static final long[] BOUNDARIES = boundaries();
+
+    public static final Normalization NFC = new Normalization(Normalizer.Form.NFC);
+    public static final Normalization NFKC = new Normalization(Normalizer.Form.NFKC);
+
+    static final int MAX_SEGMENT = 128;
+
+    private final Normalizer.Form form;
+    // Bit set of chars that don't change, when they are a segment of their own.
+    private final long[] stable = new long[1024];
+
+    private Normalization(Normalizer.Form form) {
+        this.form = form;
+        for (int i = 0; i <= Character.MAX_VALUE; i++) {
+            if (!Character.isSurrogate((char) i) && Normalizer.isNormalized(String.valueOf((char) i), form)) {
+                stable[i >>> 6] |= 1L << i;
+            }
+        }
+    }
+
+    private static long[] boundaries() {
+        long[] boundaries = new long[1024];
+        for (int i = 0; i <= Character.MAX_VALUE; i++) {
+            char c = (char) i;
+            if (Character.isSurrogate(c)) {
+                continue;
+            }
+            String s = String.valueOf(c);
+            // Marks are conservatively treated as combining, longer segments still normalize correctly.
+            // Hangul vowels and trailing consonants compose with the syllable before them. Compatibility
+            // decompositions can start with a combining char, such as the halfwidth voiced sound mark.
+            if (!isMark(c) && !(c >= '\u1160' && c <= '\u11FF')
+                    && (Normalizer.isNormalized(s, Normalizer.Form.NFKD) || !isMark(Normalizer.normalize(s, Normalizer.Form.NFKD).codePointAt(0)))) {
+                boundaries[i >>> 6] |= 1L << i;
+            }
+        }
+        return boundaries;
+    }
+
+    private static boolean isMark(int codePoint) {
+        int type = Character.getType(codePoint);
+        return type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK || type == Character.ENCLOSING_MARK;
+    }
+
+    // Normalized keywords for building the automaton. Null keywords stay null, so they still line up with
+    // the values of a map.
+    public List<String> normalize(Iterable<String> keywords) {
+        List<String> normalized = new ArrayList<String>();
+        for (String keyword : keywords) {
+            normalized.add(keyword == null ? null : normalize(keyword));
+        }
+        return normalized;
+    }
+
+    public String normalize(String s) {
+        return Normalizer.normalize(s, form);
+    }
+
+    @Override
+    public String toString() {
+        return form.toString();
+    }
+
+    // Wraps an automaton built from normalized keywords.
+    public StringSet wrap(final StringSet automaton) {
+        return new StringSet() {
+
+            public void match(final String haystack, final SetMatchListener listener) {
+                final Normalized normalized = normalizeHaystack(haystack);
+                if (normalized == null) {
+                    automaton.match(haystack, listener);
+                } else {
+                    automaton.match(normalized.text, new SetMatchListener() {
+
+                        public boolean match(String text, int startPosition, int endPosition) {
+                            return listener.match(haystack, normalized.start(startPosition), normalized.end(endPosition));
+                        }
+                    });
+                }
+            }
+        };
+    }
+
+    public <T> StringMap<T> wrap(final StringMap<T> automaton) {
+        return new StringMap<T>() {
+
+            public void match(final Readable haystack, final ReadableMatchListener<T> listener) throws IOException {
+                automaton.match(new NormalizingReadable(haystack, Normalization.this), listener);
+            }
+
+            public void match(final String haystack, final MapMatchListener<T> listener) {
+                final Normalized normalized = normalizeHaystack(haystack);
+                if (normalized == null) {
+                    automaton.match(haystack, listener);
+                } else {
+                    automaton.match(normalized.text, new MapMatchListener<T>() {
+
+                        public boolean match(String text, int startPosition, int endPosition, T value) {
+                            return listener.match(haystack, normalized.start(startPosition), normalized.end(endPosition), value);
+                        }
+                    });
+                }
+            }
+        };
+    }
+
+    // True if a segment can start with char c, which is followed by char next, or 0 at the end of input.
+    boolean isBoundary(char c, char next) {
+        if (Character.isHighSurrogate(c)) {
+            return Character.isLowSurrogate(next) && !isMark(Character.toCodePoint(c, next));
+        }
+        return (BOUNDARIES[c >>> 6] & 1L << c) != 0;
+    }
+
+    // True if the char doesn't change when it's a segment of its own. Supplementary chars are always
+    // normalized.
+    boolean isStable(char c) {
+        return (stable[c >>> 6] & 1L << c) != 0;
+    }
+
+    // Returns null if the haystack doesn't change.
+    private Normalized normalizeHaystack(String haystack) {
+        final int len = haystack.length();
+        int idx = 0;
+        while (idx < len) {
+            char c = haystack.charAt(idx);
+            if ((BOUNDARIES[c >>> 6] & stable[c >>> 6] & 1L << c) == 0) {
+                break;
+            }
+            idx++;
+        }
+        if (idx == len) {
+            return null;
+        }
+        // The char before starts a segment, which can continue with this char.
+        int segmentStart = idx == 0 ? 0 : idx - 1;
+        StringBuilder text = new StringBuilder(len + 16);
+        int[] offsets = new int[len + 17];
+        text.append(haystack, 0, segmentStart);
+        for (int i = 0; i < segmentStart; i++) {
+            offsets[i] = i;
+        }
+        while (segmentStart < len) {
+            int segmentEnd = segmentStart + 1;
+            while (segmentEnd < len && segmentEnd - segmentStart < MAX_SEGMENT
+                    && !isBoundary(haystack.charAt(segmentEnd), segmentEnd + 1 < len ? haystack.charAt(segmentEnd + 1) : 0)) {
+                segmentEnd++;
+            }
+            if (segmentEnd < len && Character.isLowSurrogate(haystack.charAt(segmentEnd)) && Character.isHighSurrogate(haystack.charAt(segmentEnd - 1))) {
+                // Don't cut a long segment inside a surrogate pair.
+                segmentEnd++;
+            }
+            int textStart = text.length();
+            if (segmentEnd - segmentStart == 1 && isStable(haystack.charAt(segmentStart))) {
+                text.append(haystack.charAt(segmentStart));
+            } else {
+                text.append(normalize(haystack.substring(segmentStart, segmentEnd)));
+            }
+            if (text.length() >= offsets.length) {
+                offsets = Arrays.copyOf(offsets, Math.max(offsets.length * 2, text.length() + 1));
+            }
+            for (int i = textStart; i < text.length(); i++) {
+                offsets[i] = segmentStart;
+            }
+            segmentStart = segmentEnd;
+        }
+        offsets[text.length()] = len;
+        return new Normalized(text.toString(), offsets);
+    }
+
+    // Normalized haystack with the offset in the original haystack of the segment of each char.
+    private static final class Normalized {
+        private final int[] offsets;
+        private final String text;
+
+        private Normalized(String text, int[] offsets) {
+            this.text = text;
+            this.offsets = offsets;
+        }
+
+        private int end(int endPosition) {
+            // The end of the segment of the last char of the match.
+            int idx = endPosition;
+            while (idx < text.length() && offsets[idx] == offsets[endPosition - 1]) {
+                idx++;
+            }
+            return offsets[idx];
+        }
+
+        private int start(int startPosition) {
+            return offsets[startPosition];
+        }
+    }
+
+}
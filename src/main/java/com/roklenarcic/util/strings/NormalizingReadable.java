@@ -0,0 +1,95 @@
+package com.roklenarcic.util.strings;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+
+// Readable that normalizes the chars of another Readable. Chars are read into a buffer and complete
+// segments are normalized into the reads, the last segment in the buffer waits for the next chars or
+// the end of input. The buffer holds at most a few segments, so memory doesn't grow with the input.
+final class NormalizingReadable implements Readable {
+
+    private final char[] buf = new char[4 * Normalization.MAX_SEGMENT];
+    private boolean eof;
+    private final Readable in;
+    private int limit;
+    private final Normalization normalization;
+    private String pending;
+    private int pendingPos;
+    private int pos;
+
+    NormalizingReadable(Readable in, Normalization normalization) {
+        this.in = in;
+        this.normalization = normalization;
+    }
+
+    public int read(CharBuffer cb) throws IOException {
+        final int start = cb.position();
+        while (cb.hasRemaining()) {
+            if (pending != null) {
+                int n = Math.min(cb.remaining(), pending.length() - pendingPos);
+                cb.put(pending, pendingPos, pendingPos + n);
+                pendingPos += n;
+                if (pendingPos == pending.length()) {
+                    pending = null;
+                }
+                continue;
+            }
+            int segmentEnd = segmentEnd();
+            if (segmentEnd == -1) {
+                if (eof) {
+                    break;
+                }
+                fill();
+                continue;
+            }
+            if (segmentEnd - pos == 1 && normalization.isStable(buf[pos])) {
+                cb.put(buf[pos]);
+            } else {
+                pending = normalization.normalize(new String(buf, pos, segmentEnd - pos));
+                pendingPos = 0;
+            }
+            pos = segmentEnd;
+        }
+        int read = cb.position() - start;
+        return read == 0 && eof && pos == limit && pending == null ? -1 : read;
+    }
+
+    private void fill() throws IOException {
+        System.arraycopy(buf, pos, buf, 0, limit - pos);
+        limit -= pos;
+        pos = 0;
+        int read = in.read(CharBuffer.wrap(buf, limit, buf.length - limit));
+        if (read == -1) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    // End of the segment at pos, or -1 if the buffer ends before the segment does.
+    private int segmentEnd() {
+        if (pos == limit) {
+            return -1;
+        }
+        int end = pos + 1;
+        while (end < limit && end - pos < Normalization.MAX_SEGMENT) {
+            // A high surrogate at the end of the buffer needs the next char.
+            if (end + 1 == limit && Character.isHighSurrogate(buf[end]) && !eof) {
+                return -1;
+            }
+            if (normalization.isBoundary(buf[end], end + 1 < limit ? buf[end + 1] : 0)) {
+                return end;
+            }
+            end++;
+        }
+        if (end == limit && !eof) {
+            return -1;
+        }
+        if (end < limit && Character.isLowSurrogate(buf[end]) && Character.isHighSurrogate(buf[end - 1])) {
+            // Don't cut a long segment inside a surrogate pair.
+            end++;
+        }
+        return end;
+    }
+
+}
@@ -0,0 +1,503 @@
+package com.roklenarcic.util.strings;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+// Map of multi-word phrases, which matches the phrases as sequences of words, for gazetteers with millions
+// of phrases, where a trie of chars doesn't fit.
+//
+// Phrases and haystacks are split into words by word boundary rules and the words are mapped to int ids by a
+// dictionary of the words of the phrases. The automaton is a trie over word ids, which has a node for each
+// distinct word prefix of the phrases, instead of a node for each char. Nodes are numbered breadth first and
+// the children of a node are numbered one after another, so the trie is just the sorted word ids of the
+// transitions and the index of the first transition of each node. The root transitions are a table indexed
+// by word id.
+//
+// Matching is leftmost longest without overlaps, like WholeWordLongestMatchMap, but the words of a phrase only
+// need to follow each other, so "new york" matches "New York", "new  york" and "new-york". Matches are
+// reported with the char offsets of the first and the last word. Words that aren't in the dictionary end
+// the phrases being matched, and words longer than the longest word of the dictionary are not looked up.
+public class PhraseMatchMap<T> implements StringMap<T> {
+
+    private static final int NO_MATCH = -1;
+
+    // Nodes that end a phrase.
+    private boolean[] accepting;
+    private final WordBoundaries boundaries;
+    private final CaseFolding caseFolding;
+    // Index of the first transition of each node, with the end of the transitions of the last node at the end.
+    // Transition i leads to node i + 1.
+    private int[] firstTransition;
+    // Most words in a phrase.
+    private int longestPhrase;
+    private int nodeCount;
+    private int[] rootTransitions;
+    private final Terms terms = new Terms();
+    private int[] transitionWords;
+    private Object[] values;
+
+    // Words are split by the UAX #29 rules.
+    public PhraseMatchMap(final Iterable<String> phrases, final Iterable<? extends T> values, CaseFolding caseFolding) {
+        this(phrases, values, caseFolding, WordBoundaries.UAX29, null);
+    }
+
+    // Words are split by the given rules. Listener may be null.
+    public PhraseMatchMap(final Iterable<String> phrases, final Iterable<? extends T> values, CaseFolding caseFolding, WordBoundaries boundaries,
+            BuildListener listener) {
+        this.boundaries = boundaries;
+        this.caseFolding = caseFolding;
+        init(phrases, values, listener);
+    }
+
+    public void match(final Readable haystack, final ReadableMatchListener<T> listener) throws IOException {
+        final Matcher matcher = new Matcher() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            boolean match(int start, int end, Object value) {
+                return listener.match((T) value);
+            }
+        };
+        final WordBoundaries.Window window = new WordBoundaries.Window(haystack, 4096);
+        final CharSequence chars = window.chars();
+        int idx = 0;
+        while ((idx = window.fill(idx)) != -1) {
+            if (!matcher.next(chars, idx)) {
+                return;
+            }
+            idx++;
+        }
+        matcher.finish(0);
+    }
+
+    public void match(final String haystack, final MapMatchListener<T> listener) {
+        final Object event = Events.beginMatch();
+        if (event == null) {
+            matchHaystack(haystack, listener);
+        } else {
+            // Match calls are recorded by Flight Recorder.
+            final CountingMatchListener<T> counter = new CountingMatchListener<T>(listener);
+            matchHaystack(haystack, counter);
+            Events.endMatch(event, this, haystack.length(), counter.getCount());
+        }
+    }
+
+    private void matchHaystack(final String haystack, final MapMatchListener<T> listener) {
+        final Matcher matcher = new Matcher() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            boolean match(int start, int end, Object value) {
+                return listener.match(haystack, start, end, (T) value);
+            }
+        };
+        final int len = haystack.length();
+        for (int idx = 0; idx < len; idx++) {
+            if (!matcher.next(haystack, idx)) {
+                return;
+            }
+        }
+        matcher.finish(len);
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getWordCount() {
+        return terms.size;
+    }
+
+    // Node after the transition on the word from the node, or 0 if there isn't one.
+    private int getTransition(int node, int word) {
+        if (node == 0) {
+            return rootTransitions[word];
+        }
+        int low = firstTransition[node];
+        int high = firstTransition[node + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int key = transitionWords[mid];
+            if (key < word) {
+                low = mid + 1;
+            } else if (key > word) {
+                high = mid - 1;
+            } else {
+                return mid + 1;
+            }
+        }
+        return 0;
+    }
+
+    private void init(final Iterable<String> phrases, final Iterable<? extends T> values, BuildListener listener) {
+        final BuildMonitor monitor = new BuildMonitor(getClass(), listener);
+        monitor.startPhase(BuildListener.Phase.INSERTION);
+        // Split the phrases into word ids.
+        int[][] phraseWords = new int[16][];
+        Object[] phraseValues = new Object[16];
+        int phraseCount = 0;
+        int wordCount = 0;
+        final Tokenizer tokenizer = new Tokenizer(16, true) {
+
+            @Override
+            void token(int start, int end) {
+                add(terms.add(chars, length, hash));
+            }
+        };
+        Iterator<String> phrasesIter = phrases.iterator();
+        Iterator<? extends T> valuesIter = values.iterator();
+        while (phrasesIter.hasNext() && valuesIter.hasNext()) {
+            String phrase = phrasesIter.next();
+            T value = valuesIter.next();
+            // Skip any empty phrases
+            if (phrase != null) {
+                tokenizer.reset();
+                for (int i = 0; i < phrase.length(); i++) {
+                    tokenizer.next(phrase, i);
+                }
+                tokenizer.finish(phrase.length());
+                if (tokenizer.wordCount > 0) {
+                    monitor.step();
+                    if (phraseCount == phraseWords.length) {
+                        phraseWords = Arrays.copyOf(phraseWords, phraseCount * 2);
+                        phraseValues = Arrays.copyOf(phraseValues, phraseCount * 2);
+                    }
+                    phraseWords[phraseCount] = Arrays.copyOf(tokenizer.words, tokenizer.wordCount);
+                    phraseValues[phraseCount] = value;
+                    phraseCount++;
+                    wordCount += tokenizer.wordCount;
+                    longestPhrase = Math.max(longestPhrase, tokenizer.wordCount);
+                }
+            }
+        }
+        monitor.endPhase();
+        monitor.startPhase(BuildListener.Phase.OPTIMIZATION);
+        // Sorted phrases that share a prefix come one after another, so each node is a range of the sorted
+        // phrases, and its children split the range by the word that follows the prefix.
+        int[] order = new int[phraseCount];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        sort(order, phraseWords);
+        int maxNodes = wordCount + 1;
+        int[] rangeStarts = new int[maxNodes];
+        int[] rangeEnds = new int[maxNodes];
+        int[] depths = new int[maxNodes];
+        int[] first = new int[maxNodes + 1];
+        int[] words = new int[maxNodes];
+        Object[] nodeValues = new Object[maxNodes];
+        boolean[] nodeAccepting = new boolean[maxNodes];
+        rangeEnds[0] = phraseCount;
+        int nodes = 1;
+        for (int node = 0; node < nodes; node++) {
+            monitor.step();
+            int idx = rangeStarts[node];
+            final int end = rangeEnds[node];
+            final int depth = depths[node];
+            // Phrases that end at the node sort first. Of the same phrases the last one wins.
+            while (idx < end && phraseWords[order[idx]].length == depth) {
+                nodeValues[node] = phraseValues[order[idx]];
+                nodeAccepting[node] = true;
+                idx++;
+            }
+            first[node] = nodes - 1;
+            while (idx < end) {
+                int word = phraseWords[order[idx]][depth];
+                int childStart = idx;
+                while (idx < end && phraseWords[order[idx]][depth] == word) {
+                    idx++;
+                }
+                words[nodes - 1] = word;
+                rangeStarts[nodes] = childStart;
+                rangeEnds[nodes] = idx;
+                depths[nodes] = depth + 1;
+                nodes++;
+            }
+        }
+        first[nodes] = nodes - 1;
+        this.nodeCount = nodes;
+        this.firstTransition = Arrays.copyOf(first, nodes + 1);
+        this.transitionWords = Arrays.copyOf(words, nodes - 1);
+        this.values = Arrays.copyOf(nodeValues, nodes);
+        this.accepting = Arrays.copyOf(nodeAccepting, nodes);
+        this.rootTransitions = new int[terms.size];
+        for (int i = firstTransition[0]; i < firstTransition[1]; i++) {
+            rootTransitions[transitionWords[i]] = i + 1;
+        }
+        monitor.endPhase();
+    }
+
+    // Stable merge sort of the phrase indexes by their word ids.
+    private static void sort(int[] order, final int[][] phraseWords) {
+        int[] from = order;
+        int[] to = new int[order.length];
+        for (int width = 1; width < order.length; width *= 2) {
+            for (int low = 0; low < order.length; low += 2 * width) {
+                int mid = Math.min(low + width, order.length);
+                int high = Math.min(low + 2 * width, order.length);
+                int i = low;
+                int j = mid;
+                for (int k = low; k < high; k++) {
+                    if (i < mid && (j >= high || compare(phraseWords[from[i]], phraseWords[from[j]]) <= 0)) {
+                        to[k] = from[i++];
+                    } else {
+                        to[k] = from[j++];
+                    }
+                }
+            }
+            int[] swap = from;
+            from = to;
+            to = swap;
+        }
+        if (from != order) {
+            System.arraycopy(from, 0, order, 0, order.length);
+        }
+    }
+
+    private static int compare(int[] a, int[] b) {
+        final int len = Math.min(a.length, b.length);
+        for (int i = 0; i < len; i++) {
+            if (a[i] != b[i]) {
+                return a[i] < b[i] ? -1 : 1;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    // Matches the words of a haystack to the phrases. The last words are kept in a ring buffer, which holds
+    // as many words as the longest phrase, because the longest match from the first word can't be known
+    // before. Once the buffer is full, the phrases are matched from the first word and the match or the
+    // first word is dropped.
+    private abstract class Matcher extends Tokenizer {
+
+        private int count;
+        private final int[] ends;
+        private int head;
+        private final int mask;
+        private final int[] starts;
+        private final int[] wordIds;
+
+        Matcher() {
+            super(terms.longestTerm, false);
+            int capacity = Integer.highestOneBit(Math.max(longestPhrase, 1) * 2 - 1);
+            this.mask = capacity - 1;
+            this.ends = new int[capacity];
+            this.starts = new int[capacity];
+            this.wordIds = new int[capacity];
+        }
+
+        // Matches the phrases from the first word. Returns false if the listener stops the matching.
+        private boolean dropFirst() {
+            int node = 0;
+            int matchNode = 0;
+            int matchWords = 0;
+            for (int i = 0; i < count; i++) {
+                node = getTransition(node, wordIds[head + i & mask]);
+                if (node == 0) {
+                    break;
+                }
+                if (accepting[node]) {
+                    matchNode = node;
+                    matchWords = i + 1;
+                }
+            }
+            if (matchWords == 0) {
+                head = head + 1 & mask;
+                count--;
+                return true;
+            }
+            final int start = starts[head];
+            final int end = ends[head + matchWords - 1 & mask];
+            head = head + matchWords & mask;
+            count -= matchWords;
+            return match(start, end, values[matchNode]);
+        }
+
+        // Ends the haystack. Returns false if the listener stops the matching.
+        @Override
+        boolean finish(int len) {
+            super.finish(len);
+            while (count > 0) {
+                if (!dropFirst()) {
+                    stopped = true;
+                    return false;
+                }
+            }
+            return !stopped;
+        }
+
+        abstract boolean match(int start, int end, Object value);
+
+        @Override
+        void token(int start, int end) {
+            final int id = length > chars.length ? NO_MATCH : terms.get(chars, length, hash);
+            if (id == NO_MATCH) {
+                // No phrase has the word, so the phrases of the words before it end here.
+                while (count > 0 && !stopped) {
+                    stopped = !dropFirst();
+                }
+                return;
+            }
+            if (count == 0 && rootTransitions[id] == 0) {
+                return;
+            }
+            wordIds[head + count & mask] = id;
+            starts[head + count & mask] = start;
+            ends[head + count & mask] = end;
+            count++;
+            while (count == longestPhrase && !stopped) {
+                stopped = !dropFirst();
+            }
+        }
+    }
+
+    // Dictionary of the words of the phrases, an open addressing hash table of the folded chars.
+    private static final class Terms {
+
+        private int[] hashes = new int[16];
+        private int longestTerm;
+        private int size;
+        // Ids plus one, 0 is an empty slot.
+        private int[] table = new int[32];
+        private char[][] terms = new char[16][];
+
+        int add(char[] chars, int length, int hash) {
+            int id = get(chars, length, hash);
+            if (id != NO_MATCH) {
+                return id;
+            }
+            if (size == terms.length) {
+                terms = Arrays.copyOf(terms, size * 2);
+                hashes = Arrays.copyOf(hashes, size * 2);
+            }
+            terms[size] = Arrays.copyOf(chars, length);
+            hashes[size] = hash;
+            longestTerm = Math.max(longestTerm, length);
+            if (2 * (size + 1) > table.length) {
+                table = new int[table.length * 2];
+                for (int i = 0; i < size; i++) {
+                    put(i);
+                }
+            }
+            put(size);
+            return size++;
+        }
+
+        int get(char[] chars, int length, int hash) {
+            final int mask = table.length - 1;
+            for (int slot = mix(hash) & mask;; slot = slot + 1 & mask) {
+                int entry = table[slot];
+                if (entry == 0) {
+                    return NO_MATCH;
+                }
+                char[] term = terms[entry - 1];
+                if (hashes[entry - 1] == hash && term.length == length && equals(term, chars, length)) {
+                    return entry - 1;
+                }
+            }
+        }
+
+        private static boolean equals(char[] term, char[] chars, int length) {
+            for (int i = 0; i < length; i++) {
+                if (term[i] != chars[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int mix(int hash) {
+            hash *= 0x9E3779B9;
+            return hash ^ hash >>> 16;
+        }
+
+        private void put(int id) {
+            final int mask = table.length - 1;
+            int slot = mix(hashes[id]) & mask;
+            while (table[slot] != 0) {
+                slot = slot + 1 & mask;
+            }
+            table[slot] = id + 1;
+        }
+    }
+
+    // Splits text into words by the word boundary rules, folding the chars of the words.
+    private abstract class Tokenizer {
+
+        char[] chars;
+        int hash;
+        int length;
+        boolean stopped;
+        int[] words = new int[16];
+        int wordCount;
+        // Chars of longer words are dropped if false.
+        private final boolean grow;
+        private boolean inWord;
+        private int start;
+        private int state = WordBoundaries.START;
+
+        Tokenizer(int maxLength, boolean grow) {
+            this.chars = new char[Math.max(maxLength, 1)];
+            this.grow = grow;
+        }
+
+        void add(int word) {
+            if (wordCount == words.length) {
+                words = Arrays.copyOf(words, wordCount * 2);
+            }
+            words[wordCount++] = word;
+        }
+
+        // Ends the text, which ends at len.
+        boolean finish(int len) {
+            if (inWord) {
+                inWord = false;
+                token(start, len);
+            }
+            return !stopped;
+        }
+
+        // Processes the char at idx. Returns false once the matching is stopped.
+        boolean next(CharSequence text, int idx) {
+            state = boundaries.next(state, text, idx);
+            if (WordBoundaries.isBreak(state)) {
+                if (inWord) {
+                    inWord = false;
+                    token(start, idx);
+                    if (stopped) {
+                        return false;
+                    }
+                }
+                if (WordBoundaries.isWord(state)) {
+                    inWord = true;
+                    start = idx;
+                    length = 0;
+                    hash = 0;
+                }
+            }
+            if (inWord) {
+                final char c = caseFolding.fold(text.charAt(idx));
+                if (length < chars.length) {
+                    chars[length] = c;
+                } else if (grow) {
+                    chars = Arrays.copyOf(chars, chars.length * 2);
+                    chars[length] = c;
+                }
+                length++;
+                hash = 31 * hash + c;
+            }
+            return true;
+        }
+
+        void reset() {
+            inWord = false;
+            state = WordBoundaries.START;
+            wordCount = 0;
+        }
+
+        // Called with the chars of each word in chars.
+        abstract void token(int start, int end);
+    }
+
+}
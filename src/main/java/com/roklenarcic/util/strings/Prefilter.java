@@ -0,0 +1,34 @@
+package com.roklenarcic.util.strings;
+
+// Finds the positions where a keyword may start, so the match loops can skip the text in between. This is
+// the Java 7 version, which has no prefilter. The multi-release JAR contains a version for Java 17 and later
+// (src/main/java17), which compares many chars at once with the Vector API, when jdk.incubator.vector is
+// added with --add-modules.
+abstract class Prefilter {
+
+    // Most fingerprints a prefilter compares at each position.
+    static final int MAX_FINGERPRINTS = 16;
+
+    // Prefilter for the fingerprints of the keywords or null if there isn't one. Singles are the first chars of
+    // keywords that may match on their own, pairs are the first two chars of the other keywords.
+    static Prefilter of(char[] singles, char[] pairFirsts, char[] pairSeconds) {
+        return null;
+    }
+
+    // True if of returns prefilters.
+    static boolean isAvailable() {
+        return false;
+    }
+
+    // Buffer for next(String, ...) of the calling thread, so matching a String doesn't allocate. The buffer is
+    // only used within a call to next, so listeners may start other matches on the same thread.
+    abstract char[] buffer();
+
+    // Index of the first position at or after idx, where a keyword may start, or len if there isn't one.
+    // The last position is a candidate if its char starts a pair, since the next char isn't known.
+    abstract int next(char[] chars, int idx, int len);
+
+    // Same as above for a String, which is copied into the buffer a chunk at a time.
+    abstract int next(String haystack, int idx, int len, char[] buffer);
+
+}
@@ -0,0 +1,206 @@
+package com.roklenarcic.util.strings;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// A map that holds an automaton built from a reloadable keyword source. The automaton
+// can be rebuilt on demand or periodically on a scheduler and the new automaton replaces
+// the old one atomically. Matches that are already running finish on the automaton they
+// started with.
+//
+// Only one rebuild runs at a time and the old automaton is released as soon as the new one
+// is published, so peak memory during a rebuild is at most two automatons.
+public class ReloadableStringMap<T> implements StringMap<T> {
+
+    // Source of the automaton. Fingerprint is checked before every rebuild and the rebuild is
+    // skipped if the fingerprint equals the fingerprint of the automaton currently in use.
+    public interface Source<T> {
+
+        // Build a new automaton from the current content of the source.
+        StringMap<T> build() throws IOException;
+
+        // Cheap identity of the current content, e.g. a checksum, a version or a file timestamp.
+        // Returning null means that the content is unknown and the map is always rebuilt.
+        Object fingerprint() throws IOException;
+    }
+
+    private volatile StringMap<T> current;
+    private volatile Object currentFingerprint;
+    private volatile Throwable lastFailure;
+    private volatile long buildCount = 0;
+    private volatile long failedCount = 0;
+    private volatile long skippedCount = 0;
+    private volatile long swapCount = 0;
+    private volatile long lastBuildNanos = 0;
+    private volatile long totalBuildNanos = 0;
+    private volatile long lastSwapTime = 0;
+    private ScheduledFuture<?> scheduledReload;
+    private final Source<T> source;
+
+    // Creates the map and builds the first automaton in the calling thread.
+    public ReloadableStringMap(final Source<T> source) throws IOException {
+        this.source = source;
+        if (!reload()) {
+            throw new IllegalStateException("Source didn't produce an automaton.");
+        }
+    }
+
+    // Fingerprint of keywords and values, for sources that have no better notion of a version.
+    // It's a 64-bit FNV-1a hash of the keywords, the hash codes of the values and the counts of both,
+    // so keywords or values past the end of the shorter iterable change it as well.
+    public static long fingerprint(final Iterable<String> keywords, final Iterable<?> values) {
+        final long HASH_PRIME = 0x100000001b3L;
+        long hash = 0xcbf29ce484222325L;
+        long keywordCount = 0;
+        long valueCount = 0;
+        Iterator<String> keywordsIter = keywords.iterator();
+        Iterator<?> valuesIter = values.iterator();
+        while (keywordsIter.hasNext() || valuesIter.hasNext()) {
+            if (keywordsIter.hasNext()) {
+                String keyword = keywordsIter.next();
+                keywordCount++;
+                if (keyword != null) {
+                    for (int i = 0; i < keyword.length(); i++) {
+                        char c = keyword.charAt(i);
+                        hash = (hash ^ (c >> 8)) * HASH_PRIME;
+                        hash = (hash ^ (c & 0xff)) * HASH_PRIME;
+                    }
+                }
+            }
+            // Separate the keywords so that "ab", "c" and "a", "bc" hash differently.
+            hash = (hash ^ 0xff) * HASH_PRIME;
+            if (valuesIter.hasNext()) {
+                Object value = valuesIter.next();
+                valueCount++;
+                hash = (hash ^ (value == null ? 0 : value.hashCode())) * HASH_PRIME;
+            }
+        }
+        hash = (hash ^ keywordCount) * HASH_PRIME;
+        return (hash ^ valueCount) * HASH_PRIME;
+    }
+
+    // Number of automatons built, including the initial one.
+    public long getBuildCount() {
+        return buildCount;
+    }
+
+    // Automaton currently used for matching.
+    public StringMap<T> getCurrent() {
+        return current;
+    }
+
+    // Number of rebuilds that threw an exception. The old automaton stays in use when that happens.
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    // Exception thrown by the last failed rebuild, or null.
+    public Throwable getLastFailure() {
+        return lastFailure;
+    }
+
+    // Duration of the last successful build in nanoseconds.
+    public long getLastBuildNanos() {
+        return lastBuildNanos;
+    }
+
+    // Time of the last swap as returned by System.currentTimeMillis().
+    public long getLastSwapTime() {
+        return lastSwapTime;
+    }
+
+    // Number of rebuilds skipped because the fingerprint didn't change.
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    // Number of times a new automaton was published, including the initial one.
+    public long getSwapCount() {
+        return swapCount;
+    }
+
+    // Total time spent building automatons in nanoseconds.
+    public long getTotalBuildNanos() {
+        return totalBuildNanos;
+    }
+
+    public void match(final Readable haystack, final ReadableMatchListener<T> listener) throws IOException {
+        // Read the reference once, so the whole match runs on the same automaton even if
+        // a swap happens in the middle of it.
+        current.match(haystack, listener);
+    }
+
+    public void match(final String haystack, final MapMatchListener<T> listener) {
+        current.match(haystack, listener);
+    }
+
+    // Rebuilds the automaton if the fingerprint changed and publishes it. Returns true if a new
+    // automaton was published. Concurrent calls are serialized, so there is never more than one
+    // automaton being built.
+    public synchronized boolean reload() throws IOException {
+        try {
+            Object fingerprint = source.fingerprint();
+            if (fingerprint != null && current != null && fingerprint.equals(currentFingerprint)) {
+                skippedCount++;
+                return false;
+            }
+            long buildStart = System.nanoTime();
+            StringMap<T> newMap = source.build();
+            long buildTime = System.nanoTime() - buildStart;
+            buildCount++;
+            lastBuildNanos = buildTime;
+            totalBuildNanos += buildTime;
+            if (newMap == null) {
+                return false;
+            }
+            // The volatile write publishes the fully constructed automaton to the matching threads.
+            currentFingerprint = fingerprint;
+            current = newMap;
+            lastSwapTime = System.currentTimeMillis();
+            swapCount++;
+            return true;
+        } catch (IOException e) {
+            failedCount++;
+            lastFailure = e;
+            throw e;
+        } catch (RuntimeException e) {
+            failedCount++;
+            lastFailure = e;
+            throw e;
+        } catch (Error e) {
+            failedCount++;
+            lastFailure = e;
+            throw e;
+        }
+    }
+
+    // Starts periodic rebuilds on the given executor. Failed rebuilds are counted and the
+    // exception is kept, but they don't stop the schedule, not even errors such as
+    // OutOfMemoryError, which would cancel it silently. Rebuilds never overlap.
+    public synchronized ScheduledFuture<?> start(final ScheduledExecutorService executor, final long period, final TimeUnit unit) {
+        stop();
+        scheduledReload = executor.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                try {
+                    reload();
+                } catch (Throwable e) {
+                    // Already recorded by reload, keep the schedule running.
+                }
+            }
+        }, period, period, unit);
+        return scheduledReload;
+    }
+
+    // Stops periodic rebuilds. A rebuild that is already running is allowed to finish.
+    public synchronized void stop() {
+        if (scheduledReload != null) {
+            scheduledReload.cancel(false);
+            scheduledReload = null;
+        }
+    }
+
+}
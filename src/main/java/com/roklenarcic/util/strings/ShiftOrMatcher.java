@@ -0,0 +1,233 @@
+package com.roklenarcic.util.strings;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Bit-parallel matcher for small dictionaries, which AhoCorasickSet and AhoCorasickMap use instead of the
+// trie when the keywords have at most 128 chars together. It's Shift-Or in the Shift-And form: each char of
+// each keyword is a bit of the state, which is set while the haystack so far ends with the keyword up to that
+// char. The keywords are laid out one after another in two longs, so a step is a shift, an or with the first
+// chars of the keywords and an and with the mask of the char, without the pointer chasing of the trie.
+//
+// The masks are for the chars of the haystack as they are, the chars that fold to a keyword char share its
+// mask, so matching doesn't fold. Longer keywords come first, so at each position the matches are reported
+// from the longest to the shortest, like the suffix matches of the Aho-Corasick automaton.
+final class ShiftOrMatcher {
+
+    // Most chars of all the keywords together.
+    static final int MAX_CHARS = 128;
+
+    private static final long[] NONE = new long[512];
+
+    private final long endsHigh;
+    private final long endsLow;
+    // Match length of the keyword that ends at each bit.
+    private final int[] lengths = new int[MAX_CHARS];
+    // Masks of pairs of longs for 256 chars in each block. Blocks without keyword chars share one block.
+    private final long[][] masks;
+    private final long startsHigh;
+    private final long startsLow;
+    // Value of the keyword that ends at each bit.
+    private final Object[] values = new Object[MAX_CHARS];
+
+    private ShiftOrMatcher(Map<String, Object> keywords, CaseFolding caseFolding) {
+        List<Map.Entry<String, Object>> sorted = new ArrayList<Map.Entry<String, Object>>(keywords.entrySet());
+        // Longest first, the sort is stable.
+        for (int i = 1; i < sorted.size(); i++) {
+            Map.Entry<String, Object> entry = sorted.get(i);
+            int j = i;
+            while (j > 0 && sorted.get(j - 1).getKey().length() < entry.getKey().length()) {
+                sorted.set(j, sorted.get(j - 1));
+                j--;
+            }
+            sorted.set(j, entry);
+        }
+        final long[] starts = new long[2];
+        final long[] ends = new long[2];
+        // Masks of the folded keyword chars.
+        final Map<Character, long[]> foldedMasks = new LinkedHashMap<Character, long[]>();
+        int bit = 0;
+        for (Map.Entry<String, Object> entry : sorted) {
+            String keyword = entry.getKey();
+            starts[bit >>> 6] |= 1L << bit;
+            for (int i = 0; i < keyword.length(); i++, bit++) {
+                long[] mask = foldedMasks.get(keyword.charAt(i));
+                if (mask == null) {
+                    mask = new long[2];
+                    foldedMasks.put(keyword.charAt(i), mask);
+                }
+                mask[bit >>> 6] |= 1L << bit;
+            }
+            ends[bit - 1 >>> 6] |= 1L << bit - 1;
+            lengths[bit - 1] = keyword.length();
+            values[bit - 1] = entry.getValue();
+        }
+        this.startsLow = starts[0];
+        this.startsHigh = starts[1];
+        this.endsLow = ends[0];
+        this.endsHigh = ends[1];
+        this.masks = new long[256][];
+        Arrays.fill(masks, NONE);
+        for (int i = 0; i <= Character.MAX_VALUE; i++) {
+            final long[] mask = foldedMasks.get(caseFolding.fold((char) i));
+            if (mask != null) {
+                if (masks[i >>> 8] == NONE) {
+                    masks[i >>> 8] = new long[512];
+                }
+                masks[i >>> 8][(i & 0xFF) << 1] = mask[0];
+                masks[i >>> 8][((i & 0xFF) << 1) + 1] = mask[1];
+            }
+        }
+    }
+
+    public void match(final Readable haystack, final ReadableMatchListener<?> listener, final int bufferSize) throws IOException {
+        @SuppressWarnings("unchecked")
+        final ReadableMatchListener<Object> valueListener = (ReadableMatchListener<Object>) listener;
+        final long[][] masks = this.masks;
+        final long startsLow = this.startsLow;
+        final long startsHigh = this.startsHigh;
+        long low = 0;
+        long high = 0;
+        final CharBuffer buf = CharBuffer.allocate(bufferSize);
+        while (haystack.read(buf) != -1) {
+            buf.flip();
+            final char[] chars = buf.array();
+            final int limit = buf.limit();
+            for (int idx = buf.position(); idx < limit; idx++) {
+                final char c = chars[idx];
+                final long[] block = masks[c >>> 8];
+                final int slot = (c & 0xFF) << 1;
+                final long carry = low >>> 63;
+                low = (low << 1 | startsLow) & block[slot];
+                high = (high << 1 | carry | startsHigh) & block[slot + 1];
+                long matchesLow = low & endsLow;
+                long matchesHigh = high & endsHigh;
+                while (matchesLow != 0) {
+                    if (!valueListener.match(values[Long.numberOfTrailingZeros(matchesLow)])) {
+                        return;
+                    }
+                    matchesLow &= matchesLow - 1;
+                }
+                while (matchesHigh != 0) {
+                    if (!valueListener.match(values[64 + Long.numberOfTrailingZeros(matchesHigh)])) {
+                        return;
+                    }
+                    matchesHigh &= matchesHigh - 1;
+                }
+            }
+            buf.clear();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void match(final String haystack, final MapMatchListener<?> listener) {
+        final MapMatchListener<Object> valueListener = (MapMatchListener<Object>) listener;
+        final long[][] masks = this.masks;
+        final long startsLow = this.startsLow;
+        final long startsHigh = this.startsHigh;
+        long low = 0;
+        long high = 0;
+        final int len = haystack.length();
+        for (int idx = 0; idx < len; idx++) {
+            final char c = haystack.charAt(idx);
+            final long[] block = masks[c >>> 8];
+            final int slot = (c & 0xFF) << 1;
+            final long carry = low >>> 63;
+            low = (low << 1 | startsLow) & block[slot];
+            high = (high << 1 | carry | startsHigh) & block[slot + 1];
+            long matchesLow = low & endsLow;
+            long matchesHigh = high & endsHigh;
+            while (matchesLow != 0) {
+                final int bit = Long.numberOfTrailingZeros(matchesLow);
+                if (!valueListener.match(haystack, idx + 1 - lengths[bit], idx + 1, values[bit])) {
+                    return;
+                }
+                matchesLow &= matchesLow - 1;
+            }
+            while (matchesHigh != 0) {
+                final int bit = 64 + Long.numberOfTrailingZeros(matchesHigh);
+                if (!valueListener.match(haystack, idx + 1 - lengths[bit], idx + 1, values[bit])) {
+                    return;
+                }
+                matchesHigh &= matchesHigh - 1;
+            }
+        }
+    }
+
+    // Same as above for sets.
+    public void match(final String haystack, final SetMatchListener listener) {
+        final long[][] masks = this.masks;
+        final long startsLow = this.startsLow;
+        final long startsHigh = this.startsHigh;
+        long low = 0;
+        long high = 0;
+        final int len = haystack.length();
+        for (int idx = 0; idx < len; idx++) {
+            final char c = haystack.charAt(idx);
+            final long[] block = masks[c >>> 8];
+            final int slot = (c & 0xFF) << 1;
+            final long carry = low >>> 63;
+            low = (low << 1 | startsLow) & block[slot];
+            high = (high << 1 | carry | startsHigh) & block[slot + 1];
+            long matchesLow = low & endsLow;
+            long matchesHigh = high & endsHigh;
+            while (matchesLow != 0) {
+                final int bit = Long.numberOfTrailingZeros(matchesLow);
+                if (!listener.match(haystack, idx + 1 - lengths[bit], idx + 1)) {
+                    return;
+                }
+                matchesLow &= matchesLow - 1;
+            }
+            while (matchesHigh != 0) {
+                final int bit = 64 + Long.numberOfTrailingZeros(matchesHigh);
+                if (!listener.match(haystack, idx + 1 - lengths[bit], idx + 1)) {
+                    return;
+                }
+                matchesHigh &= matchesHigh - 1;
+            }
+        }
+    }
+
+    // Collects the keywords while the automaton is built, until they have too many chars.
+    static final class Builder {
+
+        private final CaseFolding caseFolding;
+        private int chars;
+        // Folded keywords and their values, the last value of a keyword wins like in the trie.
+        private Map<String, Object> keywords = new LinkedHashMap<String, Object>();
+
+        Builder(CaseFolding caseFolding) {
+            this.caseFolding = caseFolding;
+        }
+
+        void add(String keyword, Object value) {
+            if (keywords == null) {
+                return;
+            }
+            char[] folded = new char[keyword.length()];
+            for (int i = 0; i < folded.length; i++) {
+                folded[i] = caseFolding.fold(keyword.charAt(i));
+            }
+            String key = new String(folded);
+            if (!keywords.containsKey(key)) {
+                chars += key.length();
+                if (chars > MAX_CHARS) {
+                    keywords = null;
+                    return;
+                }
+            }
+            keywords.put(key, value);
+        }
+
+        // Matcher for the keywords or null if they have too many chars.
+        ShiftOrMatcher build() {
+            return keywords == null || keywords.isEmpty() ? null : new ShiftOrMatcher(keywords, caseFolding);
+        }
+    }
+
+}
@@ -3,8 +3,13 @@ package com.roklenarcic.util.strings;
 import java.io.IOException;
 import java.nio.CharBuffer;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.Set;
 
+import com.roklenarcic.util.strings.threshold.BudgetThresholder;
+import com.roklenarcic.util.strings.threshold.NodeProfile;
 import com.roklenarcic.util.strings.threshold.RangeNodeThreshold;
 import com.roklenarcic.util.strings.threshold.Thresholder;
 
@@ -12,6 +17,11 @@ import com.roklenarcic.util.strings.threshold.Thresholder;
 // matches with a string set that doesn't have strings that are prefix to other strings in the set.
 public class ShortestMatchMap<T> implements StringMap<T> {
 
+    // Placeholder for the transitions of case variants while the automaton is built.
+    @SuppressWarnings("rawtypes")
+    private static final TrieNode CASE_VARIANT = new HashmapNode(false);
+
+    private CaseFolding caseFolding = CaseFolding.NONE;
     private boolean caseSensitive = true;
     private int charBufferSize = 0;
     private TrieNode<T> root;
@@ -21,11 +31,44 @@ public class ShortestMatchMap<T> implements StringMap<T> {
     }
 
     public ShortestMatchMap(final Iterable<String> keywords, final Iterable<? extends T> values, boolean caseSensitive, final Thresholder thresholdStrategy) {
-        this.caseSensitive = caseSensitive;
+        this(keywords, values, caseSensitive, thresholdStrategy, null);
+    }
+
+    // Reports construction progress to the listener, which may also cancel the construction.
+    public ShortestMatchMap(final Iterable<String> keywords, final Iterable<? extends T> values, boolean caseSensitive, final Thresholder thresholdStrategy,
+            final BuildListener listener) {
+        this(keywords, values, CaseFolding.of(caseSensitive), thresholdStrategy, listener);
+    }
+
+    // Folds the chars of keywords and haystacks with the given case folding, CaseFolding.NONE is case sensitive.
+    public ShortestMatchMap(final Iterable<String> keywords, final Iterable<? extends T> values, CaseFolding caseFolding) {
+        this(keywords, values, caseFolding, new RangeNodeThreshold(), null);
+    }
+
+    // Case folding with all the other options, listener may be null.
+    public ShortestMatchMap(final Iterable<String> keywords, final Iterable<? extends T> values, CaseFolding caseFolding, final Thresholder thresholdStrategy,
+            final BuildListener listener) {
+        this.caseFolding = caseFolding;
+        this.caseSensitive = caseFolding.isCaseSensitive();
         Iterator<String> keywordsIter = keywords.iterator();
         Iterator<? extends T> valuesIter = values.iterator();
         // Create the root node
         root = new HashmapNode<T>(true);
+        final BuildMonitor monitor = new BuildMonitor(getClass(), listener);
+        monitor.startPhase(BuildListener.Phase.INSERTION);
+        // Build the trie bottom up while the keywords come in sorted order.
+        SortedTrieBuilder<HashmapNode<T>> sortedBuilder = new SortedTrieBuilder<HashmapNode<T>>(caseFolding, true) {
+
+            @SuppressWarnings("unchecked")
+            @Override
+            protected HashmapNode<T> createNode(int level, char[] keys, Object[] children, int size, int matchLength, Object value) {
+                HashmapNode<T> node = new HashmapNode<T>(level == 0);
+                node.setChildren(keys, children, size);
+                node.matchLength = matchLength;
+                node.value = (T) value;
+                return node;
+            }
+        };
         int longestKeyword = 0;
         // Add all keywords
         OUTER: while (keywordsIter.hasNext() && valuesIter.hasNext()) {
@@ -36,12 +79,22 @@ public class ShortestMatchMap<T> implements StringMap<T> {
                 if (keyword.length() > longestKeyword) {
                     longestKeyword = keyword.length();
                 }
+                monitor.step();
+                // Once a keyword comes out of order, finish the nodes built so far
+                // and add the rest of the keywords one by one.
+                if (sortedBuilder != null) {
+                    if (sortedBuilder.add(keyword, value)) {
+                        continue;
+                    }
+                    root = sortedBuilder.finish();
+                    sortedBuilder = null;
+                }
                 // Start with the current node and traverse the tree
                 // character by character. Add nodes as needed to
                 // fill out the tree.
                 HashmapNode<T> currentNode = (HashmapNode<T>) root;
                 for (int idx = 0; idx < keyword.length(); idx++) {
-                    currentNode = currentNode.getOrAddChild(caseSensitive ? keyword.charAt(idx) : Character.toLowerCase(keyword.charAt(idx)));
+                    currentNode = currentNode.getOrAddChild(caseFolding.fold(keyword.charAt(idx)));
                     // If currentNode has a match go on to the next keyword, the current keyword won't ever
                     // match, because there's a shorter one in the set.
                     if (currentNode.matchLength != 0) {
@@ -54,6 +107,10 @@ public class ShortestMatchMap<T> implements StringMap<T> {
                 currentNode.value = value;
             }
         }
+        if (sortedBuilder != null) {
+            root = sortedBuilder.finish();
+        }
+        monitor.endPhase();
         charBufferSize = longestKeyword > 2048 ? longestKeyword * 2 : 4096;
         // Go through nodes breadth first, swap any hashmap nodes,
         // whose size is close to the size of range of keys with
@@ -65,7 +122,16 @@ public class ShortestMatchMap<T> implements StringMap<T> {
         // for all 2 letter words.
         //
         final Queue<TrieNode<T>> queue = new Queue<TrieNode<T>>();
+        if (caseFolding.hasCaseTransitions()) {
+            addCaseVariants();
+        }
+        monitor.startPhase(BuildListener.Phase.FAIL_TRANSITIONS);
+        if (thresholdStrategy instanceof BudgetThresholder) {
+            planBudget((BudgetThresholder) thresholdStrategy);
+        }
+        monitor.startOptimization();
         root = root.optimizeNode(0, thresholdStrategy);
+        monitor.endOptimization();
         queue.push(root);
         queue.push(null);
         // Need to use array to get mutateable state for anonymous class
@@ -74,8 +140,11 @@ public class ShortestMatchMap<T> implements StringMap<T> {
         EntryVisitor<T> failTransAndOutputsVisitor = new EntryVisitor<T>() {
 
             public void visit(TrieNode<T> parent, char key, TrieNode<T> value) {
+                monitor.step();
                 // First optimize node
+                monitor.startOptimization();
                 value = value.optimizeNode(level[0], thresholdStrategy);
+                monitor.endOptimization();
                 parent.updateTransition(key, value);
 
                 // Get fail transiton of the parent.
@@ -144,6 +213,8 @@ public class ShortestMatchMap<T> implements StringMap<T> {
             }
         }
 
+        monitor.endPhase();
+
         // Range nodes represent a range of transitions without all the transitions in the range being
         // there. In case of hitting on an empty slot the logic in match loop runs down the fail transition
         // chain to find a node with a transition for that char. Instead of wasting space on empty slots
@@ -159,11 +230,13 @@ public class ShortestMatchMap<T> implements StringMap<T> {
             }
 
         };
+        monitor.startPhase(BuildListener.Phase.RANGE_NODE_GAPS);
         root.mapEntries(enqueueNodesVisitor);
         while (!queue.isEmpty()) {
             TrieNode<T> node = queue.pop();
             if (node == null) {
                 node = queue.pop();
+                monitor.step();
                 if (node instanceof RangeNode) {
                     // Range nodes have gaps (null values) in their array. We can put this wasted
                     // memory to work by filling these gaps with the correct next node for that character
@@ -193,7 +266,10 @@ public class ShortestMatchMap<T> implements StringMap<T> {
                 node.mapEntries(enqueueNodesVisitor);
             }
         }
-
+        monitor.endPhase();
+        if (caseFolding.hasCaseTransitions()) {
+            resolveCaseVariants();
+        }
     }
 
     public void match(final Readable haystack, final ReadableMatchListener<T> listener) throws IOException {
@@ -252,7 +328,7 @@ public class ShortestMatchMap<T> implements StringMap<T> {
             while (haystack.read(buf) != -1) {
                 buf.flip();
                 while (buf.hasRemaining()) {
-                    final char c = Character.toLowerCase(buf.get());
+                    final char c = caseFolding.fold(buf.get());
                     // The current node at this point is the node after the transition from the last loop
                     // iteration.
                     if (currentNodeMatchLength != 0) {
@@ -291,6 +367,18 @@ public class ShortestMatchMap<T> implements StringMap<T> {
     }
 
     public void match(final String haystack, final MapMatchListener<T> listener) {
+        final Object event = Events.beginMatch();
+        if (event == null) {
+            matchHaystack(haystack, listener);
+        } else {
+            // Match calls are recorded by Flight Recorder.
+            final CountingMatchListener<T> counter = new CountingMatchListener<T>(listener);
+            matchHaystack(haystack, counter);
+            Events.endMatch(event, this, haystack.length(), counter.getCount());
+        }
+    }
+
+    private void matchHaystack(final String haystack, final MapMatchListener<T> listener) {
         // This particualr match method is different from the other match functions in that
         // the current node is lagging behind the character being examined by one position.
 
@@ -338,7 +426,7 @@ public class ShortestMatchMap<T> implements StringMap<T> {
             }
         } else {
             while (idx < len) {
-                final char c = Character.toLowerCase(haystack.charAt(idx));
+                final char c = caseFolding.fold(haystack.charAt(idx));
                 // The current node at this point is the node after the transition from the last loop
                 // iteration.
                 if (currentNodeMatchLength != 0) {
@@ -372,6 +460,188 @@ public class ShortestMatchMap<T> implements StringMap<T> {
         }
     }
 
+    // Collects statistics of the automaton by walking the trie breadth first.
+    // Walking the trie uses a set of visited nodes, which needs memory proportional to the number of nodes.
+    public AutomatonStats stats() {
+        final AutomatonStats stats = new AutomatonStats();
+        final Queue<TrieNode<T>> queue = new Queue<TrieNode<T>>();
+        final Set<TrieNode<T>> visited = Collections.newSetFromMap(new IdentityHashMap<TrieNode<T>, Boolean>());
+        visited.add(root);
+        queue.push(root);
+        queue.push(null);
+        int depth = 0;
+        EntryVisitor<T> childrenVisitor = new EntryVisitor<T>() {
+
+            public void visit(TrieNode<T> parent, char key, TrieNode<T> value) {
+                // Gaps in range nodes are filled with transitions to nodes on the levels above,
+                // which have already been visited.
+                if (!visited.add(value)) {
+                    return;
+                }
+                if (parent instanceof RangeNode) {
+                    stats.addRangeNodeChild();
+                }
+                queue.push(value);
+            }
+        };
+        while (!queue.isEmpty()) {
+            TrieNode<T> n = queue.take();
+            if (n == null) {
+                if (!queue.isEmpty()) {
+                    queue.push(null);
+                    depth++;
+                }
+            } else {
+                n.addStats(stats, depth);
+                n.mapEntries(childrenVisitor);
+            }
+        }
+        return stats;
+    }
+
+    // Instrumented variant of matching, which doesn't output matches, but counts the work done while matching
+    // the haystacks: transitions, fail transitions, output chain steps, hashmap probes and visits of each node.
+    // It is much slower than matching and meant for finding out why matching is slow on some haystacks.
+    public MatchDiagnostics diagnose(final Iterable<String> haystacks) {
+        final MatchDiagnostics diagnostics = new MatchDiagnostics();
+        for (String haystack : haystacks) {
+            diagnostics.addHaystack(haystack.length());
+            TrieNode<T> currentNode = root;
+            for (int idx = 0; idx < haystack.length(); idx++) {
+                final char c = caseFolding.fold(haystack.charAt(idx));
+                // After a match the matching continues from the root.
+                if (currentNode.matchLength != 0) {
+                    currentNode = root;
+                }
+                diagnostics.addLookup(currentNode.probeLength(c));
+                TrieNode<T> nextNode = currentNode.getTransition(c);
+                int failHops = 0;
+                while (nextNode == null) {
+                    currentNode = currentNode.getFailTransition();
+                    failHops++;
+                    diagnostics.addLookup(currentNode.probeLength(c));
+                    nextNode = currentNode.getTransition(c);
+                }
+                diagnostics.addTransition(failHops);
+                currentNode = nextNode;
+                diagnostics.hit(currentNode);
+                diagnostics.addOutput(currentNode.outputChainLength());
+            }
+        }
+        diagnostics.finish(nodeHits(diagnostics));
+        return diagnostics;
+    }
+
+    // Walks the trie breadth first to find the prefixes of the visited nodes.
+    private NodeProfile nodeHits(final MatchDiagnostics diagnostics) {
+        final NodeProfile profile = new NodeProfile();
+        final Queue<TrieNode<T>> queue = new Queue<TrieNode<T>>();
+        final Queue<String> prefixes = new Queue<String>();
+        final Set<TrieNode<T>> visited = Collections.newSetFromMap(new IdentityHashMap<TrieNode<T>, Boolean>());
+        // Need to use array to get mutateable state for anonymous class
+        final String[] prefix = new String[1];
+        visited.add(root);
+        queue.push(root);
+        prefixes.push("");
+        EntryVisitor<T> childrenVisitor = new EntryVisitor<T>() {
+
+            public void visit(TrieNode<T> parent, char key, TrieNode<T> value) {
+                // Skip the filled gaps in range nodes.
+                if (visited.add(value)) {
+                    queue.push(value);
+                    prefixes.push(prefix[0] + key);
+                }
+            }
+        };
+        while (!queue.isEmpty()) {
+            TrieNode<T> n = queue.take();
+            prefix[0] = prefixes.take();
+            long hits = diagnostics.hits(n);
+            if (hits != 0) {
+                profile.add(prefix[0], hits);
+            }
+            n.mapEntries(childrenVisitor);
+        }
+        return profile;
+    }
+
+    // Adds transitions for the case variants of keyword chars, so matching doesn't need to fold the haystack.
+    // The transitions lead to a placeholder, which the build skips, until they are resolved to the
+    // transitions of the folded chars once the automaton is built.
+    private void addCaseVariants() {
+        final Queue<TrieNode<T>> queue = new Queue<TrieNode<T>>();
+        EntryVisitor<T> childrenVisitor = new EntryVisitor<T>() {
+
+            public void visit(TrieNode<T> parent, char key, TrieNode<T> value) {
+                queue.push(value);
+            }
+        };
+        queue.push(root);
+        while (!queue.isEmpty()) {
+            HashmapNode<T> n = (HashmapNode<T>) queue.take();
+            n.mapEntries(childrenVisitor);
+            n.addCaseVariants(caseFolding);
+        }
+    }
+
+    // Replaces the placeholders with the transitions of the folded chars. From then on the haystack is
+    // matched as it is, with the case sensitive loop.
+    private void resolveCaseVariants() {
+        final Queue<TrieNode<T>> queue = new Queue<TrieNode<T>>();
+        final Set<TrieNode<T>> visited = Collections.newSetFromMap(new IdentityHashMap<TrieNode<T>, Boolean>());
+        EntryVisitor<T> childrenVisitor = new EntryVisitor<T>() {
+
+            public void visit(TrieNode<T> parent, char key, TrieNode<T> value) {
+                // Skip the filled gaps in range nodes.
+                if (visited.add(value)) {
+                    queue.push(value);
+                }
+            }
+        };
+        visited.add(root);
+        queue.push(root);
+        while (!queue.isEmpty()) {
+            TrieNode<T> n = queue.take();
+            n.mapEntries(childrenVisitor);
+            n.resolveCaseVariants(caseFolding);
+        }
+        caseFolding = CaseFolding.NONE;
+        caseSensitive = true;
+    }
+
+    // Offers the nodes to the budget thresholder as candidates, so it can choose which nodes
+    // become range nodes before the optimization. Levels are the same as in the optimization.
+    private void planBudget(BudgetThresholder budget) {
+        final Thresholder candidates = budget.startPlanning();
+        final Queue<TrieNode<T>> queue = new Queue<TrieNode<T>>();
+        // Need to use array to get mutateable state for anonymous class
+        final int[] level = new int[] { 1 };
+        EntryVisitor<T> offerVisitor = new EntryVisitor<T>() {
+
+            public void visit(TrieNode<T> parent, char key, TrieNode<T> value) {
+                value.optimizeNode(level[0], candidates);
+                if (!value.isEmpty()) {
+                    queue.push(value);
+                }
+            }
+        };
+        // Root is always a range node.
+        queue.push(root);
+        queue.push(null);
+        while (!queue.isEmpty()) {
+            TrieNode<T> n = queue.take();
+            if (n == null) {
+                if (!queue.isEmpty()) {
+                    queue.push(null);
+                    level[0]++;
+                }
+            } else {
+                n.mapEntries(offerVisitor);
+            }
+        }
+        budget.plan();
+    }
+
     private interface EntryVisitor<T> {
         void visit(TrieNode<T> parent, char key, TrieNode<T> value);
     }
@@ -393,6 +663,19 @@ public class ShortestMatchMap<T> implements StringMap<T> {
             super(root);
         }
 
+        @Override
+        public void addStats(AutomatonStats stats, int depth) {
+            long probeLengths = 0;
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] != null) {
+                    probeLengths += ((i - hash(keys[i])) & modulusMask) + 1;
+                }
+            }
+            stats.addHashmapNode(depth, keys.length, numEntries, probeLengths, AutomatonStats.objectSize(5, 12)
+                    + AutomatonStats.arraySize(keys.length, 2) + AutomatonStats.arraySize(children.length, 4));
+            stats.addOutputChain(outputChainLength());
+        }
+
         @SuppressWarnings("unchecked")
         @Override
         public void clear() {
@@ -419,6 +702,22 @@ public class ShortestMatchMap<T> implements StringMap<T> {
             return defaultTransition;
         }
 
+        @Override
+        protected int probeLength(final char key) {
+            int defaultSlot = hash(key) & modulusMask;
+            int currentSlot = defaultSlot;
+            int probes = 1;
+            // Same probing as in getTransition.
+            while (keys[currentSlot] != key && children[currentSlot] != null) {
+                currentSlot = ++currentSlot & modulusMask;
+                if (currentSlot == defaultSlot) {
+                    break;
+                }
+                probes++;
+            }
+            return probes;
+        }
+
         @Override
         public boolean isEmpty() {
             return numEntries == 0;
@@ -427,7 +726,7 @@ public class ShortestMatchMap<T> implements StringMap<T> {
         @Override
         public void mapEntries(EntryVisitor<T> visitor) {
             for (int i = 0; i < keys.length; i++) {
-                if (children[i] != null) {
+                if (children[i] != null && children[i] != CASE_VARIANT) {
                     visitor.visit(this, keys[i], children[i]);
                 }
             }
@@ -454,10 +753,12 @@ public class ShortestMatchMap<T> implements StringMap<T> {
         protected TrieNode<T> optimizeNode(int level, Thresholder thresholdStrategy) {
             char minKey = '\uffff';
             char maxKey = 0;
-            // Find you the min and max key on the node.
-            int size = numEntries;
+            // Find you the min and max key on the node. Case variants are left out, so the thresholder
+            // sees the same node as without them.
+            int size = 0;
             for (int i = 0; i < children.length; i++) {
-                if (children[i] != null) {
+                if (children[i] != null && children[i] != CASE_VARIANT) {
+                    size++;
                     if (keys[i] > maxKey) {
                         maxKey = keys[i];
                     }
@@ -470,7 +771,16 @@ public class ShortestMatchMap<T> implements StringMap<T> {
             // or only slightly larger than number of entries, use a range node
             int keyIntervalSize = maxKey - minKey + 1;
             if (defaultTransition != null || thresholdStrategy.isOverThreshold(size, level, keyIntervalSize)) {
-                return new RangeNode<T>(this, minKey, maxKey);
+                // Case variants close to the keys widen the range, the others are kept on the side.
+                char from = minKey;
+                char to = maxKey;
+                for (int i = 0; i < children.length; i++) {
+                    if (children[i] == CASE_VARIANT && keys[i] + CaseFolding.RANGE_REACH > minKey && keys[i] < maxKey + CaseFolding.RANGE_REACH) {
+                        from = keys[i] < from ? keys[i] : from;
+                        to = keys[i] > to ? keys[i] : to;
+                    }
+                }
+                return new RangeNode<T>(this, from, to);
             } else {
                 return this;
             }
@@ -534,6 +844,80 @@ public class ShortestMatchMap<T> implements StringMap<T> {
             throw new IllegalStateException();
         }
 
+        // Adds transitions to the placeholder for the case variants of the keys, unless the variants
+        // have transitions of their own.
+        private void addCaseVariants(CaseFolding caseFolding) {
+            // Adding may enlarge the node, so iterate over the current tables.
+            char[] currentKeys = keys;
+            TrieNode<T>[] currentChildren = children;
+            for (int i = 0; i < currentKeys.length; i++) {
+                if (currentChildren[i] != null && currentChildren[i] != CASE_VARIANT) {
+                    for (char variant : caseFolding.variants(currentKeys[i])) {
+                        addCaseVariant(variant);
+                    }
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void addCaseVariant(char key) {
+            // Same resizing and probing as in getOrAddChild.
+            if (keys.length < 0x10000 && ((numEntries >= keys.length) || (numEntries > 16 && (numEntries >= keys.length * 0.90f)))) {
+                enlarge();
+            }
+            int defaultSlot = hash(key) & modulusMask;
+            int currentSlot = defaultSlot;
+            do {
+                if (children[currentSlot] == null) {
+                    keys[currentSlot] = key;
+                    children[currentSlot] = CASE_VARIANT;
+                    ++numEntries;
+                    return;
+                } else if (keys[currentSlot] == key) {
+                    return;
+                } else {
+                    currentSlot = ++currentSlot & modulusMask;
+                }
+            } while (currentSlot != defaultSlot);
+            throw new IllegalStateException();
+        }
+
+        // Sets the children of an empty node. The capacity is the same as if the children were added
+        // one by one, but the tables are allocated once and never rehashed.
+        @SuppressWarnings("unchecked")
+        private void setChildren(char[] childKeys, Object[] childNodes, int size) {
+            if (size == 0) {
+                return;
+            }
+            int capacity = 1;
+            for (int n = 0; n < size; n++) {
+                if (capacity < 0x10000 && ((n >= capacity) || (n > 16 && (n >= capacity * 0.90f)))) {
+                    capacity *= 2;
+                }
+            }
+            keys = new char[capacity];
+            children = new TrieNode[capacity];
+            modulusMask = capacity - 1;
+            for (int i = 0; i < size; i++) {
+                int currentSlot = hash(childKeys[i]) & modulusMask;
+                while (children[currentSlot] != null) {
+                    currentSlot = ++currentSlot & modulusMask;
+                }
+                keys[currentSlot] = childKeys[i];
+                children[currentSlot] = (TrieNode<T>) childNodes[i];
+            }
+            numEntries = size;
+        }
+
+        @Override
+        protected void resolveCaseVariants(CaseFolding caseFolding) {
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] == CASE_VARIANT) {
+                    children[i] = getTransition(caseFolding.fold(keys[i]));
+                }
+            }
+        }
+
         // FNV-1a hash
         private int hash(char c) {
             // HASH_BASIS = 0x811c9dc5;
@@ -550,6 +934,8 @@ public class ShortestMatchMap<T> implements StringMap<T> {
 
         private char baseChar = 0;
         private TrieNode<T>[] children;
+        // Case variants out of the range.
+        private HashmapNode<T> farVariants;
         private int size = 0;
 
         @SuppressWarnings("unchecked")
@@ -572,12 +958,28 @@ public class ShortestMatchMap<T> implements StringMap<T> {
                 // Grab the children of the old node.
                 for (int i = 0; i < oldNode.children.length; i++) {
                     if (oldNode.children[i] != null) {
-                        children[oldNode.keys[i] - from] = oldNode.children[i];
+                        if (oldNode.keys[i] < from || oldNode.keys[i] > to) {
+                            if (farVariants == null) {
+                                farVariants = new HashmapNode<T>(false);
+                                farVariants.defaultTransition = defaultTransition;
+                            }
+                            farVariants.addCaseVariant(oldNode.keys[i]);
+                        } else {
+                            children[oldNode.keys[i] - from] = oldNode.children[i];
+                        }
                     }
                 }
             }
         }
 
+        @Override
+        public void addStats(AutomatonStats stats, int depth) {
+            stats.addRangeNode(depth, size, AutomatonStats.objectSize(5, 10) + (children == null ? 0 : AutomatonStats.arraySize(size, 4))
+                    + (farVariants == null ? 0 : AutomatonStats.arraySize(farVariants.keys.length, 2)
+                            + AutomatonStats.arraySize(farVariants.children.length, 4)));
+            stats.addOutputChain(outputChainLength());
+        }
+
         @Override
         public void clear() {
             children = null;
@@ -594,7 +996,7 @@ public class ShortestMatchMap<T> implements StringMap<T> {
             if (idx < size) {
                 return children[idx];
             }
-            return defaultTransition;
+            return farVariants == null ? defaultTransition : farVariants.getTransition(c);
         }
 
         @Override
@@ -606,13 +1008,31 @@ public class ShortestMatchMap<T> implements StringMap<T> {
         public void mapEntries(EntryVisitor<T> visitor) {
             if (children != null) {
                 for (int i = 0; i < children.length; i++) {
-                    if (children[i] != null && children[i] != this) {
+                    if (children[i] != null && children[i] != this && children[i] != CASE_VARIANT) {
                         visitor.visit(this, (char) (baseChar + i), children[i]);
                     }
                 }
             }
         }
 
+        @Override
+        protected void resolveCaseVariants(CaseFolding caseFolding) {
+            for (int i = 0; i < size; i++) {
+                if (children[i] == CASE_VARIANT) {
+                    // Gaps filled from fail transitions can hold case variants of chars without a
+                    // transition on this node, those become gaps again.
+                    children[i] = getTransition(caseFolding.fold((char) (baseChar + i)));
+                }
+            }
+            if (farVariants != null) {
+                for (int i = 0; i < farVariants.children.length; i++) {
+                    if (farVariants.children[i] == CASE_VARIANT) {
+                        farVariants.children[i] = getTransition(caseFolding.fold(farVariants.keys[i]));
+                    }
+                }
+            }
+        }
+
         @Override
         public void updateTransition(char c, TrieNode<T> node) {
             // First check if the key is between max and min value.
@@ -643,6 +1063,8 @@ public class ShortestMatchMap<T> implements StringMap<T> {
             this.defaultTransition = root ? this : null;
         }
 
+        public abstract void addStats(AutomatonStats stats, int depth);
+
         public abstract void clear();
 
         // Get fail transition
@@ -653,12 +1075,25 @@ public class ShortestMatchMap<T> implements StringMap<T> {
         // Get transition (root node returns something non-null for all characters - itself)
         public abstract TrieNode<T> getTransition(char c);
 
+        // Number of slots checked to find the transition for the character.
+        protected int probeLength(char c) {
+            return 1;
+        }
+
         public abstract boolean isEmpty();
 
         public abstract void mapEntries(final EntryVisitor<T> visitor);
 
+        // Replaces the placeholders of case variants with the transitions of their folded chars.
+        protected abstract void resolveCaseVariants(CaseFolding caseFolding);
+
         public abstract void updateTransition(char c, TrieNode<T> node);
 
+        // Number of matches output when matching reaches this node.
+        protected final int outputChainLength() {
+            return matchLength == 0 ? 0 : 1;
+        }
+
         protected TrieNode<T> optimizeNode(int level, Thresholder thresholdStrategy) {
             return this;
         }
@@ -0,0 +1,147 @@
+package com.roklenarcic.util.strings;
+
+import java.util.Arrays;
+
+// Builds a trie bottom up from keywords that come in sorted order.
+//
+// When keywords are sorted, all keywords that share a prefix come one after another, so once a
+// keyword doesn't share the prefix of the previous one, the nodes of that prefix are complete.
+// The builder keeps the nodes on the path of the last keyword open and creates a node only when
+// it's complete, so each node can be created with all its children at once. That means no
+// lookups of existing children and no rehashing of the child tables.
+//
+// Keywords must be sorted by char values after case folding (which is String.compareTo order
+// for case sensitive tries). If a keyword comes out of order, add returns false, the caller finishes
+// the builder and adds the rest of the keywords to the returned root one by one.
+abstract class SortedTrieBuilder<N> {
+
+    private final CaseFolding caseFolding;
+    private int[] childCounts = new int[16];
+    private char[][] childKeys = new char[16][];
+    private Object[][] childNodes = new Object[16][];
+    // Depth of the last node on the open path
+    private int depth = 0;
+    private int[] matchLengths = new int[16];
+    // pathKeys[d] is the key of the transition into the node at depth d
+    private char[] pathKeys = new char[16];
+    private final boolean skipExtensionsOfMatches;
+    private Object[] values = new Object[16];
+
+    // If skipExtensionsOfMatches is true, a keyword that has a shorter keyword as a prefix is skipped.
+    SortedTrieBuilder(CaseFolding caseFolding, boolean skipExtensionsOfMatches) {
+        this.caseFolding = caseFolding;
+        this.skipExtensionsOfMatches = skipExtensionsOfMatches;
+    }
+
+    // Adds a keyword. Returns false if the keyword is out of order, in which case it isn't added.
+    public boolean add(String keyword, Object value) {
+        final int len = keyword.length();
+        // Find the common prefix with the path of the previous keyword.
+        int commonPrefix = 0;
+        final int maxCommonPrefix = len < depth ? len : depth;
+        while (commonPrefix < maxCommonPrefix && pathKeys[commonPrefix + 1] == fold(keyword.charAt(commonPrefix))) {
+            commonPrefix++;
+        }
+        if (commonPrefix < maxCommonPrefix) {
+            if (fold(keyword.charAt(commonPrefix)) < pathKeys[commonPrefix + 1]) {
+                return false;
+            }
+        } else if (len < depth) {
+            // Keyword is a prefix of the previous keyword.
+            return false;
+        }
+        if (skipExtensionsOfMatches) {
+            for (int i = 1; i <= commonPrefix; i++) {
+                if (matchLengths[i] != 0) {
+                    return true;
+                }
+            }
+        }
+        // Nodes past the common prefix are complete.
+        closeTo(commonPrefix);
+        // Open nodes for the rest of the keyword.
+        ensureCapacity(len + 1);
+        for (int i = commonPrefix; i < len; i++) {
+            depth++;
+            pathKeys[depth] = fold(keyword.charAt(i));
+            matchLengths[depth] = 0;
+            values[depth] = null;
+        }
+        // Duplicate keywords overwrite the previous value, same as when adding them one by one.
+        matchLengths[depth] = len;
+        values[depth] = value;
+        return true;
+    }
+
+    // Creates the rest of the nodes and returns the root.
+    public N finish() {
+        closeTo(0);
+        return createNode(0, childKeys[0], childNodes[0], childCounts[0], matchLengths[0], values[0]);
+    }
+
+    // Create a node with the given children. Arrays are reused by the builder, so their contents must be copied.
+    // Node with level 0 is the root node.
+    protected abstract N createNode(int level, char[] keys, Object[] children, int size, int matchLength, Object value);
+
+    private void addChild(int level, char key, N node) {
+        if (childKeys[level] == null) {
+            childKeys[level] = new char[4];
+            childNodes[level] = new Object[4];
+        } else if (childCounts[level] == childKeys[level].length) {
+            int newCapacity = childKeys[level].length * 2;
+            char[] biggerKeys = new char[newCapacity];
+            Object[] biggerNodes = new Object[newCapacity];
+            System.arraycopy(childKeys[level], 0, biggerKeys, 0, childCounts[level]);
+            System.arraycopy(childNodes[level], 0, biggerNodes, 0, childCounts[level]);
+            childKeys[level] = biggerKeys;
+            childNodes[level] = biggerNodes;
+        }
+        childKeys[level][childCounts[level]] = key;
+        childNodes[level][childCounts[level]] = node;
+        childCounts[level]++;
+    }
+
+    // Create the open nodes deeper than the given depth and add them to their parents.
+    private void closeTo(int newDepth) {
+        while (depth > newDepth) {
+            N node = createNode(depth, childKeys[depth], childNodes[depth], childCounts[depth], matchLengths[depth], values[depth]);
+            // Clear references so the nodes can be collected if the builder is abandoned.
+            if (childCounts[depth] > 0) {
+                Arrays.fill(childNodes[depth], 0, childCounts[depth], null);
+                childCounts[depth] = 0;
+            }
+            values[depth] = null;
+            addChild(depth - 1, pathKeys[depth], node);
+            depth--;
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (size > pathKeys.length) {
+            int newCapacity = Math.max(size, pathKeys.length * 2);
+            char[] biggerPathKeys = new char[newCapacity];
+            int[] biggerMatchLengths = new int[newCapacity];
+            Object[] biggerValues = new Object[newCapacity];
+            int[] biggerChildCounts = new int[newCapacity];
+            char[][] biggerChildKeys = new char[newCapacity][];
+            Object[][] biggerChildNodes = new Object[newCapacity][];
+            System.arraycopy(pathKeys, 0, biggerPathKeys, 0, pathKeys.length);
+            System.arraycopy(matchLengths, 0, biggerMatchLengths, 0, matchLengths.length);
+            System.arraycopy(values, 0, biggerValues, 0, values.length);
+            System.arraycopy(childCounts, 0, biggerChildCounts, 0, childCounts.length);
+            System.arraycopy(childKeys, 0, biggerChildKeys, 0, childKeys.length);
+            System.arraycopy(childNodes, 0, biggerChildNodes, 0, childNodes.length);
+            pathKeys = biggerPathKeys;
+            matchLengths = biggerMatchLengths;
+            values = biggerValues;
+            childCounts = biggerChildCounts;
+            childKeys = biggerChildKeys;
+            childNodes = biggerChildNodes;
+        }
+    }
+
+    private char fold(char c) {
+        return caseFolding.fold(c);
+    }
+
+}
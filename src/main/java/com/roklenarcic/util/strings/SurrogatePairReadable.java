@@ -0,0 +1,44 @@
+package com.roklenarcic.util.strings;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+
+// Readable that doesn't end a read between the chars of a surrogate pair. A high surrogate at the end of
+// a read is held back and put at the start of the next read, so whole word matching sees both chars of
+// a pair in the buffer when it checks if they are a word character.
+final class SurrogatePairReadable implements Readable {
+
+    private final Readable in;
+    private char held;
+    private boolean holding;
+
+    SurrogatePairReadable(Readable in) {
+        this.in = in;
+    }
+
+    public int read(CharBuffer cb) throws IOException {
+        final int start = cb.position();
+        if (holding) {
+            cb.put(held);
+            holding = false;
+        }
+        while (true) {
+            int read = in.read(cb);
+            int end = cb.position();
+            if (read == -1) {
+                return end == start ? -1 : end - start;
+            }
+            if (end - start > 1 && Character.isHighSurrogate(cb.get(end - 1))) {
+                held = cb.get(end - 1);
+                holding = true;
+                cb.position(end - 1);
+                return end - 1 - start;
+            }
+            // A lone high surrogate needs the next char.
+            if (end - start != 1 || !Character.isHighSurrogate(cb.get(start)) || !cb.hasRemaining()) {
+                return end - start;
+            }
+        }
+    }
+
+}
@@ -2,8 +2,13 @@ package com.roklenarcic.util.strings;
 
 import java.io.IOException;
 import java.nio.CharBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.Set;
 
+import com.roklenarcic.util.strings.threshold.BudgetThresholder;
+import com.roklenarcic.util.strings.threshold.NodeProfile;
 import com.roklenarcic.util.strings.threshold.RangeNodeThreshold;
 import com.roklenarcic.util.strings.threshold.Thresholder;
 
@@ -12,10 +17,17 @@ import com.roklenarcic.util.strings.threshold.Thresholder;
 // and they will produce an IllegalArgumentException.
 public class WholeWordMatchMap<T> implements StringMap<T> {
 
+    // Placeholder for the transitions of case variants while the automaton is built.
+    @SuppressWarnings("rawtypes")
+    private static final TrieNode CASE_VARIANT = new HashmapNode();
+
+    // Word boundary rules, which are used instead of the word characters if not null.
+    private WordBoundaries boundaries;
+    private CaseFolding caseFolding = CaseFolding.NONE;
     private boolean caseSensitive = true;
     private int charBufferSize = 0;
     private TrieNode<T> root;
-    private boolean[] wordChars;
+    private WordCharSet wordChars;
 
     // Set where digits and letters, '-' and '_' are considered word characters.
     public WholeWordMatchMap(final Iterable<String> keywords, final Iterable<? extends T> values, boolean caseSensitive) {
@@ -38,21 +50,75 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
     // given arrays
     public WholeWordMatchMap(final Iterable<String> keywords, final Iterable<? extends T> values, boolean caseSensitive, char[] wordCharacters,
             boolean[] toggleFlags, Thresholder thresholdStrategy) {
-        init(keywords, values, caseSensitive, WordCharacters.generateWordCharsFlags(wordCharacters, toggleFlags), thresholdStrategy);
+        this(keywords, values, caseSensitive, wordCharacters, toggleFlags, thresholdStrategy, null);
+    }
+
+    // Set where digits and letters and '-' and '_' are considered word characters but modified by the two
+    // given arrays
+    // Reports construction progress to the listener, which may also cancel the construction.
+    public WholeWordMatchMap(final Iterable<String> keywords, final Iterable<? extends T> values, boolean caseSensitive, char[] wordCharacters,
+            boolean[] toggleFlags, Thresholder thresholdStrategy, BuildListener listener) {
+        init(keywords, values, CaseFolding.of(caseSensitive), WordCharSet.DEFAULT.with(wordCharacters, toggleFlags), thresholdStrategy, listener);
     }
 
     // Set where the characters in the given array are considered word characters
     public WholeWordMatchMap(final Iterable<String> keywords, final Iterable<? extends T> values, boolean caseSensitive, char[] wordCharacters,
             Thresholder thresholdStrategy) {
-        init(keywords, values, caseSensitive, WordCharacters.generateWordCharsFlags(wordCharacters), thresholdStrategy);
+        this(keywords, values, caseSensitive, wordCharacters, thresholdStrategy, null);
+    }
+
+    // Set where the characters in the given array are considered word characters
+    // Reports construction progress to the listener, which may also cancel the construction.
+    public WholeWordMatchMap(final Iterable<String> keywords, final Iterable<? extends T> values, boolean caseSensitive, char[] wordCharacters,
+            Thresholder thresholdStrategy, BuildListener listener) {
+        init(keywords, values, CaseFolding.of(caseSensitive), WordCharSet.of(wordCharacters), thresholdStrategy, listener);
     }
 
     // Set where digits and letters, '-' and '_' are considered word characters.
     public WholeWordMatchMap(final Iterable<String> keywords, final Iterable<? extends T> values, boolean caseSensitive, Thresholder thresholdStrategy) {
-        init(keywords, values, caseSensitive, WordCharacters.generateWordCharsFlags(), thresholdStrategy);
+        this(keywords, values, caseSensitive, thresholdStrategy, null);
+    }
+
+    // Set where digits and letters, '-' and '_' are considered word characters.
+    // Reports construction progress to the listener, which may also cancel the construction.
+    public WholeWordMatchMap(final Iterable<String> keywords, final Iterable<? extends T> values, boolean caseSensitive,
+            Thresholder thresholdStrategy, BuildListener listener) {
+        init(keywords, values, CaseFolding.of(caseSensitive), WordCharSet.DEFAULT, thresholdStrategy, listener);
+    }
+
+    // Folds the chars of keywords and haystacks with the given case folding, CaseFolding.NONE is case sensitive.
+    public WholeWordMatchMap(final Iterable<String> keywords, final Iterable<? extends T> values, CaseFolding caseFolding) {
+        this(keywords, values, caseFolding, null, null, new RangeNodeThreshold(), null);
     }
 
-    public void match(final Readable haystack, final ReadableMatchListener<T> listener) throws IOException {
+    // Case folding with all the other options. Word characters are the default ones if null, the given ones
+    // if toggle flags are null, otherwise the default ones toggled by the flags. Listener may be null.
+    public WholeWordMatchMap(final Iterable<String> keywords, final Iterable<? extends T> values, CaseFolding caseFolding, char[] wordCharacters, boolean[] toggleFlags,
+            Thresholder thresholdStrategy, BuildListener listener) {
+        init(keywords, values, caseFolding, WordCharSet.of(wordCharacters, toggleFlags), thresholdStrategy, listener);
+    }
+
+    // Case folding with the given set of word characters, which can be shared by many automata. Listener
+    // may be null.
+    public WholeWordMatchMap(final Iterable<String> keywords, final Iterable<? extends T> values, CaseFolding caseFolding, WordCharSet wordChars, Thresholder thresholdStrategy,
+            BuildListener listener) {
+        init(keywords, values, caseFolding, wordChars, thresholdStrategy, listener);
+    }
+
+    // Case folding with word boundary rules instead of word characters. Listener may be null.
+    public WholeWordMatchMap(final Iterable<String> keywords, final Iterable<? extends T> values, CaseFolding caseFolding, WordBoundaries boundaries, Thresholder thresholdStrategy,
+            BuildListener listener) {
+        this.boundaries = boundaries;
+        init(keywords, values, caseFolding, WordCharSet.DEFAULT, thresholdStrategy, listener);
+    }
+
+    public void match(final Readable readable, final ReadableMatchListener<T> listener) throws IOException {
+        if (boundaries != null) {
+            matchWords(readable, listener);
+            return;
+        }
+        // Surrogate pairs aren't split between reads, so word characters can be checked on code points.
+        final Readable haystack = new SurrogatePairReadable(readable);
 
         // Start with the root node.
         TrieNode<T> currentNode = root;
@@ -71,7 +137,7 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
                     // Regardless of the type of the character, we keep moving till we run into
                     // a situation where there's no transition available.
                     if (nextNode == null) {
-                        if (!wordChars[c]) {
+                        if (!WordCharacters.isWordChar(wordChars, c, buf, buf.position() - 1)) {
                             // If we ran into no-transition scenario on non-word character we can
                             // output the match on the current node if there is one.
                             // Later we will run through non-word characters to the start of the next word.
@@ -109,12 +175,12 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
             MAIN_LOOP2: while (haystack.read(buf) != -1) {
                 buf.flip();
                 while (buf.hasRemaining()) {
-                    final char c = Character.toLowerCase(buf.get());
+                    final char c = caseFolding.fold(buf.get());
                     TrieNode<T> nextNode = currentNode.getTransition(c);
                     // Regardless of the type of the character, we keep moving till we run into
                     // a situation where there's no transition available.
                     if (nextNode == null) {
-                        if (!wordChars[c]) {
+                        if (!WordCharacters.isWordChar(wordChars, c, buf, buf.position() - 1)) {
                             // If we ran into no-transition scenario on non-word character we can
                             // output the match on the current node if there is one.
                             // Later we will run through non-word characters to the start of the next word.
@@ -153,6 +219,22 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
     }
 
     public void match(final String haystack, final MapMatchListener<T> listener) {
+        final Object event = Events.beginMatch();
+        if (event == null) {
+            matchHaystack(haystack, listener);
+        } else {
+            // Match calls are recorded by Flight Recorder.
+            final CountingMatchListener<T> counter = new CountingMatchListener<T>(listener);
+            matchHaystack(haystack, counter);
+            Events.endMatch(event, this, haystack.length(), counter.getCount());
+        }
+    }
+
+    private void matchHaystack(final String haystack, final MapMatchListener<T> listener) {
+        if (boundaries != null) {
+            matchWords(haystack, listener);
+            return;
+        }
 
         // Start with the root node.
         TrieNode<T> currentNode = root;
@@ -169,7 +251,7 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
                 // Regardless of the type of the character, we keep moving till we run into
                 // a situation where there's no transition available.
                 if (nextNode == null) {
-                    if (!wordChars[c]) {
+                    if (!WordCharacters.isWordChar(wordChars, c, haystack, idx)) {
                         // If we ran into no-transition scenario on non-word character we can
                         // output the match on the current node if there is one.
                         // Later we will run through non-word characters to the start of the next word.
@@ -181,12 +263,12 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
                     } else {
                         // If we ran into no-transition situation on a word character, we scroll through word
                         // characters to a non-word character.
-                        while (++idx < len && wordChars[haystack.charAt(idx)]) {
+                        while (++idx < len && WordCharacters.isWordChar(wordChars, haystack, idx)) {
                             ;
                         }
                     }
                     // Scroll to the first word character
-                    while (++idx < len && !wordChars[haystack.charAt(idx)]) {
+                    while (++idx < len && !WordCharacters.isWordChar(wordChars, haystack, idx)) {
                         ;
                     }
                     currentNode = root;
@@ -201,12 +283,12 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
             }
         } else {
             while (idx < len) {
-                char c = Character.toLowerCase(haystack.charAt(idx));
+                char c = caseFolding.fold(haystack.charAt(idx));
                 TrieNode<T> nextNode = currentNode.getTransition(c);
                 // Regardless of the type of the character, we keep moving till we run into
                 // a situation where there's no transition available.
                 if (nextNode == null) {
-                    if (!wordChars[c]) {
+                    if (!WordCharacters.isWordChar(wordChars, c, haystack, idx)) {
                         // If we ran into no-transition scenario on non-word character we can
                         // output the match on the current node if there is one.
                         // Later we will run through non-word characters to the start of the next word.
@@ -218,12 +300,12 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
                     } else {
                         // If we ran into no-transition situation on a word character, we scroll through word
                         // characters to a non-word character.
-                        while (++idx < len && wordChars[haystack.charAt(idx)]) {
+                        while (++idx < len && WordCharacters.isWordChar(wordChars, haystack, idx)) {
                             ;
                         }
                     }
                     // Scroll to the first word character
-                    while (++idx < len && !wordChars[haystack.charAt(idx)]) {
+                    while (++idx < len && !WordCharacters.isWordChar(wordChars, haystack, idx)) {
                         ;
                     }
                     currentNode = root;
@@ -239,42 +321,287 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
         }
     }
 
-    boolean[] getWordChars() {
+    // Matching with word boundary rules. The boundary state is updated on each char and the trie is walked
+    // from the start of each word, until the word ends or the trie has no transition.
+    private void matchWords(final String haystack, final MapMatchListener<T> listener) {
+        final WordBoundaries boundaries = this.boundaries;
+        // Null while skipping to the start of the next word.
+        TrieNode<T> currentNode = null;
+        int wordStart = 0;
+        int state = WordBoundaries.START;
+        final int len = haystack.length();
+        for (int idx = 0; idx < len; idx++) {
+            state = boundaries.next(state, haystack, idx);
+            if (WordBoundaries.isBreak(state)) {
+                // Keywords are single words, so a match at the end of the word is the whole word.
+                if (currentNode != null && currentNode.matchLength != 0) {
+                    if (!listener.match(haystack, wordStart, idx, currentNode.value)) {
+                        return;
+                    }
+                }
+                currentNode = WordBoundaries.isWord(state) ? root : null;
+                wordStart = idx;
+            }
+            if (currentNode != null) {
+                final char c = haystack.charAt(idx);
+                currentNode = currentNode.getTransition(caseSensitive ? c : caseFolding.fold(c));
+            }
+        }
+        if (currentNode != null && currentNode.matchLength != 0) {
+            listener.match(haystack, wordStart, len, currentNode.value);
+        }
+    }
+
+    // Same as above for Readables, which are read into a window that keeps the chars the rules look at.
+    private void matchWords(final Readable haystack, final ReadableMatchListener<T> listener) throws IOException {
+        final WordBoundaries boundaries = this.boundaries;
+        final WordBoundaries.Window window = new WordBoundaries.Window(haystack, charBufferSize);
+        final CharSequence chars = window.chars();
+        // Null while skipping to the start of the next word.
+        TrieNode<T> currentNode = null;
+        int state = WordBoundaries.START;
+        int idx = 0;
+        while ((idx = window.fill(idx)) != -1) {
+            state = boundaries.next(state, chars, idx);
+            if (WordBoundaries.isBreak(state)) {
+                if (currentNode != null && currentNode.matchLength != 0) {
+                    if (!listener.match(currentNode.value)) {
+                        return;
+                    }
+                }
+                currentNode = WordBoundaries.isWord(state) ? root : null;
+            }
+            if (currentNode != null) {
+                final char c = chars.charAt(idx);
+                currentNode = currentNode.getTransition(caseSensitive ? c : caseFolding.fold(c));
+            }
+            idx++;
+        }
+        if (currentNode != null && currentNode.matchLength != 0) {
+            listener.match(currentNode.value);
+        }
+    }
+
+    // Collects statistics of the automaton by walking the trie breadth first.
+    // Walking the trie uses a set of visited nodes, which needs memory proportional to the number of nodes.
+    public AutomatonStats stats() {
+        final AutomatonStats stats = new AutomatonStats();
+        final Queue<TrieNode<T>> queue = new Queue<TrieNode<T>>();
+        final Set<TrieNode<T>> visited = Collections.newSetFromMap(new IdentityHashMap<TrieNode<T>, Boolean>());
+        visited.add(root);
+        queue.push(root);
+        queue.push(null);
+        int depth = 0;
+        EntryVisitor<T> childrenVisitor = new EntryVisitor<T>() {
+
+            public void visit(TrieNode<T> parent, char key, TrieNode<T> value) {
+                // Transitions of case variants lead to the nodes of their folded chars, which
+                // have already been visited.
+                if (!visited.add(value)) {
+                    return;
+                }
+                if (parent instanceof RangeNode) {
+                    stats.addRangeNodeChild();
+                }
+                queue.push(value);
+            }
+        };
+        while (!queue.isEmpty()) {
+            TrieNode<T> n = queue.take();
+            if (n == null) {
+                if (!queue.isEmpty()) {
+                    queue.push(null);
+                    depth++;
+                }
+            } else {
+                n.addStats(stats, depth);
+                n.mapEntries(childrenVisitor);
+            }
+        }
+        return stats;
+    }
+
+    // Instrumented variant of matching, which doesn't output matches, but counts the work done while matching
+    // the haystacks: transitions, fail transitions, output chain steps, hashmap probes and visits of each node.
+    // It is much slower than matching and meant for finding out why matching is slow on some haystacks.
+    public MatchDiagnostics diagnose(final Iterable<String> haystacks) {
+        final MatchDiagnostics diagnostics = new MatchDiagnostics();
+        for (String haystack : haystacks) {
+            diagnostics.addHaystack(haystack.length());
+            if (boundaries != null) {
+                diagnoseWords(haystack, diagnostics);
+                continue;
+            }
+            TrieNode<T> currentNode = root;
+            int idx = 0;
+            final int len = haystack.length();
+            while (idx < len) {
+                final char c = caseFolding.fold(haystack.charAt(idx));
+                diagnostics.addLookup(currentNode.probeLength(c));
+                TrieNode<T> nextNode = currentNode.getTransition(c);
+                if (nextNode == null) {
+                    if (!WordCharacters.isWordChar(wordChars, c, haystack, idx)) {
+                        diagnostics.addOutput(currentNode.outputChainLength());
+                    } else {
+                        // Scroll to the first non-word character
+                        while (++idx < len && WordCharacters.isWordChar(wordChars, haystack, idx)) {
+                            ;
+                        }
+                    }
+                    // Scroll to the first word character
+                    while (++idx < len && !WordCharacters.isWordChar(wordChars, haystack, idx)) {
+                        ;
+                    }
+                    diagnostics.addRestart();
+                    currentNode = root;
+                } else {
+                    ++idx;
+                    diagnostics.addTransition(0);
+                    currentNode = nextNode;
+                    diagnostics.hit(currentNode);
+                }
+            }
+            diagnostics.addOutput(currentNode.outputChainLength());
+        }
+        diagnostics.finish(nodeHits(diagnostics));
+        return diagnostics;
+    }
+
+    // Instrumented copy of matchWords. A walk ends at the end of its word or where the trie has no
+    // transition, each end counts as a restart.
+    private void diagnoseWords(final String haystack, final MatchDiagnostics diagnostics) {
+        TrieNode<T> currentNode = null;
+        int state = WordBoundaries.START;
+        final int len = haystack.length();
+        for (int idx = 0; idx < len; idx++) {
+            state = boundaries.next(state, haystack, idx);
+            if (WordBoundaries.isBreak(state)) {
+                if (currentNode != null) {
+                    diagnostics.addOutput(currentNode.outputChainLength());
+                    diagnostics.addRestart();
+                }
+                currentNode = WordBoundaries.isWord(state) ? root : null;
+            }
+            if (currentNode != null) {
+                final char c = caseFolding.fold(haystack.charAt(idx));
+                diagnostics.addLookup(currentNode.probeLength(c));
+                currentNode = currentNode.getTransition(c);
+                if (currentNode == null) {
+                    diagnostics.addRestart();
+                } else {
+                    diagnostics.addTransition(0);
+                    diagnostics.hit(currentNode);
+                }
+            }
+        }
+        if (currentNode != null) {
+            diagnostics.addOutput(currentNode.outputChainLength());
+        }
+    }
+
+    // Walks the trie breadth first to find the prefixes of the visited nodes.
+    private NodeProfile nodeHits(final MatchDiagnostics diagnostics) {
+        final NodeProfile profile = new NodeProfile();
+        final Queue<TrieNode<T>> queue = new Queue<TrieNode<T>>();
+        final Queue<String> prefixes = new Queue<String>();
+        final Set<TrieNode<T>> visited = Collections.newSetFromMap(new IdentityHashMap<TrieNode<T>, Boolean>());
+        // Need to use array to get mutateable state for anonymous class
+        final String[] prefix = new String[1];
+        visited.add(root);
+        queue.push(root);
+        prefixes.push("");
+        EntryVisitor<T> childrenVisitor = new EntryVisitor<T>() {
+
+            public void visit(TrieNode<T> parent, char key, TrieNode<T> value) {
+                // Skip the filled gaps in range nodes.
+                if (visited.add(value)) {
+                    queue.push(value);
+                    prefixes.push(prefix[0] + key);
+                }
+            }
+        };
+        while (!queue.isEmpty()) {
+            TrieNode<T> n = queue.take();
+            prefix[0] = prefixes.take();
+            long hits = diagnostics.hits(n);
+            if (hits != 0) {
+                profile.add(prefix[0], hits);
+            }
+            n.mapEntries(childrenVisitor);
+        }
+        return profile;
+    }
+
+    WordCharSet getWordChars() {
         return wordChars;
     }
 
-    private void init(final Iterable<String> keywords, final Iterable<? extends T> values, boolean caseSensitive, boolean[] wordChars,
-            final Thresholder thresholdStrategy) {
-        this.caseSensitive = caseSensitive;
+    private void init(final Iterable<String> keywords, final Iterable<? extends T> values, CaseFolding caseFolding, WordCharSet wordChars,
+            final Thresholder thresholdStrategy, final BuildListener listener) {
+        this.caseFolding = caseFolding;
+        this.caseSensitive = caseFolding.isCaseSensitive();
         Iterator<String> keywordsIter = keywords.iterator();
         Iterator<? extends T> valuesIter = values.iterator();
         this.wordChars = wordChars;
         int longestKeyword = 0;
         // Create the root node
         root = new HashmapNode<T>();
+        final BuildMonitor monitor = new BuildMonitor(getClass(), listener);
+        monitor.startPhase(BuildListener.Phase.INSERTION);
+        // Build the trie bottom up while the keywords come in sorted order.
+        SortedTrieBuilder<HashmapNode<T>> sortedBuilder = new SortedTrieBuilder<HashmapNode<T>>(caseFolding, false) {
+
+            @SuppressWarnings("unchecked")
+            @Override
+            protected HashmapNode<T> createNode(int level, char[] keys, Object[] children, int size, int matchLength, Object value) {
+                HashmapNode<T> node = new HashmapNode<T>();
+                node.setChildren(keys, children, size);
+                node.matchLength = matchLength;
+                node.value = (T) value;
+                return node;
+            }
+        };
         // Add all keywords
         while (keywordsIter.hasNext() && valuesIter.hasNext()) {
             String keyword = keywordsIter.next();
             T value = valuesIter.next();
             // Skip any empty keywords
             if (keyword != null) {
-                keyword = WordCharacters.trim(keyword, wordChars);
-                // Don't allow words with non-word characters in them.
-                for (int i = 0; i < keyword.length(); i++) {
-                    if (!wordChars[keyword.charAt(i)]) {
-                        throw new IllegalArgumentException(keyword + " contains non-word characters.");
+                if (boundaries != null) {
+                    keyword = boundaries.trim(keyword);
+                    // Don't allow keywords of more than one word.
+                    if (!boundaries.isWord(keyword)) {
+                        throw new IllegalArgumentException(keyword + " is more than one word.");
+                    }
+                } else {
+                    keyword = WordCharacters.trim(keyword, wordChars);
+                    // Don't allow words with non-word characters in them.
+                    for (int i = 0; i < keyword.length(); i++) {
+                        if (!WordCharacters.isWordChar(wordChars, keyword, i)) {
+                            throw new IllegalArgumentException(keyword + " contains non-word characters.");
+                        }
                     }
                 }
                 if (keyword.length() > longestKeyword) {
                     longestKeyword = keyword.length();
                 }
                 if (keyword.length() > 0) {
+                    monitor.step();
+                    // Once a keyword comes out of order, finish the nodes built so far
+                    // and add the rest of the keywords one by one.
+                    if (sortedBuilder != null) {
+                        if (sortedBuilder.add(keyword, value)) {
+                            continue;
+                        }
+                        root = sortedBuilder.finish();
+                        sortedBuilder = null;
+                    }
                     // Start with the current node and traverse the tree
                     // character by character. Add nodes as needed to
                     // fill out the tree.
                     HashmapNode<T> currentNode = (HashmapNode<T>) root;
                     for (int idx = 0; idx < keyword.length(); idx++) {
-                        currentNode = currentNode.getOrAddChild(caseSensitive ? keyword.charAt(idx) : Character.toLowerCase(keyword.charAt(idx)));
+                        currentNode = currentNode.getOrAddChild(caseFolding.fold(keyword.charAt(idx)));
                     }
                     // Last node will contains the keyword as a match.
                     // Suffix matches will be added later.
@@ -283,6 +610,10 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
                 }
             }
         }
+        if (sortedBuilder != null) {
+            root = sortedBuilder.finish();
+        }
+        monitor.endPhase();
         charBufferSize = longestKeyword > 2048 ? longestKeyword * 2 : 4096;
         // Go through nodes breadth first, swap any hashmap nodes,
         // whose size is close to the size of range of keys with
@@ -294,6 +625,13 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
         // for all 2 letter words.
         //
         final Queue<TrieNode<T>> queue = new Queue<TrieNode<T>>();
+        if (caseFolding.hasCaseTransitions()) {
+            addCaseVariants();
+        }
+        monitor.startPhase(BuildListener.Phase.OPTIMIZATION);
+        if (thresholdStrategy instanceof BudgetThresholder) {
+            planBudget((BudgetThresholder) thresholdStrategy);
+        }
         root = root.optimizeNode(0, thresholdStrategy);
         queue.push(root);
         queue.push(null);
@@ -303,6 +641,7 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
         EntryVisitor<T> optimizeNodesVisitor = new EntryVisitor<T>() {
 
             public void visit(TrieNode<T> parent, char key, TrieNode<T> value) {
+                monitor.step();
                 // First optimize node
                 value = value.optimizeNode(level[0], thresholdStrategy);
                 parent.updateTransition(key, value);
@@ -319,13 +658,17 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
                 n.mapEntries(optimizeNodesVisitor);
             }
         }
-
+        monitor.endPhase();
+        if (caseFolding.hasCaseTransitions()) {
+            resolveCaseVariants();
+        }
     }
 
     private boolean scroll(Readable haystack, CharBuffer buf, boolean wordChars, boolean caseSensitive) throws IOException {
         do {
             while (buf.hasRemaining()) {
-                if (this.wordChars[caseSensitive ? buf.get() : Character.toLowerCase(buf.get())] != wordChars) {
+                final char c = caseFolding.fold(buf.get());
+                if (WordCharacters.isWordChar(this.wordChars, c, buf, buf.position() - 1) != wordChars) {
                     buf.position(buf.position() - 1);
                     return false;
                 }
@@ -338,6 +681,78 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
         } while (true);
     }
 
+    // Adds transitions for the case variants of keyword chars, so matching doesn't need to fold the haystack.
+    // The transitions lead to a placeholder, which the build skips, until they are resolved to the
+    // transitions of the folded chars once the automaton is built.
+    private void addCaseVariants() {
+        final Queue<TrieNode<T>> queue = new Queue<TrieNode<T>>();
+        EntryVisitor<T> childrenVisitor = new EntryVisitor<T>() {
+
+            public void visit(TrieNode<T> parent, char key, TrieNode<T> value) {
+                queue.push(value);
+            }
+        };
+        queue.push(root);
+        while (!queue.isEmpty()) {
+            HashmapNode<T> n = (HashmapNode<T>) queue.take();
+            n.mapEntries(childrenVisitor);
+            n.addCaseVariants(caseFolding);
+        }
+    }
+
+    // Replaces the placeholders with the transitions of the folded chars. From then on the haystack is
+    // matched as it is, with the case sensitive loop.
+    private void resolveCaseVariants() {
+        final Queue<TrieNode<T>> queue = new Queue<TrieNode<T>>();
+        EntryVisitor<T> childrenVisitor = new EntryVisitor<T>() {
+
+            public void visit(TrieNode<T> parent, char key, TrieNode<T> value) {
+                queue.push(value);
+            }
+        };
+        queue.push(root);
+        while (!queue.isEmpty()) {
+            TrieNode<T> n = queue.take();
+            n.mapEntries(childrenVisitor);
+            n.resolveCaseVariants(caseFolding);
+        }
+        caseFolding = CaseFolding.NONE;
+        caseSensitive = true;
+    }
+
+    // Offers the nodes to the budget thresholder as candidates, so it can choose which nodes
+    // become range nodes before the optimization. Levels are the same as in the optimization.
+    private void planBudget(BudgetThresholder budget) {
+        final Thresholder candidates = budget.startPlanning();
+        final Queue<TrieNode<T>> queue = new Queue<TrieNode<T>>();
+        // Need to use array to get mutateable state for anonymous class
+        final int[] level = new int[] { 1 };
+        EntryVisitor<T> offerVisitor = new EntryVisitor<T>() {
+
+            public void visit(TrieNode<T> parent, char key, TrieNode<T> value) {
+                value.optimizeNode(level[0], candidates);
+                if (!value.isEmpty()) {
+                    queue.push(value);
+                }
+            }
+        };
+        root.optimizeNode(0, candidates);
+        queue.push(root);
+        queue.push(null);
+        while (!queue.isEmpty()) {
+            TrieNode<T> n = queue.take();
+            if (n == null) {
+                if (!queue.isEmpty()) {
+                    queue.push(null);
+                    level[0]++;
+                }
+            } else {
+                n.mapEntries(offerVisitor);
+            }
+        }
+        budget.plan();
+    }
+
     private interface EntryVisitor<T> {
         void visit(TrieNode<T> parent, char key, TrieNode<T> value);
     }
@@ -355,6 +770,19 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
         private int modulusMask = keys.length - 1;
         private int numEntries = 0;
 
+        @Override
+        public void addStats(AutomatonStats stats, int depth) {
+            long probeLengths = 0;
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] != null) {
+                    probeLengths += ((i - hash(keys[i])) & modulusMask) + 1;
+                }
+            }
+            stats.addHashmapNode(depth, keys.length, numEntries, probeLengths, AutomatonStats.objectSize(3, 12)
+                    + AutomatonStats.arraySize(keys.length, 2) + AutomatonStats.arraySize(children.length, 4));
+            stats.addOutputChain(outputChainLength());
+        }
+
         @SuppressWarnings("unchecked")
         @Override
         public void clear() {
@@ -381,6 +809,22 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
             return null;
         }
 
+        @Override
+        protected int probeLength(final char key) {
+            int defaultSlot = hash(key) & modulusMask;
+            int currentSlot = defaultSlot;
+            int probes = 1;
+            // Same probing as in getTransition.
+            while (keys[currentSlot] != key && children[currentSlot] != null) {
+                currentSlot = ++currentSlot & modulusMask;
+                if (currentSlot == defaultSlot) {
+                    break;
+                }
+                probes++;
+            }
+            return probes;
+        }
+
         @Override
         public boolean isEmpty() {
             return numEntries == 0;
@@ -389,7 +833,7 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
         @Override
         public void mapEntries(EntryVisitor<T> visitor) {
             for (int i = 0; i < keys.length; i++) {
-                if (children[i] != null) {
+                if (children[i] != null && children[i] != CASE_VARIANT) {
                     visitor.visit(this, keys[i], children[i]);
                 }
             }
@@ -416,10 +860,12 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
         protected TrieNode<T> optimizeNode(int level, Thresholder thresholdStrategy) {
             char minKey = '\uffff';
             char maxKey = 0;
-            // Find you the min and max key on the node.
-            int size = numEntries;
+            // Find you the min and max key on the node. Case variants are left out, so the thresholder
+            // sees the same node as without them.
+            int size = 0;
             for (int i = 0; i < children.length; i++) {
-                if (children[i] != null) {
+                if (children[i] != null && children[i] != CASE_VARIANT) {
+                    size++;
                     if (keys[i] > maxKey) {
                         maxKey = keys[i];
                     }
@@ -432,7 +878,16 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
             // or only slightly larger than number of entries, use a range node
             int keyIntervalSize = maxKey - minKey + 1;
             if (thresholdStrategy.isOverThreshold(size, level, keyIntervalSize)) {
-                return new RangeNode<T>(this, minKey, maxKey);
+                // Case variants close to the keys widen the range, the others are kept on the side.
+                char from = minKey;
+                char to = maxKey;
+                for (int i = 0; i < children.length; i++) {
+                    if (children[i] == CASE_VARIANT && keys[i] + CaseFolding.RANGE_REACH > minKey && keys[i] < maxKey + CaseFolding.RANGE_REACH) {
+                        from = keys[i] < from ? keys[i] : from;
+                        to = keys[i] > to ? keys[i] : to;
+                    }
+                }
+                return new RangeNode<T>(this, from, to);
             } else {
                 return this;
             }
@@ -496,6 +951,80 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
             throw new IllegalStateException();
         }
 
+        // Adds transitions to the placeholder for the case variants of the keys, unless the variants
+        // have transitions of their own.
+        private void addCaseVariants(CaseFolding caseFolding) {
+            // Adding may enlarge the node, so iterate over the current tables.
+            char[] currentKeys = keys;
+            TrieNode<T>[] currentChildren = children;
+            for (int i = 0; i < currentKeys.length; i++) {
+                if (currentChildren[i] != null && currentChildren[i] != CASE_VARIANT) {
+                    for (char variant : caseFolding.variants(currentKeys[i])) {
+                        addCaseVariant(variant);
+                    }
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void addCaseVariant(char key) {
+            // Same resizing and probing as in getOrAddChild.
+            if (keys.length < 0x10000 && ((numEntries >= keys.length) || (numEntries > 16 && (numEntries >= keys.length * 0.90f)))) {
+                enlarge();
+            }
+            int defaultSlot = hash(key) & modulusMask;
+            int currentSlot = defaultSlot;
+            do {
+                if (children[currentSlot] == null) {
+                    keys[currentSlot] = key;
+                    children[currentSlot] = CASE_VARIANT;
+                    ++numEntries;
+                    return;
+                } else if (keys[currentSlot] == key) {
+                    return;
+                } else {
+                    currentSlot = ++currentSlot & modulusMask;
+                }
+            } while (currentSlot != defaultSlot);
+            throw new IllegalStateException();
+        }
+
+        // Sets the children of an empty node. The capacity is the same as if the children were added
+        // one by one, but the tables are allocated once and never rehashed.
+        @SuppressWarnings("unchecked")
+        private void setChildren(char[] childKeys, Object[] childNodes, int size) {
+            if (size == 0) {
+                return;
+            }
+            int capacity = 1;
+            for (int n = 0; n < size; n++) {
+                if (capacity < 0x10000 && ((n >= capacity) || (n > 16 && (n >= capacity * 0.90f)))) {
+                    capacity *= 2;
+                }
+            }
+            keys = new char[capacity];
+            children = new TrieNode[capacity];
+            modulusMask = capacity - 1;
+            for (int i = 0; i < size; i++) {
+                int currentSlot = hash(childKeys[i]) & modulusMask;
+                while (children[currentSlot] != null) {
+                    currentSlot = ++currentSlot & modulusMask;
+                }
+                keys[currentSlot] = childKeys[i];
+                children[currentSlot] = (TrieNode<T>) childNodes[i];
+            }
+            numEntries = size;
+        }
+
+        @Override
+        protected void resolveCaseVariants(CaseFolding caseFolding) {
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] == CASE_VARIANT) {
+                    children[i] = getTransition(caseFolding.fold(keys[i]));
+                }
+            }
+        }
+
         // FNV-1a hash
         private int hash(char c) {
             // HASH_BASIS = 0x811c9dc5;
@@ -512,6 +1041,8 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
 
         private char baseChar = 0;
         private TrieNode<T>[] children;
+        // Case variants out of the range.
+        private HashmapNode<T> farVariants;
         private int size = 0;
 
         @SuppressWarnings("unchecked")
@@ -529,12 +1060,27 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
                 // Grab the children of the old node.
                 for (int i = 0; i < oldNode.children.length; i++) {
                     if (oldNode.children[i] != null) {
-                        children[oldNode.keys[i] - from] = oldNode.children[i];
+                        if (oldNode.keys[i] < from || oldNode.keys[i] > to) {
+                            if (farVariants == null) {
+                                farVariants = new HashmapNode<T>();
+                            }
+                            farVariants.addCaseVariant(oldNode.keys[i]);
+                        } else {
+                            children[oldNode.keys[i] - from] = oldNode.children[i];
+                        }
                     }
                 }
             }
         }
 
+        @Override
+        public void addStats(AutomatonStats stats, int depth) {
+            stats.addRangeNode(depth, size, AutomatonStats.objectSize(3, 10) + (children == null ? 0 : AutomatonStats.arraySize(size, 4))
+                    + (farVariants == null ? 0 : AutomatonStats.arraySize(farVariants.keys.length, 2)
+                            + AutomatonStats.arraySize(farVariants.children.length, 4)));
+            stats.addOutputChain(outputChainLength());
+        }
+
         @Override
         public void clear() {
             children = null;
@@ -550,7 +1096,7 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
             if (idx < size) {
                 return children[idx];
             }
-            return null;
+            return farVariants == null ? null : farVariants.getTransition(c);
         }
 
         @Override
@@ -562,13 +1108,29 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
         public void mapEntries(EntryVisitor<T> visitor) {
             if (children != null) {
                 for (int i = 0; i < children.length; i++) {
-                    if (children[i] != null && children[i] != this) {
+                    if (children[i] != null && children[i] != this && children[i] != CASE_VARIANT) {
                         visitor.visit(this, (char) (baseChar + i), children[i]);
                     }
                 }
             }
         }
 
+        @Override
+        protected void resolveCaseVariants(CaseFolding caseFolding) {
+            for (int i = 0; i < size; i++) {
+                if (children[i] == CASE_VARIANT) {
+                    children[i] = getTransition(caseFolding.fold((char) (baseChar + i)));
+                }
+            }
+            if (farVariants != null) {
+                for (int i = 0; i < farVariants.children.length; i++) {
+                    if (farVariants.children[i] == CASE_VARIANT) {
+                        farVariants.children[i] = getTransition(caseFolding.fold(farVariants.keys[i]));
+                    }
+                }
+            }
+        }
+
         @Override
         public void updateTransition(char c, TrieNode<T> node) {
             // First check if the key is between max and min value.
@@ -594,17 +1156,32 @@ public class WholeWordMatchMap<T> implements StringMap<T> {
         protected int matchLength;
         protected T value;
 
+        public abstract void addStats(AutomatonStats stats, int depth);
+
         public abstract void clear();
 
         // Get transition (root node returns something non-null for all characters - itself)
         public abstract TrieNode<T> getTransition(char c);
 
+        // Number of slots checked to find the transition for the character.
+        protected int probeLength(char c) {
+            return 1;
+        }
+
         public abstract boolean isEmpty();
 
         public abstract void mapEntries(final EntryVisitor<T> visitor);
 
+        // Replaces the placeholders of case variants with the transitions of their folded chars.
+        protected abstract void resolveCaseVariants(CaseFolding caseFolding);
+
         public abstract void updateTransition(char c, TrieNode<T> node);
 
+        // Number of matches output when matching reaches this node.
+        protected final int outputChainLength() {
+            return matchLength == 0 ? 0 : 1;
+        }
+
         protected TrieNode<T> optimizeNode(int level, Thresholder thresholdStrategy) {
             return this;
         }
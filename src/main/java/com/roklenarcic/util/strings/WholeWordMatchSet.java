@@ -1,5 +1,11 @@
 package com.roklenarcic.util.strings;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import com.roklenarcic.util.strings.threshold.BudgetThresholder;
+import com.roklenarcic.util.strings.threshold.NodeProfile;
 import com.roklenarcic.util.strings.threshold.RangeNodeThreshold;
 import com.roklenarcic.util.strings.threshold.Thresholder;
 
@@ -8,9 +14,15 @@ import com.roklenarcic.util.strings.threshold.Thresholder;
 // and they will produce an IllegalArgumentException.
 public class WholeWordMatchSet implements StringSet {
 
+    // Placeholder for the transitions of case variants while the automaton is built.
+    private static final TrieNode CASE_VARIANT = new HashmapNode();
+
+    // Word boundary rules, which are used instead of the word characters if not null.
+    private WordBoundaries boundaries;
+    private CaseFolding caseFolding = CaseFolding.NONE;
     private boolean caseSensitive = true;
     private TrieNode root;
-    private boolean[] wordChars;
+    private WordCharSet wordChars;
 
     // Set where digits and letters, '-' and '_' are considered word characters.
     public WholeWordMatchSet(final Iterable<String> keywords, boolean caseSensitive) {
@@ -31,20 +43,83 @@ public class WholeWordMatchSet implements StringSet {
     // Set where digits and letters and '-' and '_' are considered word characters but modified by the two
     // given arrays
     public WholeWordMatchSet(final Iterable<String> keywords, boolean caseSensitive, char[] wordCharacters, boolean[] toggleFlags, Thresholder thresholdStrategy) {
-        init(keywords, caseSensitive, WordCharacters.generateWordCharsFlags(wordCharacters, toggleFlags), thresholdStrategy);
+        this(keywords, caseSensitive, wordCharacters, toggleFlags, thresholdStrategy, null);
+    }
+
+    // Set where digits and letters and '-' and '_' are considered word characters but modified by the two
+    // given arrays
+    // Reports construction progress to the listener, which may also cancel the construction.
+    public WholeWordMatchSet(final Iterable<String> keywords, boolean caseSensitive, char[] wordCharacters, boolean[] toggleFlags,
+            Thresholder thresholdStrategy, BuildListener listener) {
+        init(keywords, CaseFolding.of(caseSensitive), WordCharSet.DEFAULT.with(wordCharacters, toggleFlags), thresholdStrategy, listener);
     }
 
     // Set where the characters in the given array are considered word characters
     public WholeWordMatchSet(final Iterable<String> keywords, boolean caseSensitive, char[] wordCharacters, Thresholder thresholdStrategy) {
-        init(keywords, caseSensitive, WordCharacters.generateWordCharsFlags(wordCharacters), thresholdStrategy);
+        this(keywords, caseSensitive, wordCharacters, thresholdStrategy, null);
+    }
+
+    // Set where the characters in the given array are considered word characters
+    // Reports construction progress to the listener, which may also cancel the construction.
+    public WholeWordMatchSet(final Iterable<String> keywords, boolean caseSensitive, char[] wordCharacters, Thresholder thresholdStrategy,
+            BuildListener listener) {
+        init(keywords, CaseFolding.of(caseSensitive), WordCharSet.of(wordCharacters), thresholdStrategy, listener);
     }
 
     // Set where digits and letters, '-' and '_' are considered word characters.
     public WholeWordMatchSet(final Iterable<String> keywords, boolean caseSensitive, Thresholder thresholdStrategy) {
-        init(keywords, caseSensitive, WordCharacters.generateWordCharsFlags(), thresholdStrategy);
+        this(keywords, caseSensitive, thresholdStrategy, null);
+    }
+
+    // Set where digits and letters, '-' and '_' are considered word characters.
+    // Reports construction progress to the listener, which may also cancel the construction.
+    public WholeWordMatchSet(final Iterable<String> keywords, boolean caseSensitive, Thresholder thresholdStrategy, BuildListener listener) {
+        init(keywords, CaseFolding.of(caseSensitive), WordCharSet.DEFAULT, thresholdStrategy, listener);
+    }
+
+    // Folds the chars of keywords and haystacks with the given case folding, CaseFolding.NONE is case sensitive.
+    public WholeWordMatchSet(final Iterable<String> keywords, CaseFolding caseFolding) {
+        this(keywords, caseFolding, null, null, new RangeNodeThreshold(), null);
+    }
+
+    // Case folding with all the other options. Word characters are the default ones if null, the given ones
+    // if toggle flags are null, otherwise the default ones toggled by the flags. Listener may be null.
+    public WholeWordMatchSet(final Iterable<String> keywords, CaseFolding caseFolding, char[] wordCharacters, boolean[] toggleFlags,
+            Thresholder thresholdStrategy, BuildListener listener) {
+        init(keywords, caseFolding, WordCharSet.of(wordCharacters, toggleFlags), thresholdStrategy, listener);
+    }
+
+    // Case folding with the given set of word characters, which can be shared by many automata. Listener
+    // may be null.
+    public WholeWordMatchSet(final Iterable<String> keywords, CaseFolding caseFolding, WordCharSet wordChars, Thresholder thresholdStrategy,
+            BuildListener listener) {
+        init(keywords, caseFolding, wordChars, thresholdStrategy, listener);
+    }
+
+    // Case folding with word boundary rules instead of word characters. Listener may be null.
+    public WholeWordMatchSet(final Iterable<String> keywords, CaseFolding caseFolding, WordBoundaries boundaries, Thresholder thresholdStrategy,
+            BuildListener listener) {
+        this.boundaries = boundaries;
+        init(keywords, caseFolding, WordCharSet.DEFAULT, thresholdStrategy, listener);
     }
 
     public void match(final String haystack, final SetMatchListener listener) {
+        final Object event = Events.beginMatch();
+        if (event == null) {
+            matchHaystack(haystack, listener);
+        } else {
+            // Match calls are recorded by Flight Recorder.
+            final CountingMatchListener<Object> counter = new CountingMatchListener<Object>(listener);
+            matchHaystack(haystack, counter);
+            Events.endMatch(event, this, haystack.length(), counter.getCount());
+        }
+    }
+
+    private void matchHaystack(final String haystack, final SetMatchListener listener) {
+        if (boundaries != null) {
+            matchWords(haystack, listener);
+            return;
+        }
 
         // Start with the root node.
         TrieNode currentNode = root;
@@ -61,7 +136,7 @@ public class WholeWordMatchSet implements StringSet {
                 // Regardless of the type of the character, we keep moving till we run into
                 // a situation where there's no transition available.
                 if (nextNode == null) {
-                    if (!wordChars[c]) {
+                    if (!WordCharacters.isWordChar(wordChars, c, haystack, idx)) {
                         // If we ran into no-transition scenario on non-word character we can
                         // output the match on the current node if there is one.
                         // Later we will run through non-word characters to the start of the next word.
@@ -73,12 +148,12 @@ public class WholeWordMatchSet implements StringSet {
                     } else {
                         // If we ran into no-transition situation on a word character, we scroll through word
                         // characters to a non-word character.
-                        while (++idx < len && wordChars[haystack.charAt(idx)]) {
+                        while (++idx < len && WordCharacters.isWordChar(wordChars, haystack, idx)) {
                             ;
                         }
                     }
                     // Scroll to the first word character
-                    while (++idx < len && !wordChars[haystack.charAt(idx)]) {
+                    while (++idx < len && !WordCharacters.isWordChar(wordChars, haystack, idx)) {
                         ;
                     }
                     currentNode = root;
@@ -93,12 +168,12 @@ public class WholeWordMatchSet implements StringSet {
             }
         } else {
             while (idx < len) {
-                char c = Character.toLowerCase(haystack.charAt(idx));
+                char c = caseFolding.fold(haystack.charAt(idx));
                 TrieNode nextNode = currentNode.getTransition(c);
                 // Regardless of the type of the character, we keep moving till we run into
                 // a situation where there's no transition available.
                 if (nextNode == null) {
-                    if (!wordChars[c]) {
+                    if (!WordCharacters.isWordChar(wordChars, c, haystack, idx)) {
                         // If we ran into no-transition scenario on non-word character we can
                         // output the match on the current node if there is one.
                         // Later we will run through non-word characters to the start of the next word.
@@ -110,12 +185,12 @@ public class WholeWordMatchSet implements StringSet {
                     } else {
                         // If we ran into no-transition situation on a word character, we scroll through word
                         // characters to a non-word character.
-                        while (++idx < len && wordChars[haystack.charAt(idx)]) {
+                        while (++idx < len && WordCharacters.isWordChar(wordChars, haystack, idx)) {
                             ;
                         }
                     }
                     // Scroll to the first word character
-                    while (++idx < len && !wordChars[haystack.charAt(idx)]) {
+                    while (++idx < len && !WordCharacters.isWordChar(wordChars, haystack, idx)) {
                         ;
                     }
                     currentNode = root;
@@ -131,33 +206,247 @@ public class WholeWordMatchSet implements StringSet {
         }
     }
 
-    boolean[] getWordChars() {
+    // Matching with word boundary rules. The boundary state is updated on each char and the trie is walked
+    // from the start of each word, until the word ends or the trie has no transition.
+    private void matchWords(final String haystack, final SetMatchListener listener) {
+        final WordBoundaries boundaries = this.boundaries;
+        // Null while skipping to the start of the next word.
+        TrieNode currentNode = null;
+        int wordStart = 0;
+        int state = WordBoundaries.START;
+        final int len = haystack.length();
+        for (int idx = 0; idx < len; idx++) {
+            state = boundaries.next(state, haystack, idx);
+            if (WordBoundaries.isBreak(state)) {
+                // Keywords are single words, so a match at the end of the word is the whole word.
+                if (currentNode != null && currentNode.matchLength != 0) {
+                    if (!listener.match(haystack, wordStart, idx)) {
+                        return;
+                    }
+                }
+                currentNode = WordBoundaries.isWord(state) ? root : null;
+                wordStart = idx;
+            }
+            if (currentNode != null) {
+                final char c = haystack.charAt(idx);
+                currentNode = currentNode.getTransition(caseSensitive ? c : caseFolding.fold(c));
+            }
+        }
+        if (currentNode != null && currentNode.matchLength != 0) {
+            listener.match(haystack, wordStart, len);
+        }
+    }
+
+    // Collects statistics of the automaton by walking the trie breadth first.
+    // Walking the trie uses a set of visited nodes, which needs memory proportional to the number of nodes.
+    public AutomatonStats stats() {
+        final AutomatonStats stats = new AutomatonStats();
+        final Queue<TrieNode> queue = new Queue<TrieNode>();
+        final Set<TrieNode> visited = Collections.newSetFromMap(new IdentityHashMap<TrieNode, Boolean>());
+        visited.add(root);
+        queue.push(root);
+        queue.push(null);
+        int depth = 0;
+        EntryVisitor childrenVisitor = new EntryVisitor() {
+
+            public void visit(TrieNode parent, char key, TrieNode value) {
+                // Transitions of case variants lead to the nodes of their folded chars, which
+                // have already been visited.
+                if (!visited.add(value)) {
+                    return;
+                }
+                if (parent instanceof RangeNode) {
+                    stats.addRangeNodeChild();
+                }
+                queue.push(value);
+            }
+        };
+        while (!queue.isEmpty()) {
+            TrieNode n = queue.take();
+            if (n == null) {
+                if (!queue.isEmpty()) {
+                    queue.push(null);
+                    depth++;
+                }
+            } else {
+                n.addStats(stats, depth);
+                n.mapEntries(childrenVisitor);
+            }
+        }
+        return stats;
+    }
+
+    // Instrumented variant of matching, which doesn't output matches, but counts the work done while matching
+    // the haystacks: transitions, fail transitions, output chain steps, hashmap probes and visits of each node.
+    // It is much slower than matching and meant for finding out why matching is slow on some haystacks.
+    public MatchDiagnostics diagnose(final Iterable<String> haystacks) {
+        final MatchDiagnostics diagnostics = new MatchDiagnostics();
+        for (String haystack : haystacks) {
+            diagnostics.addHaystack(haystack.length());
+            if (boundaries != null) {
+                diagnoseWords(haystack, diagnostics);
+                continue;
+            }
+            TrieNode currentNode = root;
+            int idx = 0;
+            final int len = haystack.length();
+            while (idx < len) {
+                final char c = caseFolding.fold(haystack.charAt(idx));
+                diagnostics.addLookup(currentNode.probeLength(c));
+                TrieNode nextNode = currentNode.getTransition(c);
+                if (nextNode == null) {
+                    if (!WordCharacters.isWordChar(wordChars, c, haystack, idx)) {
+                        diagnostics.addOutput(currentNode.outputChainLength());
+                    } else {
+                        // Scroll to the first non-word character
+                        while (++idx < len && WordCharacters.isWordChar(wordChars, haystack, idx)) {
+                            ;
+                        }
+                    }
+                    // Scroll to the first word character
+                    while (++idx < len && !WordCharacters.isWordChar(wordChars, haystack, idx)) {
+                        ;
+                    }
+                    diagnostics.addRestart();
+                    currentNode = root;
+                } else {
+                    ++idx;
+                    diagnostics.addTransition(0);
+                    currentNode = nextNode;
+                    diagnostics.hit(currentNode);
+                }
+            }
+            diagnostics.addOutput(currentNode.outputChainLength());
+        }
+        diagnostics.finish(nodeHits(diagnostics));
+        return diagnostics;
+    }
+
+    // Instrumented copy of matchWords. A walk ends at the end of its word or where the trie has no
+    // transition, each end counts as a restart.
+    private void diagnoseWords(final String haystack, final MatchDiagnostics diagnostics) {
+        TrieNode currentNode = null;
+        int state = WordBoundaries.START;
+        final int len = haystack.length();
+        for (int idx = 0; idx < len; idx++) {
+            state = boundaries.next(state, haystack, idx);
+            if (WordBoundaries.isBreak(state)) {
+                if (currentNode != null) {
+                    diagnostics.addOutput(currentNode.outputChainLength());
+                    diagnostics.addRestart();
+                }
+                currentNode = WordBoundaries.isWord(state) ? root : null;
+            }
+            if (currentNode != null) {
+                final char c = caseFolding.fold(haystack.charAt(idx));
+                diagnostics.addLookup(currentNode.probeLength(c));
+                currentNode = currentNode.getTransition(c);
+                if (currentNode == null) {
+                    diagnostics.addRestart();
+                } else {
+                    diagnostics.addTransition(0);
+                    diagnostics.hit(currentNode);
+                }
+            }
+        }
+        if (currentNode != null) {
+            diagnostics.addOutput(currentNode.outputChainLength());
+        }
+    }
+
+    // Walks the trie breadth first to find the prefixes of the visited nodes.
+    private NodeProfile nodeHits(final MatchDiagnostics diagnostics) {
+        final NodeProfile profile = new NodeProfile();
+        final Queue<TrieNode> queue = new Queue<TrieNode>();
+        final Queue<String> prefixes = new Queue<String>();
+        final Set<TrieNode> visited = Collections.newSetFromMap(new IdentityHashMap<TrieNode, Boolean>());
+        // Need to use array to get mutateable state for anonymous class
+        final String[] prefix = new String[1];
+        visited.add(root);
+        queue.push(root);
+        prefixes.push("");
+        EntryVisitor childrenVisitor = new EntryVisitor() {
+
+            public void visit(TrieNode parent, char key, TrieNode value) {
+                // Skip the filled gaps in range nodes.
+                if (visited.add(value)) {
+                    queue.push(value);
+                    prefixes.push(prefix[0] + key);
+                }
+            }
+        };
+        while (!queue.isEmpty()) {
+            TrieNode n = queue.take();
+            prefix[0] = prefixes.take();
+            long hits = diagnostics.hits(n);
+            if (hits != 0) {
+                profile.add(prefix[0], hits);
+            }
+            n.mapEntries(childrenVisitor);
+        }
+        return profile;
+    }
+
+    WordCharSet getWordChars() {
         return wordChars;
     }
 
-    private void init(final Iterable<String> keywords, boolean caseSensitive, boolean[] wordChars, final Thresholder thresholdStrategy) {
-        this.caseSensitive = caseSensitive;
+    private void init(final Iterable<String> keywords, CaseFolding caseFolding, WordCharSet wordChars, final Thresholder thresholdStrategy,
+            final BuildListener listener) {
+        this.caseFolding = caseFolding;
+        this.caseSensitive = caseFolding.isCaseSensitive();
         this.wordChars = wordChars;
         // Create the root node
         root = new HashmapNode();
+        final BuildMonitor monitor = new BuildMonitor(getClass(), listener);
+        monitor.startPhase(BuildListener.Phase.INSERTION);
+        // Build the trie bottom up while the keywords come in sorted order.
+        SortedTrieBuilder<HashmapNode> sortedBuilder = new SortedTrieBuilder<HashmapNode>(caseFolding, false) {
+
+            @Override
+            protected HashmapNode createNode(int level, char[] keys, Object[] children, int size, int matchLength, Object value) {
+                HashmapNode node = new HashmapNode();
+                node.setChildren(keys, children, size);
+                node.matchLength = matchLength;
+                return node;
+            }
+        };
         // Add all keywords
         for (String keyword : keywords) {
             // Skip any empty keywords
             if (keyword != null) {
-                keyword = WordCharacters.trim(keyword, wordChars);
-                // Don't allow words with non-word characters in them.
-                for (int i = 0; i < keyword.length(); i++) {
-                    if (!wordChars[keyword.charAt(i)]) {
-                        throw new IllegalArgumentException(keyword + " contains non-word characters.");
+                if (boundaries != null) {
+                    keyword = boundaries.trim(keyword);
+                    // Don't allow keywords of more than one word.
+                    if (!boundaries.isWord(keyword)) {
+                        throw new IllegalArgumentException(keyword + " is more than one word.");
+                    }
+                } else {
+                    keyword = WordCharacters.trim(keyword, wordChars);
+                    // Don't allow words with non-word characters in them.
+                    for (int i = 0; i < keyword.length(); i++) {
+                        if (!WordCharacters.isWordChar(wordChars, keyword, i)) {
+                            throw new IllegalArgumentException(keyword + " contains non-word characters.");
+                        }
                     }
                 }
                 if (keyword.length() > 0) {
+                    monitor.step();
+                    // Once a keyword comes out of order, finish the nodes built so far
+                    // and add the rest of the keywords one by one.
+                    if (sortedBuilder != null) {
+                        if (sortedBuilder.add(keyword, null)) {
+                            continue;
+                        }
+                        root = sortedBuilder.finish();
+                        sortedBuilder = null;
+                    }
                     // Start with the current node and traverse the tree
                     // character by character. Add nodes as needed to
                     // fill out the tree.
                     HashmapNode currentNode = (HashmapNode) root;
                     for (int idx = 0; idx < keyword.length(); idx++) {
-                        currentNode = currentNode.getOrAddChild(caseSensitive ? keyword.charAt(idx) : Character.toLowerCase(keyword.charAt(idx)));
+                        currentNode = currentNode.getOrAddChild(caseFolding.fold(keyword.charAt(idx)));
                     }
                     // Last node will contains the keyword as a match.
                     // Suffix matches will be added later.
@@ -165,6 +454,10 @@ public class WholeWordMatchSet implements StringSet {
                 }
             }
         }
+        if (sortedBuilder != null) {
+            root = sortedBuilder.finish();
+        }
+        monitor.endPhase();
 
         // Go through nodes breadth first, swap any hashmap nodes,
         // whose size is close to the size of range of keys with
@@ -176,6 +469,13 @@ public class WholeWordMatchSet implements StringSet {
         // for all 2 letter words.
         //
         final Queue<TrieNode> queue = new Queue<TrieNode>();
+        if (caseFolding.hasCaseTransitions()) {
+            addCaseVariants();
+        }
+        monitor.startPhase(BuildListener.Phase.OPTIMIZATION);
+        if (thresholdStrategy instanceof BudgetThresholder) {
+            planBudget((BudgetThresholder) thresholdStrategy);
+        }
         root = root.optimizeNode(0, thresholdStrategy);
         queue.push(root);
         queue.push(null);
@@ -185,6 +485,7 @@ public class WholeWordMatchSet implements StringSet {
         EntryVisitor optimizeNodesVisitor = new EntryVisitor() {
 
             public void visit(TrieNode parent, char key, TrieNode value) {
+                monitor.step();
                 // First optimize node
                 value = value.optimizeNode(level[0], thresholdStrategy);
                 parent.updateTransition(key, value);
@@ -201,7 +502,82 @@ public class WholeWordMatchSet implements StringSet {
                 n.mapEntries(optimizeNodesVisitor);
             }
         }
+        monitor.endPhase();
+        if (caseFolding.hasCaseTransitions()) {
+            resolveCaseVariants();
+        }
+    }
+
+    // Adds transitions for the case variants of keyword chars, so matching doesn't need to fold the haystack.
+    // The transitions lead to a placeholder, which the build skips, until they are resolved to the
+    // transitions of the folded chars once the automaton is built.
+    private void addCaseVariants() {
+        final Queue<TrieNode> queue = new Queue<TrieNode>();
+        EntryVisitor childrenVisitor = new EntryVisitor() {
+
+            public void visit(TrieNode parent, char key, TrieNode value) {
+                queue.push(value);
+            }
+        };
+        queue.push(root);
+        while (!queue.isEmpty()) {
+            HashmapNode n = (HashmapNode) queue.take();
+            n.mapEntries(childrenVisitor);
+            n.addCaseVariants(caseFolding);
+        }
+    }
+
+    // Replaces the placeholders with the transitions of the folded chars. From then on the haystack is
+    // matched as it is, with the case sensitive loop.
+    private void resolveCaseVariants() {
+        final Queue<TrieNode> queue = new Queue<TrieNode>();
+        EntryVisitor childrenVisitor = new EntryVisitor() {
 
+            public void visit(TrieNode parent, char key, TrieNode value) {
+                queue.push(value);
+            }
+        };
+        queue.push(root);
+        while (!queue.isEmpty()) {
+            TrieNode n = queue.take();
+            n.mapEntries(childrenVisitor);
+            n.resolveCaseVariants(caseFolding);
+        }
+        caseFolding = CaseFolding.NONE;
+        caseSensitive = true;
+    }
+
+    // Offers the nodes to the budget thresholder as candidates, so it can choose which nodes
+    // become range nodes before the optimization. Levels are the same as in the optimization.
+    private void planBudget(BudgetThresholder budget) {
+        final Thresholder candidates = budget.startPlanning();
+        final Queue<TrieNode> queue = new Queue<TrieNode>();
+        // Need to use array to get mutateable state for anonymous class
+        final int[] level = new int[] { 1 };
+        EntryVisitor offerVisitor = new EntryVisitor() {
+
+            public void visit(TrieNode parent, char key, TrieNode value) {
+                value.optimizeNode(level[0], candidates);
+                if (!value.isEmpty()) {
+                    queue.push(value);
+                }
+            }
+        };
+        root.optimizeNode(0, candidates);
+        queue.push(root);
+        queue.push(null);
+        while (!queue.isEmpty()) {
+            TrieNode n = queue.take();
+            if (n == null) {
+                if (!queue.isEmpty()) {
+                    queue.push(null);
+                    level[0]++;
+                }
+            } else {
+                n.mapEntries(offerVisitor);
+            }
+        }
+        budget.plan();
     }
 
     private interface EntryVisitor {
@@ -220,6 +596,19 @@ public class WholeWordMatchSet implements StringSet {
         private int modulusMask = keys.length - 1;
         private int numEntries = 0;
 
+        @Override
+        public void addStats(AutomatonStats stats, int depth) {
+            long probeLengths = 0;
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] != null) {
+                    probeLengths += ((i - hash(keys[i])) & modulusMask) + 1;
+                }
+            }
+            stats.addHashmapNode(depth, keys.length, numEntries, probeLengths, AutomatonStats.objectSize(2, 12)
+                    + AutomatonStats.arraySize(keys.length, 2) + AutomatonStats.arraySize(children.length, 4));
+            stats.addOutputChain(outputChainLength());
+        }
+
         @Override
         public void clear() {
             children = new TrieNode[1];
@@ -245,6 +634,22 @@ public class WholeWordMatchSet implements StringSet {
             return null;
         }
 
+        @Override
+        protected int probeLength(final char key) {
+            int defaultSlot = hash(key) & modulusMask;
+            int currentSlot = defaultSlot;
+            int probes = 1;
+            // Same probing as in getTransition.
+            while (keys[currentSlot] != key && children[currentSlot] != null) {
+                currentSlot = ++currentSlot & modulusMask;
+                if (currentSlot == defaultSlot) {
+                    break;
+                }
+                probes++;
+            }
+            return probes;
+        }
+
         @Override
         public boolean isEmpty() {
             return numEntries == 0;
@@ -253,7 +658,7 @@ public class WholeWordMatchSet implements StringSet {
         @Override
         public void mapEntries(EntryVisitor visitor) {
             for (int i = 0; i < keys.length; i++) {
-                if (children[i] != null) {
+                if (children[i] != null && children[i] != CASE_VARIANT) {
                     visitor.visit(this, keys[i], children[i]);
                 }
             }
@@ -280,10 +685,12 @@ public class WholeWordMatchSet implements StringSet {
         protected TrieNode optimizeNode(int level, Thresholder thresholdStrategy) {
             char minKey = '\uffff';
             char maxKey = 0;
-            // Find you the min and max key on the node.
-            int size = numEntries;
+            // Find you the min and max key on the node. Case variants are left out, so the thresholder
+            // sees the same node as without them.
+            int size = 0;
             for (int i = 0; i < children.length; i++) {
-                if (children[i] != null) {
+                if (children[i] != null && children[i] != CASE_VARIANT) {
+                    size++;
                     if (keys[i] > maxKey) {
                         maxKey = keys[i];
                     }
@@ -296,7 +703,16 @@ public class WholeWordMatchSet implements StringSet {
             // or only slightly larger than number of entries, use a range node
             int keyIntervalSize = maxKey - minKey + 1;
             if (thresholdStrategy.isOverThreshold(size, level, keyIntervalSize)) {
-                return new RangeNode(this, minKey, maxKey);
+                // Case variants close to the keys widen the range, the others are kept on the side.
+                char from = minKey;
+                char to = maxKey;
+                for (int i = 0; i < children.length; i++) {
+                    if (children[i] == CASE_VARIANT && keys[i] + CaseFolding.RANGE_REACH > minKey && keys[i] < maxKey + CaseFolding.RANGE_REACH) {
+                        from = keys[i] < from ? keys[i] : from;
+                        to = keys[i] > to ? keys[i] : to;
+                    }
+                }
+                return new RangeNode(this, from, to);
             } else {
                 return this;
             }
@@ -359,6 +775,78 @@ public class WholeWordMatchSet implements StringSet {
             throw new IllegalStateException();
         }
 
+        // Adds transitions to the placeholder for the case variants of the keys, unless the variants
+        // have transitions of their own.
+        private void addCaseVariants(CaseFolding caseFolding) {
+            // Adding may enlarge the node, so iterate over the current tables.
+            char[] currentKeys = keys;
+            TrieNode[] currentChildren = children;
+            for (int i = 0; i < currentKeys.length; i++) {
+                if (currentChildren[i] != null && currentChildren[i] != CASE_VARIANT) {
+                    for (char variant : caseFolding.variants(currentKeys[i])) {
+                        addCaseVariant(variant);
+                    }
+                }
+            }
+        }
+
+        private void addCaseVariant(char key) {
+            // Same resizing and probing as in getOrAddChild.
+            if (keys.length < 0x10000 && ((numEntries >= keys.length) || (numEntries > 16 && (numEntries >= keys.length * 0.90f)))) {
+                enlarge();
+            }
+            int defaultSlot = hash(key) & modulusMask;
+            int currentSlot = defaultSlot;
+            do {
+                if (children[currentSlot] == null) {
+                    keys[currentSlot] = key;
+                    children[currentSlot] = CASE_VARIANT;
+                    ++numEntries;
+                    return;
+                } else if (keys[currentSlot] == key) {
+                    return;
+                } else {
+                    currentSlot = ++currentSlot & modulusMask;
+                }
+            } while (currentSlot != defaultSlot);
+            throw new IllegalStateException();
+        }
+
+        // Sets the children of an empty node. The capacity is the same as if the children were added
+        // one by one, but the tables are allocated once and never rehashed.
+        private void setChildren(char[] childKeys, Object[] childNodes, int size) {
+            if (size == 0) {
+                return;
+            }
+            int capacity = 1;
+            for (int n = 0; n < size; n++) {
+                if (capacity < 0x10000 && ((n >= capacity) || (n > 16 && (n >= capacity * 0.90f)))) {
+                    capacity *= 2;
+                }
+            }
+            keys = new char[capacity];
+            children = new TrieNode[capacity];
+            modulusMask = capacity - 1;
+            for (int i = 0; i < size; i++) {
+                int currentSlot = hash(childKeys[i]) & modulusMask;
+                while (children[currentSlot] != null) {
+                    currentSlot = ++currentSlot & modulusMask;
+                }
+                keys[currentSlot] = childKeys[i];
+                children[currentSlot] = (TrieNode) childNodes[i];
+            }
+            numEntries = size;
+        }
+
+        @Override
+        protected void resolveCaseVariants(CaseFolding caseFolding) {
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] == CASE_VARIANT) {
+                    children[i] = getTransition(caseFolding.fold(keys[i]));
+                }
+            }
+        }
+
         // FNV-1a hash
         private int hash(char c) {
             // HASH_BASIS = 0x811c9dc5;
@@ -375,6 +863,8 @@ public class WholeWordMatchSet implements StringSet {
 
         private char baseChar = 0;
         private TrieNode[] children;
+        // Case variants out of the range.
+        private HashmapNode farVariants;
         private int size = 0;
 
         private RangeNode(HashmapNode oldNode, char from, char to) {
@@ -390,12 +880,27 @@ public class WholeWordMatchSet implements StringSet {
                 // Grab the children of the old node.
                 for (int i = 0; i < oldNode.children.length; i++) {
                     if (oldNode.children[i] != null) {
-                        children[oldNode.keys[i] - from] = oldNode.children[i];
+                        if (oldNode.keys[i] < from || oldNode.keys[i] > to) {
+                            if (farVariants == null) {
+                                farVariants = new HashmapNode();
+                            }
+                            farVariants.addCaseVariant(oldNode.keys[i]);
+                        } else {
+                            children[oldNode.keys[i] - from] = oldNode.children[i];
+                        }
                     }
                 }
             }
         }
 
+        @Override
+        public void addStats(AutomatonStats stats, int depth) {
+            stats.addRangeNode(depth, size, AutomatonStats.objectSize(2, 10) + (children == null ? 0 : AutomatonStats.arraySize(size, 4))
+                    + (farVariants == null ? 0 : AutomatonStats.arraySize(farVariants.keys.length, 2)
+                            + AutomatonStats.arraySize(farVariants.children.length, 4)));
+            stats.addOutputChain(outputChainLength());
+        }
+
         @Override
         public void clear() {
             children = null;
@@ -411,7 +916,7 @@ public class WholeWordMatchSet implements StringSet {
             if (idx < size) {
                 return children[idx];
             }
-            return null;
+            return farVariants == null ? null : farVariants.getTransition(c);
         }
 
         @Override
@@ -423,13 +928,29 @@ public class WholeWordMatchSet implements StringSet {
         public void mapEntries(EntryVisitor visitor) {
             if (children != null) {
                 for (int i = 0; i < children.length; i++) {
-                    if (children[i] != null && children[i] != this) {
+                    if (children[i] != null && children[i] != this && children[i] != CASE_VARIANT) {
                         visitor.visit(this, (char) (baseChar + i), children[i]);
                     }
                 }
             }
         }
 
+        @Override
+        protected void resolveCaseVariants(CaseFolding caseFolding) {
+            for (int i = 0; i < size; i++) {
+                if (children[i] == CASE_VARIANT) {
+                    children[i] = getTransition(caseFolding.fold((char) (baseChar + i)));
+                }
+            }
+            if (farVariants != null) {
+                for (int i = 0; i < farVariants.children.length; i++) {
+                    if (farVariants.children[i] == CASE_VARIANT) {
+                        farVariants.children[i] = getTransition(caseFolding.fold(farVariants.keys[i]));
+                    }
+                }
+            }
+        }
+
         @Override
         public void updateTransition(char c, TrieNode node) {
             // First check if the key is between max and min value.
@@ -454,17 +975,32 @@ public class WholeWordMatchSet implements StringSet {
 
         protected int matchLength;
 
+        public abstract void addStats(AutomatonStats stats, int depth);
+
         public abstract void clear();
 
         // Get transition (root node returns something non-null for all characters - itself)
         public abstract TrieNode getTransition(char c);
 
+        // Number of slots checked to find the transition for the character.
+        protected int probeLength(char c) {
+            return 1;
+        }
+
         public abstract boolean isEmpty();
 
         public abstract void mapEntries(final EntryVisitor visitor);
 
+        // Replaces the placeholders of case variants with the transitions of their folded chars.
+        protected abstract void resolveCaseVariants(CaseFolding caseFolding);
+
         public abstract void updateTransition(char c, TrieNode node);
 
+        // Number of matches output when matching reaches this node.
+        protected final int outputChainLength() {
+            return matchLength == 0 ? 0 : 1;
+        }
+
         protected TrieNode optimizeNode(int level, Thresholder thresholdStrategy) {
             return this;
         }
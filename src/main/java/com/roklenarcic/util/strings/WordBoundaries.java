@@ -0,0 +1,362 @@
+package com.roklenarcic.util.strings;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.EnumSet;
+
+// Word boundaries for whole word matching after the word boundary rules of Unicode (UAX #29), as an
+// alternative to a set of word characters. A set of word characters puts a boundary wherever a word char
+// meets a non-word char, so it splits "don't" and "3.14", and it can't split "fooBar" or a mark
+// from its letter. The rules decide a boundary from the classes of the chars around it instead:
+//
+// - combining marks and format chars belong to the char before them (WB4)
+// - letters, digits and connector punctuation such as '_' join each other (WB5, WB8-WB10, WB13a/b)
+// - each Han ideograph and Hiragana char is a word of its own, runs of Katakana are words (WB13)
+// - with APOSTROPHES, letters join across an apostrophe, period or colon, as in don't, U.S.A or S:t (WB6, WB7)
+// - with NUMBER_SEPARATORS, digits join across a period, comma or semicolon, as in 3.14 or 1,000 (WB11, WB12)
+// - with HYPHENS, letters and digits join across a hyphen, as in state-of-the-art
+// - with LETTER_DIGIT_BREAKS, letters and digits don't join, as in "mp3" being "mp" and "3"
+// - with CAMEL_CASE, a lower case letter followed by an upper case one is a boundary, as in "fooBar"
+//
+// Segments that start with a letter, a digit, an ideograph or connector punctuation are words, the others
+// are not. Keywords are trimmed of segments that are not words.
+//
+// The rules are compiled into a table of actions for each pair of char classes, which the matching loops
+// evaluate on each char while walking the trie, so the haystack isn't tokenized in a separate pass. The
+// state carried from char to char is the class of the previous two chars, packed in an int with the
+// boundary and word flags. Chars are classified with a two level table, like the tables of CaseFolding,
+// and supplementary characters by the code point of their surrogate pair.
+public final class WordBoundaries {
+
+    public enum Option {
+        APOSTROPHES, CAMEL_CASE, HYPHENS, LETTER_DIGIT_BREAKS, NUMBER_SEPARATORS
+    }
+
+    // Char classes.
+    static final int OTHER = 0;
+    static final int LETTER = 1;
+    static final int UPPER = 2;
+    static final int DIGIT = 3;
+    static final int IDEOGRAPH = 4;
+    static final int KATAKANA = 5;
+    static final int MID_LETTER = 6;
+    static final int MID_NUM = 7;
+    static final int MID_NUM_LET = 8;
+    static final int HYPHEN = 9;
+    static final int CONNECTOR = 10;
+    static final int EXTEND = 11;
+    // Start and end of the text.
+    static final int SOT = 12;
+    static final int EOT = 13;
+    private static final int CLASSES = 14;
+
+    // Flags of the state returned by next: a boundary before the char and a segment that is a word.
+    static final int BREAK = 1 << 16;
+    static final int WORD = 1 << 17;
+    // State before the first char of the text.
+    static final int START = SOT;
+
+    // Combining marks after mid-word punctuation are skipped up to this many chars, when looking ahead
+    // for the char after the punctuation. Readables keep this many chars ahead of the current char.
+    static final int LOOKAHEAD = 16;
+
+    private static final byte[][] CLASS_BLOCKS = classBlocks();
+    private static final int LETTERS = 1 << LETTER | 1 << UPPER;
+    private static final int WORD_CLASSES = LETTERS | 1 << DIGIT | 1 << IDEOGRAPH | 1 << KATAKANA | 1 << CONNECTOR;
+
+    // Actions of the rules. Checks hold the classes of the char after or the char before the pair, that
+    // make the pair not a boundary, in the bits above CHECK_SHIFT.
+    private static final int NO_BREAK = 0;
+    private static final int RULE_BREAK = 1;
+    private static final int CHECK_NEXT = 2;
+    private static final int CHECK_PREVIOUS = 4;
+    private static final int CHECK_SHIFT = 8;
+
+    // The rules of UAX #29 with apostrophes and number separators.
+    public static final WordBoundaries UAX29 = of(Option.APOSTROPHES, Option.NUMBER_SEPARATORS);
+
+    private final EnumSet<Option> options;
+    private final int[] rules = new int[CLASSES * CLASSES];
+
+    private WordBoundaries(EnumSet<Option> options) {
+        this.options = options;
+        int alphanumerics = LETTERS | 1 << DIGIT;
+        for (int i = 0; i < rules.length; i++) {
+            rules[i] = RULE_BREAK;
+        }
+        for (int prev = OTHER; prev < SOT; prev++) {
+            rule(prev, EXTEND, NO_BREAK);
+        }
+        rule(LETTER, LETTER, NO_BREAK);
+        rule(LETTER, UPPER, options.contains(Option.CAMEL_CASE) ? RULE_BREAK : NO_BREAK);
+        rule(UPPER, LETTER, NO_BREAK);
+        rule(UPPER, UPPER, NO_BREAK);
+        rule(DIGIT, DIGIT, NO_BREAK);
+        rule(KATAKANA, KATAKANA, NO_BREAK);
+        if (!options.contains(Option.LETTER_DIGIT_BREAKS)) {
+            rule(LETTER, DIGIT, NO_BREAK);
+            rule(UPPER, DIGIT, NO_BREAK);
+            rule(DIGIT, LETTER, NO_BREAK);
+            rule(DIGIT, UPPER, NO_BREAK);
+        }
+        for (int c = OTHER; c < EXTEND; c++) {
+            if ((1 << c & (WORD_CLASSES & ~(1 << IDEOGRAPH))) != 0) {
+                rule(c, CONNECTOR, NO_BREAK);
+                rule(CONNECTOR, c, NO_BREAK);
+            }
+        }
+        if (options.contains(Option.APOSTROPHES)) {
+            for (int mid : new int[] { MID_LETTER, MID_NUM_LET }) {
+                rule(LETTER, mid, CHECK_NEXT | LETTERS << CHECK_SHIFT);
+                rule(UPPER, mid, CHECK_NEXT | LETTERS << CHECK_SHIFT);
+                rule(mid, LETTER, CHECK_PREVIOUS | LETTERS << CHECK_SHIFT);
+                rule(mid, UPPER, CHECK_PREVIOUS | LETTERS << CHECK_SHIFT);
+            }
+        }
+        if (options.contains(Option.NUMBER_SEPARATORS)) {
+            for (int mid : new int[] { MID_NUM, MID_NUM_LET }) {
+                rule(DIGIT, mid, CHECK_NEXT | 1 << DIGIT << CHECK_SHIFT);
+                rule(mid, DIGIT, CHECK_PREVIOUS | 1 << DIGIT << CHECK_SHIFT);
+            }
+        }
+        if (options.contains(Option.HYPHENS)) {
+            for (int c : new int[] { LETTER, UPPER, DIGIT }) {
+                rule(c, HYPHEN, CHECK_NEXT | alphanumerics << CHECK_SHIFT);
+                rule(HYPHEN, c, CHECK_PREVIOUS | alphanumerics << CHECK_SHIFT);
+            }
+        }
+    }
+
+    public static WordBoundaries of(Option... options) {
+        EnumSet<Option> set = EnumSet.noneOf(Option.class);
+        for (Option option : options) {
+            set.add(option);
+        }
+        return new WordBoundaries(set);
+    }
+
+    static int classify(int codePoint) {
+        switch (codePoint) {
+        case '\'':
+        case '.':
+        case '\u2018':
+        case '\u2019':
+        case '\u2024':
+        case '\uFE52':
+        case '\uFF07':
+        case '\uFF0E':
+            return MID_NUM_LET;
+        case ':':
+        case '\u00B7':
+        case '\u0387':
+        case '\u05F4':
+        case '\u2027':
+        case '\uFE13':
+        case '\uFE55':
+        case '\uFF1A':
+            return MID_LETTER;
+        case ',':
+        case ';':
+        case '\u037E':
+        case '\u0589':
+        case '\u060C':
+        case '\u060D':
+        case '\u066C':
+        case '\u07F8':
+        case '\u2044':
+        case '\uFE10':
+        case '\uFE14':
+        case '\uFE50':
+        case '\uFE54':
+        case '\uFF0C':
+        case '\uFF1B':
+            return MID_NUM;
+        case '-':
+        case '\u2010':
+        case '\u2011':
+            return HYPHEN;
+        case '\u202F':
+            return CONNECTOR;
+        case '\u30FC':
+        case '\uFF70':
+            return KATAKANA;
+        }
+        switch (Character.getType(codePoint)) {
+        case Character.NON_SPACING_MARK:
+        case Character.ENCLOSING_MARK:
+        case Character.COMBINING_SPACING_MARK:
+        case Character.FORMAT:
+            return EXTEND;
+        case Character.CONNECTOR_PUNCTUATION:
+            return CONNECTOR;
+        case Character.UPPERCASE_LETTER:
+        case Character.TITLECASE_LETTER:
+            return UPPER;
+        case Character.DECIMAL_DIGIT_NUMBER:
+            return DIGIT;
+        }
+        Character.UnicodeBlock block = Character.UnicodeBlock.of(codePoint);
+        if (block == Character.UnicodeBlock.KATAKANA || block == Character.UnicodeBlock.KATAKANA_PHONETIC_EXTENSIONS
+                || codePoint >= '\uFF66' && codePoint <= '\uFF9F') {
+            return Character.isLetter(codePoint) ? KATAKANA : EXTEND;
+        }
+        if (Character.isIdeographic(codePoint) || block == Character.UnicodeBlock.HIRAGANA) {
+            return IDEOGRAPH;
+        }
+        return Character.isLetter(codePoint) ? LETTER : OTHER;
+    }
+
+    private static byte[][] classBlocks() {
+        byte[][] blocks = new byte[256][];
+        byte[] others = new byte[256];
+        for (int high = 0; high < blocks.length; high++) {
+            byte[] block = null;
+            for (int low = 0; low < 256; low++) {
+                char c = (char) (high << 8 | low);
+                int charClass = Character.isSurrogate(c) ? OTHER : classify(c);
+                if (charClass != OTHER) {
+                    if (block == null) {
+                        block = new byte[256];
+                    }
+                    block[low] = (byte) charClass;
+                }
+            }
+            blocks[high] = block == null ? others : block;
+        }
+        return blocks;
+    }
+
+    // Class of the char at idx. The low surrogate of a pair extends the high surrogate, which has the class
+    // of the code point of the pair.
+    static int classOf(CharSequence s, int idx) {
+        final char c = s.charAt(idx);
+        if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+            return CLASS_BLOCKS[c >>> 8][c & 0xFF];
+        }
+        if (Character.isHighSurrogate(c)) {
+            if (idx + 1 < s.length() && Character.isLowSurrogate(s.charAt(idx + 1))) {
+                return classify(Character.toCodePoint(c, s.charAt(idx + 1)));
+            }
+        } else if (idx > 0 && Character.isHighSurrogate(s.charAt(idx - 1))) {
+            return EXTEND;
+        }
+        return OTHER;
+    }
+
+    static boolean isBreak(int state) {
+        return (state & BREAK) != 0;
+    }
+
+    static boolean isWord(int state) {
+        return (state & WORD) != 0;
+    }
+
+    // Class of the first char at or after idx, that isn't a combining mark.
+    private static int nextClass(CharSequence s, int idx) {
+        final int end = Math.min(s.length(), idx + LOOKAHEAD);
+        for (; idx < end; idx++) {
+            int charClass = classOf(s, idx);
+            if (charClass != EXTEND) {
+                return charClass;
+            }
+        }
+        return idx == s.length() ? EOT : OTHER;
+    }
+
+    // State after the char at idx, given the state after the char before it. The state has the BREAK flag
+    // if there is a boundary before the char, and the WORD flag if the segment of the char is a word.
+    int next(int state, CharSequence s, int idx) {
+        final int charClass = classOf(s, idx);
+        final int prev = state & 0xFF;
+        final int rule = rules[prev * CLASSES + charClass];
+        if (rule == NO_BREAK) {
+            // Combining marks don't change the class of the previous char.
+            return charClass == EXTEND ? state & ~BREAK : (state & WORD) | prev << 8 | charClass;
+        }
+        if (rule != RULE_BREAK) {
+            final int other = (rule & CHECK_NEXT) != 0 ? nextClass(s, idx + 1) : state >>> 8 & 0xFF;
+            if ((rule >>> CHECK_SHIFT & 1 << other) != 0) {
+                return (state & WORD) | prev << 8 | charClass;
+            }
+        }
+        return BREAK | ((WORD_CLASSES & 1 << charClass) != 0 ? WORD : 0) | prev << 8 | charClass;
+    }
+
+    private void rule(int prev, int charClass, int action) {
+        rules[prev * CLASSES + charClass] = action;
+    }
+
+    // True if the keyword is a single word.
+    boolean isWord(String keyword) {
+        int state = START;
+        for (int i = 0; i < keyword.length(); i++) {
+            state = next(state, keyword, i);
+            if (i == 0 ? !isWord(state) : isBreak(state)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "WordBoundaries" + options;
+    }
+
+    // Trims segments that are not words from the start and the end of the keyword.
+    String trim(String keyword) {
+        int wordStart = -1;
+        int wordEnd = 0;
+        int state = START;
+        for (int i = 0; i < keyword.length(); i++) {
+            state = next(state, keyword, i);
+            if (isBreak(state) && isWord(state) && wordStart == -1) {
+                wordStart = i;
+            }
+            if (isWord(state)) {
+                wordEnd = i + 1;
+            }
+        }
+        if (wordStart == -1) {
+            return "";
+        }
+        // Don't substring if you don't have to.
+        return wordStart == 0 && wordEnd == keyword.length() ? keyword : keyword.substring(wordStart, wordEnd);
+    }
+
+    // Window of a Readable for the matching loops, which keeps the char before the current one and
+    // LOOKAHEAD chars after it in the buffer, until the end of input.
+    static final class Window {
+
+        private final CharBuffer buf;
+        private boolean eof;
+        private final Readable in;
+
+        Window(Readable in, int size) {
+            this.in = in;
+            this.buf = CharBuffer.allocate(Math.max(size, 4 * LOOKAHEAD));
+            this.buf.limit(0);
+        }
+
+        CharSequence chars() {
+            return buf;
+        }
+
+        // Fills the buffer so the char at idx has LOOKAHEAD chars after it, and returns the new index of
+        // the char, or -1 at the end of input.
+        int fill(int idx) throws IOException {
+            while (idx + LOOKAHEAD >= buf.limit() && !eof) {
+                final int keep = Math.max(idx - 1, 0);
+                buf.position(keep);
+                buf.compact();
+                idx -= keep;
+                if (in.read(buf) == -1) {
+                    eof = true;
+                }
+                buf.flip();
+            }
+            return idx < buf.limit() ? idx : -1;
+        }
+    }
+
+}
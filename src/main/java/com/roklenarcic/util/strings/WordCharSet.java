@@ -0,0 +1,144 @@
+package com.roklenarcic.util.strings;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+// Immutable set of word characters for whole word matching. Supplementary characters are checked by
+// WordCharacters on the code points of surrogate pairs, so the set holds the BMP chars only.
+//
+// The set is a bit set with a fast path for ASCII and a two level layout for the rest of the BMP, like
+// the tables of CaseFolding. Blocks of 256 chars that are all word chars or all non-word chars share a
+// single block, and sets derived from the default one share its unchanged blocks, so a set takes a few
+// kilobytes instead of the 64 KB of a boolean[65536]. Sets are interned, so automata built with the same
+// definition of word characters share one instance, and the default set is built once.
+public final class WordCharSet {
+
+    private static final long[] ALL = new long[] { -1L, -1L, -1L, -1L };
+    private static final Map<WordCharSet, WeakReference<WordCharSet>> INTERNED = new WeakHashMap<WordCharSet, WeakReference<WordCharSet>>();
+    private static final long[] NONE = new long[4];
+
+    // Digits and letters, '-' and '_'.
+    public static final WordCharSet DEFAULT = defaultSet();
+
+    private final long asciiHigh;
+    private final long asciiLow;
+    private final long[][] blocks;
+    private final int hashCode;
+
+    private WordCharSet(long[][] blocks) {
+        this.blocks = blocks;
+        this.asciiLow = blocks[0][0];
+        this.asciiHigh = blocks[0][1];
+        int hashCode = 0;
+        for (long[] block : blocks) {
+            hashCode = 31 * hashCode + Arrays.hashCode(block);
+        }
+        this.hashCode = hashCode;
+    }
+
+    // Set of the given chars.
+    public static WordCharSet of(char[] wordCharacters) {
+        long[][] blocks = new long[256][];
+        Arrays.fill(blocks, NONE);
+        for (char c : wordCharacters) {
+            set(blocks, null, c, true);
+        }
+        return intern(blocks, null);
+    }
+
+    // Default set if wordCharacters is null, the set of the given chars if toggleFlags is null, otherwise
+    // the default set with the given chars toggled by the flags.
+    static WordCharSet of(char[] wordCharacters, boolean[] toggleFlags) {
+        return wordCharacters == null ? DEFAULT : toggleFlags == null ? of(wordCharacters) : DEFAULT.with(wordCharacters, toggleFlags);
+    }
+
+    private static WordCharSet defaultSet() {
+        long[][] blocks = new long[256][];
+        Arrays.fill(blocks, NONE);
+        set(blocks, null, '-', true);
+        set(blocks, null, '_', true);
+        for (int i = 0; i <= Character.MAX_VALUE; i++) {
+            if (Character.isLetterOrDigit((char) i)) {
+                set(blocks, null, (char) i, true);
+            }
+        }
+        return intern(blocks, null);
+    }
+
+    private static synchronized WordCharSet intern(long[][] blocks, WordCharSet base) {
+        for (int i = 0; i < blocks.length; i++) {
+            long[] block = blocks[i];
+            if (Arrays.equals(block, NONE)) {
+                blocks[i] = NONE;
+            } else if (Arrays.equals(block, ALL)) {
+                blocks[i] = ALL;
+            } else if (base != null && Arrays.equals(block, base.blocks[i])) {
+                blocks[i] = base.blocks[i];
+            }
+        }
+        WordCharSet set = new WordCharSet(blocks);
+        WeakReference<WordCharSet> interned = INTERNED.get(set);
+        if (interned != null && interned.get() != null) {
+            return interned.get();
+        }
+        INTERNED.put(set, new WeakReference<WordCharSet>(set));
+        return set;
+    }
+
+    // Sets the bit of char c, copying the block first if it's shared with the base set or another block.
+    private static void set(long[][] blocks, WordCharSet base, char c, boolean value) {
+        long[] block = blocks[c >>> 8];
+        if (block == NONE || block == ALL || base != null && block == base.blocks[c >>> 8]) {
+            block = blocks[c >>> 8] = block.clone();
+        }
+        if (value) {
+            block[c >>> 6 & 3] |= 1L << c;
+        } else {
+            block[c >>> 6 & 3] &= ~(1L << c);
+        }
+    }
+
+    public boolean contains(char c) {
+        if (c < 128) {
+            return ((c < 64 ? asciiLow : asciiHigh) & 1L << c) != 0;
+        }
+        return (blocks[c >>> 8][c >>> 6 & 3] & 1L << c) != 0;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof WordCharSet)) {
+            return false;
+        }
+        WordCharSet other = (WordCharSet) obj;
+        if (hashCode != other.hashCode) {
+            return false;
+        }
+        for (int i = 0; i < blocks.length; i++) {
+            if (blocks[i] != other.blocks[i] && !Arrays.equals(blocks[i], other.blocks[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    // This set with each of the given chars added if its flag is true and removed otherwise.
+    public WordCharSet with(char[] wordCharacters, boolean[] flags) {
+        long[][] blocks = this.blocks.clone();
+        for (int i = 0; i < wordCharacters.length; i++) {
+            set(blocks, this, wordCharacters[i], flags[i]);
+        }
+        return intern(blocks, this);
+    }
+
+}
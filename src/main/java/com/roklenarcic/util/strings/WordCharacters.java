@@ -1,55 +1,68 @@
 package com.roklenarcic.util.strings;
 
+import java.nio.CharBuffer;
+
 // Utility class for dealing with word characters.
+//
+// Word character sets hold UTF-16 chars, which don't work for supplementary characters, because their
+// surrogates are not letters. Surrogates are checked as the code point of their pair instead: supplementary
+// characters are word characters if they are letters or digits, such as CJK Extension B ideographs, but not
+// emoji. Lone surrogates are not word characters. The checks of surrogates come after the flag lookup, so
+// BMP text only pays for a range check on non-word characters.
 class WordCharacters {
 
-    public static boolean[] generateWordCharsFlags() {
-        boolean[] characterFlags = new boolean[65536];
-        characterFlags['-'] = true;
-        characterFlags['_'] = true;
-        for (int i = 0; i < characterFlags.length; i++) {
-            if (Character.isLetterOrDigit((char) i)) {
-                characterFlags[i] = true;
-            }
-        }
-        return characterFlags;
+    // Word character check of char c at idx of the haystack. The char c is either the char at idx or its
+    // case folding.
+    static boolean isWordChar(WordCharSet wordChars, char c, CharSequence haystack, int idx) {
+        return wordChars.contains(c) || c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE && isWordSurrogate(haystack, idx);
     }
 
-    public static boolean[] generateWordCharsFlags(char[] wordCharacters) {
-        boolean[] characterFlags = new boolean[65536];
-        for (char c : wordCharacters) {
-            characterFlags[c] = true;
-        }
-        return characterFlags;
+    static boolean isWordChar(WordCharSet wordChars, String haystack, int idx) {
+        final char c = haystack.charAt(idx);
+        return wordChars.contains(c) || c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE && isWordSurrogate(haystack, idx);
     }
 
-    public static boolean[] generateWordCharsFlags(char[] wordCharacters, boolean[] toggleFlags) {
-        boolean[] characterFlags = new boolean[65536];
-        characterFlags['-'] = true;
-        characterFlags['_'] = true;
-        for (int i = 0; i < characterFlags.length; i++) {
-            if (Character.isLetterOrDigit((char) i)) {
-                characterFlags[i] = true;
-            }
+    // Same as above for the char at the absolute index idx of the buffer.
+    static boolean isWordChar(WordCharSet wordChars, char c, CharBuffer buf, int idx) {
+        return wordChars.contains(c) || c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE && isWordSurrogate(buf, idx);
+    }
+
+    public static boolean isWordCodePoint(int codePoint) {
+        return Character.isLetterOrDigit(codePoint);
+    }
+
+    // True if the surrogate at idx and the other char of its pair are a word character.
+    private static boolean isWordSurrogate(CharSequence haystack, int idx) {
+        final char c = haystack.charAt(idx);
+        if (Character.isHighSurrogate(c)) {
+            return idx + 1 < haystack.length() && Character.isLowSurrogate(haystack.charAt(idx + 1))
+                    && isWordCodePoint(Character.toCodePoint(c, haystack.charAt(idx + 1)));
+        } else {
+            return idx > 0 && Character.isHighSurrogate(haystack.charAt(idx - 1)) && isWordCodePoint(Character.toCodePoint(haystack.charAt(idx - 1), c));
         }
-        for (int i = 0; i < wordCharacters.length; i++) {
-            characterFlags[wordCharacters[i]] = toggleFlags[i];
+    }
+
+    private static boolean isWordSurrogate(CharBuffer buf, int idx) {
+        final char c = buf.get(idx);
+        if (Character.isHighSurrogate(c)) {
+            return idx + 1 < buf.limit() && Character.isLowSurrogate(buf.get(idx + 1)) && isWordCodePoint(Character.toCodePoint(c, buf.get(idx + 1)));
+        } else {
+            return idx > 0 && Character.isHighSurrogate(buf.get(idx - 1)) && isWordCodePoint(Character.toCodePoint(buf.get(idx - 1), c));
         }
-        return characterFlags;
     }
 
-    public static String trim(String keyword, boolean[] wordChars) {
+    public static String trim(String keyword, WordCharSet wordChars) {
         // Trim any non-word chars from the start and the end.
         int wordStart = 0;
         int wordEnd = keyword.length();
         for (int i = 0; i < keyword.length(); i++) {
-            if (wordChars[keyword.charAt(i)]) {
+            if (isWordChar(wordChars, keyword, i)) {
                 wordStart = i;
                 break;
             }
         }
         for (int i = keyword.length() - 1; i >= 0; i--) {
-            if (wordChars[keyword.charAt(i)]) {
+            if (isWordChar(wordChars, keyword, i)) {
                 wordEnd = i + 1;
                 break;
             }
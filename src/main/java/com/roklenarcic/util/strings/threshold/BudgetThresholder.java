@@ -0,0 +1,176 @@
+package com.roklenarcic.util.strings.threshold;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Thresholder that turns nodes into range nodes under a global memory budget. Before the optimization the
+// automaton offers all its nodes as candidates, the thresholder ranks the conversions by benefit per extra
+// byte and picks the best ones that still fit the rest of the budget. Conversions that don't need extra
+// memory are always made.
+//
+// The budget covers the estimated bytes of all nodes except the root, on a 64-bit JVM with compressed
+// references. If the nodes don't fit the budget even as hashmap nodes, only the conversions that save memory
+// are made. Benefit estimate can be changed by overriding the benefit method.
+//
+// An instance plans one automaton at a time, so it can be reused for building automatons one after another,
+// but not for building several automatons concurrently.
+public class BudgetThresholder implements Thresholder {
+
+    // Bytes of a node object without the transition arrays
+    private static final int NODE_BYTES = 32;
+
+    private final long budget;
+    private int candidateCount = 0;
+    private final Thresholder candidates = new Thresholder() {
+
+        public boolean isOverThreshold(int nodeSize, int nodeLevel, int keyIntervalSize) {
+            addCandidate(nodeSize, nodeLevel, keyIntervalSize);
+            return false;
+        }
+    };
+    // Number of planned conversions by the key of the nodes. Nodes with the same key cost the same
+    // and have the same score, so it doesn't matter which of them are converted.
+    private Map<Long, AtomicInteger> conversions = new HashMap<Long, AtomicInteger>();
+    private long[] extraBytes = new long[64];
+    private final Thresholder fallback;
+    private long[] keys = new long[64];
+    private boolean planned = false;
+    private long plannedBytes = 0;
+    private double[] scores = new double[64];
+    private long totalBytes = 0;
+
+    // Automatons that don't offer candidates use RangeNodeThreshold.
+    public BudgetThresholder(long budgetBytes) {
+        this(budgetBytes, new RangeNodeThreshold());
+    }
+
+    // Fallback thresholder is used by automatons that don't offer candidates.
+    public BudgetThresholder(long budgetBytes, Thresholder fallback) {
+        this.budget = budgetBytes;
+        this.fallback = fallback;
+    }
+
+    private static long hashmapBytes(int nodeSize) {
+        // Capacity is the next power of 2, char and reference arrays.
+        int capacity = nodeSize <= 1 ? 1 : Integer.highestOneBit(nodeSize - 1) << 1;
+        return NODE_BYTES + arrayBytes(capacity, 2) + arrayBytes(capacity, 4);
+    }
+
+    private static long rangeBytes(int nodeSize, int keyIntervalSize) {
+        // Empty nodes have a negative key interval.
+        return NODE_BYTES + arrayBytes(nodeSize == 0 ? 0 : keyIntervalSize, 4);
+    }
+
+    private static long arrayBytes(int length, int elementBytes) {
+        return (16 + (long) length * elementBytes + 7) & ~7L;
+    }
+
+    // Node size and key interval are at most the number of chars, 17 bits each.
+    private static long key(int nodeSize, int nodeLevel, int keyIntervalSize) {
+        return (long) nodeLevel << 34 | (long) nodeSize << 17 | keyIntervalSize;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    // Estimated bytes of the nodes of the last planned automaton with the chosen conversions.
+    public long getPlannedBytes() {
+        return plannedBytes;
+    }
+
+    public boolean isOverThreshold(int nodeSize, int nodeLevel, int keyIntervalSize) {
+        if (!planned) {
+            return fallback.isOverThreshold(nodeSize, nodeLevel, keyIntervalSize);
+        }
+        long extra = rangeBytes(nodeSize, keyIntervalSize) - hashmapBytes(nodeSize);
+        if (extra <= 0) {
+            return true;
+        }
+        AtomicInteger count = conversions.get(key(nodeSize, nodeLevel, keyIntervalSize));
+        return count != null && count.getAndDecrement() > 0;
+    }
+
+    // Chooses the conversions for the candidates offered since the last startPlanning call.
+    public void plan() {
+        Integer[] order = new Integer[candidateCount];
+        for (int i = 0; i < candidateCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+
+            public int compare(Integer o1, Integer o2) {
+                return Double.compare(scores[o2], scores[o1]);
+            }
+        });
+        long remaining = budget - totalBytes;
+        conversions = new HashMap<Long, AtomicInteger>();
+        for (Integer i : order) {
+            // A cheaper conversion with a lower score may still fit.
+            if (extraBytes[i] > remaining) {
+                continue;
+            }
+            remaining -= extraBytes[i];
+            AtomicInteger count = conversions.get(keys[i]);
+            if (count == null) {
+                conversions.put(keys[i], new AtomicInteger(1));
+            } else {
+                count.incrementAndGet();
+            }
+        }
+        plannedBytes = budget - remaining;
+        if (plannedBytes < totalBytes) {
+            // Over the budget without any conversions.
+            plannedBytes = totalBytes;
+        }
+        planned = true;
+        // Release the candidate arrays.
+        scores = new double[64];
+        extraBytes = new long[64];
+        keys = new long[64];
+        candidateCount = 0;
+    }
+
+    // Starts planning a new automaton. Returns a thresholder that records the nodes it's asked about
+    // as candidates and doesn't convert them.
+    public Thresholder startPlanning() {
+        planned = false;
+        candidateCount = 0;
+        totalBytes = 0;
+        return candidates;
+    }
+
+    // Estimated benefit of turning the node into a range node. Shallow nodes are visited more often
+    // and nodes with more children save more probing. Must be positive.
+    protected double benefit(int nodeSize, int nodeLevel) {
+        return nodeSize / (double) (nodeLevel + 1);
+    }
+
+    private void addCandidate(int nodeSize, int nodeLevel, int keyIntervalSize) {
+        long hashmap = hashmapBytes(nodeSize);
+        long extra = rangeBytes(nodeSize, keyIntervalSize) - hashmap;
+        if (extra <= 0) {
+            // Conversion saves memory, it's always made.
+            totalBytes += hashmap + extra;
+            return;
+        }
+        totalBytes += hashmap;
+        if (candidateCount == scores.length) {
+            scores = Arrays.copyOf(scores, candidateCount * 2);
+            extraBytes = Arrays.copyOf(extraBytes, candidateCount * 2);
+            keys = Arrays.copyOf(keys, candidateCount * 2);
+        }
+        scores[candidateCount] = score(nodeSize, nodeLevel, extra);
+        extraBytes[candidateCount] = extra;
+        keys[candidateCount] = key(nodeSize, nodeLevel, keyIntervalSize);
+        candidateCount++;
+    }
+
+    private double score(int nodeSize, int nodeLevel, long extra) {
+        return benefit(nodeSize, nodeLevel) / extra;
+    }
+
+}
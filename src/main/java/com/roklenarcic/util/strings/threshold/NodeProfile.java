@@ -0,0 +1,50 @@
+package com.roklenarcic.util.strings.threshold;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+// Number of times matching visited each trie node while matching sample haystacks. Nodes are identified by
+// their prefix, the keys on the path from the root (lower cased if the automaton is case insensitive), so a
+// profile can be used to build a new automaton from the same or a similar dictionary.
+public class NodeProfile {
+
+    private long totalVisits = 0;
+    private final Map<String, Long> visits = new HashMap<String, Long>();
+
+    // Adds visits of the node with the given prefix.
+    public void add(String prefix, long count) {
+        Long previous = visits.get(prefix);
+        visits.put(prefix, previous == null ? count : previous + count);
+        totalVisits += count;
+    }
+
+    // Adds visits of all nodes in the other profile, e.g. to combine profiles of several samples.
+    public void addAll(NodeProfile other) {
+        for (Map.Entry<String, Long> e : other.visits.entrySet()) {
+            add(e.getKey(), e.getValue());
+        }
+    }
+
+    // Total number of visits of all nodes.
+    public long getTotalVisits() {
+        return totalVisits;
+    }
+
+    // Number of visits of the node with the given prefix, 0 if it wasn't visited.
+    public long getVisits(String prefix) {
+        Long count = visits.get(prefix);
+        return count == null ? 0 : count;
+    }
+
+    // Visits of all visited nodes by prefix.
+    public Map<String, Long> getVisits() {
+        return Collections.unmodifiableMap(visits);
+    }
+
+    // Number of visited nodes.
+    public int size() {
+        return visits.size();
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.roklenarcic.util.strings.threshold;
+
+// Thresholder that decides node types based on how often matching visits the nodes. Nodes visited often are
+// turned into range nodes, which have the fastest transitions, nodes never visited get the more compact of the
+// two node types and the rest is left to the fallback thresholder.
+//
+// Workflow is to build an automaton, collect a NodeProfile by matching a representative sample of haystacks
+// with profile method and build the automaton again with this thresholder. Automatons that don't support
+// profiles use the fallback thresholder for all nodes.
+public class ProfileGuidedThresholder implements Thresholder {
+
+    private final Thresholder coldThresholder = new Thresholder() {
+
+        public boolean isOverThreshold(int nodeSize, int nodeLevel, int keyIntervalSize) {
+            // Hashmap node has a char and a reference array with capacity of next power of 2,
+            // range node has a reference array as big as the key interval.
+            int capacity = nodeSize <= 1 ? 1 : Integer.highestOneBit(nodeSize - 1) << 1;
+            return keyIntervalSize * 4 < capacity * 6 + 16;
+        }
+    };
+    private final Thresholder fallback;
+    private final Thresholder hotThresholder = new Thresholder() {
+
+        public boolean isOverThreshold(int nodeSize, int nodeLevel, int keyIntervalSize) {
+            return keyIntervalSize <= maxHotKeyInterval || fallback.isOverThreshold(nodeSize, nodeLevel, keyIntervalSize);
+        }
+    };
+    private final long hotVisits;
+    private final int maxHotKeyInterval;
+    private final NodeProfile profile;
+
+    // Nodes with at least 0.1% of all visits are hot, other nodes use RangeNodeThreshold.
+    public ProfileGuidedThresholder(NodeProfile profile) {
+        this(profile, new RangeNodeThreshold(), Math.max(1, profile.getTotalVisits() / 1000), 1024);
+    }
+
+    // Nodes with at least hotVisits visits are turned into range nodes if their key interval is at most
+    // maxHotKeyInterval, visited nodes below hotVisits use the fallback thresholder.
+    public ProfileGuidedThresholder(NodeProfile profile, Thresholder fallback, long hotVisits, int maxHotKeyInterval) {
+        this.profile = profile;
+        this.fallback = fallback;
+        this.hotVisits = Math.max(1, hotVisits);
+        this.maxHotKeyInterval = maxHotKeyInterval;
+    }
+
+    // Thresholder for a node with the given number of visits.
+    public Thresholder forVisits(long visits) {
+        if (visits == 0) {
+            return coldThresholder;
+        } else if (visits >= hotVisits) {
+            return hotThresholder;
+        } else {
+            return fallback;
+        }
+    }
+
+    public NodeProfile getProfile() {
+        return profile;
+    }
+
+    // Decision for nodes without profile information.
+    public boolean isOverThreshold(int nodeSize, int nodeLevel, int keyIntervalSize) {
+        return fallback.isOverThreshold(nodeSize, nodeLevel, keyIntervalSize);
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.roklenarcic.util.strings;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+// Flight Recorder version of the event hooks, used on Java 11 and later through the multi-release JAR.
+// When the events are not recorded the hooks only check if the event type is enabled.
+//
+// Match events have a default threshold of 1 ms, so only slow match calls are recorded. Set the threshold
+// of com.roklenarcic.util.strings.Match to 0 ms in the recording settings to record all of them.
+final class Events {
+
+    private static final EventType BUILD_PHASE = EventType.getEventType(BuildPhaseEvent.class);
+    private static final EventType MATCH = EventType.getEventType(MatchEvent.class);
+
+    private Events() {
+    }
+
+    static Object beginMatch() {
+        if (!MATCH.isEnabled()) {
+            return null;
+        }
+        MatchEvent event = new MatchEvent();
+        event.begin();
+        return event;
+    }
+
+    static void buildPhase(Class<?> automaton, BuildListener.Phase phase, long nanos, long count) {
+        BuildPhaseEvent event = new BuildPhaseEvent();
+        if (event.isEnabled()) {
+            event.automaton = automaton.getName();
+            event.phase = phase.name();
+            event.phaseDuration = nanos;
+            event.count = count;
+            event.commit();
+        }
+    }
+
+    static void endMatch(Object event, Object automaton, int chars, long matches) {
+        MatchEvent matchEvent = (MatchEvent) event;
+        matchEvent.end();
+        if (matchEvent.shouldCommit()) {
+            matchEvent.automaton = automaton.getClass().getName();
+            matchEvent.chars = chars;
+            matchEvent.matches = matches;
+            matchEvent.commit();
+        }
+    }
+
+    static boolean isBuildEnabled() {
+        return BUILD_PHASE.isEnabled();
+    }
+
+    @Name("com.roklenarcic.util.strings.BuildPhase")
+    @Label("Automaton Build Phase")
+    @Category("Aho-Corasick")
+    @Description("Phase of the construction of a set or a map")
+    @StackTrace(false)
+    static final class BuildPhaseEvent extends Event {
+
+        @Label("Automaton")
+        String automaton;
+
+        @Label("Count")
+        @Description("Number of keywords or nodes processed in the phase")
+        long count;
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Phase Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long phaseDuration;
+    }
+
+    @Name("com.roklenarcic.util.strings.Match")
+    @Label("Automaton Match")
+    @Category("Aho-Corasick")
+    @Description("Matching of a haystack")
+    @Threshold("1 ms")
+    static final class MatchEvent extends Event {
+
+        @Label("Automaton")
+        String automaton;
+
+        @Label("Chars")
+        @Description("Length of the haystack")
+        int chars;
+
+        @Label("Matches")
+        @Description("Number of matches passed to the listener")
+        long matches;
+    }
+
+}
@@ -0,0 +1,35 @@
+package com.roklenarcic.util.strings;
+
+// Vector API version of the prefilter, used on Java 17 and later through the multi-release JAR. The Vector
+// API is an incubator module, so the prefilter is only used when jdk.incubator.vector is in the boot layer,
+// i.e. the JVM was started with --add-modules jdk.incubator.vector. Otherwise matching is the same as on Java 7.
+abstract class Prefilter {
+
+    // Most fingerprints a prefilter compares at each position.
+    static final int MAX_FINGERPRINTS = 16;
+
+    private static final boolean VECTOR_API = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    // Prefilter for the fingerprints of the keywords or null if there isn't one. Singles are the first chars of
+    // keywords that may match on their own, pairs are the first two chars of the other keywords.
+    static Prefilter of(char[] singles, char[] pairFirsts, char[] pairSeconds) {
+        return VECTOR_API ? new VectorPrefilter(singles, pairFirsts, pairSeconds) : null;
+    }
+
+    // True if of returns prefilters.
+    static boolean isAvailable() {
+        return VECTOR_API;
+    }
+
+    // Buffer for next(String, ...) of the calling thread, so matching a String doesn't allocate. The buffer is
+    // only used within a call to next, so listeners may start other matches on the same thread.
+    abstract char[] buffer();
+
+    // Index of the first position at or after idx, where a keyword may start, or len if there isn't one.
+    // The last position is a candidate if its char starts a pair, since the next char isn't known.
+    abstract int next(char[] chars, int idx, int len);
+
+    // Same as above for a String, which is copied into the buffer a chunk at a time.
+    abstract int next(String haystack, int idx, int len, char[] buffer);
+
+}
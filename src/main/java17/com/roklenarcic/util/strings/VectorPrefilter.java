@@ -0,0 +1,122 @@
+package com.roklenarcic.util.strings;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+// Prefilter in the style of Teddy, which compares the fingerprints of the keywords with as many positions
+// at once as the vector has lanes. Teddy looks up nibbles of bytes in shuffle tables, but the haystack is
+// chars, and 16 bit shuffles aren't fast on every CPU, so the fingerprints are compared directly: a position
+// is a candidate if its char is a single, or its char and the next one are a pair. The match loop then takes
+// the transitions of the automaton from the candidate, so false candidates only cost a transition.
+final class VectorPrefilter extends Prefilter {
+
+    // Chars of a String copied at a time.
+    private static final int CHUNK = 1024;
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+    // Chunk buffers of the threads, shared by all the prefilters.
+    private static final ThreadLocal<char[]> BUFFERS = ThreadLocal.withInitial(() -> new char[CHUNK]);
+
+    // Distinct chars of the singles and the first chars of the pairs.
+    private final short[] firsts;
+    private final short[] pairFirsts;
+    private final short[] pairSeconds;
+    private final short[] singles;
+
+    VectorPrefilter(char[] singles, char[] pairFirsts, char[] pairSeconds) {
+        this.singles = toShorts(singles);
+        this.pairFirsts = toShorts(pairFirsts);
+        this.pairSeconds = toShorts(pairSeconds);
+        StringBuilder firsts = new StringBuilder();
+        for (char c : (new String(singles) + new String(pairFirsts)).toCharArray()) {
+            if (firsts.indexOf(String.valueOf(c)) == -1) {
+                firsts.append(c);
+            }
+        }
+        this.firsts = toShorts(firsts.toString().toCharArray());
+    }
+
+    private static short[] toShorts(char[] chars) {
+        short[] shorts = new short[chars.length];
+        for (int i = 0; i < chars.length; i++) {
+            shorts[i] = (short) chars[i];
+        }
+        return shorts;
+    }
+
+    @Override
+    char[] buffer() {
+        return BUFFERS.get();
+    }
+
+    @Override
+    int next(final char[] chars, int idx, final int len) {
+        final int lanes = SPECIES.length();
+        final short[] firsts = this.firsts;
+        final short[] singles = this.singles;
+        final short[] pairFirsts = this.pairFirsts;
+        final short[] pairSeconds = this.pairSeconds;
+        // Pairs read the lanes after the position, so the last position of the vector needs the next char.
+        for (; idx + lanes < len; idx += lanes) {
+            final ShortVector current = ShortVector.fromCharArray(SPECIES, chars, idx);
+            // Most text has none of the first chars, the pairs are only compared if there are some.
+            VectorMask<Short> candidates = SPECIES.maskAll(false);
+            for (int i = 0; i < firsts.length; i++) {
+                candidates = candidates.or(current.eq(firsts[i]));
+            }
+            if (!candidates.anyTrue()) {
+                continue;
+            }
+            candidates = SPECIES.maskAll(false);
+            for (int i = 0; i < singles.length; i++) {
+                candidates = candidates.or(current.eq(singles[i]));
+            }
+            if (pairFirsts.length > 0) {
+                final ShortVector next = ShortVector.fromCharArray(SPECIES, chars, idx + 1);
+                for (int i = 0; i < pairFirsts.length; i++) {
+                    candidates = candidates.or(current.eq(pairFirsts[i]).and(next.eq(pairSeconds[i])));
+                }
+            }
+            if (candidates.anyTrue()) {
+                return idx + candidates.firstTrue();
+            }
+        }
+        for (; idx < len; idx++) {
+            if (isCandidate(chars[idx], idx + 1 < len ? chars[idx + 1] : -1)) {
+                return idx;
+            }
+        }
+        return len;
+    }
+
+    @Override
+    int next(final String haystack, int idx, final int len, final char[] buffer) {
+        while (idx < len) {
+            final int end = Math.min(len, idx + buffer.length);
+            haystack.getChars(idx, end, buffer, 0);
+            final int found = next(buffer, 0, end - idx);
+            // The last char of a chunk is checked again with the char after it.
+            if (end == len || found < end - idx - 1) {
+                return idx + found;
+            }
+            idx = end - 1;
+        }
+        return len;
+    }
+
+    // True if a keyword may start with c, which is followed by next, or by an unknown char if next is -1.
+    private boolean isCandidate(char c, int next) {
+        for (short single : singles) {
+            if (c == (char) single) {
+                return true;
+            }
+        }
+        for (int i = 0; i < pairFirsts.length; i++) {
+            if (c == (char) pairFirsts[i] && (next == -1 || next == (char) pairSeconds[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
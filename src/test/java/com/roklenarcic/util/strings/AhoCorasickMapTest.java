@@ -1,7 +1,16 @@
 package com.roklenarcic.util.strings;
 
 import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
 
 public class AhoCorasickMapTest extends MapTest {
 
@@ -24,6 +33,68 @@ public class AhoCorasickMapTest extends MapTest {
         super(printTimesOnly, testLoopSize);
     }
 
+    @Test
+    public void testSkipAhead() throws IOException {
+        Assert.assertTrue(new AhoCorasickMap<String>(Arrays.asList("foo", "bar"), Arrays.asList("1", "2"), true).isSkippingAhead());
+        List<String> manyStartChars = Arrays.asList(Generator.randomStrings(500, 3, 8));
+        Assert.assertFalse(new AhoCorasickMap<String>(manyStartChars, manyStartChars, true).isSkippingAhead());
+        Random random = new Random(48);
+        for (int round = 0; round < 200; round++) {
+            List<String> keywords = new ArrayList<String>();
+            // Too many chars for the bit-parallel matcher, so the trie is used.
+            for (int i = 0; i < 40; i++) {
+                keywords.add(randomText(random, 5 + random.nextInt(5)).toLowerCase());
+            }
+            String haystack = randomText(random, random.nextInt(3000));
+            for (CaseFolding caseFolding : new CaseFolding[] { CaseFolding.NONE, CaseFolding.LOWER_CASE, CaseFolding.LOWER_CASE_TRANSITIONS }) {
+                AhoCorasickMap<String> map = new AhoCorasickMap<String>(keywords, keywords, caseFolding);
+                Assert.assertTrue(map.isSkippingAhead());
+                Assert.assertFalse(map.isBitParallel());
+                final List<String> matches = new ArrayList<String>();
+                map.match(haystack, new MapMatchListener<String>() {
+
+                    public boolean match(String haystack, int startPosition, int endPosition, String value) {
+                        matches.add(startPosition + ":" + value);
+                        return true;
+                    }
+                });
+                final List<String> expected = new ArrayList<String>();
+                for (int i = 0; i < haystack.length(); i++) {
+                    for (String keyword : keywords) {
+                        if (haystack.regionMatches(caseFolding != CaseFolding.NONE, i, keyword, 0, keyword.length())) {
+                            expected.add(i + ":" + keyword);
+                        }
+                    }
+                }
+                Assert.assertEquals(distinct(expected), distinct(matches));
+                final List<String> readableMatches = new ArrayList<String>();
+                map.match(new StringReader(haystack), new ReadableMatchListener<String>() {
+
+                    public boolean match(String value) {
+                        readableMatches.add(value);
+                        return true;
+                    }
+                });
+                Assert.assertEquals(matches.size(), readableMatches.size());
+            }
+        }
+    }
+
+    private static String randomText(Random random, int length) {
+        // Mostly chars that can't start a keyword.
+        final String chars = "aAbB.........";
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append(chars.charAt(random.nextInt(chars.length())));
+        }
+        return text.toString();
+    }
+
+    // Duplicate keywords match once.
+    private static Set<String> distinct(List<String> list) {
+        return new TreeSet<String>(list);
+    }
+
     @Override
     protected int getCorrectCount(List<String> keywords, String haystack, StringMap<String> map) {
         int normalCount = 0;
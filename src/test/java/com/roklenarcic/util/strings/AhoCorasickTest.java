@@ -1,7 +1,14 @@
 package com.roklenarcic.util.strings;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
 
 public class AhoCorasickTest extends SetTest {
 
@@ -24,6 +31,54 @@ public class AhoCorasickTest extends SetTest {
         super(printTimesOnly, testLoopSize);
     }
 
+    @Test
+    public void testSkipAhead() {
+        Assert.assertTrue(new AhoCorasickSet(Arrays.asList("foo", "bar"), true).isSkippingAhead());
+        Assert.assertFalse(new AhoCorasickSet(Arrays.asList(Generator.randomStrings(500, 3, 8)), true).isSkippingAhead());
+        Random random = new Random(49);
+        for (int round = 0; round < 200; round++) {
+            List<String> keywords = new ArrayList<String>();
+            // Too many chars for the bit-parallel matcher, so the trie is used.
+            for (int i = 0; i < 40; i++) {
+                keywords.add(randomText(random, 5 + random.nextInt(5)).toLowerCase());
+            }
+            String haystack = randomText(random, random.nextInt(3000));
+            for (CaseFolding caseFolding : new CaseFolding[] { CaseFolding.NONE, CaseFolding.LOWER_CASE, CaseFolding.LOWER_CASE_TRANSITIONS }) {
+                AhoCorasickSet set = new AhoCorasickSet(keywords, caseFolding);
+                Assert.assertTrue(set.isSkippingAhead());
+                Assert.assertFalse(set.isBitParallel());
+                final List<String> matches = new ArrayList<String>();
+                set.match(haystack, new SetMatchListener() {
+
+                    public boolean match(String haystack, int startPosition, int endPosition) {
+                        matches.add(startPosition + "-" + endPosition);
+                        return true;
+                    }
+                });
+                final List<String> expected = new ArrayList<String>();
+                for (int i = 0; i < haystack.length(); i++) {
+                    for (String keyword : keywords) {
+                        if (haystack.regionMatches(caseFolding != CaseFolding.NONE, i, keyword, 0, keyword.length())) {
+                            expected.add(i + "-" + (i + keyword.length()));
+                        }
+                    }
+                }
+                // Duplicate keywords match once.
+                Assert.assertEquals(new TreeSet<String>(expected), new TreeSet<String>(matches));
+            }
+        }
+    }
+
+    private static String randomText(Random random, int length) {
+        // Mostly chars that can't start a keyword.
+        final String chars = "aAbB.........";
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append(chars.charAt(random.nextInt(chars.length())));
+        }
+        return text.toString();
+    }
+
     @Override
     protected int getCorrectCount(List<String> keywords, String haystack, StringSet set) {
         int normalCount = 0;
@@ -0,0 +1,167 @@
+package com.roklenarcic.util.strings;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.roklenarcic.util.strings.threshold.RangeNodeThreshold;
+
+// Measures bytes allocated per match call with the thread allocation counters of HotSpot. String matching
+// must not allocate, except in longest match sets and maps, which allocate a match queue per call. Readable
+// matching allocates a char buffer per call. Neither may grow with the length of the haystack.
+public class AllocationTest {
+
+    private static final int CALLS = 1000;
+    private static final List<String> KEYWORDS = Arrays.asList("he", "she", "his", "hers", "ushers", "her");
+    // Longest match queue and Readable buffer per call
+    private static final long MAX_QUEUE_BYTES = 512;
+    private static final long MAX_READABLE_BYTES = 9000;
+    // The vector prefilter compiles late, so calls are measured in a few rounds and the lowest count is checked.
+    private static final int ROUNDS = 5;
+    private static final int WARMUP_CALLS = 5000;
+
+    private final MapMatchListener<String> mapListener = new MapMatchListener<String>() {
+
+        public boolean match(String haystack, int startPosition, int endPosition, String value) {
+            return true;
+        }
+    };
+    private com.sun.management.ThreadMXBean mxBean;
+    private final ReadableMatchListener<String> readableListener = new ReadableMatchListener<String>() {
+
+        public boolean match(String value) {
+            return true;
+        }
+    };
+    private final SetMatchListener setListener = new SetMatchListener() {
+
+        public boolean match(String haystack, int startPosition, int endPosition) {
+            return true;
+        }
+    };
+
+    @Before
+    public void checkSupport() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        mxBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(mxBean.isThreadAllocatedMemorySupported());
+        mxBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void testLongestMatchAllocatesQueue() {
+        for (boolean caseSensitive : new boolean[] { true, false }) {
+            assertBounded(new LongestMatchSet(KEYWORDS, caseSensitive), MAX_QUEUE_BYTES);
+            assertBounded(new LongestMatchMap<String>(KEYWORDS, KEYWORDS, caseSensitive), MAX_QUEUE_BYTES);
+        }
+    }
+
+    @Test
+    public void testReadableAllocatesBuffer() throws IOException {
+        for (boolean caseSensitive : new boolean[] { true, false }) {
+            assertReadableBounded(new AhoCorasickMap<String>(KEYWORDS, KEYWORDS, caseSensitive));
+            assertReadableBounded(new AhoCorasickMap<String>(KEYWORDS, KEYWORDS, CaseFolding.of(caseSensitive), new RangeNodeThreshold(), null, null,
+                    AhoCorasickMap.NO_BIT_PARALLEL));
+            assertReadableBounded(new LongestMatchMap<String>(KEYWORDS, KEYWORDS, caseSensitive));
+            assertReadableBounded(new ShortestMatchMap<String>(KEYWORDS, KEYWORDS, caseSensitive));
+            assertReadableBounded(new WholeWordMatchMap<String>(KEYWORDS, KEYWORDS, caseSensitive));
+            assertReadableBounded(new WholeWordLongestMatchMap<String>(KEYWORDS, KEYWORDS, caseSensitive));
+        }
+    }
+
+    @Test
+    public void testZeroAllocation() {
+        for (boolean caseSensitive : new boolean[] { true, false }) {
+            assertBounded(new AhoCorasickSet(KEYWORDS, caseSensitive), 0);
+            assertBounded(new AhoCorasickMap<String>(KEYWORDS, KEYWORDS, caseSensitive), 0);
+            // The keywords are few enough for the bit-parallel matcher, so the trie is checked on its own.
+            assertBounded(new AhoCorasickSet(KEYWORDS, CaseFolding.of(caseSensitive), new RangeNodeThreshold(), null, null, AhoCorasickSet.NO_BIT_PARALLEL), 0);
+            assertBounded(new AhoCorasickMap<String>(KEYWORDS, KEYWORDS, CaseFolding.of(caseSensitive), new RangeNodeThreshold(), null, null,
+                    AhoCorasickMap.NO_BIT_PARALLEL), 0);
+            assertBounded(new ShortestMatchSet(KEYWORDS, caseSensitive), 0);
+            assertBounded(new ShortestMatchMap<String>(KEYWORDS, KEYWORDS, caseSensitive), 0);
+            assertBounded(new WholeWordMatchSet(KEYWORDS, caseSensitive), 0);
+            assertBounded(new WholeWordMatchMap<String>(KEYWORDS, KEYWORDS, caseSensitive), 0);
+            assertBounded(new WholeWordLongestMatchSet(KEYWORDS, caseSensitive), 0);
+            assertBounded(new WholeWordLongestMatchMap<String>(KEYWORDS, KEYWORDS, caseSensitive), 0);
+        }
+    }
+
+    private long allocatedBytes() {
+        return mxBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // Checks the allocation per String match call on a short and a long haystack. With jdk.incubator.vector
+    // added, the vector profile also runs this test against the multi-release jar, where the tries of small
+    // dictionaries skip ahead with the vector prefilter.
+    private void assertBounded(Object matcher, long maxBytesPerCall) {
+        for (String haystack : new String[] { haystack(10), haystack(200) }) {
+            for (int i = 0; i < WARMUP_CALLS; i++) {
+                match(matcher, haystack);
+            }
+            long bytesPerCall = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS && bytesPerCall > maxBytesPerCall; round++) {
+                long start = allocatedBytes();
+                for (int i = 0; i < CALLS; i++) {
+                    match(matcher, haystack);
+                }
+                // Round down, so an occasional allocation by the counters themselves doesn't fail the test.
+                bytesPerCall = Math.min(bytesPerCall, (allocatedBytes() - start) / CALLS);
+            }
+            Assert.assertTrue(matcher.getClass().getSimpleName() + " allocated " + bytesPerCall + " bytes per call on " + haystack.length() + " chars.",
+                    bytesPerCall <= maxBytesPerCall);
+        }
+    }
+
+    private void assertReadableBounded(StringMap<String> map) throws IOException {
+        for (String haystack : new String[] { haystack(10), haystack(200) }) {
+            char[] chars = haystack.toCharArray();
+            // Readers are created before measuring.
+            CharArrayReader[] readers = new CharArrayReader[Math.max(CALLS, WARMUP_CALLS)];
+            for (int i = 0; i < WARMUP_CALLS; i++) {
+                readers[i] = new CharArrayReader(chars);
+            }
+            for (int i = 0; i < WARMUP_CALLS; i++) {
+                map.match(readers[i], readableListener);
+            }
+            long bytesPerCall = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS && bytesPerCall > MAX_READABLE_BYTES; round++) {
+                for (int i = 0; i < CALLS; i++) {
+                    readers[i] = new CharArrayReader(chars);
+                }
+                long start = allocatedBytes();
+                for (int i = 0; i < CALLS; i++) {
+                    map.match(readers[i], readableListener);
+                }
+                bytesPerCall = Math.min(bytesPerCall, (allocatedBytes() - start) / CALLS);
+            }
+            Assert.assertTrue(map.getClass().getSimpleName() + " allocated " + bytesPerCall + " bytes per call on " + haystack.length() + " chars.",
+                    bytesPerCall <= MAX_READABLE_BYTES);
+        }
+    }
+
+    private String haystack(int repeats) {
+        StringBuilder haystack = new StringBuilder();
+        for (int i = 0; i < repeats; i++) {
+            haystack.append("ushers his Hers she ").append(i).append(' ');
+        }
+        return haystack.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void match(Object matcher, String haystack) {
+        if (matcher instanceof StringSet) {
+            ((StringSet) matcher).match(haystack, setListener);
+        } else {
+            ((StringMap<String>) matcher).match(haystack, mapListener);
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.roklenarcic.util.strings;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AutomatonStatsTest {
+
+    private static final List<String> KEYWORDS = Arrays.asList("he", "she", "his", "hers");
+
+    @Test
+    public void testAllEngines() {
+        AutomatonStats[] allStats = new AutomatonStats[] { new AhoCorasickSet(KEYWORDS, true).stats(),
+                new AhoCorasickMap<String>(KEYWORDS, KEYWORDS, true).stats(), new LongestMatchSet(KEYWORDS, true).stats(),
+                new LongestMatchMap<String>(KEYWORDS, KEYWORDS, true).stats(), new ShortestMatchSet(KEYWORDS, true).stats(),
+                new ShortestMatchMap<String>(KEYWORDS, KEYWORDS, true).stats(), new WholeWordMatchSet(KEYWORDS, true).stats(),
+                new WholeWordMatchMap<String>(KEYWORDS, KEYWORDS, true).stats(), new WholeWordLongestMatchSet(KEYWORDS, true).stats(),
+                new WholeWordLongestMatchMap<String>(KEYWORDS, KEYWORDS, true).stats() };
+        for (int i = 0; i < allStats.length; i++) {
+            AutomatonStats stats = allStats[i];
+            if (i == 4 || i == 5) {
+                // Shortest match skips "hers", because "he" is its prefix.
+                Assert.assertEquals(stats.toString(), 8, stats.getNodeCount());
+                Assert.assertArrayEquals(stats.toString(), new long[] { 1, 2, 3, 2 }, stats.getNodesPerDepth());
+            } else {
+                // Root and the prefixes h, he, her, hers, hi, his, s, sh, she.
+                Assert.assertEquals(stats.toString(), 10, stats.getNodeCount());
+                Assert.assertArrayEquals(stats.toString(), new long[] { 1, 2, 3, 3, 1 }, stats.getNodesPerDepth());
+            }
+            Assert.assertTrue(stats.getEstimatedBytes() > 0);
+        }
+        // "she" outputs "she" and "he".
+        Assert.assertArrayEquals(new long[] { 6, 3, 1 }, allStats[0].getOutputChainLengths());
+        Assert.assertArrayEquals(new long[] { 6, 4 }, allStats[6].getOutputChainLengths());
+    }
+
+    @Test
+    public void testRandomDictionary() {
+        final List<String> keywords = Arrays.asList(Generator.randomStrings(10000, 2, 8));
+        AutomatonStats stats = new AhoCorasickSet(keywords, true).stats();
+        long nodes = 0;
+        for (long n : stats.getNodesPerDepth()) {
+            nodes += n;
+        }
+        Assert.assertEquals(stats.getNodeCount(), nodes);
+        Assert.assertEquals(stats.getNodeCount(), stats.getHashmapNodeCount() + stats.getRangeNodeCount());
+        Assert.assertTrue(stats.getRangeNodeCount() > 0);
+        Assert.assertTrue(stats.getHashLoadFactor() > 0 && stats.getHashLoadFactor() <= 1);
+        Assert.assertTrue(stats.getAverageProbeLength() >= 1);
+        Assert.assertTrue(stats.getRangeNodeFillRatio() > 0 && stats.getRangeNodeFillRatio() <= 1);
+        long outputs = 0;
+        for (long n : stats.getOutputChainLengths()) {
+            outputs += n;
+        }
+        Assert.assertEquals(stats.getNodeCount(), outputs);
+    }
+
+}
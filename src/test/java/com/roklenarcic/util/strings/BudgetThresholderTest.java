@@ -0,0 +1,129 @@
+package com.roklenarcic.util.strings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.roklenarcic.util.strings.threshold.BudgetThresholder;
+import com.roklenarcic.util.strings.threshold.Thresholder;
+
+public class BudgetThresholderTest {
+
+    private static final List<String> KEYWORDS = words(5000, 1);
+
+    @Test
+    public void testAllEngines() {
+        String haystack = "";
+        for (String s : words(2000, 2)) {
+            haystack += " " + s;
+        }
+        for (int budget : new int[] { 0, 200000, Integer.MAX_VALUE }) {
+            Thresholder t = new BudgetThresholder(budget);
+            Assert.assertEquals(matches(new AhoCorasickSet(KEYWORDS, true), haystack), matches(new AhoCorasickSet(KEYWORDS, true, t), haystack));
+            Assert.assertEquals(matches(new LongestMatchSet(KEYWORDS, true), haystack), matches(new LongestMatchSet(KEYWORDS, true, t), haystack));
+            Assert.assertEquals(matches(new ShortestMatchSet(KEYWORDS, true), haystack), matches(new ShortestMatchSet(KEYWORDS, true, t), haystack));
+            Assert.assertEquals(matches(new WholeWordMatchSet(KEYWORDS, true), haystack), matches(new WholeWordMatchSet(KEYWORDS, true, t), haystack));
+            Assert.assertEquals(matches(new WholeWordLongestMatchSet(KEYWORDS, true), haystack),
+                    matches(new WholeWordLongestMatchSet(KEYWORDS, true, t), haystack));
+            Assert.assertEquals(new AhoCorasickMap<String>(KEYWORDS, KEYWORDS, true).stats().getNodeCount(), new AhoCorasickMap<String>(KEYWORDS, KEYWORDS,
+                    true, t).stats().getNodeCount());
+            Assert.assertEquals(new WholeWordLongestMatchMap<String>(KEYWORDS, KEYWORDS, true).stats().getNodeCount(),
+                    new WholeWordLongestMatchMap<String>(KEYWORDS, KEYWORDS, true, t).stats().getNodeCount());
+        }
+    }
+
+    @Test
+    public void testBudget() {
+        BudgetThresholder small = new BudgetThresholder(0);
+        AutomatonStats smallStats = new AhoCorasickSet(KEYWORDS, true, small).stats();
+        BudgetThresholder medium = new BudgetThresholder(small.getPlannedBytes() + 10000);
+        AutomatonStats mediumStats = new AhoCorasickSet(KEYWORDS, true, medium).stats();
+        BudgetThresholder large = new BudgetThresholder(Long.MAX_VALUE);
+        AutomatonStats largeStats = new AhoCorasickSet(KEYWORDS, true, large).stats();
+        Assert.assertTrue(medium.getPlannedBytes() <= medium.getBudget());
+        Assert.assertTrue(medium.getPlannedBytes() > small.getPlannedBytes());
+        Assert.assertTrue(smallStats.getRangeNodeCount() < mediumStats.getRangeNodeCount());
+        Assert.assertTrue(mediumStats.getRangeNodeCount() < largeStats.getRangeNodeCount());
+        // Without a budget limit every node is a range node.
+        Assert.assertEquals(0, largeStats.getHashmapNodeCount());
+        Assert.assertTrue(smallStats.getEstimatedBytes() < mediumStats.getEstimatedBytes());
+        Assert.assertTrue(mediumStats.getEstimatedBytes() < largeStats.getEstimatedBytes());
+    }
+
+    @Test
+    public void testShallowNodesFirst() {
+        BudgetThresholder budget = new BudgetThresholder(224);
+        Thresholder candidates = budget.startPlanning();
+        // Nodes take 216 bytes as hashmap nodes and each conversion costs 8 more bytes.
+        Assert.assertFalse(candidates.isOverThreshold(2, 3, 10));
+        Assert.assertFalse(candidates.isOverThreshold(2, 0, 10));
+        // Conversion that saves memory doesn't use the budget.
+        Assert.assertFalse(candidates.isOverThreshold(1, 5, 1));
+        budget.plan();
+        Assert.assertEquals(224, budget.getPlannedBytes());
+        Assert.assertTrue(budget.isOverThreshold(2, 0, 10));
+        Assert.assertFalse(budget.isOverThreshold(2, 3, 10));
+        Assert.assertTrue(budget.isOverThreshold(1, 5, 1));
+    }
+
+    @Test
+    public void testCheaperConversionsFit() {
+        BudgetThresholder budget = new BudgetThresholder(168);
+        Thresholder candidates = budget.startPlanning();
+        // Nodes take 160 bytes as hashmap nodes. The shallow conversion costs 16 more bytes and doesn't fit,
+        // the deep one has a lower score, but only costs 8.
+        Assert.assertFalse(candidates.isOverThreshold(2, 0, 12));
+        Assert.assertFalse(candidates.isOverThreshold(2, 3, 10));
+        budget.plan();
+        Assert.assertEquals(168, budget.getPlannedBytes());
+        Assert.assertFalse(budget.isOverThreshold(2, 0, 12));
+        Assert.assertTrue(budget.isOverThreshold(2, 3, 10));
+    }
+
+    @Test
+    public void testTiesStayInBudget() {
+        BudgetThresholder budget = new BudgetThresholder(184);
+        Thresholder candidates = budget.startPlanning();
+        // Nodes take 168 bytes as hashmap nodes. Both conversions have the same score, the first costs 16
+        // more bytes and the second 32, so only the first fits.
+        Assert.assertFalse(candidates.isOverThreshold(2, 0, 12));
+        Assert.assertFalse(candidates.isOverThreshold(4, 0, 18));
+        budget.plan();
+        Assert.assertEquals(184, budget.getPlannedBytes());
+        Assert.assertFalse(budget.isOverThreshold(4, 0, 18));
+        Assert.assertTrue(budget.isOverThreshold(2, 0, 12));
+        // Each planned conversion is made once.
+        Assert.assertFalse(budget.isOverThreshold(2, 0, 12));
+    }
+
+    // Random lower case words, so the nodes have sparse keys.
+    private static List<String> words(int n, long seed) {
+        Random r = new Random(seed);
+        List<String> ret = new ArrayList<String>();
+        for (int i = 0; i < n; i++) {
+            char[] word = new char[3 + r.nextInt(6)];
+            for (int j = 0; j < word.length; j++) {
+                word[j] = (char) ('a' + r.nextInt(26));
+            }
+            ret.add(new String(word));
+        }
+        return ret;
+    }
+
+    private List<String> matches(StringSet set, String haystack) {
+        final List<String> ret = new ArrayList<String>();
+        set.match(haystack, new SetMatchListener() {
+
+            public boolean match(String haystack, int startPosition, int endPosition) {
+                ret.add(startPosition + ":" + endPosition);
+                return true;
+            }
+        });
+        return ret;
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.roklenarcic.util.strings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.roklenarcic.util.strings.threshold.RangeNodeThreshold;
+
+public class BuildListenerTest {
+
+    @Test
+    public void testCancel() {
+        final List<String> keywords = Arrays.asList(Generator.randomStrings(10000, 2, 8));
+        BuildListener cancelling = new BuildListener() {
+
+            public void phaseFinished(Phase phase, long nanos, long count) {
+            }
+
+            public boolean progress(Phase phase, long count) {
+                return phase != Phase.FAIL_TRANSITIONS;
+            }
+        };
+        try {
+            new LongestMatchSet(keywords, true, new RangeNodeThreshold(), cancelling);
+            Assert.fail("Expected cancellation.");
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testParallelPhases() {
+        final List<String> keywords = Arrays.asList(Generator.randomStrings(10000, 2, 8));
+        RecordingListener listener = new RecordingListener();
+        new AhoCorasickMap<String>(keywords, keywords, true, new RangeNodeThreshold(), new ForkJoinPool(2), listener);
+        Assert.assertEquals(
+                Arrays.asList(BuildListener.Phase.INSERTION, BuildListener.Phase.FAIL_TRANSITIONS, BuildListener.Phase.RANGE_NODE_GAPS),
+                listener.phases);
+        Assert.assertEquals(keywords.size(), (long) listener.counts.get(0));
+    }
+
+    @Test
+    public void testPhases() {
+        final List<String> keywords = Arrays.asList(Generator.randomStrings(10000, 2, 8));
+        RecordingListener listener = new RecordingListener();
+        new AhoCorasickMap<String>(keywords, keywords, true, new RangeNodeThreshold(), null, listener);
+        Assert.assertEquals(Arrays.asList(BuildListener.Phase.INSERTION, BuildListener.Phase.OPTIMIZATION, BuildListener.Phase.FAIL_TRANSITIONS,
+                BuildListener.Phase.RANGE_NODE_GAPS), listener.phases);
+        Assert.assertEquals(keywords.size(), (long) listener.counts.get(0));
+        // Every node except root has a fail transition and root is optimized as well.
+        Assert.assertEquals(listener.counts.get(1) - 1, (long) listener.counts.get(2));
+        Assert.assertTrue(listener.progressCalls > 0);
+
+        listener = new RecordingListener();
+        new WholeWordMatchSet(Arrays.asList("abc", "abd", "b"), true, new RangeNodeThreshold(), listener);
+        Assert.assertEquals(Arrays.asList(BuildListener.Phase.INSERTION, BuildListener.Phase.OPTIMIZATION), listener.phases);
+        Assert.assertEquals(3, (long) listener.counts.get(0));
+    }
+
+    private static class RecordingListener implements BuildListener {
+
+        final List<Long> counts = new ArrayList<Long>();
+        final List<Phase> phases = new ArrayList<Phase>();
+        int progressCalls = 0;
+
+        public void phaseFinished(Phase phase, long nanos, long count) {
+            Assert.assertTrue(nanos >= 0);
+            phases.add(phase);
+            counts.add(count);
+        }
+
+        public boolean progress(Phase phase, long count) {
+            progressCalls++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.roklenarcic.util.strings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.roklenarcic.util.strings.threshold.RangeNodeThreshold;
+
+public class CaseFoldingTest {
+
+    private static List<String> matches(Object automaton, String haystack) {
+        final List<String> matches = new ArrayList<String>();
+        if (automaton instanceof StringSet) {
+            ((StringSet) automaton).match(haystack, new SetMatchListener() {
+
+                public boolean match(String haystack, int startPosition, int endPosition) {
+                    matches.add(haystack.substring(startPosition, endPosition));
+                    return true;
+                }
+            });
+        } else {
+            @SuppressWarnings("unchecked")
+            StringMap<String> map = (StringMap<String>) automaton;
+            map.match(haystack, new MapMatchListener<String>() {
+
+                public boolean match(String haystack, int startPosition, int endPosition, String value) {
+                    matches.add(haystack.substring(startPosition, endPosition));
+                    return true;
+                }
+            });
+        }
+        return matches;
+    }
+
+    private static Object[] allEngines(List<String> keywords, CaseFolding caseFolding) {
+        return new Object[] { new AhoCorasickSet(keywords, caseFolding), new AhoCorasickMap<String>(keywords, keywords, caseFolding),
+                new LongestMatchSet(keywords, caseFolding), new LongestMatchMap<String>(keywords, keywords, caseFolding),
+                new ShortestMatchSet(keywords, caseFolding), new ShortestMatchMap<String>(keywords, keywords, caseFolding),
+                new WholeWordMatchSet(keywords, caseFolding), new WholeWordMatchMap<String>(keywords, keywords, caseFolding),
+                new WholeWordLongestMatchSet(keywords, caseFolding), new WholeWordLongestMatchMap<String>(keywords, keywords, caseFolding) };
+    }
+
+    @Test
+    public void testAllEngines() {
+        List<String> keywords = Arrays.asList("\u017Fun", "\u212Aelvin");
+        for (Object engine : allEngines(keywords, CaseFolding.SIMPLE)) {
+            Assert.assertEquals(engine.getClass().getSimpleName(), Arrays.asList("SUN", "kelvin", "sun", "KELVIN", "\u017Fun"),
+                    matches(engine, "SUN kelvin sun KELVIN \u017Fun"));
+        }
+        for (Object engine : allEngines(keywords, CaseFolding.LOWER_CASE)) {
+            // Long s has no lower case, so it only matches itself.
+            Assert.assertEquals(engine.getClass().getSimpleName(), Arrays.asList("kelvin", "KELVIN", "\u017Fun"),
+                    matches(engine, "SUN kelvin sun KELVIN \u017Fun"));
+        }
+        for (Object engine : allEngines(keywords, CaseFolding.NONE)) {
+            Assert.assertEquals(engine.getClass().getSimpleName(), Arrays.asList("\u017Fun"), matches(engine, "SUN kelvin sun KELVIN \u017Fun"));
+        }
+    }
+
+    @Test
+    public void testBooleanConstructorsFoldToLowerCase() {
+        List<String> keywords = Arrays.asList("\u00C9t\u00C9", "\u03A3\u03C3");
+        Assert.assertEquals(Arrays.asList("\u00E9t\u00E9", "\u03C3\u03A3"), matches(new AhoCorasickSet(keywords, false), "\u00E9t\u00E9 \u03C3\u03A3 \u03C3\u03C2"));
+        // Final sigma only folds with simple case folding.
+        Assert.assertEquals(Arrays.asList("\u00E9t\u00E9", "\u03C3\u03A3", "\u03C3\u03C2"),
+                matches(new AhoCorasickSet(keywords, CaseFolding.SIMPLE), "\u00E9t\u00E9 \u03C3\u03A3 \u03C3\u03C2"));
+    }
+
+    @Test
+    public void testCaseTransitions() {
+        WorkloadGenerator generator = WorkloadGenerator.english(11).setMatchDensity(0.3);
+        List<String> keywords = new ArrayList<String>(Arrays.asList(generator.dictionary(500)));
+        keywords.addAll(Arrays.asList("\u017Fun", "\u212Aelvin", "\u03A3\u03C3\u03C2", "Ma\u00DFe", "\u0130stanbul"));
+        // Mix the case of the haystack and add some of the chars with far case variants.
+        Random random = new Random(11);
+        StringBuilder haystack = new StringBuilder(generator.haystack(keywords.toArray(new String[keywords.size()]), 20000));
+        haystack.append(" SUN \u017Fun kelvin KELVIN \u03C3\u03C3\u03A3 MASSE ma\u00DFe istanbul \u0130STANBUL");
+        for (int i = 0; i < haystack.length(); i++) {
+            char c = haystack.charAt(i);
+            if (c == 'k' && random.nextInt(4) == 0) {
+                haystack.setCharAt(i, '\u212A');
+            } else if (c == 's' && random.nextInt(4) == 0) {
+                haystack.setCharAt(i, '\u017F');
+            } else if (random.nextBoolean()) {
+                haystack.setCharAt(i, Character.toUpperCase(c));
+            }
+        }
+        CaseFolding[][] modes = new CaseFolding[][] { { CaseFolding.LOWER_CASE, CaseFolding.LOWER_CASE_TRANSITIONS },
+                { CaseFolding.SIMPLE, CaseFolding.SIMPLE_TRANSITIONS } };
+        for (CaseFolding[] mode : modes) {
+            Object[] folding = allEngines(keywords, mode[0]);
+            Object[] transitions = allEngines(keywords, mode[1]);
+            for (int i = 0; i < folding.length; i++) {
+                List<String> expected = matches(folding[i], haystack.toString());
+                Assert.assertEquals(mode[1] + " " + folding[i].getClass().getSimpleName(), expected, matches(transitions[i], haystack.toString()));
+                Assert.assertTrue(expected.size() > 100);
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Assert.assertEquals(matches(new AhoCorasickSet(keywords, CaseFolding.SIMPLE), haystack.toString()),
+                    matches(new AhoCorasickSet(keywords, CaseFolding.SIMPLE_TRANSITIONS, new RangeNodeThreshold(), pool, null), haystack.toString()));
+        } finally {
+            pool.shutdown();
+        }
+        // Transitions for the case variants take more memory.
+        long foldingBytes = new AhoCorasickSet(keywords, CaseFolding.SIMPLE).stats().getEstimatedBytes();
+        long transitionsBytes = new AhoCorasickSet(keywords, CaseFolding.SIMPLE_TRANSITIONS).stats().getEstimatedBytes();
+        Assert.assertTrue(transitionsBytes > foldingBytes);
+        Assert.assertTrue(transitionsBytes < foldingBytes * 4);
+    }
+
+    @Test
+    public void testTables() {
+        for (int i = 0; i <= Character.MAX_VALUE; i++) {
+            char c = (char) i;
+            Assert.assertEquals(c, CaseFolding.NONE.fold(c));
+            Assert.assertEquals(Character.toLowerCase(c), CaseFolding.LOWER_CASE.fold(c));
+            Assert.assertEquals(Character.toLowerCase(Character.toUpperCase(c)), CaseFolding.SIMPLE.fold(c));
+        }
+        Assert.assertTrue(CaseFolding.NONE.isCaseSensitive());
+        Assert.assertFalse(CaseFolding.SIMPLE.isCaseSensitive());
+        Assert.assertFalse(CaseFolding.SIMPLE_TRANSITIONS.isCaseSensitive());
+        Assert.assertTrue(CaseFolding.SIMPLE_TRANSITIONS.hasCaseTransitions());
+        Assert.assertFalse(CaseFolding.SIMPLE.hasCaseTransitions());
+        Assert.assertArrayEquals(new char[] { 'K', '\u212A' }, CaseFolding.LOWER_CASE_TRANSITIONS.variants('k'));
+        Assert.assertArrayEquals(new char[] { 'S' }, CaseFolding.LOWER_CASE_TRANSITIONS.variants('s'));
+        Assert.assertArrayEquals(new char[] { 'K', '\u212A' }, CaseFolding.SIMPLE_TRANSITIONS.variants('k'));
+        Assert.assertArrayEquals(new char[] { 'S', '\u017F' }, CaseFolding.SIMPLE_TRANSITIONS.variants('s'));
+    }
+
+}
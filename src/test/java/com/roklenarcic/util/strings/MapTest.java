@@ -121,6 +121,19 @@ public abstract class MapTest {
         test("abcyyyy", "abcd", "bcxxxx", "cyyyy");
     }
 
+    @Test
+    public void testSortedKeywords() throws IOException {
+        final String[] keywords = Generator.randomNumbers(1000);
+        Arrays.sort(keywords);
+        test(Generator.combinedStrings(keywords, 50), keywords);
+        // A keyword out of order in the middle of the dictionary.
+        final String[] unsorted = keywords.clone();
+        unsorted[unsorted.length / 2] = keywords[unsorted.length / 2 + 1];
+        unsorted[unsorted.length / 2 + 1] = keywords[unsorted.length / 2];
+        test(Generator.combinedStrings(unsorted, 50), unsorted);
+        test("aaaa abab", "a", "aa", "ab", "aaa", "aaaa", "b");
+    }
+
     @Test
     public void testWholeWordLongest() throws IOException {
         test("as if", "as", "if", "as if");
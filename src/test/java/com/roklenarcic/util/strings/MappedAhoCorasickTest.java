@@ -0,0 +1,150 @@
+package com.roklenarcic.util.strings;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+// Runs the Aho-Corasick set tests against the automaton built in external memory. The heap budget
+// is small so that bigger dictionaries are spilled into many runs and merged in several passes.
+public class MappedAhoCorasickTest extends AhoCorasickTest {
+
+    private final List<MappedAhoCorasickSet> sets = new ArrayList<MappedAhoCorasickSet>();
+
+    private static List<String> matches(StringSet set, String haystack) {
+        final List<String> matches = new ArrayList<String>();
+        set.match(haystack, new SetMatchListener() {
+
+            public boolean match(String haystack, int startPosition, int endPosition) {
+                matches.add(haystack.substring(startPosition, endPosition));
+                return true;
+            }
+        });
+        return matches;
+    }
+
+    @After
+    public void closeSets() throws IOException {
+        for (MappedAhoCorasickSet set : sets) {
+            set.close();
+        }
+    }
+
+    @Test
+    public void testCaseFolding() throws IOException {
+        File file = File.createTempFile("automaton", ".bin");
+        file.deleteOnExit();
+        MappedAhoCorasickSet set = new MappedAhoCorasickSet(Arrays.asList("sun"), CaseFolding.SIMPLE, file);
+        sets.add(set);
+        // The long s folds to s with the simple folding only.
+        Assert.assertEquals(Arrays.asList("\u017FUN"), matches(set, "\u017FUN"));
+        set.close();
+        MappedAhoCorasickSet reopened = new MappedAhoCorasickSet(file);
+        sets.add(reopened);
+        Assert.assertSame(CaseFolding.SIMPLE, reopened.getCaseFolding());
+        Assert.assertEquals(Arrays.asList("\u017FUN"), matches(reopened, "\u017FUN"));
+        MappedAhoCorasickSet lowerCase = new MappedAhoCorasickSet(Arrays.asList("sun"), CaseFolding.LOWER_CASE_TRANSITIONS, file);
+        sets.add(lowerCase);
+        Assert.assertSame(CaseFolding.LOWER_CASE, lowerCase.getCaseFolding());
+        Assert.assertEquals(Arrays.asList("SUN"), matches(lowerCase, "\u017FUN SUN"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosed() throws IOException {
+        StringSet set = instantiateSet(Arrays.asList("he", "she"), true);
+        ((MappedAhoCorasickSet) set).close();
+        set.match("ushers", new SetMatchListener() {
+
+            public boolean match(String haystack, int startPosition, int endPosition) {
+                return true;
+            }
+        });
+    }
+
+    @Test
+    public void testFailedBuildDeletesFiles() throws IOException {
+        File dir = Files.createTempDirectory("automaton").toFile();
+        try {
+            File file = File.createTempFile("automaton", ".bin", dir);
+            // Enough keywords for several runs before the keywords fail.
+            final Iterator<String> keywords = Arrays.asList(Generator.randomStrings(40000, 5, 10)).iterator();
+            try {
+                new MappedAhoCorasickSet(new Iterable<String>() {
+
+                    public Iterator<String> iterator() {
+                        return new Iterator<String>() {
+
+                            public boolean hasNext() {
+                                return true;
+                            }
+
+                            public String next() {
+                                if (!keywords.hasNext()) {
+                                    throw new IllegalStateException("Keywords failed.");
+                                }
+                                return keywords.next();
+                            }
+
+                            public void remove() {
+                                throw new UnsupportedOperationException();
+                            }
+                        };
+                    }
+                }, true, file, 1 << 20);
+                Assert.fail();
+            } catch (IllegalStateException e) {
+                Assert.assertEquals("Keywords failed.", e.getMessage());
+            }
+            Assert.assertEquals(Arrays.asList(), Arrays.asList(dir.list()));
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        File file = File.createTempFile("automaton", ".bin");
+        file.deleteOnExit();
+        MappedAhoCorasickSet set = new MappedAhoCorasickSet(Arrays.asList("he", "she", "his", "hers"), false, file, 1 << 20);
+        set.close();
+        MappedAhoCorasickSet reopened = new MappedAhoCorasickSet(file);
+        try {
+            Assert.assertFalse(reopened.isCaseSensitive());
+            final List<String> matches = new ArrayList<String>();
+            reopened.match("uSHErs", new SetMatchListener() {
+
+                public boolean match(String haystack, int startPosition, int endPosition) {
+                    matches.add(haystack.substring(startPosition, endPosition));
+                    return true;
+                }
+            });
+            Assert.assertEquals(Arrays.asList("SHE", "HE", "HErs"), matches);
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Override
+    protected StringSet instantiateSet(List<String> keywords, boolean caseSensitive) {
+        try {
+            File file = File.createTempFile("automaton", ".bin");
+            file.deleteOnExit();
+            MappedAhoCorasickSet set = new MappedAhoCorasickSet(keywords, caseSensitive, file, 1 << 20);
+            sets.add(set);
+            return set;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
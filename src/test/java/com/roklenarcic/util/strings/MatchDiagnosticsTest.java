@@ -0,0 +1,87 @@
+package com.roklenarcic.util.strings;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.roklenarcic.util.strings.threshold.RangeNodeThreshold;
+
+public class MatchDiagnosticsTest {
+
+    private static final List<String> KEYWORDS = Arrays.asList("he", "she", "his", "hers");
+
+    @Test
+    public void testAhoCorasick() {
+        MatchDiagnostics diagnostics = new AhoCorasickSet(KEYWORDS, true).diagnose(Arrays.asList("ushers"));
+        Assert.assertEquals(1, diagnostics.getHaystackCount());
+        Assert.assertEquals(6, diagnostics.getCharCount());
+        Assert.assertEquals(6, diagnostics.getTransitionCount());
+        // "she" has no transition for r, so matching falls back to "he".
+        Assert.assertEquals(1, diagnostics.getFailTransitionCount());
+        Assert.assertEquals(1, diagnostics.getMaxFailChainLength());
+        Assert.assertEquals(7, diagnostics.getLookupCount());
+        Assert.assertTrue(diagnostics.getAverageProbeLength() >= 1);
+        // "she" outputs "she" and "he", "hers" outputs itself.
+        Assert.assertEquals(3, diagnostics.getOutputSteps());
+        Assert.assertEquals(2, diagnostics.getMaxOutputChainLength());
+        Assert.assertEquals(1, diagnostics.getNodeHits().getVisits("she"));
+        Assert.assertEquals(1, diagnostics.getNodeHits().getVisits(""));
+        Assert.assertEquals(6, diagnostics.getNodeHits().getTotalVisits());
+        Assert.assertTrue(diagnostics.toString().contains("hottestNodes"));
+    }
+
+    @Test
+    public void testAllEngines() {
+        List<String> haystacks = Arrays.asList("ushers", "his hers", "she");
+        MatchDiagnostics[] all = new MatchDiagnostics[] { new AhoCorasickSet(KEYWORDS, true).diagnose(haystacks),
+                new AhoCorasickMap<String>(KEYWORDS, KEYWORDS, true).diagnose(haystacks), new LongestMatchSet(KEYWORDS, true).diagnose(haystacks),
+                new LongestMatchMap<String>(KEYWORDS, KEYWORDS, true).diagnose(haystacks), new ShortestMatchSet(KEYWORDS, true).diagnose(haystacks),
+                new ShortestMatchMap<String>(KEYWORDS, KEYWORDS, true).diagnose(haystacks), new WholeWordMatchSet(KEYWORDS, true).diagnose(haystacks),
+                new WholeWordMatchMap<String>(KEYWORDS, KEYWORDS, true).diagnose(haystacks),
+                new WholeWordLongestMatchSet(KEYWORDS, true).diagnose(haystacks),
+                new WholeWordLongestMatchMap<String>(KEYWORDS, KEYWORDS, true).diagnose(haystacks) };
+        for (int i = 0; i < all.length; i += 2) {
+            Assert.assertEquals(3, all[i].getHaystackCount());
+            Assert.assertEquals(17, all[i].getCharCount());
+            // Sets and maps do the same work.
+            Assert.assertEquals(all[i].toString(), all[i + 1].toString());
+        }
+        // Whole word matching doesn't take fail transitions.
+        Assert.assertEquals(0, all[6].getFailTransitionCount());
+        Assert.assertEquals(0, all[8].getFailTransitionCount());
+    }
+
+    @Test
+    public void testWholeWord() {
+        MatchDiagnostics diagnostics = new WholeWordMatchSet(Arrays.asList("he", "she"), true).diagnose(Arrays.asList("she sells he"));
+        // Mismatch at "e" of "sells" skips to the next word.
+        Assert.assertEquals(2, diagnostics.getRestartCount());
+        Assert.assertEquals(2, diagnostics.getOutputSteps());
+        Assert.assertEquals(1, diagnostics.getNodeHits().getVisits("she"));
+        Assert.assertEquals(2, diagnostics.getNodeHits().getVisits("s"));
+    }
+
+    @Test
+    public void testWordBoundaries() {
+        List<String> keywords = Arrays.asList("don't", "bar");
+        WordBoundaries boundaries = WordBoundaries.of(WordBoundaries.Option.APOSTROPHES, WordBoundaries.Option.CAMEL_CASE);
+        List<String> haystacks = Arrays.asList("don't fooBar");
+        MatchDiagnostics[] all = new MatchDiagnostics[] {
+                new WholeWordMatchSet(keywords, CaseFolding.LOWER_CASE, boundaries, new RangeNodeThreshold(), null).diagnose(haystacks),
+                new WholeWordMatchMap<String>(keywords, keywords, CaseFolding.LOWER_CASE, boundaries, new RangeNodeThreshold(), null).diagnose(haystacks),
+                new WholeWordLongestMatchSet(keywords, CaseFolding.LOWER_CASE, boundaries, new RangeNodeThreshold(), null).diagnose(haystacks),
+                new WholeWordLongestMatchMap<String>(keywords, keywords, CaseFolding.LOWER_CASE, boundaries, new RangeNodeThreshold(), null)
+                        .diagnose(haystacks) };
+        for (MatchDiagnostics diagnostics : all) {
+            // The walk of "foo" stops at "f", the walk of "Bar" starts at the camel case boundary.
+            Assert.assertEquals(2, diagnostics.getOutputSteps());
+            Assert.assertEquals(2, diagnostics.getRestartCount());
+            Assert.assertEquals(1, diagnostics.getNodeHits().getVisits("don't"));
+            Assert.assertEquals(1, diagnostics.getNodeHits().getVisits("bar"));
+            Assert.assertEquals(8, diagnostics.getNodeHits().getTotalVisits());
+        }
+    }
+
+}
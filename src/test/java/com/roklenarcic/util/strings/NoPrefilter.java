@@ -0,0 +1,22 @@
+package com.roklenarcic.util.strings;
+
+import com.roklenarcic.util.strings.threshold.RangeNodeThreshold;
+
+/**
+ * Builds the automatons that skip ahead on the root with the bitmap of the start chars even where the vector
+ * prefilter is available. The benchmarks module uses it through the test jar of the library to compare both.
+ */
+public final class NoPrefilter {
+
+    private NoPrefilter() {
+    }
+
+    public static <T> AhoCorasickMap<T> map(Iterable<String> keywords, Iterable<? extends T> values, boolean caseSensitive) {
+        return new AhoCorasickMap<T>(keywords, values, CaseFolding.of(caseSensitive), new RangeNodeThreshold(), null, null, AhoCorasickMap.NO_PREFILTER);
+    }
+
+    public static AhoCorasickSet set(Iterable<String> keywords, boolean caseSensitive) {
+        return new AhoCorasickSet(keywords, CaseFolding.of(caseSensitive), new RangeNodeThreshold(), null, null, AhoCorasickSet.NO_PREFILTER);
+    }
+
+}
@@ -0,0 +1,160 @@
+package com.roklenarcic.util.strings;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NormalizationTest {
+
+    // Pieces of haystacks with composed and decomposed accents, compatibility forms, Hangul jamo and surrogates.
+    private static final String[] PIECES = new String[] { "e", "a", "i", " ", "\u0301", "\u0323", "\u00E9", "\uFB01", "\uFF21", "\uAC00", "\u1100",
+            "\u1161", "\u11A8", "\uFF76", "\uFF9E", "\u212B", "\u0344", "\u1E9B", "\uD83D\uDE00", "\uD835\uDC00", "\uD834\uDD65", "\u3300" };
+
+    private static List<String> matches(StringSet set, String haystack) {
+        final List<String> matches = new ArrayList<String>();
+        set.match(haystack, new SetMatchListener() {
+
+            public boolean match(String haystack, int startPosition, int endPosition) {
+                matches.add(haystack.substring(startPosition, endPosition));
+                return true;
+            }
+        });
+        return matches;
+    }
+
+    private static List<String> values(StringMap<String> map, Readable haystack) throws IOException {
+        final List<String> values = new ArrayList<String>();
+        map.match(haystack, new ReadableMatchListener<String>() {
+
+            public boolean match(String value) {
+                values.add(value);
+                return true;
+            }
+        });
+        return values;
+    }
+
+    private static List<String> values(StringMap<String> map, String haystack) {
+        final List<String> values = new ArrayList<String>();
+        map.match(haystack, new MapMatchListener<String>() {
+
+            public boolean match(String haystack, int startPosition, int endPosition, String value) {
+                values.add(value);
+                return true;
+            }
+        });
+        return values;
+    }
+
+    @Test
+    public void testBoundaries() {
+        for (Normalization normalization : new Normalization[] { Normalization.NFC, Normalization.NFKC }) {
+            for (int i = 0; i <= Character.MAX_VALUE; i++) {
+                char c = (char) i;
+                // Chars after the first of a decomposition combine with the chars before them.
+                String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+                for (int j = 1; j < decomposed.length(); j++) {
+                    Assert.assertFalse(Integer.toHexString(i), normalization.isBoundary(decomposed.charAt(j), ' '));
+                }
+                if (!Character.isSurrogate(c)) {
+                    Assert.assertEquals(Integer.toHexString(i), String.valueOf(c).equals(normalization.normalize(String.valueOf(c))),
+                            normalization.isStable(c));
+                }
+            }
+        }
+        Assert.assertTrue(Normalization.NFC.isStable('\u00E9'));
+        Assert.assertFalse(Normalization.NFC.isStable('\u212B'));
+        Assert.assertTrue(Normalization.NFC.isStable('\uFF21'));
+        Assert.assertFalse(Normalization.NFKC.isStable('\uFF21'));
+        Assert.assertFalse(Normalization.NFKC.isBoundary('\uFF9E', ' '));
+        Assert.assertTrue(Normalization.NFKC.isBoundary('\uD83D', '\uDE00'));
+        Assert.assertFalse(Normalization.NFKC.isBoundary('\uD834', '\uDD65'));
+    }
+
+    @Test
+    public void testOffsetsInOriginal() {
+        List<String> keywords = Arrays.asList("caf\u00E9", "file", "ABC", "\uAC01");
+        StringSet nfc = Normalization.NFC.wrap(new AhoCorasickSet(Normalization.NFC.normalize(keywords), true));
+        StringSet nfkc = Normalization.NFKC.wrap(new AhoCorasickSet(Normalization.NFKC.normalize(keywords), true));
+        String haystack = "cafe\u0301 caf\u00E9 \uFB01le \uFF21\uFF22\uFF23 \u1100\u1161\u11A8 ABC";
+        Assert.assertEquals(Arrays.asList("cafe\u0301", "caf\u00E9", "\u1100\u1161\u11A8", "ABC"), matches(nfc, haystack));
+        Assert.assertEquals(Arrays.asList("cafe\u0301", "caf\u00E9", "\uFB01le", "\uFF21\uFF22\uFF23", "\u1100\u1161\u11A8", "ABC"),
+                matches(nfkc, haystack));
+    }
+
+    @Test
+    public void testNormalizedHaystackIsNotCopied() {
+        final String haystack = "caf\u00E9 au lait";
+        StringSet set = Normalization.NFC.wrap(new AhoCorasickSet(Arrays.asList("caf\u00E9", "lait"), true));
+        set.match(haystack, new SetMatchListener() {
+
+            public boolean match(String matched, int startPosition, int endPosition) {
+                Assert.assertSame(haystack, matched);
+                return true;
+            }
+        });
+        Assert.assertEquals(Arrays.asList("caf\u00E9", "lait"), matches(set, haystack));
+    }
+
+    @Test
+    public void testSameAsNormalizingWholeHaystack() throws IOException {
+        Random random = new Random(44);
+        for (Normalization normalization : new Normalization[] { Normalization.NFC, Normalization.NFKC }) {
+            for (int round = 0; round < 200; round++) {
+                List<String> keywords = new ArrayList<String>();
+                for (int i = 0; i < 10; i++) {
+                    keywords.add(randomText(random, 1 + random.nextInt(3)));
+                }
+                String haystack = randomText(random, random.nextInt(400));
+                List<String> normalizedKeywords = normalization.normalize(keywords);
+                String normalizedHaystack = normalization.normalize(haystack);
+                StringMap<String> automaton = new AhoCorasickMap<String>(normalizedKeywords, normalizedKeywords, true);
+                StringMap<String> map = normalization.wrap(automaton);
+                List<String> expected = values(automaton, normalizedHaystack);
+                Assert.assertEquals(expected, values(map, haystack));
+                Assert.assertEquals(expected, values(map, new StringReader(haystack)));
+                // Reads of one char split every segment.
+                final StringReader reader = new StringReader(haystack);
+                Assert.assertEquals(expected, values(map, new Readable() {
+
+                    public int read(CharBuffer cb) throws IOException {
+                        int c = reader.read();
+                        if (c == -1) {
+                            return -1;
+                        }
+                        cb.put((char) c);
+                        return 1;
+                    }
+                }));
+                // Matches cover the original text of the keyword.
+                final String original = haystack;
+                final Normalization form = normalization;
+                map.match(haystack, new MapMatchListener<String>() {
+
+                    public boolean match(String matched, int startPosition, int endPosition, String value) {
+                        Assert.assertSame(original, matched);
+                        Assert.assertTrue(form.normalize(matched.substring(startPosition, endPosition)).contains(value));
+                        return true;
+                    }
+                });
+            }
+        }
+    }
+
+    private static String randomText(Random random, int pieces) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < pieces; i++) {
+            text.append(PIECES[random.nextInt(PIECES.length)]);
+        }
+        return text.toString();
+    }
+
+}
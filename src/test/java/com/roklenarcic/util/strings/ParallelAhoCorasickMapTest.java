@@ -0,0 +1,18 @@
+package com.roklenarcic.util.strings;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import com.roklenarcic.util.strings.threshold.RangeNodeThreshold;
+
+// Runs the Aho-Corasick map tests against the automaton built in parallel.
+public class ParallelAhoCorasickMapTest extends AhoCorasickMapTest {
+
+    private static final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @Override
+    protected StringMap<String> instantiateMap(List<String> keywords, boolean caseSensitive) {
+        return new AhoCorasickMap<String>(keywords, keywords, caseSensitive, new RangeNodeThreshold(), pool);
+    }
+
+}
@@ -0,0 +1,18 @@
+package com.roklenarcic.util.strings;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import com.roklenarcic.util.strings.threshold.RangeNodeThreshold;
+
+// Runs the Aho-Corasick set tests against the automaton built in parallel.
+public class ParallelAhoCorasickTest extends AhoCorasickTest {
+
+    private static final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @Override
+    protected StringSet instantiateSet(List<String> keywords, boolean caseSensitive) {
+        return new AhoCorasickSet(keywords, caseSensitive, new RangeNodeThreshold(), pool);
+    }
+
+}
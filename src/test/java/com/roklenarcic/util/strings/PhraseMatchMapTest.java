@@ -0,0 +1,153 @@
+package com.roklenarcic.util.strings;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PhraseMatchMapTest {
+
+    private static final String[] WORDS = new String[] { "new", "york", "city", "San", "Francisco", "bay", "area", "don't", "3.14" };
+    private static final String[] SEPARATORS = new String[] { " ", "  ", ", ", "-", " (", ") ", "\n" };
+
+    private static List<String> matches(StringMap<String> map, String haystack) {
+        final List<String> matches = new ArrayList<String>();
+        map.match(haystack, new MapMatchListener<String>() {
+
+            public boolean match(String haystack, int startPosition, int endPosition, String value) {
+                matches.add(haystack.substring(startPosition, endPosition) + "=" + value);
+                return true;
+            }
+        });
+        return matches;
+    }
+
+    private static List<String> readableMatches(StringMap<String> map, String haystack) throws IOException {
+        final List<String> matches = new ArrayList<String>();
+        map.match(new StringReader(haystack), new ReadableMatchListener<String>() {
+
+            public boolean match(String value) {
+                matches.add(value);
+                return true;
+            }
+        });
+        return matches;
+    }
+
+    @Test
+    public void testPhrases() {
+        List<String> phrases = Arrays.asList("new york", "New York City", "york", "san francisco bay area", "san francisco", "don't");
+        List<String> values = Arrays.asList("NY", "NYC", "Y", "SFBA", "SF", "DONT");
+        PhraseMatchMap<String> map = new PhraseMatchMap<String>(phrases, values, CaseFolding.LOWER_CASE);
+        Assert.assertEquals(8, map.getWordCount());
+        Assert.assertEquals(Arrays.asList("New York=NY", "new  york city=NYC", "San-Francisco=SF", "york=Y", "Don't=DONT"),
+                matches(map, "New York, new  york city, San-Francisco bay york. Don't"));
+        // A word in between ends the phrase, so only the single word phrase matches.
+        Assert.assertEquals(Arrays.asList("york=Y"), matches(map, "new jersey york"));
+        Assert.assertEquals(Arrays.asList("San Francisco Bay Area=SFBA"), matches(map, "San Francisco Bay Area"));
+    }
+
+    @Test
+    public void testDuplicatesAndNulls() {
+        PhraseMatchMap<String> map = new PhraseMatchMap<String>(Arrays.asList("a b", " A  B ", "c", null, "..."), Arrays.asList("1", "2", null, "4", "5"),
+                CaseFolding.LOWER_CASE);
+        Assert.assertEquals(Arrays.asList("a b=2", "c=null"), matches(map, "a b c"));
+        Assert.assertEquals(4, map.getNodeCount());
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        PhraseMatchMap<String> map = new PhraseMatchMap<String>(new ArrayList<String>(), new ArrayList<String>(), CaseFolding.NONE);
+        Assert.assertEquals(new ArrayList<String>(), matches(map, "any text"));
+        Assert.assertEquals(new ArrayList<String>(), readableMatches(map, "any text"));
+    }
+
+    @Test
+    public void testStop() {
+        PhraseMatchMap<String> map = new PhraseMatchMap<String>(Arrays.asList("a b", "c"), Arrays.asList("1", "2"), CaseFolding.NONE);
+        final List<String> values = new ArrayList<String>();
+        map.match("c a b c", new MapMatchListener<String>() {
+
+            public boolean match(String haystack, int startPosition, int endPosition, String value) {
+                values.add(value);
+                return values.size() < 2;
+            }
+        });
+        Assert.assertEquals(Arrays.asList("2", "1"), values);
+    }
+
+    @Test
+    public void testRandom() throws IOException {
+        Random random = new Random(47);
+        for (int round = 0; round < 300; round++) {
+            List<String> phrases = new ArrayList<String>();
+            List<String> values = new ArrayList<String>();
+            Map<String, String> reference = new HashMap<String, String>();
+            for (int i = 0; i < 10; i++) {
+                List<String> words = randomWords(random, 1 + random.nextInt(4));
+                phrases.add(join(words, SEPARATORS[random.nextInt(SEPARATORS.length)]));
+                values.add(Integer.toString(i));
+                reference.put(join(words, " ").toLowerCase(), Integer.toString(i));
+            }
+            List<String> words = randomWords(random, random.nextInt(60));
+            StringBuilder haystack = new StringBuilder();
+            List<Integer> starts = new ArrayList<Integer>();
+            List<Integer> ends = new ArrayList<Integer>();
+            for (String word : words) {
+                haystack.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+                starts.add(haystack.length());
+                haystack.append(word);
+                ends.add(haystack.length());
+            }
+            // Leftmost longest sequences of words.
+            List<String> expected = new ArrayList<String>();
+            List<String> expectedValues = new ArrayList<String>();
+            for (int i = 0; i < words.size();) {
+                int longest = 0;
+                StringBuilder phrase = new StringBuilder();
+                for (int j = i; j < words.size(); j++) {
+                    phrase.append(j == i ? "" : " ").append(words.get(j).toLowerCase());
+                    if (reference.containsKey(phrase.toString())) {
+                        longest = j - i + 1;
+                    }
+                }
+                if (longest == 0) {
+                    i++;
+                } else {
+                    String value = reference.get(join(words.subList(i, i + longest), " ").toLowerCase());
+                    expected.add(haystack.substring(starts.get(i), ends.get(i + longest - 1)) + "=" + value);
+                    expectedValues.add(value);
+                    i += longest;
+                }
+            }
+            PhraseMatchMap<String> map = new PhraseMatchMap<String>(phrases, values, CaseFolding.LOWER_CASE);
+            Assert.assertEquals(haystack.toString(), expected, matches(map, haystack.toString()));
+            Assert.assertEquals(haystack.toString(), expectedValues, readableMatches(map, haystack.toString()));
+        }
+    }
+
+    private static String join(List<String> words, String separator) {
+        StringBuilder text = new StringBuilder();
+        for (String word : words) {
+            text.append(text.length() == 0 ? "" : separator).append(word);
+        }
+        return text.toString();
+    }
+
+    private static List<String> randomWords(Random random, int count) {
+        List<String> words = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            // Mostly the first few words, so phrases share prefixes.
+            words.add(WORDS[random.nextInt(random.nextBoolean() ? 3 : WORDS.length)]);
+        }
+        return words;
+    }
+
+}
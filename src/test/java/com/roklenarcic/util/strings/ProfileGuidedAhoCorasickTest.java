@@ -0,0 +1,50 @@
+package com.roklenarcic.util.strings;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.roklenarcic.util.strings.threshold.NodeProfile;
+import com.roklenarcic.util.strings.threshold.ProfileGuidedThresholder;
+import com.roklenarcic.util.strings.threshold.RangeNodeThreshold;
+
+// Runs the Aho-Corasick set tests against the automaton rebuilt with a profile of matching the keywords.
+public class ProfileGuidedAhoCorasickTest extends AhoCorasickTest {
+
+    @Test
+    public void testHotNodesBecomeRangeNodes() {
+        List<String> keywords = Arrays.asList("ab", "az", "b", "xa", "xz");
+        // Without a profile only the root and the leaves are range nodes.
+        Assert.assertEquals(6, new AhoCorasickSet(keywords, true).stats().getRangeNodeCount());
+        NodeProfile profile = new AhoCorasickSet(keywords, true).profile(Arrays.asList("aaaazazaz"));
+        Assert.assertEquals(9, profile.getTotalVisits());
+        Assert.assertEquals(6, profile.getVisits("a"));
+        Assert.assertEquals(3, profile.getVisits("az"));
+        Assert.assertEquals(0, profile.getVisits("x"));
+        // Node "a" is hot, node "x" was never visited.
+        AutomatonStats stats = new AhoCorasickSet(keywords, true, new ProfileGuidedThresholder(profile, new RangeNodeThreshold(), 2, 1024)).stats();
+        Assert.assertEquals(7, stats.getRangeNodeCount());
+        AutomatonStats mapStats = new AhoCorasickMap<String>(keywords, keywords, true, new ProfileGuidedThresholder(new AhoCorasickMap<String>(keywords,
+                keywords, true).profile(Arrays.asList("aaaazazaz")), new RangeNodeThreshold(), 2, 1024)).stats();
+        Assert.assertEquals(7, mapStats.getRangeNodeCount());
+    }
+
+    @Test
+    public void testProfileOfDifferentDictionary() {
+        NodeProfile profile = new AhoCorasickSet(Arrays.asList("abc", "qq"), false).profile(Arrays.asList("ABCQQ"));
+        Assert.assertEquals(1, profile.getVisits("abc"));
+        Assert.assertEquals(1, profile.getVisits("qq"));
+        // Prefixes "abc" and "q" are not in the new dictionary.
+        AhoCorasickSet set = new AhoCorasickSet(Arrays.asList("ab", "xy"), false, new ProfileGuidedThresholder(profile));
+        Assert.assertEquals(5, set.stats().getNodeCount());
+    }
+
+    @Override
+    protected StringSet instantiateSet(List<String> keywords, boolean caseSensitive) {
+        NodeProfile profile = new AhoCorasickSet(keywords, caseSensitive).profile(keywords);
+        return new AhoCorasickSet(keywords, caseSensitive, new ProfileGuidedThresholder(profile));
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.roklenarcic.util.strings;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReloadableStringMapTest {
+
+    @Test
+    public void testFailedBuildKeepsOldAutomaton() throws IOException {
+        TestSource source = new TestSource("abc");
+        ReloadableStringMap<String> map = new ReloadableStringMap<String>(source);
+        source.set("xyz");
+        source.fail = true;
+        try {
+            map.reload();
+            Assert.fail("Expected build failure.");
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertEquals(1, map.getFailedCount());
+        Assert.assertNotNull(map.getLastFailure());
+        Assert.assertEquals(Arrays.asList("abc"), matches(map, "abc xyz"));
+    }
+
+    @Test
+    public void testFingerprint() {
+        List<String> keywords = Arrays.asList("ab", "c");
+        Assert.assertEquals(ReloadableStringMap.fingerprint(keywords, keywords), ReloadableStringMap.fingerprint(keywords, keywords));
+        Assert.assertTrue(ReloadableStringMap.fingerprint(keywords, keywords) != ReloadableStringMap.fingerprint(Arrays.asList("a", "bc"), keywords));
+    }
+
+    @Test
+    public void testFingerprintOfUnequalLengths() {
+        List<String> keywords = Arrays.asList("ab", "c");
+        long fingerprint = ReloadableStringMap.fingerprint(keywords, keywords);
+        Assert.assertTrue(fingerprint != ReloadableStringMap.fingerprint(Arrays.asList("ab", "c", "d"), keywords));
+        Assert.assertTrue(fingerprint != ReloadableStringMap.fingerprint(keywords, Arrays.asList("ab", "c", "d")));
+        Assert.assertTrue(fingerprint != ReloadableStringMap.fingerprint(keywords, Arrays.asList("ab", "c", null)));
+        Assert.assertTrue(fingerprint != ReloadableStringMap.fingerprint(keywords, Arrays.asList("ab")));
+        // A missing value isn't the same as a null one.
+        Assert.assertTrue(ReloadableStringMap.fingerprint(keywords, Arrays.asList("ab")) != ReloadableStringMap.fingerprint(keywords,
+                Arrays.asList("ab", null)));
+    }
+
+    @Test
+    public void testInFlightMatchKeepsOldAutomaton() throws IOException {
+        final TestSource source = new TestSource("a", "b");
+        final ReloadableStringMap<String> map = new ReloadableStringMap<String>(source);
+        final List<String> found = new ArrayList<String>();
+        map.match("a b", new MapMatchListener<String>() {
+
+            public boolean match(String haystack, int startPosition, int endPosition, String value) {
+                found.add(value);
+                if (found.size() == 1) {
+                    try {
+                        source.set("x");
+                        Assert.assertTrue(map.reload());
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return true;
+            }
+        });
+        Assert.assertEquals(Arrays.asList("a", "b"), found);
+        Assert.assertEquals(Arrays.asList("x"), matches(map, "a b x"));
+    }
+
+    @Test
+    public void testScheduleSurvivesErrors() throws IOException, InterruptedException {
+        TestSource source = new TestSource("abc");
+        ReloadableStringMap<String> map = new ReloadableStringMap<String>(source);
+        source.set("xyz");
+        source.error = new StackOverflowError();
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            map.start(executor, 10, TimeUnit.MILLISECONDS);
+            for (int i = 0; i < 500 && map.getFailedCount() < 2; i++) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(map.getFailedCount() >= 2);
+            Assert.assertSame(source.error, map.getLastFailure());
+            source.error = null;
+            for (int i = 0; i < 500 && map.getSwapCount() < 2; i++) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(Arrays.asList("xyz"), matches(map, "abc xyz"));
+        } finally {
+            map.stop();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testReload() throws IOException {
+        TestSource source = new TestSource("abc");
+        ReloadableStringMap<String> map = new ReloadableStringMap<String>(source);
+        Assert.assertEquals(Arrays.asList("abc"), matches(map, "abc xyz"));
+        Assert.assertFalse(map.reload());
+        Assert.assertEquals(1, map.getSkippedCount());
+        Assert.assertEquals(1, map.getBuildCount());
+        source.set("xyz");
+        Assert.assertTrue(map.reload());
+        Assert.assertEquals(Arrays.asList("xyz"), matches(map, "abc xyz"));
+        Assert.assertEquals(2, map.getBuildCount());
+        Assert.assertEquals(2, map.getSwapCount());
+        Assert.assertTrue(map.getTotalBuildNanos() >= map.getLastBuildNanos());
+    }
+
+    private List<String> matches(StringMap<String> map, String haystack) {
+        final List<String> ret = new ArrayList<String>();
+        map.match(haystack, new MapMatchListener<String>() {
+
+            public boolean match(String haystack, int startPosition, int endPosition, String value) {
+                ret.add(value);
+                return true;
+            }
+        });
+        return ret;
+    }
+
+    private static class TestSource implements ReloadableStringMap.Source<String> {
+
+        volatile Error error;
+        boolean fail = false;
+        private volatile List<String> keywords;
+
+        TestSource(String... keywords) {
+            set(keywords);
+        }
+
+        public StringMap<String> build() throws IOException {
+            if (fail) {
+                throw new IOException("Source unavailable.");
+            }
+            if (error != null) {
+                throw error;
+            }
+            return new LongestMatchMap<String>(keywords, keywords, true);
+        }
+
+        public Object fingerprint() {
+            return ReloadableStringMap.fingerprint(keywords, keywords);
+        }
+
+        void set(String... keywords) {
+            this.keywords = Arrays.asList(keywords);
+        }
+    }
+}
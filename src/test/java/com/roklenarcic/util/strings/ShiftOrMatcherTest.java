@@ -0,0 +1,146 @@
+package com.roklenarcic.util.strings;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.roklenarcic.util.strings.threshold.RangeNodeThreshold;
+
+public class ShiftOrMatcherTest {
+
+    private static final CaseFolding[] FOLDINGS = new CaseFolding[] { CaseFolding.NONE, CaseFolding.LOWER_CASE, CaseFolding.SIMPLE,
+            CaseFolding.LOWER_CASE_TRANSITIONS };
+
+    private static List<String> matches(StringMap<String> map, String haystack) {
+        final List<String> matches = new ArrayList<String>();
+        map.match(haystack, new MapMatchListener<String>() {
+
+            public boolean match(String haystack, int startPosition, int endPosition, String value) {
+                matches.add(startPosition + "-" + endPosition + "=" + value);
+                return true;
+            }
+        });
+        return matches;
+    }
+
+    private static List<String> matches(StringSet set, String haystack) {
+        final List<String> matches = new ArrayList<String>();
+        set.match(haystack, new SetMatchListener() {
+
+            public boolean match(String haystack, int startPosition, int endPosition) {
+                matches.add(startPosition + "-" + endPosition);
+                return true;
+            }
+        });
+        return matches;
+    }
+
+    private static List<String> readableMatches(StringMap<String> map, String haystack) throws IOException {
+        final List<String> matches = new ArrayList<String>();
+        map.match(new StringReader(haystack), new ReadableMatchListener<String>() {
+
+            public boolean match(String value) {
+                matches.add(value);
+                return true;
+            }
+        });
+        return matches;
+    }
+
+    @Test
+    public void testSmallDictionaries() {
+        List<String> keywords = Arrays.asList("he", "she", "his", "hers");
+        Assert.assertTrue(new AhoCorasickSet(keywords, true).isBitParallel());
+        Assert.assertTrue(new AhoCorasickMap<String>(keywords, keywords, false).isBitParallel());
+        Assert.assertEquals(Arrays.asList("1-4=she", "2-4=he", "2-6=hers"), matches(new AhoCorasickMap<String>(keywords, keywords, true), "ushers"));
+        List<String> large = Arrays.asList(Generator.randomStrings(100, 3, 8));
+        Assert.assertFalse(new AhoCorasickSet(large, true).isBitParallel());
+        Assert.assertFalse(new AhoCorasickMap<String>(large, large, true).isBitParallel());
+    }
+
+    @Test
+    public void testLongestFirst() {
+        // The keywords span the boundary of the two longs of the state.
+        List<String> keywords = new ArrayList<String>();
+        for (int length = 1; length <= 15; length++) {
+            char[] chars = new char[length];
+            Arrays.fill(chars, 'a');
+            keywords.add(new String(chars));
+        }
+        AhoCorasickMap<String> map = new AhoCorasickMap<String>(keywords, keywords, true);
+        Assert.assertTrue(map.isBitParallel());
+        List<String> expected = new ArrayList<String>();
+        for (int end = 1; end <= 20; end++) {
+            for (int length = Math.min(end, 15); length >= 1; length--) {
+                expected.add(end - length + "-" + end + "=" + keywords.get(length - 1));
+            }
+        }
+        Assert.assertEquals(expected, matches(map, "aaaaaaaaaaaaaaaaaaaa"));
+    }
+
+    @Test
+    public void testDuplicatesAndStop() {
+        AhoCorasickMap<String> map = new AhoCorasickMap<String>(Arrays.asList("ab", "AB", "b"), Arrays.asList("1", "2", "3"), false);
+        Assert.assertEquals(Arrays.asList("0-2=2", "1-2=3"), matches(map, "aB"));
+        final List<String> values = new ArrayList<String>();
+        map.match("ab ab", new MapMatchListener<String>() {
+
+            public boolean match(String haystack, int startPosition, int endPosition, String value) {
+                values.add(value);
+                return values.size() < 3;
+            }
+        });
+        Assert.assertEquals(Arrays.asList("2", "3", "2"), values);
+    }
+
+    @Test
+    public void testSameAsTrie() throws IOException {
+        Random random = new Random(50);
+        final String alphabet = "abAB\u017F\u00DF\u03A3\u03C2.";
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            for (int round = 0; round < 300; round++) {
+                List<String> keywords = new ArrayList<String>();
+                for (int i = random.nextInt(20); i > 0; i--) {
+                    keywords.add(randomText(random, alphabet, 1 + random.nextInt(6)));
+                }
+                String haystack = randomText(random, alphabet, random.nextInt(300));
+                for (CaseFolding caseFolding : FOLDINGS) {
+                    AhoCorasickMap<String> map = new AhoCorasickMap<String>(keywords, keywords, caseFolding);
+                    AhoCorasickMap<String> parallel = new AhoCorasickMap<String>(keywords, keywords, caseFolding, new RangeNodeThreshold(), pool, null);
+                    AhoCorasickSet set = new AhoCorasickSet(keywords, caseFolding);
+                    // A dictionary with one more keyword than the bit-parallel matcher takes is matched by the trie.
+                    List<String> trieKeywords = new ArrayList<String>(keywords);
+                    trieKeywords.add(randomText(random, "xyz", ShiftOrMatcher.MAX_CHARS + 1));
+                    AhoCorasickMap<String> trie = new AhoCorasickMap<String>(trieKeywords, trieKeywords, caseFolding);
+                    AhoCorasickSet trieSet = new AhoCorasickSet(trieKeywords, caseFolding);
+                    Assert.assertEquals(!keywords.isEmpty(), map.isBitParallel());
+                    Assert.assertEquals(!keywords.isEmpty(), parallel.isBitParallel());
+                    Assert.assertFalse(trie.isBitParallel());
+                    Assert.assertEquals(matches(trie, haystack), matches(map, haystack));
+                    Assert.assertEquals(matches(trie, haystack), matches(parallel, haystack));
+                    Assert.assertEquals(matches(trieSet, haystack), matches(set, haystack));
+                    Assert.assertEquals(readableMatches(trie, haystack), readableMatches(map, haystack));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static String randomText(Random random, String alphabet, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return text.toString();
+    }
+
+}
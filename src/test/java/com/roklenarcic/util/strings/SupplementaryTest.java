@@ -0,0 +1,124 @@
+package com.roklenarcic.util.strings;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SupplementaryTest {
+
+    // CJK Extension B ideographs U+20000, U+20001 and U+20002, which are letters.
+    private static final String EXT_B = "\uD840\uDC00\uD840\uDC01";
+    private static final String EXT_B_LETTER = "\uD840\uDC02";
+    // Grinning face U+1F600, which is not a word character.
+    private static final String EMOJI = "\uD83D\uDE00";
+
+    private static List<String> matches(Object automaton, String haystack) {
+        final List<String> matches = new ArrayList<String>();
+        if (automaton instanceof StringSet) {
+            ((StringSet) automaton).match(haystack, new SetMatchListener() {
+
+                public boolean match(String haystack, int startPosition, int endPosition) {
+                    matches.add(haystack.substring(startPosition, endPosition));
+                    return true;
+                }
+            });
+        } else {
+            @SuppressWarnings("unchecked")
+            StringMap<String> map = (StringMap<String>) automaton;
+            map.match(haystack, new MapMatchListener<String>() {
+
+                public boolean match(String haystack, int startPosition, int endPosition, String value) {
+                    matches.add(haystack.substring(startPosition, endPosition));
+                    return true;
+                }
+            });
+        }
+        return matches;
+    }
+
+    private static List<String> readableMatches(StringMap<String> map, Readable haystack) throws IOException {
+        final List<String> matches = new ArrayList<String>();
+        map.match(haystack, new ReadableMatchListener<String>() {
+
+            public boolean match(String value) {
+                matches.add(value);
+                return true;
+            }
+        });
+        return matches;
+    }
+
+    @Test
+    public void testPairsMatch() {
+        List<String> keywords = Arrays.asList(EMOJI, EXT_B, "a" + EMOJI);
+        String haystack = "a" + EMOJI + EXT_B + "\uD83D";
+        Assert.assertEquals(Arrays.asList("a" + EMOJI, EMOJI, EXT_B), matches(new AhoCorasickSet(keywords, true), haystack));
+        Assert.assertEquals(Arrays.asList("a" + EMOJI, EXT_B), matches(new LongestMatchMap<String>(keywords, keywords, true), haystack));
+        Assert.assertEquals(Arrays.asList("a" + EMOJI, EXT_B), matches(new ShortestMatchSet(keywords, true), haystack));
+    }
+
+    @Test
+    public void testReadableDoesNotSplitPairs() throws IOException {
+        List<String> keywords = Arrays.asList(EXT_B, "cat");
+        String haystack = "cat" + EMOJI + EXT_B + " " + EXT_B + EXT_B_LETTER + " cat" + EXT_B_LETTER + " " + EXT_B;
+        List<StringMap<String>> maps = new ArrayList<StringMap<String>>();
+        maps.add(new WholeWordMatchMap<String>(keywords, keywords, true));
+        maps.add(new WholeWordMatchMap<String>(keywords, keywords, false));
+        maps.add(new WholeWordLongestMatchMap<String>(keywords, keywords, true));
+        maps.add(new WholeWordLongestMatchMap<String>(keywords, keywords, false));
+        for (StringMap<String> map : maps) {
+            List<String> expected = Arrays.asList("cat", EXT_B, EXT_B);
+            Assert.assertEquals(expected, readableMatches(map, new StringReader(haystack)));
+            // Reads of one char end between the chars of every pair.
+            final StringReader reader = new StringReader(haystack);
+            Assert.assertEquals(expected, readableMatches(map, new Readable() {
+
+                public int read(CharBuffer cb) throws IOException {
+                    int c = reader.read();
+                    if (c == -1) {
+                        return -1;
+                    }
+                    cb.put((char) c);
+                    return 1;
+                }
+            }));
+        }
+    }
+
+    @Test
+    public void testWholeWordBoundaries() {
+        List<String> keywords = Arrays.asList(EXT_B, "cat");
+        // Emoji are word boundaries, supplementary letters are not.
+        String haystack = "cat" + EMOJI + EXT_B + " " + EXT_B + EXT_B_LETTER + " cat" + EXT_B_LETTER + " " + EMOJI + EXT_B + EMOJI;
+        List<String> expected = Arrays.asList("cat", EXT_B, EXT_B);
+        for (boolean caseSensitive : new boolean[] { true, false }) {
+            Assert.assertEquals(expected, matches(new WholeWordMatchSet(keywords, caseSensitive), haystack));
+            Assert.assertEquals(expected, matches(new WholeWordMatchMap<String>(keywords, keywords, caseSensitive), haystack));
+            Assert.assertEquals(expected, matches(new WholeWordLongestMatchSet(keywords, caseSensitive), haystack));
+            Assert.assertEquals(expected, matches(new WholeWordLongestMatchMap<String>(keywords, keywords, caseSensitive), haystack));
+        }
+        Assert.assertEquals(EXT_B, WordCharacters.trim(EMOJI + EXT_B + " ", WordCharSet.DEFAULT));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWholeWordRejectsEmoji() {
+        new WholeWordMatchSet(Arrays.asList("cat" + EMOJI + "dog"), true);
+    }
+
+    @Test
+    public void testWholeWordLongestFailMatches() {
+        // Keywords continue "cat" with a non-word and a word supplementary character.
+        List<String> keywords = Arrays.asList("cat", "cat" + EMOJI + "dog", "cat" + EXT_B_LETTER + "x");
+        String haystack = "cat" + EMOJI + "cow cat" + EXT_B_LETTER + "y cat" + EMOJI + "dog";
+        List<String> expected = Arrays.asList("cat", "cat" + EMOJI + "dog");
+        Assert.assertEquals(expected, matches(new WholeWordLongestMatchSet(keywords, true), haystack));
+        Assert.assertEquals(expected, matches(new WholeWordLongestMatchMap<String>(keywords, keywords, true), haystack));
+    }
+
+}
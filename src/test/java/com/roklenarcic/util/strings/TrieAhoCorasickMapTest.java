@@ -0,0 +1,15 @@
+package com.roklenarcic.util.strings;
+
+import java.util.List;
+
+import com.roklenarcic.util.strings.threshold.RangeNodeThreshold;
+
+// Runs the Aho-Corasick map tests against the trie, which small dictionaries don't use otherwise.
+public class TrieAhoCorasickMapTest extends AhoCorasickMapTest {
+
+    @Override
+    protected StringMap<String> instantiateMap(List<String> keywords, boolean caseSensitive) {
+        return new AhoCorasickMap<String>(keywords, keywords, CaseFolding.of(caseSensitive), new RangeNodeThreshold(), null, null, AhoCorasickMap.NO_BIT_PARALLEL);
+    }
+
+}
@@ -0,0 +1,15 @@
+package com.roklenarcic.util.strings;
+
+import java.util.List;
+
+import com.roklenarcic.util.strings.threshold.RangeNodeThreshold;
+
+// Runs the Aho-Corasick set tests against the trie, which small dictionaries don't use otherwise.
+public class TrieAhoCorasickTest extends AhoCorasickTest {
+
+    @Override
+    protected StringSet instantiateSet(List<String> keywords, boolean caseSensitive) {
+        return new AhoCorasickSet(keywords, CaseFolding.of(caseSensitive), new RangeNodeThreshold(), null, null, AhoCorasickSet.NO_BIT_PARALLEL);
+    }
+
+}
@@ -35,10 +35,10 @@ public class WholeWordLongestMatchTest extends SetTest {
                 keywords.contains(haystack.substring(startPosition, endPosition)));
         Assert.assertTrue("Needle " + haystack.substring(startPosition, endPosition) + " at end position " + endPosition
                 + " doesn't end in whitespace or string end in \n" + haystack,
-                haystack.length() == endPosition || !wwset.getWordChars()[haystack.charAt(endPosition)]);
+                haystack.length() == endPosition || !wwset.getWordChars().contains(haystack.charAt(endPosition)));
         Assert.assertTrue("Needle " + haystack.substring(startPosition, endPosition) + " at end position " + endPosition
                 + " doesn't start in whitespace or string start in \n" + haystack,
-                startPosition == 0 || !wwset.getWordChars()[haystack.charAt(startPosition - 1)]);
+                startPosition == 0 || !wwset.getWordChars().contains(haystack.charAt(startPosition - 1)));
     }
 
     @Override
@@ -51,7 +51,7 @@ public class WholeWordLongestMatchTest extends SetTest {
                         && (i == 0 || !Character.isLetterOrDigit(haystack.charAt(i - 1)))) {
                     normalCount++;
                     i += needle.length() - 1;
-                    while (++i < haystack.length() && !((WholeWordLongestMatchSet) set).getWordChars()[haystack.charAt(i)]) {
+                    while (++i < haystack.length() && !((WholeWordLongestMatchSet) set).getWordChars().contains(haystack.charAt(i))) {
                     }
                     i--;
                     break;
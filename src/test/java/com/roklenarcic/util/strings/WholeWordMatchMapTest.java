@@ -65,10 +65,10 @@ public class WholeWordMatchMapTest extends MapTest {
                 WordCharacters.trim(match, wwmap.getWordChars()).equals(haystack.substring(startPosition, endPosition)));
         Assert.assertTrue("Needle " + haystack.substring(startPosition, endPosition) + " at end position " + endPosition
                 + " doesn't end in whitespace or string end in \n" + haystack,
-                haystack.length() == endPosition || !wwmap.getWordChars()[haystack.charAt(endPosition)]);
+                haystack.length() == endPosition || !wwmap.getWordChars().contains(haystack.charAt(endPosition)));
         Assert.assertTrue("Needle " + haystack.substring(startPosition, endPosition) + " at end position " + endPosition
                 + " doesn't start in whitespace or string start in \n" + haystack,
-                startPosition == 0 || !wwmap.getWordChars()[haystack.charAt(startPosition - 1)]);
+                startPosition == 0 || !wwmap.getWordChars().contains(haystack.charAt(startPosition - 1)));
     }
 
     @Override
@@ -81,7 +81,7 @@ public class WholeWordMatchMapTest extends MapTest {
                         && (i == 0 || !Character.isLetterOrDigit(haystack.charAt(i - 1)))) {
                     normalCount++;
                     i += needle.length() - 1;
-                    while (++i < haystack.length() && !((WholeWordMatchMap<String>) map).getWordChars()[haystack.charAt(i)]) {
+                    while (++i < haystack.length() && !((WholeWordMatchMap<String>) map).getWordChars().contains(haystack.charAt(i))) {
                     }
                     i--;
                     break;
@@ -0,0 +1,208 @@
+package com.roklenarcic.util.strings;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.roklenarcic.util.strings.threshold.RangeNodeThreshold;
+
+public class WordBoundariesTest {
+
+    private static final String[] PIECES = new String[] { "a", "b", "ab", "B", "1", "2", " ", "'", ".", ",", ":", "_", "-", "\u0301", "\u4E00",
+            "\u30AB", "!", "\uD840\uDC00" };
+
+    private static List<String> matches(Object automaton, String haystack) {
+        final List<String> matches = new ArrayList<String>();
+        if (automaton instanceof StringSet) {
+            ((StringSet) automaton).match(haystack, new SetMatchListener() {
+
+                public boolean match(String haystack, int startPosition, int endPosition) {
+                    matches.add(haystack.substring(startPosition, endPosition));
+                    return true;
+                }
+            });
+        } else {
+            @SuppressWarnings("unchecked")
+            StringMap<String> map = (StringMap<String>) automaton;
+            map.match(haystack, new MapMatchListener<String>() {
+
+                public boolean match(String haystack, int startPosition, int endPosition, String value) {
+                    matches.add(haystack.substring(startPosition, endPosition));
+                    return true;
+                }
+            });
+        }
+        return matches;
+    }
+
+    private static List<String> readableMatches(StringMap<String> map, Readable haystack) throws IOException {
+        final List<String> matches = new ArrayList<String>();
+        map.match(haystack, new ReadableMatchListener<String>() {
+
+            public boolean match(String value) {
+                matches.add(value);
+                return true;
+            }
+        });
+        return matches;
+    }
+
+    private static List<String> values(StringMap<String> map, String haystack) {
+        final List<String> values = new ArrayList<String>();
+        map.match(haystack, new MapMatchListener<String>() {
+
+            public boolean match(String haystack, int startPosition, int endPosition, String value) {
+                values.add(value);
+                return true;
+            }
+        });
+        return values;
+    }
+
+    private static List<String> segments(WordBoundaries boundaries, String text) {
+        List<String> segments = new ArrayList<String>();
+        int state = WordBoundaries.START;
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = boundaries.next(state, text, i);
+            if (WordBoundaries.isBreak(state) && i > 0) {
+                segments.add(text.substring(start, i));
+                start = i;
+            }
+        }
+        segments.add(text.substring(start));
+        return segments;
+    }
+
+    private static Object[] automata(List<String> keywords, WordBoundaries boundaries) {
+        List<String> lowerCase = lowerCase(keywords);
+        return new Object[] { new WholeWordMatchSet(keywords, CaseFolding.LOWER_CASE, boundaries, new RangeNodeThreshold(), null),
+                new WholeWordMatchMap<String>(keywords, lowerCase, CaseFolding.LOWER_CASE, boundaries, new RangeNodeThreshold(), null),
+                new WholeWordLongestMatchSet(keywords, CaseFolding.LOWER_CASE, boundaries, new RangeNodeThreshold(), null),
+                new WholeWordLongestMatchMap<String>(keywords, lowerCase, CaseFolding.LOWER_CASE, boundaries, new RangeNodeThreshold(), null) };
+    }
+
+    @Test
+    public void testSegments() {
+        WordBoundaries uax29 = WordBoundaries.UAX29;
+        Assert.assertEquals(Arrays.asList("I", " ", "don't", " ", "know", "."), segments(uax29, "I don't know."));
+        Assert.assertEquals(Arrays.asList("U.S.A", " ", "3.14", " ", "1,000", ",", " ", "S:t"), segments(uax29, "U.S.A 3.14 1,000, S:t"));
+        Assert.assertEquals(Arrays.asList("cafe\u0301", " ", "snake_case", " ", "mp3", " ", "fooBar"), segments(uax29, "cafe\u0301 snake_case mp3 fooBar"));
+        Assert.assertEquals(Arrays.asList("\u4E00", "\u4E8C", "\u30AB\u30BF\u30AB\u30CA", "\uD840\uDC00", "\uD840\uDC01"),
+                segments(uax29, "\u4E00\u4E8C\u30AB\u30BF\u30AB\u30CA\uD840\uDC00\uD840\uDC01"));
+        Assert.assertEquals(Arrays.asList("don", "'", "t", " ", "3", ".", "14"), segments(WordBoundaries.of(), "don't 3.14"));
+        Assert.assertEquals(Arrays.asList("state-of-the-art", " ", "-", "x"), segments(WordBoundaries.of(WordBoundaries.Option.HYPHENS), "state-of-the-art -x"));
+        Assert.assertEquals(Arrays.asList("mp", "3", " ", "foo", "Bar", " ", "HTML", " ", "i", "Phone"),
+                segments(WordBoundaries.of(WordBoundaries.Option.LETTER_DIGIT_BREAKS, WordBoundaries.Option.CAMEL_CASE), "mp3 fooBar HTML iPhone"));
+    }
+
+    @Test
+    public void testKeywords() {
+        Assert.assertEquals("don't", WordBoundaries.UAX29.trim("'don't' "));
+        Assert.assertEquals("", WordBoundaries.UAX29.trim(" ... "));
+        Assert.assertTrue(WordBoundaries.UAX29.isWord("don't"));
+        Assert.assertFalse(WordBoundaries.UAX29.isWord("do not"));
+        Assert.assertFalse(WordBoundaries.of(WordBoundaries.Option.CAMEL_CASE).isWord("fooBar"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMoreThanOneWord() {
+        new WholeWordMatchSet(Arrays.asList("do not"), CaseFolding.NONE, WordBoundaries.UAX29, new RangeNodeThreshold(), null);
+    }
+
+    @Test
+    public void testMatches() {
+        List<String> keywords = Arrays.asList("don't", "don", "cafe\u0301", "cafe", "3.14", "foo", "bar");
+        String haystack = "Don't don cafe\u0301 cafe 3.14 3 fooBar foo";
+        for (Object automaton : automata(keywords, WordBoundaries.UAX29)) {
+            Assert.assertEquals(automaton.getClass().getSimpleName(), Arrays.asList("Don't", "don", "cafe\u0301", "cafe", "3.14", "foo"),
+                    matches(automaton, haystack));
+        }
+        // Without apostrophes and number separators "don't" and "3.14" are more than one word.
+        for (Object automaton : automata(Arrays.asList("don", "cafe\u0301", "cafe"), WordBoundaries.of(WordBoundaries.Option.CAMEL_CASE))) {
+            Assert.assertEquals(automaton.getClass().getSimpleName(), Arrays.asList("Don", "don", "cafe\u0301", "cafe"), matches(automaton, haystack));
+        }
+        for (Object automaton : automata(Arrays.asList("foo", "bar"), WordBoundaries.of(WordBoundaries.Option.CAMEL_CASE))) {
+            Assert.assertEquals(automaton.getClass().getSimpleName(), Arrays.asList("foo", "Bar", "foo"),
+                    matches(automaton, haystack));
+        }
+    }
+
+    @Test
+    public void testLongestMatches() {
+        List<String> keywords = Arrays.asList("new york", "new", "york", "\u4E00\u4E8C");
+        String haystack = "New York's new york, new yorker \u4E00\u4E8C\u4E09";
+        Object[] automata = new Object[] { new WholeWordLongestMatchSet(keywords, CaseFolding.LOWER_CASE, WordBoundaries.UAX29, new RangeNodeThreshold(), null),
+                new WholeWordLongestMatchMap<String>(keywords, lowerCase(keywords), CaseFolding.LOWER_CASE, WordBoundaries.UAX29, new RangeNodeThreshold(), null) };
+        for (Object automaton : automata) {
+            Assert.assertEquals(automaton.getClass().getSimpleName(), Arrays.asList("New", "new york", "new", "\u4E00\u4E8C"), matches(automaton, haystack));
+        }
+    }
+
+    @Test
+    public void testReadablesMatchLikeStrings() throws IOException {
+        Random random = new Random(46);
+        for (int round = 0; round < 300; round++) {
+            List<String> keywords = new ArrayList<String>();
+            for (int i = 0; i < 8; i++) {
+                keywords.add(randomText(random, 1 + random.nextInt(3)));
+            }
+            StringBuilder haystack = new StringBuilder();
+            for (int i = random.nextInt(300); i > 0; i--) {
+                haystack.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            WordBoundaries boundaries = random.nextBoolean() ? WordBoundaries.UAX29 : WordBoundaries.of(WordBoundaries.Option.CAMEL_CASE,
+                    WordBoundaries.Option.HYPHENS);
+            List<StringMap<String>> maps = new ArrayList<StringMap<String>>();
+            List<String> singleWords = new ArrayList<String>();
+            for (String keyword : keywords) {
+                if (boundaries.isWord(boundaries.trim(keyword))) {
+                    singleWords.add(keyword);
+                }
+            }
+            maps.add(new WholeWordMatchMap<String>(singleWords, lowerCase(singleWords), CaseFolding.LOWER_CASE, boundaries, new RangeNodeThreshold(), null));
+            maps.add(new WholeWordLongestMatchMap<String>(keywords, lowerCase(keywords), CaseFolding.LOWER_CASE, boundaries, new RangeNodeThreshold(), null));
+            for (StringMap<String> map : maps) {
+                List<String> expected = values(map, haystack.toString());
+                Assert.assertEquals(expected, readableMatches(map, new StringReader(haystack.toString())));
+                // Reads of one char, so the window is filled again for each char.
+                final StringReader reader = new StringReader(haystack.toString());
+                Assert.assertEquals(expected, readableMatches(map, new Readable() {
+
+                    public int read(CharBuffer cb) throws IOException {
+                        int c = reader.read();
+                        if (c == -1) {
+                            return -1;
+                        }
+                        cb.put((char) c);
+                        return 1;
+                    }
+                }));
+            }
+        }
+    }
+
+    private static List<String> lowerCase(List<String> keywords) {
+        List<String> lowerCase = new ArrayList<String>();
+        for (String keyword : keywords) {
+            lowerCase.add(keyword.toLowerCase());
+        }
+        return lowerCase;
+    }
+
+    private static String randomText(Random random, int pieces) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < pieces; i++) {
+            text.append(PIECES[random.nextInt(PIECES.length)]);
+        }
+        return text.toString();
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.roklenarcic.util.strings;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WordCharSetTest {
+
+    @Test
+    public void testDefault() {
+        for (int i = 0; i <= Character.MAX_VALUE; i++) {
+            char c = (char) i;
+            Assert.assertEquals(Integer.toHexString(i), Character.isLetterOrDigit(c) || c == '-' || c == '_', WordCharSet.DEFAULT.contains(c));
+        }
+    }
+
+    @Test
+    public void testGivenChars() {
+        char[] chars = new char[] { 'a', 'Z', '\u00E9', '\u4E00', '\uFFFF', '\'' };
+        WordCharSet set = WordCharSet.of(chars);
+        for (int i = 0; i <= Character.MAX_VALUE; i++) {
+            Assert.assertEquals(Integer.toHexString(i), new String(chars).indexOf(i) != -1, set.contains((char) i));
+        }
+    }
+
+    @Test
+    public void testInterned() {
+        Assert.assertSame(WordCharSet.of(new char[] { 'a', 'b' }), WordCharSet.of(new char[] { 'b', 'a', 'b' }));
+        Assert.assertSame(WordCharSet.DEFAULT, WordCharSet.DEFAULT.with(new char[] { 'a' }, new boolean[] { true }));
+        WordCharSet toggled = WordCharSet.DEFAULT.with(new char[] { '-', '\'', '\u4E00' }, new boolean[] { false, true, false });
+        Assert.assertSame(toggled, WordCharSet.DEFAULT.with(new char[] { '\'', '\u4E00', '-' }, new boolean[] { true, false, false }));
+        Assert.assertFalse(toggled.contains('-'));
+        Assert.assertTrue(toggled.contains('\''));
+        Assert.assertFalse(toggled.contains('\u4E00'));
+        Assert.assertTrue(toggled.contains('\u4E01'));
+        Assert.assertTrue(toggled.contains('_'));
+    }
+
+    @Test
+    public void testSharedByAutomata() {
+        char[] chars = new char[] { '-', '\'' };
+        boolean[] flags = new boolean[] { false, true };
+        WholeWordMatchSet first = new WholeWordMatchSet(Arrays.asList("don't"), true, chars, flags);
+        WholeWordLongestMatchMap<String> second = new WholeWordLongestMatchMap<String>(Arrays.asList("rock'n"), Arrays.asList("x"), true, chars, flags);
+        Assert.assertSame(first.getWordChars(), second.getWordChars());
+        Assert.assertSame(WordCharSet.DEFAULT, new WholeWordMatchMap<String>(Arrays.asList("a"), Arrays.asList("x"), false).getWordChars());
+    }
+
+}
@@ -0,0 +1,353 @@
+package com.roklenarcic.util.strings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generator of realistic dictionaries and haystacks: English like vocabulary, CJK names, hostnames, URLs and
+ * log lines with IDs. Alphabet, length distribution, shared prefix ratio, Zipf exponent of word frequencies
+ * and match density can be changed on any of the presets. Output is fully determined by the seed and the
+ * settings, dictionary and haystack use separate random sequences, so the order of calls doesn't matter.
+ * The benchmarks module uses it through the test jar of the library.
+ */
+public class WorkloadGenerator {
+
+    /**
+     * Kind of tokens generated.
+     */
+    public enum Kind {
+        WORDS, CJK_NAMES, HOSTNAMES, URLS, LOG_LINES
+    }
+
+    /**
+     * Lowercase English letters, repeated by their approximate frequency in English text.
+     */
+    public static final String ENGLISH_LETTERS = "eeeeeeeeeeeetttttttttaaaaaaaaoooooooiiiiiiinnnnnnnsssssshhhhhhrrrrrrddddllllcccuuummmwwffggyyppbbvkjxqz";
+
+    /**
+     * Frequent CJK unified ideographs used in given names.
+     */
+    public static final String CJK_GIVEN = "\u4f1f\u82b3\u5a1c\u79c0\u82f1\u654f\u9759\u4e3d\u5f3a\u78ca\u519b\u6d0b\u52c7\u8273\u6770\u5a1f\u6d9b\u660e\u8d85\u79c0\u971e\u5e73\u521a\u6842\u82f1\u534e\u7389\u5170\u840d\u7ea2\u73b2\u5efa\u56fd\u6587\u8f89\u658c\u5b87\u6d69\u51ef\u9e4f\u98de\u946b\u6ce2\u5b81\u6668\u9633\u96ea\u6885\u7433\u5a77\u6167\u9896\u4f73\u6b23\u6021\u601d\u96e8\u5b50\u8f69\u6db5\u535a";
+
+    /**
+     * Frequent Chinese surnames.
+     */
+    public static final String CJK_SURNAMES = "\u738b\u674e\u5f20\u5218\u9648\u6768\u9ec4\u8d75\u5434\u5468\u5f90\u5b59\u9a6c\u6731\u80e1\u90ed\u4f55\u9ad8\u6797\u7f57\u90d1\u6881\u8c22\u5b8b\u5510\u8bb8\u97e9\u51af\u9093\u66f9\u5f6d\u66fe\u8096\u7530\u8463\u8881\u6f58\u4e8e\u848b\u8521\u4f59\u675c\u53f6\u7a0b\u82cf\u9b4f\u5415\u4e01\u4efb\u6c88\u59da\u5362\u59dc\u5d14\u949f\u8c2d\u9646\u6c6a\u8303\u91d1\u77f3\u5ed6\u8d3e\u590f\u97e6\u4ed8\u65b9\u767d\u90b9\u5b5f\u718a\u79e6\u90b1\u6c5f\u5c39\u859b\u95eb\u6bb5\u96f7\u4faf\u9f99\u53f2\u9676\u9ece\u8d3a\u987e\u6bdb\u90dd\u9f9a\u90b5\u4e07\u94b1\u4e25\u8983\u6b66\u6234\u83ab\u5b54\u5411\u6c64";
+
+    private static final String HEX = "0123456789abcdef";
+    private static final String[] LOG_LEVELS = new String[] { "INFO", "INFO", "INFO", "DEBUG", "WARN", "ERROR" };
+    private static final String[] TOP_LEVEL_DOMAINS = new String[] { "com", "com", "com", "net", "org", "io", "de", "co.uk", "cn", "jp" };
+
+    private String alphabet = ENGLISH_LETTERS;
+    private final Kind kind;
+    private int[] lengthWeights;
+    private double matchDensity = 0.05;
+    private final long seed;
+    private double sharedPrefixRatio = 0;
+    private int vocabularySize = 10000;
+    private double zipfExponent = 1.0;
+
+    /**
+     * Creates a generator of the given kind with default settings: English letters, token lengths 3 to 10,
+     * no extra shared prefixes, 5% match density and Zipf exponent 1.
+     *
+     * @param kind
+     *            kind of tokens
+     * @param seed
+     *            seed of the random sequences
+     */
+    public WorkloadGenerator(Kind kind, long seed) {
+        this.kind = kind;
+        this.seed = seed;
+        setLengths(3, 10);
+    }
+
+    /**
+     * CJK names: a surname followed by one or two given name characters. Names share their first character
+     * a lot and the haystack has no spaces between them, so whole word matchers only match the names
+     * surrounded by punctuation.
+     */
+    public static WorkloadGenerator cjkNames(long seed) {
+        return new WorkloadGenerator(Kind.CJK_NAMES, seed).setAlphabet(CJK_GIVEN).setLengthWeights(new int[] { 0, 3, 7 });
+    }
+
+    /**
+     * English like words with the letter frequencies and word lengths of English text and Zipfian word
+     * frequencies in the haystack.
+     */
+    public static WorkloadGenerator english(long seed) {
+        return new WorkloadGenerator(Kind.WORDS, seed).setLengthWeights(new int[] { 0, 3, 17, 21, 16, 11, 9, 8, 6, 4, 3, 2 });
+    }
+
+    /**
+     * Hostnames of one to three labels and a top level domain. Keywords share suffixes, not prefixes.
+     */
+    public static WorkloadGenerator hostnames(long seed) {
+        return new WorkloadGenerator(Kind.HOSTNAMES, seed).setAlphabet("abcdefghijklmnopqrstuvwxyz0123456789").setLengths(3, 10);
+    }
+
+    /**
+     * Log lines with a timestamp, level, thread, request ID and a message. Keywords are request IDs and
+     * error codes, match density is the share of lines that contain a keyword.
+     */
+    public static WorkloadGenerator logLines(long seed) {
+        return new WorkloadGenerator(Kind.LOG_LINES, seed).setAlphabet(HEX).setLengths(8, 12);
+    }
+
+    /**
+     * URLs with a common scheme, a host and one to three path segments. Keywords share long prefixes, which
+     * gives deep tries and long fail chains.
+     */
+    public static WorkloadGenerator urls(long seed) {
+        return new WorkloadGenerator(Kind.URLS, seed).setAlphabet("abcdefghijklmnopqrstuvwxyz0123456789-").setLengths(3, 10).setSharedPrefixRatio(0.5);
+    }
+
+    /**
+     * Generates a dictionary of distinct keywords.
+     *
+     * @param n
+     *            number of keywords
+     * @return keywords in generation order
+     */
+    public String[] dictionary(int n) {
+        Random r = new Random(seed);
+        Set<String> keywords = new LinkedHashSet<String>();
+        List<String> generated = new ArrayList<String>();
+        int attempts = 0;
+        while (keywords.size() < n) {
+            String keyword;
+            if (!generated.isEmpty() && r.nextDouble() < sharedPrefixRatio) {
+                // Extend a prefix of an existing keyword.
+                String base = generated.get(r.nextInt(generated.size()));
+                keyword = base.substring(0, 1 + r.nextInt(base.length())) + letters(r, Math.max(1, length(r) / 2));
+            } else {
+                keyword = token(r);
+            }
+            if (keywords.add(keyword)) {
+                generated.add(keyword);
+            } else if (++attempts > n * 100) {
+                throw new IllegalStateException("Can't generate " + n + " distinct keywords with these settings, got " + keywords.size());
+            }
+        }
+        return keywords.toArray(new String[keywords.size()]);
+    }
+
+    /**
+     * Generates a haystack of at least the given length. Tokens are keywords with probability of the match
+     * density, otherwise tokens of a vocabulary of non keywords. Both are picked with Zipfian frequencies, in
+     * the order of the dictionary and the vocabulary.
+     *
+     * @param dictionary
+     *            keywords to put into the haystack
+     * @param length
+     *            minimum length of the haystack
+     * @return haystack
+     */
+    public String haystack(String[] dictionary, int length) {
+        Random r = new Random(seed * 31 + 17);
+        Set<String> keywords = new LinkedHashSet<String>(Arrays.asList(dictionary));
+        Set<String> vocabularySet = new LinkedHashSet<String>();
+        for (int attempts = 0; vocabularySet.size() < vocabularySize && attempts < vocabularySize * 10; attempts++) {
+            String word = token(r);
+            if (!keywords.contains(word)) {
+                vocabularySet.add(word);
+            }
+        }
+        String[] vocabulary = vocabularySet.toArray(new String[vocabularySet.size()]);
+        double[] keywordZipf = zipf(dictionary.length);
+        double[] vocabularyZipf = zipf(vocabulary.length);
+        StringBuilder sb = new StringBuilder(length + 128);
+        while (sb.length() < length) {
+            boolean match = dictionary.length > 0 && r.nextDouble() < matchDensity;
+            String word = match ? dictionary[pick(r, keywordZipf)] : vocabulary[pick(r, vocabularyZipf)];
+            switch (kind) {
+            case LOG_LINES:
+                logLine(r, sb, word);
+                break;
+            case CJK_NAMES:
+                sb.append(word);
+                if (r.nextInt(8) == 0) {
+                    sb.append(r.nextBoolean() ? '\uff0c' : '\u3002');
+                }
+                break;
+            default:
+                sb.append(word).append(' ');
+            }
+        }
+        return sb.toString();
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public double getMatchDensity() {
+        return matchDensity;
+    }
+
+    /**
+     * Sets the characters of generated tokens. Repeating a character makes it more frequent.
+     */
+    public WorkloadGenerator setAlphabet(String alphabet) {
+        if (alphabet.isEmpty()) {
+            throw new IllegalArgumentException("Alphabet is empty.");
+        }
+        this.alphabet = alphabet;
+        return this;
+    }
+
+    /**
+     * Sets the distribution of token lengths. Element i is the relative frequency of length i. For URLs and
+     * hostnames it's the length of a label or a path segment, for log lines the length of an ID.
+     */
+    public WorkloadGenerator setLengthWeights(int[] lengthWeights) {
+        int total = 0;
+        for (int i = 0; i < lengthWeights.length; i++) {
+            if (lengthWeights[i] < 0 || (i == 0 && lengthWeights[i] > 0)) {
+                throw new IllegalArgumentException("Length weights must not be negative and length 0 must have weight 0.");
+            }
+            total += lengthWeights[i];
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("Length weights are all 0.");
+        }
+        this.lengthWeights = lengthWeights.clone();
+        return this;
+    }
+
+    /**
+     * Sets uniformly distributed token lengths.
+     */
+    public WorkloadGenerator setLengths(int minLength, int maxLength) {
+        if (minLength < 1 || maxLength < minLength) {
+            throw new IllegalArgumentException("Invalid length range " + minLength + " to " + maxLength);
+        }
+        int[] weights = new int[maxLength + 1];
+        Arrays.fill(weights, minLength, maxLength + 1, 1);
+        return setLengthWeights(weights);
+    }
+
+    /**
+     * Sets the share of haystack tokens that are keywords.
+     */
+    public WorkloadGenerator setMatchDensity(double matchDensity) {
+        if (matchDensity < 0 || matchDensity > 1) {
+            throw new IllegalArgumentException("Match density must be between 0 and 1.");
+        }
+        this.matchDensity = matchDensity;
+        return this;
+    }
+
+    /**
+     * Sets the share of keywords made by extending a random prefix of an earlier keyword.
+     */
+    public WorkloadGenerator setSharedPrefixRatio(double sharedPrefixRatio) {
+        if (sharedPrefixRatio < 0 || sharedPrefixRatio > 1) {
+            throw new IllegalArgumentException("Shared prefix ratio must be between 0 and 1.");
+        }
+        this.sharedPrefixRatio = sharedPrefixRatio;
+        return this;
+    }
+
+    /**
+     * Sets the number of distinct non keyword tokens in the haystack.
+     */
+    public WorkloadGenerator setVocabularySize(int vocabularySize) {
+        if (vocabularySize < 1) {
+            throw new IllegalArgumentException("Vocabulary size must be positive.");
+        }
+        this.vocabularySize = vocabularySize;
+        return this;
+    }
+
+    /**
+     * Sets the exponent of Zipfian token frequencies, 0 gives uniform frequencies.
+     */
+    public WorkloadGenerator setZipfExponent(double zipfExponent) {
+        if (zipfExponent < 0) {
+            throw new IllegalArgumentException("Zipf exponent must not be negative.");
+        }
+        this.zipfExponent = zipfExponent;
+        return this;
+    }
+
+    private int length(Random r) {
+        int total = 0;
+        for (int w : lengthWeights) {
+            total += w;
+        }
+        int x = r.nextInt(total);
+        for (int i = 0;; i++) {
+            x -= lengthWeights[i];
+            if (x < 0) {
+                return i;
+            }
+        }
+    }
+
+    private String letters(Random r, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = alphabet.charAt(r.nextInt(alphabet.length()));
+        }
+        return new String(chars);
+    }
+
+    private void logLine(Random r, StringBuilder sb, String id) {
+        sb.append("2026-10-").append(10 + r.nextInt(20)).append('T').append(10 + r.nextInt(14)).append(':').append(10 + r.nextInt(50)).append(':')
+                .append(10 + r.nextInt(50)).append('.').append(100 + r.nextInt(900)).append("Z ");
+        sb.append(LOG_LEVELS[r.nextInt(LOG_LEVELS.length)]).append(" [worker-").append(r.nextInt(16)).append("] ");
+        sb.append("request=").append(id).append(" status=").append(r.nextBoolean() ? 200 : 200 + r.nextInt(400));
+        sb.append(" took ").append(r.nextInt(1000)).append("ms\n");
+    }
+
+    private String token(Random r) {
+        switch (kind) {
+        case CJK_NAMES:
+            return CJK_SURNAMES.charAt(r.nextInt(CJK_SURNAMES.length())) + letters(r, length(r));
+        case HOSTNAMES:
+            return hostname(r);
+        case URLS:
+            StringBuilder url = new StringBuilder(r.nextInt(4) == 0 ? "http://" : "https://").append(hostname(r));
+            for (int segments = 1 + r.nextInt(3); segments > 0; segments--) {
+                url.append('/').append(letters(r, length(r)));
+            }
+            return url.toString();
+        case LOG_LINES:
+            if (r.nextInt(10) == 0) {
+                return "E" + (1000 + r.nextInt(9000));
+            }
+            return "req-" + letters(r, length(r));
+        default:
+            return letters(r, length(r));
+        }
+    }
+
+    private String hostname(Random r) {
+        StringBuilder host = new StringBuilder();
+        for (int labels = 1 + r.nextInt(3); labels > 0; labels--) {
+            host.append(letters(r, length(r))).append('.');
+        }
+        return host.append(TOP_LEVEL_DOMAINS[r.nextInt(TOP_LEVEL_DOMAINS.length)]).toString();
+    }
+
+    // Cumulative Zipfian weights of ranks.
+    private double[] zipf(int n) {
+        double[] cumulative = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, zipfExponent);
+            cumulative[i] = sum;
+        }
+        return cumulative;
+    }
+
+    private static int pick(Random r, double[] cumulative) {
+        int i = Arrays.binarySearch(cumulative, r.nextDouble() * cumulative[cumulative.length - 1]);
+        return Math.min(cumulative.length - 1, i < 0 ? -i - 1 : i);
+    }
+}
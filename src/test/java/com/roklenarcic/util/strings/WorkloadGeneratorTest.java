@@ -0,0 +1,101 @@
+package com.roklenarcic.util.strings;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WorkloadGeneratorTest {
+
+    private static WorkloadGenerator[] allPresets(long seed) {
+        return new WorkloadGenerator[] { WorkloadGenerator.english(seed), WorkloadGenerator.cjkNames(seed), WorkloadGenerator.hostnames(seed),
+                WorkloadGenerator.urls(seed), WorkloadGenerator.logLines(seed) };
+    }
+
+    @Test
+    public void testAhoCorasickMatchesAllOccurrences() {
+        for (WorkloadGenerator generator : allPresets(7)) {
+            generator.setMatchDensity(0.2);
+            String[] dictionary = generator.dictionary(300);
+            String haystack = generator.haystack(dictionary, 20000);
+            int expected = 0;
+            for (String keyword : dictionary) {
+                for (int i = haystack.indexOf(keyword); i != -1; i = haystack.indexOf(keyword, i + 1)) {
+                    expected++;
+                }
+            }
+            final int[] count = new int[1];
+            new AhoCorasickSet(Arrays.asList(dictionary), true).match(haystack, new SetMatchListener() {
+
+                public boolean match(String haystack, int startPosition, int endPosition) {
+                    count[0]++;
+                    return true;
+                }
+            });
+            Assert.assertEquals(generator.getKind().toString(), expected, count[0]);
+            Assert.assertTrue(generator.getKind().toString(), expected > 0);
+        }
+    }
+
+    @Test
+    public void testMatchDensity() {
+        WorkloadGenerator generator = WorkloadGenerator.english(3).setMatchDensity(0.3);
+        String[] dictionary = generator.dictionary(1000);
+        Set<String> keywords = new HashSet<String>(Arrays.asList(dictionary));
+        String[] words = generator.haystack(dictionary, 100000).split(" ");
+        int matches = 0;
+        for (String word : words) {
+            if (keywords.contains(word)) {
+                matches++;
+            }
+        }
+        Assert.assertEquals(0.3, (double) matches / words.length, 0.03);
+    }
+
+    @Test
+    public void testReproducible() {
+        WorkloadGenerator[] first = allPresets(42);
+        WorkloadGenerator[] second = allPresets(42);
+        WorkloadGenerator[] other = allPresets(43);
+        for (int i = 0; i < first.length; i++) {
+            String[] dictionary = first[i].dictionary(500);
+            Assert.assertEquals(500, dictionary.length);
+            // Haystack first, the order of calls doesn't matter.
+            String haystack = second[i].haystack(dictionary, 5000);
+            Assert.assertArrayEquals(dictionary, second[i].dictionary(500));
+            Assert.assertEquals(first[i].haystack(dictionary, 5000), haystack);
+            Assert.assertTrue(haystack.length() >= 5000);
+            Assert.assertFalse(Arrays.equals(dictionary, other[i].dictionary(500)));
+        }
+    }
+
+    @Test
+    public void testSharedPrefixRatio() {
+        String[] separate = new WorkloadGenerator(WorkloadGenerator.Kind.WORDS, 5).dictionary(5000);
+        String[] shared = new WorkloadGenerator(WorkloadGenerator.Kind.WORDS, 5).setSharedPrefixRatio(0.8).dictionary(5000);
+        // Shared prefixes make deeper tries with fewer nodes per keyword character.
+        AutomatonStats separateStats = new AhoCorasickSet(Arrays.asList(separate), true).stats();
+        AutomatonStats sharedStats = new AhoCorasickSet(Arrays.asList(shared), true).stats();
+        Assert.assertTrue((double) sharedStats.getNodeCount() / totalLength(shared) < (double) separateStats.getNodeCount() / totalLength(separate) * 0.75);
+        Assert.assertTrue(sharedStats.getNodesPerDepth().length > separateStats.getNodesPerDepth().length);
+    }
+
+    private static int totalLength(String[] keywords) {
+        int length = 0;
+        for (String keyword : keywords) {
+            length += keyword.length();
+        }
+        return length;
+    }
+
+    @Test
+    public void testLengthWeights() {
+        String[] dictionary = new WorkloadGenerator(WorkloadGenerator.Kind.WORDS, 1).setLengthWeights(new int[] { 0, 0, 0, 0, 1, 0, 1 }).dictionary(200);
+        for (String keyword : dictionary) {
+            Assert.assertTrue(keyword, keyword.length() == 4 || keyword.length() == 6);
+        }
+    }
+
+}
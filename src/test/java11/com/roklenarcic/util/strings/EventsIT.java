@@ -0,0 +1,81 @@
+package com.roklenarcic.util.strings;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+// Records the Flight Recorder events of a build and a match. Runs against the multi-release jar, since the
+// events are in src/main/java11, see the jfr profile.
+public class EventsIT {
+
+    private static final String BUILD_PHASE = "com.roklenarcic.util.strings.BuildPhase";
+    private static final String MATCH = "com.roklenarcic.util.strings.Match";
+
+    private static List<RecordedEvent> events(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> named = new ArrayList<RecordedEvent>();
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                named.add(event);
+            }
+        }
+        return named;
+    }
+
+    @Test
+    public void testEvents() throws IOException {
+        List<String> keywords = Arrays.asList("he", "she", "his", "hers");
+        Path file = Files.createTempFile("events", ".jfr");
+        try {
+            Recording recording = new Recording();
+            try {
+                recording.enable(BUILD_PHASE);
+                recording.enable(MATCH).withThreshold(Duration.ZERO);
+                recording.start();
+                AhoCorasickSet set = new AhoCorasickSet(keywords, true);
+                set.match("ushers", new SetMatchListener() {
+
+                    public boolean match(String haystack, int startPosition, int endPosition) {
+                        return true;
+                    }
+                });
+                recording.stop();
+                recording.dump(file);
+            } finally {
+                recording.close();
+            }
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+
+            Map<String, RecordedEvent> phases = new HashMap<String, RecordedEvent>();
+            for (RecordedEvent event : events(events, BUILD_PHASE)) {
+                Assert.assertEquals(AhoCorasickSet.class.getName(), event.getString("automaton"));
+                Assert.assertFalse(event.getDuration("phaseDuration").isNegative());
+                phases.put(event.getString("phase"), event);
+            }
+            Assert.assertTrue(phases.keySet().toString(), phases.keySet().containsAll(Arrays.asList("INSERTION", "OPTIMIZATION", "FAIL_TRANSITIONS")));
+            Assert.assertEquals(keywords.size(), phases.get("INSERTION").getLong("count"));
+
+            List<RecordedEvent> matches = events(events, MATCH);
+            Assert.assertEquals(1, matches.size());
+            Assert.assertEquals(AhoCorasickSet.class.getName(), matches.get(0).getString("automaton"));
+            Assert.assertEquals("ushers".length(), matches.get(0).getInt("chars"));
+            // she, he and hers
+            Assert.assertEquals(3, matches.get(0).getLong("matches"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+}
@@ -0,0 +1,152 @@
+package com.roklenarcic.util.strings;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import jdk.incubator.vector.ShortVector;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.roklenarcic.util.strings.threshold.RangeNodeThreshold;
+
+// Compares the matches of the automatons that skip ahead with the vector prefilter with the ones that skip
+// ahead with the bitmap of the start chars. Runs against the multi-release jar with jdk.incubator.vector
+// added, see the vector profile. Haystacks end around the multiples of the lanes, of the chunks the
+// prefilter copies Strings in and of the Readable buffer, and have keywords that start around them.
+public class VectorPrefilterIT {
+
+    // Chars VectorPrefilter copies at a time, the tests compile against the classes for Java 7.
+    private static final int CHUNK = 1024;
+    // Chars AhoCorasickMap reads from a Readable at a time.
+    private static final int READABLE_BUFFER = 4096;
+    private static final CaseFolding[] FOLDINGS = new CaseFolding[] { CaseFolding.NONE, CaseFolding.LOWER_CASE, CaseFolding.LOWER_CASE_TRANSITIONS };
+    private static final int LANES = ShortVector.SPECIES_PREFERRED.length();
+
+    private static List<String> matches(StringMap<String> map, String haystack, final int limit) {
+        final List<String> matches = new ArrayList<String>();
+        map.match(haystack, new MapMatchListener<String>() {
+
+            public boolean match(String haystack, int startPosition, int endPosition, String value) {
+                matches.add(startPosition + "-" + endPosition + "=" + value);
+                return matches.size() < limit;
+            }
+        });
+        return matches;
+    }
+
+    private static List<String> matches(StringSet set, String haystack) {
+        final List<String> matches = new ArrayList<String>();
+        set.match(haystack, new SetMatchListener() {
+
+            public boolean match(String haystack, int startPosition, int endPosition) {
+                matches.add(startPosition + "-" + endPosition);
+                return true;
+            }
+        });
+        return matches;
+    }
+
+    private static List<String> readableMatches(StringMap<String> map, String haystack) throws IOException {
+        final List<String> matches = new ArrayList<String>();
+        map.match(new StringReader(haystack), new ReadableMatchListener<String>() {
+
+            public boolean match(String value) {
+                matches.add(value);
+                return true;
+            }
+        });
+        return matches;
+    }
+
+    @Test
+    public void testAvailable() {
+        Assert.assertTrue("Run with --add-modules jdk.incubator.vector on the multi-release jar.", Prefilter.isAvailable());
+    }
+
+    @Test
+    public void testPairs() throws IOException {
+        assertSameAsBitmap(new Random(49), "abcAB", 3, 2);
+    }
+
+    @Test
+    public void testSingles() throws IOException {
+        assertSameAsBitmap(new Random(50), "abcAB", 3, 1);
+    }
+
+    @Test
+    public void testFirstsOnly() throws IOException {
+        // More pairs than fingerprints, so only the first chars are compared.
+        assertSameAsBitmap(new Random(51), "aAbcdefghijklmnopqrstuvwxyz", 20, 2);
+    }
+
+    private void assertSameAsBitmap(Random random, String alphabet, int minKeywords, int minLength) throws IOException {
+        final int[] boundaries = new int[] { LANES, 2 * LANES, CHUNK - LANES, CHUNK, 2 * CHUNK,
+                READABLE_BUFFER };
+        for (int round = 0; round < 20; round++) {
+            List<String> keywords = new ArrayList<String>();
+            for (int i = minKeywords + random.nextInt(8); i > 0; i--) {
+                keywords.add(alphabet.charAt(random.nextInt(2)) + randomText(random, alphabet, minLength - 1 + random.nextInt(5)));
+            }
+            for (CaseFolding caseFolding : FOLDINGS) {
+                AhoCorasickMap<String> prefiltered = new AhoCorasickMap<String>(keywords, keywords, caseFolding, new RangeNodeThreshold(), null, null,
+                        AhoCorasickMap.NO_BIT_PARALLEL);
+                AhoCorasickMap<String> bitmap = new AhoCorasickMap<String>(keywords, keywords, caseFolding, new RangeNodeThreshold(), null, null,
+                        AhoCorasickMap.NO_BIT_PARALLEL | AhoCorasickMap.NO_PREFILTER);
+                AhoCorasickSet prefilteredSet = new AhoCorasickSet(keywords, caseFolding, new RangeNodeThreshold(), null, null, AhoCorasickSet.NO_BIT_PARALLEL);
+                AhoCorasickSet bitmapSet = new AhoCorasickSet(keywords, caseFolding, new RangeNodeThreshold(), null, null, AhoCorasickSet.NO_BIT_PARALLEL
+                        | AhoCorasickSet.NO_PREFILTER);
+                Assert.assertTrue(prefiltered.isPrefiltering());
+                Assert.assertTrue(prefilteredSet.isPrefiltering());
+                Assert.assertFalse(bitmap.isPrefiltering());
+                Assert.assertFalse(bitmapSet.isPrefiltering());
+                for (int boundary : boundaries) {
+                    for (int length = boundary - 2; length <= boundary + 2; length++) {
+                        String haystack = haystack(random, alphabet, keywords, length, boundaries);
+                        Assert.assertEquals(matches(bitmap, haystack, Integer.MAX_VALUE), matches(prefiltered, haystack, Integer.MAX_VALUE));
+                        Assert.assertEquals(matches(bitmap, haystack, 3), matches(prefiltered, haystack, 3));
+                        Assert.assertEquals(matches(bitmapSet, haystack), matches(prefilteredSet, haystack));
+                        Assert.assertEquals(readableMatches(bitmap, haystack), readableMatches(prefiltered, haystack));
+                    }
+                }
+            }
+        }
+    }
+
+    // Mostly chars that don't start a keyword, with a few chars of the alphabet and keywords that start
+    // around the boundaries and at the end.
+    private static String haystack(Random random, String alphabet, List<String> keywords, int length, int[] boundaries) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = random.nextInt(50) == 0 ? alphabet.charAt(random.nextInt(alphabet.length())) : '.';
+        }
+        for (int boundary : boundaries) {
+            for (int start = boundary - 2; start <= boundary + 1; start++) {
+                put(chars, start, keywords.get(random.nextInt(keywords.size())));
+            }
+        }
+        for (int start = length - 3; start < length; start++) {
+            put(chars, start, keywords.get(random.nextInt(keywords.size())));
+        }
+        return new String(chars);
+    }
+
+    // Puts as much of the keyword as fits, a keyword cut off at the end only starts a match.
+    private static void put(char[] chars, int start, String keyword) {
+        for (int i = 0; i < keyword.length() && start >= 0 && start + i < chars.length; i++) {
+            chars[start + i] = keyword.charAt(i);
+        }
+    }
+
+    private static String randomText(Random random, String alphabet, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return text.toString();
+    }
+
+}